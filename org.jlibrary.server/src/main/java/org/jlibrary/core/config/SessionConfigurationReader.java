@@ -19,5 +19,13 @@ public class SessionConfigurationReader {
 	         return '!' + key + '!';
 	      }
 	   }
+	   
+	   public static String getString(String key, String defaultValue) {
+	      try {
+	         return RESOURCE_BUNDLE.getString(key);
+	      } catch (MissingResourceException e) {
+	         return defaultValue;
+	      }
+	   }
 	
 }
@@ -0,0 +1,121 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.entities;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Description of a content read. It tells which part of the content has 
+ * been written and carries the validator of the content, that can be sent 
+ * back on later reads to skip the transfer if the content has not changed.
+ * 
+ * @author martin
+ */
+public class ContentInfo implements Serializable {
+
+	static final long serialVersionUID = 4518309246718845510L;
+	
+	private String validator;
+	private long size;
+	private long offset;
+	private long length;
+	private Date lastModified;
+	private boolean notModified;
+	
+	/**
+	 * @return Returns the validator of the content. It changes every time 
+	 * the content changes
+	 */
+	public String getValidator() {
+		return validator;
+	}
+	/**
+	 * @param validator The validator of the content
+	 */
+	public void setValidator(String validator) {
+		this.validator = validator;
+	}
+	/**
+	 * @return Returns the total size of the content
+	 */
+	public long getSize() {
+		return size;
+	}
+	/**
+	 * @param size The total size of the content
+	 */
+	public void setSize(long size) {
+		this.size = size;
+	}
+	/**
+	 * @return Returns the position of the first byte written
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	/**
+	 * @param offset The position of the first byte written
+	 */
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+	/**
+	 * @return Returns the number of bytes written. It is 0 if the content 
+	 * was not modified
+	 */
+	public long getLength() {
+		return length;
+	}
+	/**
+	 * @param length The number of bytes written
+	 */
+	public void setLength(long length) {
+		this.length = length;
+	}
+	/**
+	 * @return Returns the last modification date of the content
+	 */
+	public Date getLastModified() {
+		return lastModified;
+	}
+	/**
+	 * @param lastModified The last modification date of the content
+	 */
+	public void setLastModified(Date lastModified) {
+		this.lastModified = lastModified;
+	}
+	/**
+	 * @return Returns <code>true</code> if the content matched the 
+	 * validator sent with the request and so it was not written
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+	/**
+	 * @param notModified If the content matched the request validator
+	 */
+	public void setNotModified(boolean notModified) {
+		this.notModified = notModified;
+	}
+}
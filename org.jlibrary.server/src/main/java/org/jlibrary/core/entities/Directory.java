@@ -42,6 +42,8 @@ public class Directory extends Node implements Serializable {
 	
 	static final long serialVersionUID = 1089125344561609944L;
 	
+	private boolean childrenLoaded;
+	
     /** default constructor */
     public Directory() {
     	
@@ -56,6 +58,26 @@ public class Directory extends Node implements Serializable {
     public String toString() {
         return getName();
     }	
+
+	/**
+	 * Tells if all the children of this directory were loaded with it. 
+	 * Directories loaded lazily or beyond the limits of a tree request 
+	 * have to be expanded with another request.
+	 * 
+	 * @return boolean <code>true</code> if the nodes of this directory are 
+	 * all its children
+	 */
+	public boolean isChildrenLoaded() {
+		return childrenLoaded;
+	}
+
+	/**
+	 * @param childrenLoaded If all the children of this directory were 
+	 * loaded with it
+	 */
+	public void setChildrenLoaded(boolean childrenLoaded) {
+		this.childrenLoaded = childrenLoaded;
+	}
 	
 	/**
 	 * Dumps all the properties into a properties object
@@ -80,6 +80,8 @@ public class Document extends Node implements Serializable {
 	 * Last version id. It's useful to check if a document is cached
 	 */
 	private String lastVersionId;
+	
+	private DocumentView view;
 
 	public Document() {
     	
@@ -490,6 +492,7 @@ public class Document extends Node implements Serializable {
 			properties.addProperty(DocumentProperties.DOCUMENT_ID,getId());
 			properties.addProperty(DocumentProperties.DOCUMENT_TYPECODE,getTypecode());
 			properties.addProperty(DocumentProperties.DOCUMENT_POSITION,getPosition());
+			properties.addProperty(DocumentProperties.DOCUMENT_VIEW,getView().getName());
 			
 			//Compatibility set
 			if (getMetaData().getLanguage() == null) {
@@ -659,6 +662,21 @@ public class Document extends Node implements Serializable {
 		this.lastVersionId = lastVersionId;
 	}
 
+	/**
+	 * @return DocumentView Level of detail used when loading this document
+	 */
+	public DocumentView getView() {
+		
+		if (view == null) {
+			return DocumentView.FULL;
+		}
+		return view;
+	}
+
+	public void setView(DocumentView view) {
+		this.view = view;
+	}
+
 	public boolean hasVersions() {
 		return (lastVersionId != getId());
 	}
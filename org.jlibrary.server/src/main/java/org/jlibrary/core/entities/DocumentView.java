@@ -0,0 +1,118 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.entities;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+/**
+ * <p>Level of detail used when documents are loaded. Listing operations can 
+ * ask for a lighter view so only the properties they show are read from the 
+ * repository.</p>
+ * 
+ * <ul>
+ * <li>{@link #REFERENCE}: Only the document identifier and repository. 
+ * Used for the relations that are not loaded.</li>
+ * <li>{@link #SUMMARY}: Node fields, like name, description, path, size, 
+ * type, importance, position, creator and dates.</li>
+ * <li>{@link #METADATA}: Summary fields plus document metadata, author, 
+ * restrictions, lock state and custom properties.</li>
+ * <li>{@link #FULL}: Metadata plus resources, notes, relations and version 
+ * information. This is the view returned by default.</li>
+ * </ul>
+ * 
+ * <p>Documents loaded with a view other than {@link #FULL} must be loaded 
+ * again before being updated, as their missing fields would be taken as 
+ * empty. The repository rejects updates built from them.</p>
+ * 
+ * @author martin
+ */
+public class DocumentView implements Serializable {
+
+	static final long serialVersionUID = -3371085562937160871L;
+	
+	public static final DocumentView REFERENCE = new DocumentView(0,"reference");
+	public static final DocumentView SUMMARY = new DocumentView(1,"summary");
+	public static final DocumentView METADATA = new DocumentView(2,"metadata");
+	public static final DocumentView FULL = new DocumentView(3,"full");
+	
+	private static final DocumentView[] VIEWS = 
+		{REFERENCE,SUMMARY,METADATA,FULL};
+	
+	private final int level;
+	private final String name;
+	
+	private DocumentView(int level, String name) {
+		
+		this.level = level;
+		this.name = name;
+	}
+	
+	/**
+	 * Tells if this view contains all the fields of other view
+	 * 
+	 * @param view View
+	 * 
+	 * @return boolean <code>true</code> if this view is at least as detailed 
+	 * as the given view
+	 */
+	public boolean includes(DocumentView view) {
+		
+		return level >= view.level;
+	}
+	
+	/**
+	 * Returns the view with a given name
+	 * 
+	 * @param name View name
+	 * 
+	 * @return DocumentView View with that name or <code>null</code> if 
+	 * there is no such view
+	 */
+	public static DocumentView forName(String name) {
+		
+		for (int i = 0; i < VIEWS.length; i++) {
+			if (VIEWS[i].name.equals(name)) {
+				return VIEWS[i];
+			}
+		}
+		return null;
+	}
+	
+	public int getLevel() {
+		return level;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String toString() {
+		return name;
+	}
+	
+	private Object readResolve() throws ObjectStreamException {
+		
+		return VIEWS[level];
+	}
+}
@@ -58,6 +58,8 @@ public class Node implements IResource, Serializable, Comparable {
 	private Date date;
 	
 	private BigDecimal size;
+	
+	private String digest;
 
     /** identifier field */
     private String id;
@@ -253,6 +255,24 @@ public class Node implements IResource, Serializable, Comparable {
 		this.size = size;
 	}
 
+	/**
+	 * Returns the hex encoded SHA-256 digest of the node content, or 
+	 * <code>null</code> if the node has no content or it was stored before 
+	 * digests were computed.
+	 * @return String
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Sets the content digest.
+	 * @param digest The digest to set
+	 */
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+
 	/**
 	 * Sets the type.
 	 * @param type The type to set
@@ -0,0 +1,102 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.entities;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+/**
+ * <p>Sort key used when the children of a node are paged.</p>
+ * 
+ * <ul>
+ * <li>{@link #NATURAL}: Order in which the children are stored.</li>
+ * <li>{@link #NAME}: Node name, ignoring case.</li>
+ * <li>{@link #POSITION}: Position assigned to the node.</li>
+ * <li>{@link #CREATED}: Creation date.</li>
+ * <li>{@link #SIZE}: Node size.</li>
+ * <li>{@link #IMPORTANCE}: Node importance.</li>
+ * </ul>
+ * 
+ * <p>Nodes that don't have a value for the sort key go after the nodes 
+ * that have it. Nodes with the same value are sorted by id.</p>
+ * 
+ * @author martin
+ */
+public class NodeOrder implements Serializable {
+
+	static final long serialVersionUID = 6012948375572210371L;
+	
+	public static final NodeOrder NATURAL = new NodeOrder(0,"natural");
+	public static final NodeOrder NAME = new NodeOrder(1,"name");
+	public static final NodeOrder POSITION = new NodeOrder(2,"position");
+	public static final NodeOrder CREATED = new NodeOrder(3,"created");
+	public static final NodeOrder SIZE = new NodeOrder(4,"size");
+	public static final NodeOrder IMPORTANCE = new NodeOrder(5,"importance");
+	
+	private static final NodeOrder[] ORDERS = 
+		{NATURAL,NAME,POSITION,CREATED,SIZE,IMPORTANCE};
+	
+	private final int code;
+	private final String name;
+	
+	private NodeOrder(int code, String name) {
+		
+		this.code = code;
+		this.name = name;
+	}
+	
+	/**
+	 * Finds an order by its name
+	 * 
+	 * @param name Name of the order
+	 * 
+	 * @return NodeOrder Order with that name or <code>null</code> if there 
+	 * is no order with that name
+	 */
+	public static NodeOrder forName(String name) {
+		
+		for (int i = 0; i < ORDERS.length; i++) {
+			if (ORDERS[i].name.equals(name)) {
+				return ORDERS[i];
+			}
+		}
+		return null;
+	}
+	
+	public int getCode() {
+		return code;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String toString() {
+		return name;
+	}
+	
+	private Object readResolve() throws ObjectStreamException {
+		
+		return ORDERS[code];
+	}
+}
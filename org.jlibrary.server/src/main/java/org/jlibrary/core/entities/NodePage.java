@@ -0,0 +1,81 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.entities;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Page of the children of a node. The cursor of a page is used to 
+ * request the page that follows it.
+ * 
+ * @author martin
+ */
+public class NodePage implements Serializable {
+
+	static final long serialVersionUID = -7732581109652217641L;
+	
+	private List nodes = new ArrayList();
+	private String cursor;
+	private boolean hasMore;
+	
+	/**
+	 * @return Returns the nodes of this page
+	 */
+	public List getNodes() {
+		return nodes;
+	}
+	/**
+	 * @param nodes The nodes of this page
+	 */
+	public void setNodes(List nodes) {
+		this.nodes = nodes;
+	}
+	/**
+	 * @return Returns the cursor that points to the last node of this page. 
+	 * It is <code>null</code> if this page is empty
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+	/**
+	 * @param cursor The cursor that points to the last node of this page
+	 */
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+	/**
+	 * @return Returns <code>true</code> if there are more nodes after 
+	 * this page
+	 */
+	public boolean isHasMore() {
+		return hasMore;
+	}
+	/**
+	 * @param hasMore If there are more nodes after this page
+	 */
+	public void setHasMore(boolean hasMore) {
+		this.hasMore = hasMore;
+	}
+}
@@ -0,0 +1,143 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.entities;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Page of the documents reachable from a document following its relations. 
+ * Documents are sorted in breadth-first order, so the closest documents 
+ * come first. The relations of the returned documents are 
+ * {@link DocumentView#REFERENCE} documents when they are not on the graph, 
+ * so the edges of the graph can be walked without loading any other 
+ * document.
+ * 
+ * @author martin
+ */
+public class RelationGraph implements Serializable {
+
+	static final long serialVersionUID = 4418230935517287101L;
+	
+	private String rootId;
+	private List documents = new ArrayList();
+	private Map depths = new HashMap();
+	private int offset;
+	private boolean hasMore;
+	
+	/**
+	 * Adds a document to the graph
+	 * 
+	 * @param document Document
+	 * @param depth Number of relations between the root document and the 
+	 * added document
+	 */
+	public void addDocument(Document document, int depth) {
+		
+		documents.add(document);
+		depths.put(document.getId(),new Integer(depth));
+	}
+	
+	/**
+	 * Returns the number of relations between the root document and a 
+	 * document of the graph
+	 * 
+	 * @param documentId Id of the document
+	 * 
+	 * @return int Depth of the document or -1 if the document is not on 
+	 * this page of the graph
+	 */
+	public int getDepth(String documentId) {
+		
+		Integer depth = (Integer)depths.get(documentId);
+		if (depth == null) {
+			return -1;
+		}
+		return depth.intValue();
+	}
+	
+	/**
+	 * @return Returns the id of the document where the graph starts
+	 */
+	public String getRootId() {
+		return rootId;
+	}
+	/**
+	 * @param rootId The id of the document where the graph starts
+	 */
+	public void setRootId(String rootId) {
+		this.rootId = rootId;
+	}
+	/**
+	 * @return Returns the documents of this page, in breadth-first order
+	 */
+	public List getDocuments() {
+		return documents;
+	}
+	/**
+	 * @param documents The documents of this page
+	 */
+	public void setDocuments(List documents) {
+		this.documents = documents;
+	}
+	/**
+	 * @return Returns the depths of the documents, keyed by document id
+	 */
+	public Map getDepths() {
+		return depths;
+	}
+	/**
+	 * @param depths The depths of the documents, keyed by document id
+	 */
+	public void setDepths(Map depths) {
+		this.depths = depths;
+	}
+	/**
+	 * @return Returns the position of the first document of this page
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	/**
+	 * @param offset The position of the first document of this page
+	 */
+	public void setOffset(int offset) {
+		this.offset = offset;
+	}
+	/**
+	 * @return Returns <code>true</code> if there are more documents after 
+	 * this page
+	 */
+	public boolean isHasMore() {
+		return hasMore;
+	}
+	/**
+	 * @param hasMore If there are more documents after this page
+	 */
+	public void setHasMore(boolean hasMore) {
+		this.hasMore = hasMore;
+	}
+}
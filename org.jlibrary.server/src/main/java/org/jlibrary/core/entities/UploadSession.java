@@ -0,0 +1,100 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.entities;
+
+import java.io.Serializable;
+
+/**
+ * State of a chunked upload. Chunks can arrive in any order and several 
+ * of them at the same time, so the upload keeps the ranges of the content 
+ * that have already been received. A client that lost its connection asks 
+ * for the upload state and sends again only the missing ranges.
+ * 
+ * @author martin
+ */
+public class UploadSession implements Serializable {
+
+	static final long serialVersionUID = 7204471930183460237L;
+	
+	private String id;
+	private long length;
+	private long received;
+	private long[][] ranges;
+	
+	/**
+	 * @return Returns the id of the upload
+	 */
+	public String getId() {
+		return id;
+	}
+	/**
+	 * @param id The id of the upload
+	 */
+	public void setId(String id) {
+		this.id = id;
+	}
+	/**
+	 * @return Returns the total length of the content being uploaded
+	 */
+	public long getLength() {
+		return length;
+	}
+	/**
+	 * @param length The total length of the content being uploaded
+	 */
+	public void setLength(long length) {
+		this.length = length;
+	}
+	/**
+	 * @return Returns the number of different bytes received so far
+	 */
+	public long getReceived() {
+		return received;
+	}
+	/**
+	 * @param received The number of different bytes received so far
+	 */
+	public void setReceived(long received) {
+		this.received = received;
+	}
+	/**
+	 * @return Returns the received ranges, sorted by offset. Every range is 
+	 * a pair with its first byte and the byte following its last one
+	 */
+	public long[][] getRanges() {
+		return ranges;
+	}
+	/**
+	 * @param ranges The received ranges
+	 */
+	public void setRanges(long[][] ranges) {
+		this.ranges = ranges;
+	}
+	/**
+	 * @return Returns <code>true</code> if the whole content has been 
+	 * received and the upload can be committed
+	 */
+	public boolean isComplete() {
+		return received == length;
+	}
+}
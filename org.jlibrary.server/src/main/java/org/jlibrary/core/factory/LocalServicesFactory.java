@@ -4,6 +4,7 @@ import java.io.InputStream;
 import java.util.Properties;
 
 import org.jlibrary.core.entities.ServerProfile;
+import org.jlibrary.core.jcr.SessionLeaseHandler;
 import org.jlibrary.core.repository.RepositoryService;
 import org.jlibrary.core.search.SearchService;
 import org.jlibrary.core.security.SecurityService;
@@ -45,15 +46,18 @@ public class LocalServicesFactory implements ServicesFactory {
 			}
 			String repositoryService = factoryProperties.getProperty("RepositoryService");
 			Class repositoryServiceClass = Class.forName(repositoryService);
-			this.repositoryService = (RepositoryService)repositoryServiceClass.newInstance();
+			this.repositoryService = (RepositoryService)SessionLeaseHandler.wrap(
+					repositoryServiceClass.newInstance(),RepositoryService.class);
 		
 			String securityService = factoryProperties.getProperty("SecurityService");
 			Class securityServiceClass = Class.forName(securityService);
-			this.securityService = (SecurityService)securityServiceClass.newInstance();
+			this.securityService = (SecurityService)SessionLeaseHandler.wrap(
+					securityServiceClass.newInstance(),SecurityService.class);
 		
 			String searchService = factoryProperties.getProperty("SearchService");
 			Class searchServiceClass = Class.forName(searchService);
-			this.searchService = (SearchService)searchServiceClass.newInstance();		
+			this.searchService = (SearchService)SessionLeaseHandler.wrap(
+					searchServiceClass.newInstance(),SearchService.class);		
 		} catch (Exception e) {
 			logger.error(e.getMessage(),e);
 		}
@@ -0,0 +1,486 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+/**
+ * <p>Membership of documents on categories. Every document stores the 
+ * categories it belongs to on its <code>jlib:categories</code> property, 
+ * and every category stores the documents that belong to it.</p>
+ * 
+ * <p>Old workspaces store the documents of a category on its 
+ * <code>jlib:nodes</code> multi-valued property, so adding or removing a 
+ * document rewrites the whole list. Workspaces with the 
+ * {@link #INDEXED_MEMBERSHIPS} config entry store them on an index below 
+ * the system node instead:</p>
+ * 
+ * <pre>
+ * jlib:system/jlib:memberships/&lt;category id&gt;/&lt;shard&gt;/&lt;document id&gt;
+ * </pre>
+ * 
+ * <p>The <code>jlib:memberships</code> node is created with the workspace, 
+ * or by the migrator, and the index of every category is created with the 
+ * category, so concurrent sessions never race to create them.</p>
+ * 
+ * <p>Documents are spread over {@link #SHARDS} shards by a hash of their 
+ * id, so adding, removing or checking a member only touches one small 
+ * node. Members are listed ordered by shard and id, and the id of the last 
+ * member listed is enough to continue the listing. The 
+ * {@link org.jlibrary.core.jcr.compatibility.CategoryMembershipsMigrator} 
+ * converts old workspaces, and the 
+ * {@link org.jlibrary.core.jcr.compatibility.PropertyMembershipsMigrator} 
+ * converts them back.</p>
+ * 
+ * <p>Index entries are plain names, not references, so they do not stop 
+ * documents from being removed. Entries of documents that no longer exist 
+ * must be skipped by the callers.</p>
+ * 
+ * @author martin
+ */
+public class CategoryMemberships {
+
+	/**
+	 * Config entry that tags workspaces that store the category members 
+	 * on the membership index
+	 */
+	public static final String INDEXED_MEMBERSHIPS = "indexed.memberships";
+	
+	/**
+	 * Number of shards of every category. It can't be changed once a 
+	 * workspace has been indexed.
+	 */
+	public static final int SHARDS = 256;
+	
+	private CategoryMemberships() {}
+	
+	/**
+	 * Tells if a workspace stores the category members on the index
+	 * 
+	 * @param session Session
+	 * 
+	 * @return boolean <code>true</code> if the members are on the index and 
+	 * <code>false</code> if they are on the <code>jlib:nodes</code> property
+	 * 
+	 * @throws RepositoryException If the workspace config can't be read
+	 */
+	public static boolean isIndexed(Session session) throws RepositoryException {
+		
+		return JCRUtils.getConfig(session).getBoolean(INDEXED_MEMBERSHIPS,false);
+	}
+	
+	/**
+	 * Returns the shard of a member
+	 * 
+	 * @param uuid Member id
+	 * 
+	 * @return String Shard name, two hexadecimal digits
+	 */
+	public static String getShard(String uuid) {
+		
+		int shard = (uuid.hashCode() & 0x7fffffff) % SHARDS;
+		return (shard < 16 ? "0" : "") + Integer.toHexString(shard);
+	}
+	
+	/**
+	 * Creates the root node of the membership index, if it does not exist. 
+	 * It must be called when the workspace is built or migrated.
+	 * 
+	 * @param session Session
+	 * 
+	 * @throws RepositoryException If the index can't be created
+	 */
+	public static void createIndex(Session session) throws RepositoryException {
+		
+		javax.jcr.Node systemNode = JCRUtils.getSystemNode(session);
+		if (!systemNode.hasNode(JLibraryConstants.JLIBRARY_MEMBERSHIPS)) {
+			systemNode.addNode(JLibraryConstants.JLIBRARY_MEMBERSHIPS,
+							   JLibraryConstants.INTERNAL_MIXIN);
+		}
+	}
+	
+	/**
+	 * Creates the index of a new category on indexed workspaces. It must be 
+	 * called when the category is created, and saved with the category.
+	 * 
+	 * @param category New category node
+	 * 
+	 * @throws RepositoryException If the index can't be created
+	 */
+	public static void addCategory(javax.jcr.Node category) 
+												throws RepositoryException {
+		
+		if (isIndexed(category.getSession())) {
+			createCategoryIndex(category);
+		}
+	}
+	
+	/**
+	 * Creates the index of a category, if it does not exist, whatever the 
+	 * storage of the workspace is
+	 * 
+	 * @param category Category node
+	 * 
+	 * @throws RepositoryException If the index can't be created
+	 */
+	public static void createCategoryIndex(javax.jcr.Node category) 
+												throws RepositoryException {
+		
+		javax.jcr.Node memberships = getMembershipsNode(category.getSession());
+		if (!memberships.hasNode(category.getIdentifier())) {
+			memberships.addNode(category.getIdentifier(),
+								JLibraryConstants.INTERNAL_MIXIN);
+		}
+	}
+	
+	/**
+	 * Adds a member to a category. Nothing is done if the node is already 
+	 * a member of the category.
+	 * 
+	 * @param category Category node
+	 * @param uuid Member id
+	 * 
+	 * @throws RepositoryException If the member can't be added
+	 */
+	public static void add(javax.jcr.Node category, 
+						   String uuid) throws RepositoryException {
+		
+		if (isIndexed(category.getSession())) {
+			addToIndex(category,uuid);
+		} else {
+			JCRUtils.addNodeToProperty(uuid,
+									   category,
+									   JLibraryConstants.JLIBRARY_NODES);
+		}
+	}
+	
+	/**
+	 * Adds a member to the index of a category, whatever the storage of 
+	 * the workspace is. The index of the category must exist.
+	 * 
+	 * @param category Category node
+	 * @param uuid Member id
+	 * 
+	 * @throws RepositoryException If the member can't be added
+	 */
+	public static void addToIndex(javax.jcr.Node category, 
+								  String uuid) throws RepositoryException {
+		
+		javax.jcr.Node index = getIndexNode(category);
+		if (index == null) {
+			throw new ItemNotFoundException(
+					"Category " + category.getIdentifier() + 
+					" has no membership index");
+		}
+		String shardName = getShard(uuid);
+		if (containsOnIndex(index,shardName,uuid)) {
+			return;
+		}
+		javax.jcr.Node shard;
+		if (index.hasNode(shardName)) {
+			shard = index.getNode(shardName);
+		} else {
+			shard = index.addNode(shardName,JLibraryConstants.INTERNAL_MIXIN);
+		}
+		shard.addNode(uuid,JLibraryConstants.INTERNAL_MIXIN);
+	}
+	
+	/**
+	 * Removes a member from a category. Nothing is done if the node is not 
+	 * a member of the category.
+	 * 
+	 * @param category Category node
+	 * @param uuid Member id
+	 * 
+	 * @throws RepositoryException If the member can't be removed
+	 */
+	public static void remove(javax.jcr.Node category, 
+							  String uuid) throws RepositoryException {
+		
+		if (!isIndexed(category.getSession())) {
+			if (category.hasProperty(JLibraryConstants.JLIBRARY_NODES)) {
+				JCRUtils.removeNodeFromProperty(uuid,
+												category,
+												JLibraryConstants.JLIBRARY_NODES);
+			}
+			return;
+		}
+		javax.jcr.Node index = getIndexNode(category);
+		if (index == null) {
+			return;
+		}
+		// Concurrent sessions may have created the same shard or member twice
+		NodeIterator shards = index.getNodes(getShard(uuid));
+		while (shards.hasNext()) {
+			NodeIterator members = shards.nextNode().getNodes(uuid);
+			List found = new ArrayList();
+			while (members.hasNext()) {
+				found.add(members.nextNode());
+			}
+			for (int i = 0; i < found.size(); i++) {
+				((javax.jcr.Node)found.get(i)).remove();
+			}
+		}
+	}
+	
+	/**
+	 * Tells if a node is a member of a category
+	 * 
+	 * @param category Category node
+	 * @param uuid Member id
+	 * 
+	 * @return boolean <code>true</code> if the node is a member of the 
+	 * category
+	 * 
+	 * @throws RepositoryException If the members can't be read
+	 */
+	public static boolean contains(javax.jcr.Node category, 
+								   String uuid) throws RepositoryException {
+		
+		if (!isIndexed(category.getSession())) {
+			if (!category.hasProperty(JLibraryConstants.JLIBRARY_NODES)) {
+				return false;
+			}
+			Value[] values = category.getProperty(
+					JLibraryConstants.JLIBRARY_NODES).getValues();
+			for (int i = 0; i < values.length; i++) {
+				if (values[i].getString().equals(uuid)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		javax.jcr.Node index = getIndexNode(category);
+		return index != null && containsOnIndex(index,getShard(uuid),uuid);
+	}
+	
+	/**
+	 * Lists the members of a category, ordered by shard and id
+	 * 
+	 * @param category Category node
+	 * @param after Id of the last member of the previous listing, or 
+	 * <code>null</code> to start from the first member
+	 * @param max Maximum number of members to return
+	 * 
+	 * @return List Ids of the members that follow <code>after</code>
+	 * 
+	 * @throws RepositoryException If the members can't be read
+	 */
+	public static List list(javax.jcr.Node category, 
+							String after, 
+							int max) throws RepositoryException {
+		
+		String afterKey = after == null ? null : getKey(after);
+		if (!isIndexed(category.getSession())) {
+			return listProperty(category,afterKey,max);
+		}
+		List members = new ArrayList();
+		javax.jcr.Node index = getIndexNode(category);
+		if (index == null) {
+			return members;
+		}
+		String firstShard = after == null ? null : getShard(after);
+		TreeMap shards = new TreeMap();
+		NodeIterator it = index.getNodes();
+		while (it.hasNext()) {
+			javax.jcr.Node shard = it.nextNode();
+			String name = shard.getName();
+			if (firstShard != null && name.compareTo(firstShard) < 0) {
+				continue;
+			}
+			List sameName = (List)shards.get(name);
+			if (sameName == null) {
+				sameName = new ArrayList(1);
+				shards.put(name,sameName);
+			}
+			sameName.add(shard);
+		}
+		Iterator shardIterator = shards.entrySet().iterator();
+		while (shardIterator.hasNext() && members.size() < max) {
+			Map.Entry entry = (Map.Entry)shardIterator.next();
+			TreeSet names = new TreeSet();
+			Iterator sameName = ((List)entry.getValue()).iterator();
+			while (sameName.hasNext()) {
+				NodeIterator shardMembers = 
+					((javax.jcr.Node)sameName.next()).getNodes();
+				while (shardMembers.hasNext()) {
+					names.add(shardMembers.nextNode().getName());
+				}
+			}
+			Iterator nameIterator = entry.getKey().equals(firstShard) ? 
+					names.tailSet(after).iterator() : names.iterator();
+			while (nameIterator.hasNext() && members.size() < max) {
+				Object name = nameIterator.next();
+				if (!name.equals(after)) {
+					members.add(name);
+				}
+			}
+		}
+		return members;
+	}
+	
+	/**
+	 * Removes the index of a category. It must be called when the category 
+	 * is deleted.
+	 * 
+	 * @param category Category node
+	 * 
+	 * @throws RepositoryException If the index can't be removed
+	 */
+	public static void removeCategory(javax.jcr.Node category) 
+												throws RepositoryException {
+		
+		if (!isIndexed(category.getSession())) {
+			return;
+		}
+		Session session = category.getSession();
+		javax.jcr.Node systemNode = JCRUtils.getSystemNode(session);
+		if (!systemNode.hasNode(JLibraryConstants.JLIBRARY_MEMBERSHIPS)) {
+			return;
+		}
+		javax.jcr.Node memberships = 
+			systemNode.getNode(JLibraryConstants.JLIBRARY_MEMBERSHIPS);
+		NodeIterator it = memberships.getNodes(category.getIdentifier());
+		List indexes = new ArrayList();
+		while (it.hasNext()) {
+			indexes.add(it.nextNode());
+		}
+		for (int i = 0; i < indexes.size(); i++) {
+			((javax.jcr.Node)indexes.get(i)).remove();
+		}
+	}
+	
+	/**
+	 * Removes a node and all its descendants from the categories they 
+	 * belong to. It must be called when the node is deleted.
+	 * 
+	 * @param node Node that is going to be deleted
+	 * 
+	 * @throws RepositoryException If the memberships can't be removed
+	 */
+	public static void removeMember(javax.jcr.Node node) 
+												throws RepositoryException {
+		
+		Session session = node.getSession();
+		if (!isIndexed(session)) {
+			return;
+		}
+		if (node.hasProperty(JLibraryConstants.JLIBRARY_CATEGORIES)) {
+			Value[] values = node.getProperty(
+					JLibraryConstants.JLIBRARY_CATEGORIES).getValues();
+			for (int i = 0; i < values.length; i++) {
+				try {
+					remove(session.getNodeByIdentifier(values[i].getString()),
+						   node.getIdentifier());
+				} catch (ItemNotFoundException infe) {
+					continue;
+				}
+			}
+		}
+		if (node.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
+			NodeIterator it = node.getNodes();
+			while (it.hasNext()) {
+				removeMember(it.nextNode());
+			}
+		}
+	}
+	
+	private static List listProperty(javax.jcr.Node category, 
+									 String afterKey, 
+									 int max) throws RepositoryException {
+		
+		List members = new ArrayList();
+		if (!category.hasProperty(JLibraryConstants.JLIBRARY_NODES)) {
+			return members;
+		}
+		Value[] values = category.getProperty(
+				JLibraryConstants.JLIBRARY_NODES).getValues();
+		List keys = new ArrayList(values.length);
+		for (int i = 0; i < values.length; i++) {
+			String key = getKey(values[i].getString());
+			if (afterKey == null || key.compareTo(afterKey) > 0) {
+				keys.add(key);
+			}
+		}
+		Collections.sort(keys);
+		for (int i = 0; i < keys.size() && members.size() < max; i++) {
+			String key = (String)keys.get(i);
+			members.add(key.substring(key.indexOf('/')+1));
+		}
+		return members;
+	}
+	
+	private static String getKey(String uuid) {
+		
+		return getShard(uuid) + "/" + uuid;
+	}
+	
+	private static boolean containsOnIndex(javax.jcr.Node index,
+										   String shardName,
+										   String uuid) throws RepositoryException {
+		
+		NodeIterator shards = index.getNodes(shardName);
+		while (shards.hasNext()) {
+			if (shards.nextNode().hasNode(uuid)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static javax.jcr.Node getIndexNode(javax.jcr.Node category) 
+												throws RepositoryException {
+		
+		javax.jcr.Node systemNode = 
+			JCRUtils.getSystemNode(category.getSession());
+		if (!systemNode.hasNode(JLibraryConstants.JLIBRARY_MEMBERSHIPS)) {
+			return null;
+		}
+		javax.jcr.Node memberships = 
+			systemNode.getNode(JLibraryConstants.JLIBRARY_MEMBERSHIPS);
+		String name = category.getIdentifier();
+		if (memberships.hasNode(name)) {
+			return memberships.getNode(name);
+		}
+		return null;
+	}
+	
+	private static javax.jcr.Node getMembershipsNode(Session session) 
+												throws RepositoryException {
+		
+		return JCRUtils.getSystemNode(session).getNode(
+				JLibraryConstants.JLIBRARY_MEMBERSHIPS);
+	}
+}
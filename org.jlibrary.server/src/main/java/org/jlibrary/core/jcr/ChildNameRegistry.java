@@ -0,0 +1,278 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.util.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Registry of the child names used on each directory. It is used to 
+ * allocate unique child names in constant time instead of probing 
+ * <code>name</code>, <code>name[1]</code>, <code>name[2]</code>... on the 
+ * repository.</p>
+ * 
+ * <p>The registry of a directory is seeded the first time a name is 
+ * allocated on it, scanning its children once. For every base name it keeps 
+ * the highest <code>[n]</code> suffix used, so the next free name is known 
+ * without looking at the siblings. Allocated names are reserved immediately 
+ * and the service methods release the names of the nodes they remove, 
+ * rename or move. Nodes can also be added by other ways, so every allocated 
+ * name is verified with a single lookup on the parent node.</p>
+ * 
+ * <p>The name of a node that fails to be created or whose session discards 
+ * its changes is reclaimed as described on {@link DirectoryRegistry}, when 
+ * another allocation collides with it.</p>
+ * 
+ * <p>Only the last <code>node.names.directories</code> directories used are 
+ * kept on memory.</p>
+ * 
+ * @author martin
+ */
+public class ChildNameRegistry extends DirectoryRegistry {
+
+	static Logger logger = LoggerFactory.getLogger(ChildNameRegistry.class);
+	
+	/**
+	 * Matches <code>base[n]</code> and <code>base[n].ext</code> names
+	 */
+	private static final Pattern INDEXED_NAME = 
+		Pattern.compile("^(.*)\\[(\\d+)\\](\\.[^.\\[\\]]*)?$");
+	
+	private static ChildNameRegistry instance;
+	
+	private final AtomicLong conflicts = new AtomicLong();
+	
+	/**
+	 * Child names of a directory
+	 */
+	private static class DirectoryNames {
+		
+		/**
+		 * Used names, with their reservations or <code>null</code> once 
+		 * they are saved
+		 */
+		final Map names = new HashMap();
+		final Map highest = new HashMap();
+		
+		void add(String name, Reservation reservation) {
+			
+			names.put(name,reservation);
+			Matcher matcher = INDEXED_NAME.matcher(name);
+			if (matcher.matches()) {
+				String key = matcher.group(1);
+				if (matcher.group(3) != null) {
+					key += matcher.group(3);
+				}
+				int index;
+				try {
+					index = Integer.parseInt(matcher.group(2));
+				} catch (NumberFormatException e) {
+					return;
+				}
+				reserve(key,index);
+			}
+		}
+		
+		void reserve(String key, int index) {
+			
+			Integer previous = (Integer)highest.get(key);
+			if (previous == null || previous.intValue() < index) {
+				highest.put(key,new Integer(index));
+			}
+		}
+		
+		int next(String key) {
+			
+			Integer previous = (Integer)highest.get(key);
+			return (previous == null) ? 1 : previous.intValue() + 1;
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxDirectories Maximum number of directories kept on memory
+	 * @param reservationTimeout Time after which the names reserved by live 
+	 * sessions can be reclaimed (miliseconds)
+	 */
+	public ChildNameRegistry(int maxDirectories, long reservationTimeout) {
+		
+		super(maxDirectories,reservationTimeout);
+	}
+	
+	public static synchronized ChildNameRegistry getInstance() {
+		
+		if (instance == null) {
+			instance = new ChildNameRegistry(
+					getMaxDirectories("node.names.directories"),
+					getReservationTimeout());
+		}
+		return instance;
+	}
+	
+	/**
+	 * Allocates a unique child name on a directory. The name is reserved 
+	 * until it is released with {@link #release(javax.jcr.Node)}, or until 
+	 * it is found that its node was not saved.
+	 * 
+	 * @param parent Parent node
+	 * @param extension Extension that callers will append to the name if it 
+	 * does not end with it yet. It can be null.
+	 * @param name Unescaped name
+	 * 
+	 * @return String Allocated name, unescaped and without the extension
+	 * 
+	 * @throws RepositoryException If the children of the directory can't be 
+	 * read
+	 */
+	public String allocate(javax.jcr.Node parent, 
+						   String extension, 
+						   String name) throws RepositoryException {
+		
+		DirectoryNames names = (DirectoryNames)getEntry(parent);
+		Session session = parent.getSession();
+		synchronized (names) {
+			String fullName = appendExtension(name,extension);
+			if (isFree(parent,names,fullName)) {
+				names.names.put(fullName,reserve(session));
+				return name;
+			}
+			
+			String key = (extension == null) ? name : name + extension;
+			int index = names.next(key);
+			while (true) {
+				String candidate = name + "[" + index + "]";
+				fullName = appendExtension(candidate,extension);
+				if (isFree(parent,names,fullName)) {
+					names.names.put(fullName,reserve(session));
+					names.reserve(key,index);
+					return candidate;
+				}
+				index++;
+			}
+		}
+	}
+	
+	/**
+	 * Releases the name of a node that is going to be removed, renamed or 
+	 * moved to a different directory
+	 * 
+	 * @param node Child node
+	 * 
+	 * @throws RepositoryException If the node can't be accessed
+	 */
+	public void release(javax.jcr.Node node) throws RepositoryException {
+		
+		DirectoryNames names = (DirectoryNames)removeEntry(node);
+		if (names != null) {
+			synchronized (names) {
+				names.names.remove(Text.unescape(node.getName()));
+			}
+		}
+	}
+	
+	/**
+	 * Checks if a name is free. Reservations that collide with it are 
+	 * resolved, and names that the registry does not know about are looked 
+	 * up on the repository and registered if they are already used.
+	 */
+	private boolean isFree(javax.jcr.Node parent, 
+						   DirectoryNames names, 
+						   String fullName) throws RepositoryException {
+		
+		Session session = parent.getSession();
+		if (names.names.containsKey(fullName)) {
+			Reservation reservation = (Reservation)names.names.get(fullName);
+			if ((reservation == null) || 
+				!isAbandoned(reservation,session)) {
+				return false;
+			}
+			if (parent.hasNode(Text.escape(fullName))) {
+				if (isSaved(reservation,session)) {
+					names.names.put(fullName,null);
+				}
+				return false;
+			}
+			reclaimed();
+			names.names.remove(fullName);
+			return true;
+		}
+		if (parent.hasNode(Text.escape(fullName))) {
+			conflicts.incrementAndGet();
+			names.add(fullName,reserve(session));
+			return false;
+		}
+		return true;
+	}
+	
+	protected Object seed(javax.jcr.Node parent) throws RepositoryException {
+		
+		// Children read on a session with pending changes could be discarded
+		Session session = parent.getSession();
+		Reservation reservation = 
+			session.hasPendingChanges() ? reserve(session) : null;
+		DirectoryNames names = new DirectoryNames();
+		NodeIterator it = parent.getNodes();
+		while (it.hasNext()) {
+			names.add(Text.unescape(it.nextNode().getName()),reservation);
+		}
+		return names;
+	}
+	
+	private static String appendExtension(String name, String extension) {
+		
+		if ((extension != null) && !name.endsWith(extension)) {
+			return name + extension;
+		}
+		return name;
+	}
+	
+	/**
+	 * @return long Number of allocated names that were already used by nodes 
+	 * that the registry did not know about
+	 */
+	public long getConflicts() {
+		return conflicts.get();
+	}
+	
+	public String toString() {
+		
+		return "[ directories : " + getDirectories() + 
+			   ", allocations : " + getAllocations() + 
+			   ", seeds : " + getSeeds() + 
+			   ", reclaims : " + getReclaims() + 
+			   ", conflicts : " + getConflicts() + 
+			   " ]";
+	}
+}
@@ -0,0 +1,339 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+import org.jlibrary.core.entities.NodeOrder;
+
+/**
+ * <p>Position on a sorted list of children. A cursor stores the sort key 
+ * and the id of the last child returned, so the next page starts on the 
+ * first child that sorts after them even if children are added or removed 
+ * between the two requests.</p>
+ * 
+ * <p>The key of the {@link NodeOrder#NATURAL} order is the position of the 
+ * child, which changes when previous children are added or removed. Those 
+ * cursors are moved to the current position of their child with 
+ * {@link #locate(Node)} before being used.</p>
+ * 
+ * <p>Cursors are sent to clients as opaque strings with the format 
+ * <code>order;direction;id;key</code>.</p>
+ * 
+ * @author martin
+ */
+public class ChildrenCursor {
+
+	private static final char SEPARATOR = ';';
+	private static final String ASCENDING = "a";
+	private static final String DESCENDING = "d";
+	private static final String NULL_KEY = "~";
+	private static final char STRING_KEY = 's';
+	private static final char LONG_KEY = 'l';
+	
+	private final NodeOrder order;
+	private final boolean ascending;
+	private final String id;
+	private final Object key;
+	
+	/**
+	 * Creates a cursor
+	 * 
+	 * @param order Sort key
+	 * @param ascending Sort direction
+	 * @param id Id of the child
+	 * @param key Sort key value of the child. A <code>String</code>, a 
+	 * <code>Long</code> or <code>null</code>
+	 */
+	public ChildrenCursor(NodeOrder order, 
+						  boolean ascending, 
+						  String id, 
+						  Object key) {
+		
+		this.order = order;
+		this.ascending = ascending;
+		this.id = id;
+		this.key = key;
+	}
+	
+	/**
+	 * Parses a cursor
+	 * 
+	 * @param cursor Cursor string
+	 * 
+	 * @return ChildrenCursor Cursor
+	 * 
+	 * @throws IllegalArgumentException If the string is not a valid cursor
+	 */
+	public static ChildrenCursor parse(String cursor) {
+		
+		int orderEnd = cursor.indexOf(SEPARATOR);
+		int directionEnd = cursor.indexOf(SEPARATOR,orderEnd+1);
+		int idEnd = cursor.indexOf(SEPARATOR,directionEnd+1);
+		if (orderEnd == -1 || directionEnd == -1 || idEnd == -1) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor);
+		}
+		NodeOrder order = NodeOrder.forName(cursor.substring(0,orderEnd));
+		String direction = cursor.substring(orderEnd+1,directionEnd);
+		if (order == null || 
+			!(direction.equals(ASCENDING) || direction.equals(DESCENDING))) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor);
+		}
+		String id = cursor.substring(directionEnd+1,idEnd);
+		String value = cursor.substring(idEnd+1);
+		Object key = null;
+		if (value.equals(NULL_KEY)) {
+			key = null;
+		} else if (value.length() > 0 && value.charAt(0) == STRING_KEY) {
+			key = value.substring(1);
+		} else if (value.length() > 0 && value.charAt(0) == LONG_KEY) {
+			try {
+				key = Long.valueOf(value.substring(1));
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException("Invalid cursor: " + cursor);
+			}
+		} else {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor);
+		}
+		return new ChildrenCursor(order,direction.equals(ASCENDING),id,key);
+	}
+	
+	/**
+	 * Reads the sort key value of a child
+	 * 
+	 * @param node Child node
+	 * @param order Sort key
+	 * @param index Position of the child on its parent. It is the key of 
+	 * the {@link NodeOrder#NATURAL} order
+	 * 
+	 * @return Object Sort key value, or <code>null</code> if the node 
+	 * doesn't have it
+	 * 
+	 * @throws RepositoryException If the value can't be read
+	 */
+	public static Object readKey(Node node, 
+								 NodeOrder order, 
+								 long index) throws RepositoryException {
+		
+		if (order == NodeOrder.NATURAL) {
+			return new Long(index);
+		} else if (order == NodeOrder.NAME) {
+			if (!node.hasProperty(JLibraryConstants.JLIBRARY_NAME)) {
+				return null;
+			}
+			return node.getProperty(
+					JLibraryConstants.JLIBRARY_NAME).getString().toLowerCase();
+		} else if (order == NodeOrder.CREATED) {
+			if (!node.hasProperty(JLibraryConstants.JLIBRARY_CREATED)) {
+				return null;
+			}
+			return new Long(node.getProperty(
+					JLibraryConstants.JLIBRARY_CREATED).getDate().getTimeInMillis());
+		}
+		
+		String property;
+		if (order == NodeOrder.POSITION) {
+			property = JLibraryConstants.JLIBRARY_POSITION;
+		} else if (order == NodeOrder.SIZE) {
+			property = JLibraryConstants.JLIBRARY_SIZE;
+		} else {
+			property = JLibraryConstants.JLIBRARY_IMPORTANCE;
+		}
+		if (!node.hasProperty(property)) {
+			return null;
+		}
+		return new Long(node.getProperty(property).getLong());
+	}
+	
+	/**
+	 * Compares two children. Children without key go last, and children 
+	 * with the same key are sorted by id.
+	 * 
+	 * @return int Negative, zero or positive if the first child goes 
+	 * before, at the same position or after the second child 
+	 */
+	public static int compare(Object key1, 
+							  String id1, 
+							  Object key2, 
+							  String id2, 
+							  boolean ascending) {
+		
+		int result;
+		if (key1 == null || key2 == null) {
+			if (key1 == key2) {
+				result = 0;
+			} else {
+				// Keys missing always last
+				return key1 == null ? 1 : -1;
+			}
+		} else {
+			result = ((Comparable)key1).compareTo(key2);
+		}
+		if (result == 0) {
+			result = id1.compareTo(id2);
+		}
+		return ascending ? result : -result;
+	}
+	
+	/**
+	 * Finds the current position of the child of a {@link NodeOrder#NATURAL} 
+	 * cursor. The stored position is checked first, and the children are 
+	 * only scanned if the child is no longer there.
+	 * 
+	 * @param parent Parent node
+	 * 
+	 * @return long Position of the child, or -1 if it is no longer a child 
+	 * of the parent
+	 * 
+	 * @throws RepositoryException If the children can't be read
+	 */
+	public long locate(Node parent) throws RepositoryException {
+		
+		NodeIterator children = parent.getNodes();
+		if (key instanceof Long) {
+			long position = ((Long)key).longValue();
+			try {
+				children.skip(position);
+				if (id.equals(getId(children.nextNode()))) {
+					return position;
+				}
+			} catch (NoSuchElementException nsee) {}
+			children = parent.getNodes();
+		}
+		long position = 0;
+		while (children.hasNext()) {
+			if (id.equals(getId(children.nextNode()))) {
+				return position;
+			}
+			position++;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Tells if a child goes after the child pointed by this cursor
+	 * 
+	 * @param key Sort key value of the child
+	 * @param id Id of the child
+	 * 
+	 * @return boolean <code>true</code> if the child goes after this cursor
+	 */
+	public boolean isBefore(Object key, String id) {
+		
+		return compare(this.key,this.id,key,id,ascending) < 0;
+	}
+	
+	private static String getId(Node node) throws RepositoryException {
+		
+		if (!node.isNodeType(JCRConstants.JCR_REFERENCEABLE)) {
+			return null;
+		}
+		return node.getUUID();
+	}
+	
+	public NodeOrder getOrder() {
+		return order;
+	}
+	
+	public boolean isAscending() {
+		return ascending;
+	}
+	
+	public String getId() {
+		return id;
+	}
+	
+	public Object getKey() {
+		return key;
+	}
+	
+	public String toString() {
+		
+		StringBuffer buffer = new StringBuffer();
+		buffer.append(order.getName());
+		buffer.append(SEPARATOR);
+		buffer.append(ascending ? ASCENDING : DESCENDING);
+		buffer.append(SEPARATOR);
+		buffer.append(id);
+		buffer.append(SEPARATOR);
+		if (key == null) {
+			buffer.append(NULL_KEY);
+		} else if (key instanceof Long) {
+			buffer.append(LONG_KEY);
+			buffer.append(key);
+		} else {
+			buffer.append(STRING_KEY);
+			buffer.append(key);
+		}
+		return buffer.toString();
+	}
+	
+	/**
+	 * Comparator of {@link Entry} objects for a given direction
+	 */
+	public static Comparator comparator(final boolean ascending) {
+		
+		return new Comparator() {
+			public int compare(Object o1, Object o2) {
+				Entry e1 = (Entry)o1;
+				Entry e2 = (Entry)o2;
+				return ChildrenCursor.compare(
+						e1.key,e1.id,e2.key,e2.id,ascending);
+			}
+		};
+	}
+	
+	/**
+	 * Child node with its sort key value
+	 */
+	public static class Entry {
+		
+		private final Object key;
+		private final String id;
+		private final Node node;
+		
+		public Entry(Object key, String id, Node node) {
+			
+			this.key = key;
+			this.id = id;
+			this.node = node;
+		}
+		
+		public Object getKey() {
+			return key;
+		}
+		
+		public String getId() {
+			return id;
+		}
+		
+		public Node getNode() {
+			return node;
+		}
+	}
+}
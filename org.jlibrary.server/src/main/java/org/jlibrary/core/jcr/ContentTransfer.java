@@ -0,0 +1,250 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.jcr.Binary;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.jlibrary.core.config.SessionConfigurationReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Copies binary contents from the repository to output streams.</p>
+ * 
+ * <p>Contents kept on the Jackrabbit <code>FileDataStore</code> already 
+ * sit on a file, so they are sent with 
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which 
+ * lets the operating system move the bytes without copying them through 
+ * the heap when the target is a file or a socket. The data store directory 
+ * is read from the <code>content.datastore.path</code> session config 
+ * entry, as Jackrabbit does not expose it. Contents that are not on a file, 
+ * or whose file can't be found, are copied through their stream.</p>
+ * 
+ * @author martin
+ */
+public class ContentTransfer {
+
+	static Logger logger = LoggerFactory.getLogger(ContentTransfer.class);
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	private static File dataStoreDirectory;
+	private static boolean dataStoreChecked;
+	
+	private ContentTransfer() {}
+	
+	/**
+	 * Writes a range of a binary property
+	 * 
+	 * @param data Binary property, usually <code>jcr:data</code>
+	 * @param offset Position of the first byte to write
+	 * @param length Number of bytes to write
+	 * @param os Stream where the content is written
+	 * 
+	 * @throws RepositoryException If the property can't be read
+	 * @throws IOException If the content can't be written or it ends 
+	 * before the range
+	 */
+	public static void transfer(Property data, 
+								long offset, 
+								long length, 
+								OutputStream os) throws RepositoryException,
+														IOException {
+		
+		File file = getFile(data);
+		if (file != null) {
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				transfer(fis.getChannel(),offset,length,os);
+			} finally {
+				fis.close();
+			}
+			return;
+		}
+		
+		Binary binary = data.getBinary();
+		InputStream is = null;
+		try {
+			is = binary.getStream();
+			if (is instanceof FileInputStream) {
+				transfer(((FileInputStream)is).getChannel(),offset,length,os);
+			} else {
+				skip(is,offset);
+				copy(is,os,length);
+			}
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException ioe) {
+					logger.error(ioe.getMessage(),ioe);
+				}
+			}
+			binary.dispose();
+		}
+	}
+	
+	/**
+	 * Writes a range of a file channel. Output streams that are backed by a 
+	 * file are written through their own channel.
+	 * 
+	 * @param channel Channel with the content
+	 * @param offset Position of the first byte to write
+	 * @param length Number of bytes to write
+	 * @param os Stream where the content is written
+	 * 
+	 * @throws IOException If the content can't be written or the channel 
+	 * ends before the range
+	 */
+	public static void transfer(FileChannel channel,
+								long offset,
+								long length,
+								OutputStream os) throws IOException {
+		
+		WritableByteChannel target;
+		if (os instanceof FileOutputStream) {
+			target = ((FileOutputStream)os).getChannel();
+		} else {
+			os.flush();
+			target = Channels.newChannel(os);
+		}
+		long position = offset;
+		long end = offset + length;
+		while (position < end) {
+			long sent = channel.transferTo(position,end-position,target);
+			if (sent <= 0) {
+				throw new IOException("Unexpected end of content");
+			}
+			position+=sent;
+		}
+	}
+	
+	/**
+	 * Copies a range of a stream
+	 * 
+	 * @param is Stream with the content, positioned at the first byte
+	 * @param os Stream where the content is written
+	 * @param count Number of bytes to copy
+	 * 
+	 * @throws IOException If the content can't be copied or it ends before 
+	 * the range
+	 */
+	public static void copy(InputStream is, 
+							OutputStream os, 
+							long count) throws IOException {
+		
+		byte[] buffer = new byte[BUFFER_SIZE];
+		while (count > 0) {
+			int read = is.read(buffer,0,(int)Math.min(buffer.length,count));
+			if (read == -1) {
+				throw new IOException("Unexpected end of content");
+			}
+			os.write(buffer,0,read);
+			count-=read;
+		}
+	}
+	
+	/**
+	 * Returns the data store file of a binary property
+	 * 
+	 * @param data Binary property
+	 * 
+	 * @return File File with the property content, or <code>null</code> if 
+	 * the content is not on the data store or the data store directory is 
+	 * not known
+	 * 
+	 * @throws RepositoryException If the property can't be read
+	 */
+	public static File getFile(Property data) throws RepositoryException {
+		
+		File directory = getDataStoreDirectory();
+		if (directory == null) {
+			return null;
+		}
+		Value value = data.getValue();
+		if (!(value instanceof JackrabbitValue)) {
+			return null;
+		}
+		String identifier = ((JackrabbitValue)value).getContentIdentity();
+		if (identifier == null || identifier.length() < 6) {
+			return null;
+		}
+		// Same layout as FileDataStore
+		File file = new File(directory,identifier.substring(0,2));
+		file = new File(file,identifier.substring(2,4));
+		file = new File(file,identifier.substring(4,6));
+		file = new File(file,identifier);
+		if (!file.isFile() || file.length() != data.getLength()) {
+			return null;
+		}
+		return file;
+	}
+	
+	private static void skip(InputStream is, long count) throws IOException {
+		
+		while (count > 0) {
+			long skipped = is.skip(count);
+			if (skipped <= 0) {
+				// Some streams only skip what they have buffered
+				if (is.read() == -1) {
+					throw new IOException("Unexpected end of content");
+				}
+				skipped = 1;
+			}
+			count-=skipped;
+		}
+	}
+	
+	private static synchronized File getDataStoreDirectory() {
+		
+		if (!dataStoreChecked) {
+			String path = SessionConfigurationReader.getString(
+					"content.datastore.path","").trim();
+			if (path.length() > 0) {
+				File directory = new File(path);
+				if (directory.isDirectory()) {
+					dataStoreDirectory = directory;
+				} else {
+					logger.warn("Data store directory " + path + 
+								" not found. Contents will be copied through streams");
+				}
+			}
+			dataStoreChecked = true;
+		}
+		return dataStoreDirectory;
+	}
+}
@@ -0,0 +1,281 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.jlibrary.core.config.SessionConfigurationReader;
+
+/**
+ * <p>Base class of the registries that keep on memory what is used by the 
+ * children of each directory, so new children can be given unique values 
+ * without reading their siblings.</p>
+ * 
+ * <p>The entry of a directory is seeded the first time something is 
+ * allocated on it, and only the last directories used are kept on 
+ * memory.</p>
+ * 
+ * <p>Values are allocated before the new nodes are saved, and the session 
+ * that allocated them can still discard its changes. So every allocation is 
+ * kept as a {@link Reservation} of its session until the node is known to be 
+ * saved. A reservation whose node can't be found is reclaimed when its 
+ * session has been closed, when the same session allocates again on the 
+ * directory, or when it is older than <code>node.reservation.timeout</code> 
+ * miliseconds.</p>
+ * 
+ * @author martin
+ */
+public abstract class DirectoryRegistry {
+
+	private static final int DEFAULT_DIRECTORIES = 1024;
+	private static final long DEFAULT_RESERVATION_TIMEOUT = 600000;
+	
+	private final Map directories;
+	private final long reservationTimeout;
+	
+	private final AtomicLong allocations = new AtomicLong();
+	private final AtomicLong seeds = new AtomicLong();
+	private final AtomicLong reclaims = new AtomicLong();
+	
+	/**
+	 * Allocation made by a session that could still be discarded
+	 */
+	protected static class Reservation {
+		
+		private final WeakReference session;
+		private final long time;
+		
+		Reservation(Session session) {
+			
+			this.session = new WeakReference(session);
+			this.time = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxDirectories Maximum number of directories kept on memory
+	 * @param reservationTimeout Time after which the reservations of live 
+	 * sessions can be reclaimed (miliseconds)
+	 */
+	protected DirectoryRegistry(final int maxDirectories, 
+								long reservationTimeout) {
+		
+		this.reservationTimeout = reservationTimeout;
+		directories = new LinkedHashMap(16,0.75f,true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > maxDirectories;
+			}
+		};
+	}
+	
+	/**
+	 * Reads the maximum number of directories kept on memory
+	 * 
+	 * @param key Configuration key
+	 */
+	protected static int getMaxDirectories(String key) {
+		
+		return Integer.parseInt(SessionConfigurationReader.getString(
+				key,String.valueOf(DEFAULT_DIRECTORIES)));
+	}
+	
+	protected static long getReservationTimeout() {
+		
+		return Long.parseLong(SessionConfigurationReader.getString(
+				"node.reservation.timeout",
+				String.valueOf(DEFAULT_RESERVATION_TIMEOUT)));
+	}
+	
+	/**
+	 * Reads the children of a directory that is not on memory
+	 * 
+	 * @param parent Directory node
+	 * 
+	 * @return Object Entry of the directory
+	 * 
+	 * @throws RepositoryException If the children can't be read
+	 */
+	protected abstract Object seed(javax.jcr.Node parent) 
+											throws RepositoryException;
+	
+	/**
+	 * Returns the entry of a directory, seeding it if needed. Callers 
+	 * synchronize on the returned entry.
+	 * 
+	 * @param parent Directory node
+	 */
+	protected Object getEntry(javax.jcr.Node parent) 
+											throws RepositoryException {
+		
+		allocations.incrementAndGet();
+		String key = getKey(parent);
+		synchronized (directories) {
+			Object entry = directories.get(key);
+			if (entry != null) {
+				return entry;
+			}
+		}
+		
+		seeds.incrementAndGet();
+		Object entry = seed(parent);
+		synchronized (directories) {
+			Object other = directories.get(key);
+			if (other != null) {
+				return other;
+			}
+			directories.put(key,entry);
+		}
+		return entry;
+	}
+	
+	/**
+	 * Forgets the entry of a node that is going to be removed, renamed or 
+	 * moved, and returns the entry of its parent
+	 * 
+	 * @param node Child node
+	 * 
+	 * @return Object Entry of the parent, or <code>null</code> if the parent 
+	 * is not on memory
+	 */
+	protected Object removeEntry(javax.jcr.Node node) 
+											throws RepositoryException {
+		
+		if (node.getDepth() == 0) {
+			return null;
+		}
+		String key = getKey(node.getParent());
+		synchronized (directories) {
+			directories.remove(getKey(node));
+			return directories.get(key);
+		}
+	}
+	
+	/**
+	 * Reserves an allocation for a session
+	 */
+	protected Reservation reserve(Session session) {
+		
+		return new Reservation(session);
+	}
+	
+	/**
+	 * Tells if a reservation can be checked against the repository. The 
+	 * reservations of other live sessions are still in use until they time 
+	 * out.
+	 * 
+	 * @param reservation Reservation
+	 * @param current Session that is allocating
+	 */
+	protected boolean isAbandoned(Reservation reservation, Session current) {
+		
+		Session owner = (Session)reservation.session.get();
+		return (owner == null) || 
+			   (owner == current) || 
+			   !owner.isLive() || 
+			   (System.currentTimeMillis() - reservation.time > 
+			   										reservationTimeout);
+	}
+	
+	/**
+	 * Tells if the node of an abandoned reservation that is visible on the 
+	 * current session has been saved. It can't be told while it could be a 
+	 * pending change of the current session.
+	 * 
+	 * @param reservation Reservation
+	 * @param current Session that is allocating
+	 */
+	protected boolean isSaved(Reservation reservation, 
+							  Session current) throws RepositoryException {
+		
+		return (reservation.session.get() != current) || 
+			   !current.hasPendingChanges();
+	}
+	
+	/**
+	 * Counts a reservation whose node was not found
+	 */
+	protected void reclaimed() {
+		
+		reclaims.incrementAndGet();
+	}
+	
+	/**
+	 * Forgets the entries of every directory
+	 */
+	public void clear() {
+		
+		synchronized (directories) {
+			directories.clear();
+		}
+	}
+	
+	protected static String getKey(javax.jcr.Node node) 
+											throws RepositoryException {
+		
+		return node.getSession().getWorkspace().getName() + ":" + 
+			   node.getIdentifier();
+	}
+	
+	public int getDirectories() {
+		
+		synchronized (directories) {
+			return directories.size();
+		}
+	}
+	
+	public long getAllocations() {
+		return allocations.get();
+	}
+	
+	/**
+	 * @return long Number of directories whose children have been read
+	 */
+	public long getSeeds() {
+		return seeds.get();
+	}
+	
+	/**
+	 * @return long Number of reservations reclaimed because their nodes were 
+	 * discarded
+	 */
+	public long getReclaims() {
+		return reclaims.get();
+	}
+	
+	public String toString() {
+		
+		return "[ directories : " + getDirectories() + 
+			   ", allocations : " + getAllocations() + 
+			   ", seeds : " + getSeeds() + 
+			   ", reclaims : " + getReclaims() + 
+			   " ]";
+	}
+}
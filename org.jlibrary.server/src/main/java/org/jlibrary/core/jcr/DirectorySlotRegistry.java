@@ -0,0 +1,252 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.jlibrary.core.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Registry of the numeric path slots used by the directories of each 
+ * parent. Every directory stores on its <code>jlib:path</code> property a 
+ * number that must be unique among its siblings, and removed directories 
+ * leave free slots that must be reused.</p>
+ * 
+ * <p>The slots of a parent are read the first time a slot is allocated on 
+ * it. From then on, a bit set of used slots is kept up to date on every 
+ * allocation and release, so the first free slot is found without reading 
+ * the siblings. A directory that already has a slot on the parent keeps 
+ * it, unless it has just been moved there.</p>
+ * 
+ * <p>The slot of a directory that fails to be created or whose session 
+ * discards its changes is reclaimed as described on 
+ * {@link DirectoryRegistry}, on the next allocation on the parent.</p>
+ * 
+ * <p>Only the last <code>node.slots.directories</code> parents used are 
+ * kept on memory.</p>
+ * 
+ * @author martin
+ */
+public class DirectorySlotRegistry extends DirectoryRegistry {
+
+	static Logger logger = LoggerFactory.getLogger(DirectorySlotRegistry.class);
+	
+	private static DirectorySlotRegistry instance;
+	
+	/**
+	 * Slots used by the child directories of a parent
+	 */
+	private static class Slots {
+		
+		final BitSet used = new BitSet();
+		final Map owners = new HashMap();
+		final Map reservations = new HashMap();
+		
+		void set(String id, int slot) {
+			
+			Integer previous = (Integer)owners.put(id,new Integer(slot));
+			if (previous != null) {
+				used.clear(previous.intValue());
+			}
+			used.set(slot);
+		}
+		
+		void clear(String id) {
+			
+			reservations.remove(id);
+			Integer previous = (Integer)owners.remove(id);
+			if (previous != null) {
+				used.clear(previous.intValue());
+			}
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxParents Maximum number of parents kept on memory
+	 * @param reservationTimeout Time after which the slots reserved by live 
+	 * sessions can be reclaimed (miliseconds)
+	 */
+	public DirectorySlotRegistry(int maxParents, long reservationTimeout) {
+		
+		super(maxParents,reservationTimeout);
+	}
+	
+	public static synchronized DirectorySlotRegistry getInstance() {
+		
+		if (instance == null) {
+			instance = new DirectorySlotRegistry(
+					getMaxDirectories("node.slots.directories"),
+					getReservationTimeout());
+		}
+		return instance;
+	}
+	
+	/**
+	 * Returns the path slot of a directory on a parent. If the directory does 
+	 * not have a slot yet, the first free one is reserved for it.
+	 * 
+	 * @param parent Parent node
+	 * @param node Directory node
+	 * @param moved <code>true</code> if the directory has just been moved or 
+	 * copied to the parent, so the slot it has comes from its previous 
+	 * parent and a new one must be allocated
+	 * 
+	 * @return int Path slot
+	 * 
+	 * @throws RepositoryException If the children of the parent can't be read
+	 */
+	public int allocate(javax.jcr.Node parent, 
+						javax.jcr.Node node,
+						boolean moved) throws RepositoryException {
+		
+		String id = node.getIdentifier();
+		Session session = parent.getSession();
+		Slots slots = (Slots)getEntry(parent);
+		synchronized (slots) {
+			Integer slot = (Integer)slots.owners.get(id);
+			if (slot != null) {
+				if (!moved) {
+					return slot.intValue();
+				}
+				// The old slot can be shared with a sibling when the parent 
+				// was read after the move
+				slots.owners.remove(id);
+				slots.reservations.remove(id);
+				if (!slots.owners.containsValue(slot)) {
+					slots.used.clear(slot.intValue());
+				}
+			}
+			reclaim(parent,session,slots);
+			int free = slots.used.nextClearBit(0);
+			slots.set(id,free);
+			slots.reservations.put(id,reserve(session));
+			return free;
+		}
+	}
+	
+	/**
+	 * Releases the slot of a directory that is going to be removed or moved 
+	 * to a different parent
+	 * 
+	 * @param node Directory node
+	 * 
+	 * @throws RepositoryException If the node can't be accessed
+	 */
+	public void release(javax.jcr.Node node) throws RepositoryException {
+		
+		Slots slots = (Slots)removeEntry(node);
+		if (slots != null) {
+			synchronized (slots) {
+				slots.clear(node.getIdentifier());
+			}
+		}
+	}
+	
+	/**
+	 * Resolves the abandoned reservations of a parent, freeing the slots of 
+	 * the directories that are not found on it
+	 */
+	private void reclaim(javax.jcr.Node parent, 
+						 Session session, 
+						 Slots slots) throws RepositoryException {
+		
+		if (slots.reservations.isEmpty()) {
+			return;
+		}
+		String parentId = parent.getIdentifier();
+		Iterator it = slots.reservations.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry entry = (Map.Entry)it.next();
+			Reservation reservation = (Reservation)entry.getValue();
+			if (!isAbandoned(reservation,session)) {
+				continue;
+			}
+			String id = (String)entry.getKey();
+			if (isChild(session,parentId,id)) {
+				if (isSaved(reservation,session)) {
+					it.remove();
+				}
+				continue;
+			}
+			reclaimed();
+			it.remove();
+			Integer slot = (Integer)slots.owners.remove(id);
+			if (slot != null && !slots.owners.containsValue(slot)) {
+				slots.used.clear(slot.intValue());
+			}
+		}
+	}
+	
+	private boolean isChild(Session session, 
+							String parentId, 
+							String id) throws RepositoryException {
+		
+		try {
+			javax.jcr.Node node = session.getNodeByIdentifier(id);
+			return (node.getDepth() > 0) && 
+				   node.getParent().getIdentifier().equals(parentId);
+		} catch (ItemNotFoundException e) {
+			return false;
+		}
+	}
+	
+	protected Object seed(javax.jcr.Node parent) throws RepositoryException {
+		
+		Slots slots = new Slots();
+		NodeIterator it = parent.getNodes();
+		while (it.hasNext()) {
+			javax.jcr.Node child = it.nextNode();
+			if (!child.isNodeType(JLibraryConstants.DIRECTORY_MIXIN) || 
+				!child.hasProperty(JLibraryConstants.JLIBRARY_PATH)) {
+				continue;
+			}
+			String id = child.getIdentifier();
+			String path = child.getProperty(
+					JLibraryConstants.JLIBRARY_PATH).getString();
+			int slot;
+			try {
+				slot = Integer.parseInt(FileUtils.getFileName(path));
+			} catch (NumberFormatException e) {
+				logger.warn("Wrong path slot on directory " + child.getPath());
+				continue;
+			}
+			// A directory just moved or copied here still has the slot of 
+			// its previous parent, that can be shared with a sibling
+			slots.owners.put(id,new Integer(slot));
+			slots.used.set(slot);
+		}
+		return slots;
+	}
+}
@@ -0,0 +1,279 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.jackrabbit.core.observation.SynchronousEventListener;
+import org.jlibrary.core.config.SessionConfigurationReader;
+import org.jlibrary.core.util.UtilCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Second level cache of the values that {@link JCRAdapter} builds from 
+ * node properties, shared by all the sessions. Values are keyed by 
+ * workspace, observation epoch and node identifier.</p>
+ * 
+ * <p>A synchronous observation listener on each workspace removes the 
+ * values of the changed nodes before <code>save()</code> returns, so no 
+ * request sees a value older than the last saved change. When the session 
+ * that holds a listener dies, a new listener is registered with a new 
+ * epoch, so the values cached while changes were not observed are never 
+ * read again.</p>
+ * 
+ * <p>Sessions with pending changes bypass the cache, as their transient 
+ * values must not be shared. Cached values must never be modified, 
+ * callers copy them into new entities.</p>
+ * 
+ * @author martin
+ */
+public class EntityCache {
+
+	static Logger logger = LoggerFactory.getLogger(EntityCache.class);
+	
+	private static final int EVENT_TYPES = Event.NODE_ADDED | 
+										   Event.NODE_REMOVED | 
+										   Event.NODE_MOVED |
+										   Event.PROPERTY_ADDED | 
+										   Event.PROPERTY_CHANGED | 
+										   Event.PROPERTY_REMOVED;
+	
+	private static final boolean enabled = Boolean.valueOf(
+			SessionConfigurationReader.getString(
+					"entity.cache.enabled","true")).booleanValue();
+	
+	private static final UtilCache<String,Object> cache = 
+		new UtilCache<String,Object>(
+				"entities",
+				Integer.parseInt(SessionConfigurationReader.getString(
+						"entity.cache.size","20000")),
+				Long.parseLong(SessionConfigurationReader.getString(
+						"entity.cache.weight","8000000")),
+				Runtime.getRuntime().availableProcessors() * 4);
+	
+	private static ConcurrentHashMap<String, CacheListener> listeners = 
+		new ConcurrentHashMap<String, CacheListener>();
+	
+	private static AtomicLong epochs = new AtomicLong();
+	private static AtomicLong generation = new AtomicLong();
+	
+	private EntityCache() {}
+	
+	/**
+	 * Returns the cached value of a node
+	 * 
+	 * @param node Node
+	 * 
+	 * @return Object Cached value or <code>null</code> if it is not cached
+	 * 
+	 * @throws RepositoryException If the node can't be read
+	 */
+	public static Object get(Node node) throws RepositoryException {
+		
+		if (!enabled) {
+			return null;
+		}
+		Session session = node.getSession();
+		if (session.hasPendingChanges()) {
+			return null;
+		}
+		CacheListener listener = 
+			listeners.get(session.getWorkspace().getName());
+		if (listener == null || !listener.isLive()) {
+			return null;
+		}
+		return cache.get(listener.key(node.getIdentifier()));
+	}
+	
+	/**
+	 * Returns the current invalidation generation. It must be read before 
+	 * loading a value that will be stored with 
+	 * {@link #put(Node, Object, int, long)}.
+	 * 
+	 * @return long Invalidation generation
+	 */
+	public static long getGeneration() {
+		
+		return generation.get();
+	}
+	
+	/**
+	 * Caches the value of a node. The value is not cached if any node has 
+	 * changed since <code>loadGeneration</code> was read, as it could have 
+	 * been loaded before the change.
+	 * 
+	 * @param node Node
+	 * @param value Value built from the node properties
+	 * @param weight Approximate value size
+	 * @param loadGeneration Generation read before loading the value
+	 * 
+	 * @throws RepositoryException If the node can't be read
+	 */
+	public static void put(Node node, 
+						   Object value, 
+						   int weight, 
+						   long loadGeneration) throws RepositoryException {
+		
+		if (!enabled) {
+			return;
+		}
+		Session session = node.getSession();
+		if (session.hasPendingChanges()) {
+			return;
+		}
+		CacheListener listener = observe(session);
+		if (listener == null) {
+			return;
+		}
+		String key = listener.key(node.getIdentifier());
+		cache.put(key,value,weight);
+		if (generation.get() != loadGeneration) {
+			// Changed while loading
+			cache.remove(key);
+		}
+	}
+	
+	/**
+	 * Returns the cache, so its statistics can be monitored
+	 * 
+	 * @return UtilCache Entity cache
+	 */
+	public static UtilCache<String,Object> getCache() {
+		
+		return cache;
+	}
+	
+	/**
+	 * Discards all the cached values
+	 */
+	public static void invalidateAll() {
+		
+		generation.incrementAndGet();
+		cache.clear();
+	}
+	
+	private static CacheListener observe(Session session) {
+		
+		String workspace = session.getWorkspace().getName();
+		CacheListener current = listeners.get(workspace);
+		if (current != null && current.isLive()) {
+			return current;
+		}
+		
+		CacheListener listener = 
+			new CacheListener(workspace,session,epochs.incrementAndGet());
+		try {
+			ObservationManager manager = 
+				session.getWorkspace().getObservationManager();
+			manager.addEventListener(
+					listener,EVENT_TYPES,"/",true,null,null,false);
+		} catch (RepositoryException e) {
+			logger.warn("Entity changes can't be observed on workspace " + 
+						workspace + ": " + e.getMessage());
+			return null;
+		}
+		
+		boolean registered;
+		if (current == null) {
+			registered = listeners.putIfAbsent(workspace,listener) == null;
+		} else {
+			registered = listeners.replace(workspace,current,listener);
+		}
+		if (!registered) {
+			listener.remove();
+			return null;
+		}
+		return listener;
+	}
+	
+	private static class CacheListener implements SynchronousEventListener {
+		
+		private final String workspace;
+		private final Session session;
+		private final String prefix;
+		private volatile boolean dead;
+		
+		CacheListener(String workspace, Session session, long epoch) {
+			
+			this.workspace = workspace;
+			this.session = session;
+			this.prefix = workspace + "/" + epoch + "/";
+		}
+		
+		String key(String identifier) {
+			
+			return prefix + identifier;
+		}
+		
+		boolean isLive() {
+			
+			return !dead && session.isLive();
+		}
+		
+		public void onEvent(EventIterator events) {
+			
+			generation.incrementAndGet();
+			if (dead) {
+				return;
+			}
+			while (events.hasNext()) {
+				Event event = events.nextEvent();
+				try {
+					String identifier = event.getIdentifier();
+					if (identifier != null) {
+						cache.remove(key(identifier));
+					}
+				} catch (RepositoryException e) {
+					// The node can't be identified, so nothing cached with 
+					// this listener can be trusted. The listener can't be 
+					// unregistered while it is notified, so it is disabled.
+					logger.warn(e.getMessage());
+					dead = true;
+					listeners.remove(workspace,this);
+					return;
+				}
+			}
+		}
+		
+		void remove() {
+			
+			try {
+				if (session.isLive()) {
+					session.getWorkspace().getObservationManager().
+						removeEventListener(this);
+				}
+			} catch (RepositoryException e) {
+				logger.warn(e.getMessage());
+			}
+		}
+	}
+}
@@ -27,7 +27,9 @@ package org.jlibrary.core.jcr;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.jcr.Node;
@@ -47,6 +49,7 @@ import org.jlibrary.core.entities.Directory;
 import org.jlibrary.core.entities.Document;
 import org.jlibrary.core.entities.DocumentMetaData;
 import org.jlibrary.core.entities.DocumentVersion;
+import org.jlibrary.core.entities.DocumentView;
 import org.jlibrary.core.entities.Favorite;
 import org.jlibrary.core.entities.Group;
 import org.jlibrary.core.entities.Lock;
@@ -60,7 +63,6 @@ import org.jlibrary.core.entities.Ticket;
 import org.jlibrary.core.entities.Types;
 import org.jlibrary.core.entities.User;
 import org.jlibrary.core.properties.RepositoryProperties;
-import org.jlibrary.core.security.SecurityException;
 import org.jlibrary.core.util.UUIDGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,7 +82,64 @@ public class JCRAdapter {
 											  javax.jcr.Node node) 
 												throws RepositoryException {
 
+		Repository repository = createRepositoryHeader(ticket,node);
+		
+		Directory root = createDirectory(node,
+				 null,
+				 repository.getId(),
+				 ticket.getUser().getId(),
+				 repository.getRepositoryConfig().isEnabledLazyLoading());
+		root.setRepository(repository.getId());
 
+		repository.setRoot(root);
+
+		return repository;
+	}
+	
+	/**
+	 * Creates a repository loading only the first levels of its tree
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param node Root node of the repository
+	 * @param filter Read filter of the user
+	 * @param depth Number of levels to load below the root. A negative 
+	 * value loads the whole tree
+	 * @param levelLimit Maximum number of nodes loaded on each level. If 
+	 * it is 0 or less then levels are not limited
+	 * @param view Level of detail of the loaded documents
+	 * 
+	 * @return Repository Repository with a partially loaded tree
+	 * 
+	 * @see #createTree(Node, String, String, SecurityFilter, int, int, DocumentView)
+	 */
+	public static Repository createRepository(Ticket ticket,
+											  javax.jcr.Node node,
+											  SecurityFilter filter,
+											  int depth,
+											  int levelLimit,
+											  DocumentView view) 
+												throws RepositoryException {
+		
+		Repository repository = createRepositoryHeader(ticket,node);
+		Directory root = createTree(node,
+									null,
+									repository.getId(),
+									filter,
+									depth,
+									levelLimit,
+									view);
+		repository.setRoot(root);
+		return repository;
+	}
+	
+	/**
+	 * Creates a repository with its categories and config but without its 
+	 * root directory
+	 */
+	private static Repository createRepositoryHeader(Ticket ticket,
+											  		 javax.jcr.Node node) 
+												throws RepositoryException {
+		
 		Repository repository = new Repository();
 		repository.setTicket(ticket);
 		
@@ -106,39 +165,129 @@ public class JCRAdapter {
 				JCRAdapter.createCategory(childCategory));
 		}
 		// Get config entries
-		Value physicalDeletes = JCRUtils.getConfigProperty(
-				node.getSession(),
+		WorkspaceConfig config = JCRUtils.getConfig(node.getSession());
+		Value physicalDeletes = config.getValue(
 				RepositoryProperties.PHYSICAL_DELETE_DOCUMENTS);
 		if (physicalDeletes != null) {
 			repository.getRepositoryConfig().setPhysicalDeleteDocuments(
 					physicalDeletes.getBoolean());
 		}
-		Value keywordsExtraction = JCRUtils.getConfigProperty(
-				node.getSession(),
+		Value keywordsExtraction = config.getValue(
 				RepositoryProperties.EXTRACT_DOCUMENT_METADATA);
 		if (keywordsExtraction != null) {
 			repository.getRepositoryConfig().setExtractMetadata(
 					keywordsExtraction.getBoolean());
 		}
-		Value lazyLoading = JCRUtils.getConfigProperty(
-				node.getSession(),
+		Value lazyLoading = config.getValue(
 				RepositoryProperties.DO_LAZY_LOADING);
 		if (lazyLoading != null) {
 			repository.getRepositoryConfig().setEnabledLazyLoading(
 					lazyLoading.getBoolean());
 		}
-		
-		Directory root = createDirectory(node,
-				 null,
-				 repository.getId(),
-				 ticket.getUser().getId(),
-				 repository.getRepositoryConfig().isEnabledLazyLoading());
-		root.setRepository(repository.getId());
-
-		repository.setRoot(root);
-
 		return repository;
-	}	
+	}
+	
+	/**
+	 * <p>Creates a directory and the first levels of its subtree. Levels are 
+	 * loaded breadth-first, and each level stops when it reaches its node 
+	 * limit, so the time and memory needed are bounded by 
+	 * <code>depth * levelLimit</code> nodes whatever the size of the 
+	 * tree.</p>
+	 * 
+	 * <p>Directories whose children were not all loaded have 
+	 * {@link Directory#isChildrenLoaded()} set to <code>false</code>. 
+	 * Clients expand them with another tree request or by paging their 
+	 * children.</p>
+	 * 
+	 * @param node Directory node
+	 * @param parentId Id of the parent of the directory
+	 * @param repositoryId Id of the repository
+	 * @param filter Read filter of the user
+	 * @param depth Number of levels to load below the directory. A negative 
+	 * value loads the whole subtree
+	 * @param levelLimit Maximum number of nodes loaded on each level. If it 
+	 * is 0 or less then levels are not limited
+	 * @param view Level of detail of the loaded documents
+	 * 
+	 * @return Directory Directory with its loaded subtree
+	 * 
+	 * @throws RepositoryException If the tree can't be loaded
+	 */
+	public static Directory createTree(javax.jcr.Node node,
+									   String parentId,
+									   String repositoryId,
+									   SecurityFilter filter,
+									   int depth,
+									   int levelLimit,
+									   DocumentView view) 
+												throws RepositoryException {
+		
+		JCRCreationContext context = new JCRCreationContext();
+		context.setSecurityFilter(filter);
+		context.setView(view);
+		
+		Directory root = internalCreateDirectory(
+				node,parentId,repositoryId,context,null,true);
+		root.setRepository(repositoryId);
+		
+		List level = new ArrayList();
+		level.add(new Object[]{root,node});
+		for (int i = 0; (depth < 0 || i < depth) && !level.isEmpty(); i++) {
+			List next = new ArrayList();
+			int loaded = 0;
+			Iterator it = level.iterator();
+			while (it.hasNext()) {
+				Object[] entry = (Object[])it.next();
+				Directory directory = (Directory)entry[0];
+				if (levelLimit > 0 && loaded >= levelLimit) {
+					break;
+				}
+				NodeIterator children = ((javax.jcr.Node)entry[1]).getNodes();
+				boolean complete = true;
+				while (children.hasNext()) {
+					javax.jcr.Node child = children.nextNode();
+					if (!JCRUtils.isActive(child)) {
+						continue;
+					}
+					boolean resource = 
+						child.isNodeType(JLibraryConstants.RESOURCE_MIXIN);
+					boolean folder = 
+						child.isNodeType(JLibraryConstants.DIRECTORY_MIXIN);
+					if (!resource && !folder && 
+						!child.isNodeType(JLibraryConstants.DOCUMENT_MIXIN)) {
+						continue;
+					}
+					if (!filter.canRead(child)) {
+						continue;
+					}
+					if (levelLimit > 0 && loaded >= levelLimit) {
+						complete = false;
+						break;
+					}
+					org.jlibrary.core.entities.Node created;
+					if (resource) {
+						created = createResource(
+								child,directory.getId(),repositoryId);
+					} else if (folder) {
+						Directory childDirectory = internalCreateDirectory(
+								child,directory.getId(),repositoryId,
+								context,null,true);
+						next.add(new Object[]{childDirectory,child});
+						created = childDirectory;
+					} else {
+						created = internalCreateDocument(
+								child,directory.getId(),repositoryId,context);
+					}
+					directory.getNodes().add(created);
+					loaded++;
+				}
+				directory.setChildrenLoaded(complete);
+			}
+			level = next;
+		}
+		context.clear();
+		return root;
+	}
 	
 	public static Directory createDirectory(javax.jcr.Node node,
 											String parentId,
@@ -159,6 +308,52 @@ public class JCRAdapter {
 		return directory;
 	}
 	
+	/**
+	 * Creates a directory using an already built read filter. This avoids 
+	 * compiling the member permissions again when several directories are 
+	 * created on the same request.
+	 */
+	public static Directory createDirectory(javax.jcr.Node node,
+											String parentId,
+											String repositoryId,
+											SecurityFilter filter,
+											boolean lazy) 
+												throws RepositoryException {
+		
+		return createDirectory(node,
+							   parentId,
+							   repositoryId,
+							   filter,
+							   lazy,
+							   DocumentView.FULL);
+	}
+	
+	/**
+	 * Creates a directory using an already built read filter. The documents 
+	 * below the directory are created with the given view.
+	 */
+	public static Directory createDirectory(javax.jcr.Node node,
+											String parentId,
+											String repositoryId,
+											SecurityFilter filter,
+											boolean lazy,
+											DocumentView view) 
+												throws RepositoryException {
+		
+		JCRCreationContext context = new JCRCreationContext();
+		context.setSecurityFilter(filter);
+		context.setView(view);
+		Directory directory = 
+			internalCreateDirectory(node,
+									parentId,
+									repositoryId,
+									context,
+									null,
+									lazy);
+		context.clear();
+		return directory;
+	}
+	
 	
 	public static Directory createDirectory(javax.jcr.Node node,
 			String parentId,
@@ -268,22 +463,18 @@ public class JCRAdapter {
 		
 		if (!lazy)
 		{
-			NodeIterator it = node.getNodes();
+			directory.setChildrenLoaded(true);
+			SecurityFilter filter = context.getSecurityFilter();
+			if (filter == null) {
+				filter = SecurityFilter.forMember(node.getSession(),memberId);
+				context.setSecurityFilter(filter);
+			}
+			Iterator it = filter.filter(node.getNodes()).iterator();
 			while (it.hasNext()) {
 				Node child = (Node)it.next();
 				if (!JCRUtils.isActive(child)) {
 					continue;
 				}
-				
-				try {
-					if ((memberId != null) &&
-						!JCRSecurityService.canRead(child,memberId)) {
-						continue;
-					}
-				} catch (SecurityException se) {
-					logger.error(se.getMessage(),se);
-					continue;
-				}
 				if (child.isNodeType(JLibraryConstants.RESOURCE_MIXIN)) {
 					directory.getNodes().add(
 							createResource(child,directory.getId(),repositoryId));
@@ -369,6 +560,10 @@ public class JCRAdapter {
 					JLibraryConstants.JLIBRARY_SIZE).
 					getLong()));			
 		}
+		if (node.hasProperty(JLibraryConstants.JLIBRARY_DIGEST)) {
+			resource.setDigest(node.getProperty(
+					JLibraryConstants.JLIBRARY_DIGEST).getString());
+		}
 		
 		resource.setNodes(new HashSet());
 		resource.setRepository(repositoryId);
@@ -382,13 +577,26 @@ public class JCRAdapter {
 			  							  String repositoryId) 
 													throws RepositoryException {
 		
+		return createDocument(node,parentId,repositoryId,DocumentView.FULL);
+	}	
+	
+	/**
+	 * Creates a document reading only the properties of a given view
+	 */
+	public static Document createDocument(javax.jcr.Node node,
+										  String parentId,
+										  String repositoryId,
+										  DocumentView view) 
+													throws RepositoryException {
+		
 		JCRCreationContext context = new JCRCreationContext();
+		context.setView(view);
 		Document document = 
 			internalCreateDocument(node,parentId,repositoryId,context);
 		
 		context.clear();
 		return document;
-	}	
+	}
 	
 	private static void processRelations(Node node, 
 										 Document document, 
@@ -406,23 +614,54 @@ public class JCRAdapter {
 		javax.jcr.Property relationsProperty = 
 			node.getProperty(JLibraryConstants.JLIBRARY_RELATIONS);
 		Value[] values = relationsProperty.getValues();
+		int depth = context.getRelationDepth();
 		for (int i = 0; i < values.length; i++) {
 			String uuid = values[i].getString();
 			Document relationDocument = (Document)context.getNode(uuid);			
 			if (relationDocument == null) {
-				javax.jcr.Node relationNode = 
-					node.getSession().getNodeByUUID(uuid);
-				relationDocument = 
-					internalCreateDocument(relationNode,
-										   relationNode.getParent().getUUID(),
-										   repositoryId,
-										   context);
-				context.addNode(relationDocument);
+				if (depth >= context.getMaxRelationDepth()) {
+					// Too far. Only a reference is returned, and it is not 
+					// stored on the context as it is not a complete document
+					relationDocument = createReference(uuid,repositoryId);
+				} else {
+					javax.jcr.Node relationNode = 
+						node.getSession().getNodeByUUID(uuid);
+					context.setRelationDepth(depth+1);
+					try {
+						relationDocument = 
+							internalCreateDocument(relationNode,
+												   relationNode.getParent().getUUID(),
+												   repositoryId,
+												   context);
+					} finally {
+						context.setRelationDepth(depth);
+					}
+					context.addNode(relationDocument);
+				}
 			}
 			
 			document.getRelations().add(relationDocument);
 		}		
 	}
+	
+	/**
+	 * Creates a {@link DocumentView#REFERENCE} document. It only contains 
+	 * the document id and its repository, and it can be used to load the 
+	 * whole document on demand.
+	 * 
+	 * @param id Id of the document
+	 * @param repositoryId Id of the document's repository
+	 * 
+	 * @return Document Document reference
+	 */
+	public static Document createReference(String id, String repositoryId) {
+		
+		Document reference = new Document();
+		reference.setId(id);
+		reference.setRepository(repositoryId);
+		reference.setView(DocumentView.REFERENCE);
+		return reference;
+	}
 
 	public static Document internalCreateDocument(javax.jcr.Node node,
 										  		  String parentId,
@@ -437,66 +676,103 @@ public class JCRAdapter {
 		// Not already generated
 		document = new Document();
 		
-		DocumentMetaData metadata = new DocumentMetaData();
-		document.setMetaData(metadata);
-	
-		if (node.isNodeType(JCRConstants.JCR_REFERENCEABLE)) {
-			document.setId(node.getUUID());
-		} else {
-			document.setId(node.getProperty(JCRConstants.JCR_UUID).
-					getValue().getString());
-		}
-	
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_NAME)) {
-			document.setName(node.getProperty(
-					JLibraryConstants.JLIBRARY_NAME).
-					getValue().getString());
-		}
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_DESCRIPTION)) {		
-			document.setDescription(node.getProperty(
-					JLibraryConstants.JLIBRARY_DESCRIPTION).
-					getValue().getString());
+		document.setMetaData(new DocumentMetaData());
+		
+		long generation = EntityCache.getGeneration();
+		DocumentSummary summary = (DocumentSummary)EntityCache.get(node);
+		if (summary == null) {
+			summary = new DocumentSummary(node);
+			EntityCache.put(node,summary,summary.getWeight(),generation);
 		}
+		summary.apply(document);
 	
+		// Location is not cached, as moving an ancestor doesn't notify 
+		// changes on the document node
 		document.setJCRPath(node.getPath());
 		document.setParent(parentId);
-	
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_CREATED)) {
-			Calendar date = node.getProperty(JLibraryConstants.JLIBRARY_CREATED).getDate();
-			document.setDate(date.getTime());
-		}
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_CREATOR)) {
-			document.setCreator(node.getProperty(
-					JLibraryConstants.JLIBRARY_CREATOR).
-					getString());			
+		if (summary.hasPath) {
+			String path = StringUtils.difference("/"+JLibraryConstants.JLIBRARY_ROOT, node.getPath());
+			document.setPath(path);
 		}
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_IMPORTANCE)) {
-			document.setImportance(new Integer((int)node.getProperty(
-					JLibraryConstants.JLIBRARY_IMPORTANCE).
-					getLong()));			
+		
+		DocumentView view = context.getView();
+		document.setView(view);
+		document.setNodes(new HashSet());
+		document.setRepository(repositoryId);
+		document.setResourceNodes(new HashSet());
+		document.setNotes(new HashSet());
+		document.setRelations(new HashSet());
+		document.setRestrictions(new ArrayList());
+		
+		if (view.includes(DocumentView.METADATA)) {
+			processMetadata(node,document);
 		}
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_TYPECODE)) {
-			document.setTypecode(new Integer((int)node.getProperty(
-					JLibraryConstants.JLIBRARY_TYPECODE).
-					getLong()));			
+		if (!view.includes(DocumentView.FULL)) {
+			context.addNode(document);
+			return document;
 		}
 	
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_PATH)) {
-			/*
-			document.setPath(node.getProperty(
-					JLibraryConstants.JLIBRARY_PATH).
-					getString());
-			*/
-			String path = StringUtils.difference("/"+JLibraryConstants.JLIBRARY_ROOT, node.getPath());
-			document.setPath(path);
+		// Handle resources
+		HashSet resources = new HashSet();
+		if (node.hasProperty(JLibraryConstants.JLIBRARY_RESOURCES)) {
+			javax.jcr.Property resourcesProperty = 
+				node.getProperty(JLibraryConstants.JLIBRARY_RESOURCES);
+			Session session = node.getSession();
+			Value[] values = resourcesProperty.getValues();
+			for (int i = 0; i < values.length; i++) {
+				String uuid = values[i].getString();
+				javax.jcr.Node resourceNode = session.getNodeByUUID(uuid);
+				String resourceParentId = resourceNode.getParent().getUUID();
+				resources.add(createResource(resourceNode,
+						 resourceParentId,
+						 repositoryId));
+			}
 		}
+		document.setResourceNodes(resources);
 	
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_POSITION)) {
-			document.setPosition(new Integer((int)node.getProperty(
-					JLibraryConstants.JLIBRARY_POSITION).
-					getLong()));			
+		// Handle notes
+		HashSet notes = new HashSet();
+		NodeIterator iterator = node.getNodes();
+		while (iterator.hasNext()) {
+			javax.jcr.Node child = (javax.jcr.Node)iterator.next();
+			if (!JCRUtils.isActive(child)) {
+				continue;
+			}
+			if (child.isNodeType(JLibraryConstants.NOTE_MIXIN)) {
+				Note note = createNote(child,document);
+				notes.add(note);
+			}
+		}
+		document.setNotes(notes);
+		
+		// Handle versions
+		if (node.hasNode(JCRConstants.JCR_BASE_VERSION)) {
+			Version[] predecessors = node.getBaseVersion().getPredecessors();
+			if (predecessors.length > 0 && predecessors[0].getPredecessors().length > 0) {
+				document.setLastVersionId(predecessors[0].getUUID());
+			} else {
+				document.setLastVersionId(node.getUUID());			
+			}
+		} else {
+			document.setLastVersionId(node.getUUID());
 		}
+		context.addNode(document);
+		
+		// Process relations. This depends on context stored data, so it must 
+		// be done as late as possible
+		processRelations(node,document,repositoryId,context);
+		
+		return document;
+	}
+	
+	/**
+	 * Fills the fields of the {@link DocumentView#METADATA} view
+	 */
+	private static void processMetadata(javax.jcr.Node node, 
+										Document document) 
+												throws RepositoryException {
 		
+		DocumentMetaData metadata = document.getMetaData();
 		if (node.hasProperty(JLibraryConstants.JLIBRARY_TITLE)) {
 			metadata.setTitle(node.getProperty(
 					JLibraryConstants.JLIBRARY_TITLE).
@@ -535,15 +811,12 @@ public class JCRAdapter {
 			metadata.setDate(date.getTime());
 		}
 		
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_SIZE)) {
-			document.setSize(new BigDecimal(node.getProperty(
-					JLibraryConstants.JLIBRARY_SIZE).
-					getLong()));			
-		}		
-		
 		if (node.isLocked()) {
 			Session session = node.getSession();
-			if (node.getLock().getLockOwner().equals(session.getUserID())) {
+			// Pooled sessions share the service account identity, their 
+			// lock tokens are handled by the locks module
+			if (!SessionManager.getInstance().isPooledSession(session) && 
+				node.getLock().getLockOwner().equals(session.getUserID())) {
 				try {
 					String lockToken = node.getProperty(
 							JCRConstants.JCR_LOCK_TOKEN).getString();
@@ -555,67 +828,13 @@ public class JCRAdapter {
 			document.setLock(createLock(node.getLock()));
 		}
 		
-		document.setNodes(new HashSet());
-		document.setRepository(repositoryId);
 		document.setRestrictions(obtainRestrictions(node));
-	
-		// Handle resources
-		HashSet resources = new HashSet();
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_RESOURCES)) {
-			javax.jcr.Property resourcesProperty = 
-				node.getProperty(JLibraryConstants.JLIBRARY_RESOURCES);
-			Session session = node.getSession();
-			Value[] values = resourcesProperty.getValues();
-			for (int i = 0; i < values.length; i++) {
-				String uuid = values[i].getString();
-				javax.jcr.Node resourceNode = session.getNodeByUUID(uuid);
-				String resourceParentId = resourceNode.getParent().getUUID();
-				resources.add(createResource(resourceNode,
-						 resourceParentId,
-						 repositoryId));
-			}
-		}
-		document.setResourceNodes(resources);
-	
-		// Handle notes
-		HashSet notes = new HashSet();
-		NodeIterator iterator = node.getNodes();
-		while (iterator.hasNext()) {
-			javax.jcr.Node child = (javax.jcr.Node)iterator.next();
-			if (!JCRUtils.isActive(child)) {
-				continue;
-			}
-			if (child.isNodeType(JLibraryConstants.NOTE_MIXIN)) {
-				Note note = createNote(child,document);
-				notes.add(note);
-			}
-		}
-		document.setNotes(notes);
-		
-		// Handle versions
-		if (node.hasNode(JCRConstants.JCR_BASE_VERSION)) {
-			Version[] predecessors = node.getBaseVersion().getPredecessors();
-			if (predecessors.length > 0 && predecessors[0].getPredecessors().length > 0) {
-				document.setLastVersionId(predecessors[0].getUUID());
-			} else {
-				document.setLastVersionId(node.getUUID());			
-			}
-		} else {
-			document.setLastVersionId(node.getUUID());
-		}
-		context.addNode(document);
 		
 		try {
 			processCustomProperties(node,document);
 		} catch (Exception e) {
 			logger.error(e.getMessage(),e);
 		}
-		
-		// Process relations. This depends on context stored data, so it must 
-		// be done as late as possible
-		processRelations(node,document,repositoryId,context);
-		
-		return document;
 	}
 	
 	private static void processCustomProperties(Node node, Document document) throws Exception {
@@ -826,6 +1045,30 @@ public class JCRAdapter {
 	public static Author createAuthor(javax.jcr.Node node)
 										throws RepositoryException {
 	
+		long generation = EntityCache.getGeneration();
+		Author cached = (Author)EntityCache.get(node);
+		if (cached == null) {
+			cached = readAuthor(node);
+			EntityCache.put(node,
+							cached,
+							ENTRY_WEIGHT + 
+								weight(cached.getName()) + 
+								weight(cached.getBio()),
+							generation);
+		}
+		
+		Author author = new Author();
+		author.setId(cached.getId());
+		author.setRepository(cached.getRepository());
+		author.setActive(cached.isActive());
+		author.setName(cached.getName());
+		author.setBio(cached.getBio());
+		return author;
+	}
+	
+	private static Author readAuthor(javax.jcr.Node node)
+										throws RepositoryException {
+		
 		Author author = new Author();
 		String repositoryId = JCRUtils.getRootNode(node.getSession()).getUUID();
 		author.setRepository(repositoryId);	
@@ -876,39 +1119,27 @@ public class JCRAdapter {
 			return category;
 		}
 		
-		category = new Category();
-		String repositoryId = JCRUtils.getRootNode(node.getSession()).getUUID();
-		category.setRepository(repositoryId);
-		category.setFavorites(new HashSet());
-
-		if (node.isNodeType(JCRConstants.JCR_REFERENCEABLE)) {
-			category.setId(node.getUUID());
-		} else {
-			category.setId(node.getProperty(JCRConstants.JCR_UUID).
-					getValue().getString());
+		long generation = EntityCache.getGeneration();
+		Category cached = (Category)EntityCache.get(node);
+		if (cached == null) {
+			cached = readCategory(node);
+			EntityCache.put(node,
+							cached,
+							ENTRY_WEIGHT + 
+								weight(cached.getName()) + 
+								weight(cached.getDescription()),
+							generation);
 		}
 		
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_NAME)) {
-			category.setName(node.getProperty(
-					JLibraryConstants.JLIBRARY_NAME).getString());
-			
-			if (category.getName().equals(Category.UNKNOWN_NAME)) {
-				// Little trick. We will change the id because this is the 
-				// unknown category
-				category.setId(Category.UNKNOWN.getId());
-				category.setUnknownCategory(true);
-			}
-		}		
-		
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_DESCRIPTION)) {
-			category.setDescription(node.getProperty(
-					JLibraryConstants.JLIBRARY_DESCRIPTION).getString());
-		}
-
-		if (node.hasProperty(JLibraryConstants.JLIBRARY_DATE)) {
-			Calendar date = node.getProperty(
-					JLibraryConstants.JLIBRARY_DATE).getDate();
-			category.setDate(date.getTime());
+		category = new Category();
+		category.setRepository(cached.getRepository());
+		category.setFavorites(new HashSet());
+		category.setId(cached.getId());
+		category.setName(cached.getName());
+		category.setUnknownCategory(cached.isUnknownCategory());
+		category.setDescription(cached.getDescription());
+		if (cached.getDate() != null) {
+			category.setDate(new Date(cached.getDate().getTime()));
 		}
 		
 		context.addCategory(category);
@@ -952,6 +1183,48 @@ public class JCRAdapter {
 		return category;
 	}
 
+	/**
+	 * Reads the category fields that are stored on its own node
+	 */
+	private static Category readCategory(javax.jcr.Node node)
+											throws RepositoryException {
+		
+		Category category = new Category();
+		String repositoryId = JCRUtils.getRootNode(node.getSession()).getUUID();
+		category.setRepository(repositoryId);
+
+		if (node.isNodeType(JCRConstants.JCR_REFERENCEABLE)) {
+			category.setId(node.getUUID());
+		} else {
+			category.setId(node.getProperty(JCRConstants.JCR_UUID).
+					getValue().getString());
+		}
+		
+		if (node.hasProperty(JLibraryConstants.JLIBRARY_NAME)) {
+			category.setName(node.getProperty(
+					JLibraryConstants.JLIBRARY_NAME).getString());
+			
+			if (category.getName().equals(Category.UNKNOWN_NAME)) {
+				// Little trick. We will change the id because this is the 
+				// unknown category
+				category.setId(Category.UNKNOWN.getId());
+				category.setUnknownCategory(true);
+			}
+		}		
+		
+		if (node.hasProperty(JLibraryConstants.JLIBRARY_DESCRIPTION)) {
+			category.setDescription(node.getProperty(
+					JLibraryConstants.JLIBRARY_DESCRIPTION).getString());
+		}
+
+		if (node.hasProperty(JLibraryConstants.JLIBRARY_DATE)) {
+			Calendar date = node.getProperty(
+					JLibraryConstants.JLIBRARY_DATE).getDate();
+			category.setDate(date.getTime());
+		}
+		return category;
+	}
+
 	public static Lock createLock(javax.jcr.lock.Lock nodeLock) 
 										throws javax.jcr.RepositoryException {
 		
@@ -1319,5 +1592,125 @@ public class JCRAdapter {
 		}
 		
 		return bookmark;
-	}	
+	}
+
+	/**
+	 * Approximate weight of a cached entry without its strings
+	 */
+	private static final int ENTRY_WEIGHT = 64;
+	
+	private static int weight(String value) {
+		
+		return value == null ? 0 : value.length() * 2;
+	}
+	
+	/**
+	 * Document fields read from the document node properties. It is 
+	 * shared through {@link EntityCache}, so it is never modified once read.
+	 */
+	private static final class DocumentSummary {
+		
+		private final String id;
+		private final String name;
+		private final String description;
+		private final Date date;
+		private final String creator;
+		private final Integer importance;
+		private final Integer typecode;
+		private final boolean hasPath;
+		private final Integer position;
+		private final Long size;
+		private final String digest;
+		
+		DocumentSummary(javax.jcr.Node node) throws RepositoryException {
+			
+			if (node.isNodeType(JCRConstants.JCR_REFERENCEABLE)) {
+				id = node.getUUID();
+			} else {
+				id = node.getProperty(JCRConstants.JCR_UUID).
+						getValue().getString();
+			}
+			name = getString(node,JLibraryConstants.JLIBRARY_NAME);
+			description = getString(node,JLibraryConstants.JLIBRARY_DESCRIPTION);
+			if (node.hasProperty(JLibraryConstants.JLIBRARY_CREATED)) {
+				date = node.getProperty(
+						JLibraryConstants.JLIBRARY_CREATED).getDate().getTime();
+			} else {
+				date = null;
+			}
+			creator = getString(node,JLibraryConstants.JLIBRARY_CREATOR);
+			importance = getInteger(node,JLibraryConstants.JLIBRARY_IMPORTANCE);
+			typecode = getInteger(node,JLibraryConstants.JLIBRARY_TYPECODE);
+			hasPath = node.hasProperty(JLibraryConstants.JLIBRARY_PATH);
+			position = getInteger(node,JLibraryConstants.JLIBRARY_POSITION);
+			if (node.hasProperty(JLibraryConstants.JLIBRARY_SIZE)) {
+				size = new Long(node.getProperty(
+						JLibraryConstants.JLIBRARY_SIZE).getLong());
+			} else {
+				size = null;
+			}
+			digest = getString(node,JLibraryConstants.JLIBRARY_DIGEST);
+		}
+		
+		void apply(Document document) {
+			
+			document.setId(id);
+			if (name != null) {
+				document.setName(name);
+			}
+			if (description != null) {
+				document.setDescription(description);
+			}
+			if (date != null) {
+				document.setDate(new Date(date.getTime()));
+			}
+			if (creator != null) {
+				document.setCreator(creator);
+			}
+			if (importance != null) {
+				document.setImportance(importance);
+			}
+			if (typecode != null) {
+				document.setTypecode(typecode);
+			}
+			if (position != null) {
+				document.setPosition(position);
+			}
+			if (size != null) {
+				document.setSize(new BigDecimal(size.longValue()));
+			}
+			if (digest != null) {
+				document.setDigest(digest);
+			}
+		}
+		
+		int getWeight() {
+			
+			return ENTRY_WEIGHT + 
+				   weight(name) + 
+				   weight(description) + 
+				   weight(creator) +
+				   weight(digest);
+		}
+		
+		private static String getString(javax.jcr.Node node, 
+										String property) 
+												throws RepositoryException {
+			
+			if (!node.hasProperty(property)) {
+				return null;
+			}
+			return node.getProperty(property).getValue().getString();
+		}
+		
+		private static Integer getInteger(javax.jcr.Node node, 
+										  String property) 
+												throws RepositoryException {
+			
+			if (!node.hasProperty(property)) {
+				return null;
+			}
+			return new Integer((int)node.getProperty(property).getLong());
+		}
+	}
 }
@@ -24,8 +24,10 @@ package org.jlibrary.core.jcr;
 
 import java.util.HashMap;
 
+import org.jlibrary.core.config.SessionConfigurationReader;
 import org.jlibrary.core.entities.Bookmark;
 import org.jlibrary.core.entities.Category;
+import org.jlibrary.core.entities.DocumentView;
 import org.jlibrary.core.entities.Member;
 import org.jlibrary.core.entities.Node;
 import org.jlibrary.core.entities.Rol;
@@ -40,6 +42,12 @@ import org.jlibrary.core.entities.Rol;
 public class JCRCreationContext {
 
 	private HashMap references = new HashMap();
+	private SecurityFilter securityFilter;
+	private DocumentView view = DocumentView.FULL;
+	private int relationDepth;
+	private int maxRelationDepth = getDefaultRelationDepth();
+	
+	private static int defaultRelationDepth = -1;
 	
 	/**
 	 * Adds a node to the context
@@ -151,6 +159,103 @@ public class JCRCreationContext {
 		return (Bookmark)references.get(id);
 	}	
 	
+	/**
+	 * Gets the read filter used to discard the nodes that the current 
+	 * member can't read
+	 * 
+	 * @return SecurityFilter Read filter or <code>null</code> if it has not 
+	 * been set
+	 */
+	public SecurityFilter getSecurityFilter() {
+		
+		return securityFilter;
+	}
+	
+	/**
+	 * Sets the read filter used to discard the nodes that the current 
+	 * member can't read
+	 * 
+	 * @param securityFilter Read filter
+	 */
+	public void setSecurityFilter(SecurityFilter securityFilter) {
+		
+		this.securityFilter = securityFilter;
+	}
+	
+	/**
+	 * Gets the level of detail used to create the documents
+	 * 
+	 * @return DocumentView Document view. {@link DocumentView#FULL} by default
+	 */
+	public DocumentView getView() {
+		
+		return view;
+	}
+	
+	/**
+	 * Sets the level of detail used to create the documents
+	 * 
+	 * @param view Document view
+	 */
+	public void setView(DocumentView view) {
+		
+		this.view = (view == null) ? DocumentView.FULL : view;
+	}
+	
+	/**
+	 * Gets the distance, following relations, from the document that is 
+	 * being created to the document requested
+	 * 
+	 * @return int Relation depth. 0 for the requested documents
+	 */
+	public int getRelationDepth() {
+		
+		return relationDepth;
+	}
+	
+	/**
+	 * Sets the distance, following relations, from the document that is 
+	 * being created to the document requested
+	 * 
+	 * @param relationDepth Relation depth
+	 */
+	public void setRelationDepth(int relationDepth) {
+		
+		this.relationDepth = relationDepth;
+	}
+	
+	/**
+	 * Gets the maximum relation depth of the loaded documents. Documents 
+	 * related further than this depth are returned as references. It is 
+	 * read from the <code>relations.depth</code> session config entry.
+	 * 
+	 * @return int Maximum relation depth
+	 */
+	public int getMaxRelationDepth() {
+		
+		return maxRelationDepth;
+	}
+	
+	/**
+	 * Sets the maximum relation depth of the loaded documents
+	 * 
+	 * @param maxRelationDepth Maximum relation depth. 0 to return all the 
+	 * relations as references
+	 */
+	public void setMaxRelationDepth(int maxRelationDepth) {
+		
+		this.maxRelationDepth = maxRelationDepth;
+	}
+	
+	private static synchronized int getDefaultRelationDepth() {
+		
+		if (defaultRelationDepth == -1) {
+			defaultRelationDepth = Integer.parseInt(
+					SessionConfigurationReader.getString("relations.depth","1"));
+		}
+		return defaultRelationDepth;
+	}
+	
 	/**
 	 * Clears the context contents
 	 *
@@ -158,5 +263,8 @@ public class JCRCreationContext {
 	public void clear() {
 		
 		references.clear();
+		securityFilter = null;
+		view = DocumentView.FULL;
+		relationDepth = 0;
 	}
 }
@@ -42,6 +42,7 @@ import org.apache.jackrabbit.core.config.ConfigurationException;
 import org.apache.jackrabbit.core.nodetype.InvalidNodeTypeDefException;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.jlibrary.core.config.SessionConfigurationReader;
 import org.jlibrary.core.entities.Author;
 import org.jlibrary.core.entities.Category;
 import org.jlibrary.core.entities.Node;
@@ -205,6 +206,14 @@ public class JCRRepositoryBuilder {
 		JCRUtils.setConfigEntry(session,
 								RepositoryProperties.DO_LAZY_LOADING,
 								Boolean.TRUE);
+		JCRUtils.setConfigEntry(session,
+								NodePaths.DERIVED_PATHS,
+								Boolean.valueOf(SessionConfigurationReader.getString(
+										"node.paths.derived","false")));
+		JCRUtils.setConfigEntry(session,
+								CategoryMemberships.INDEXED_MEMBERSHIPS,
+								Boolean.valueOf(SessionConfigurationReader.getString(
+										"category.memberships.indexed","false")));
 		
 		// Create security structure
 		new JCRSecurityService().buildWorkspaceSecurity(session);				
@@ -214,6 +223,7 @@ public class JCRRepositoryBuilder {
 		javax.jcr.Node categoriesNode = 
 			systemNode.addNode(JLibraryConstants.JLIBRARY_CATEGORIES,
 							   JLibraryConstants.INTERNAL_MIXIN);
+		CategoryMemberships.createIndex(session);
 		
 		// Check authors subnode
 		javax.jcr.Node authorsNode = 
@@ -265,6 +275,7 @@ public class JCRRepositoryBuilder {
 				JLibraryConstants.JLIBRARY_DATE,date);
 		unknownCategoryNode.setProperty(JLibraryConstants.JLIBRARY_NODES,
 										new Value[]{});
+		CategoryMemberships.addCategory(unknownCategoryNode);
 		systemNode.setProperty(JLibraryConstants.JLIBRARY_UNKNOWN_CATEGORY,
 				   			   unknownCategoryNode);
 					
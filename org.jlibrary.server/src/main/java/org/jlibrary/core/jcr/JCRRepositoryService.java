@@ -33,8 +33,10 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.ItemNotFoundException;
@@ -44,15 +46,11 @@ import javax.jcr.ReferentialIntegrityException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 import javax.jcr.Value;
-import javax.jcr.Workspace;
-import javax.jcr.query.QueryManager;
-import javax.jcr.query.QueryResult;
 import javax.jcr.version.Version;
 import javax.jcr.version.VersionHistory;
 import javax.jcr.version.VersionIterator;
 import javax.jcr.version.VersionManager;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.core.WorkspaceImpl;
@@ -62,34 +60,48 @@ import org.jlibrary.core.entities.Bookmark;
 import org.jlibrary.core.entities.Category;
 import org.jlibrary.core.entities.Directory;
 import org.jlibrary.core.entities.Document;
+import org.jlibrary.core.entities.DocumentView;
 import org.jlibrary.core.entities.Favorite;
 import org.jlibrary.core.entities.Lock;
 import org.jlibrary.core.entities.Node;
+import org.jlibrary.core.entities.NodeOrder;
+import org.jlibrary.core.entities.ContentInfo;
+import org.jlibrary.core.entities.NodePage;
 import org.jlibrary.core.entities.Note;
 import org.jlibrary.core.entities.Relation;
+import org.jlibrary.core.entities.RelationGraph;
 import org.jlibrary.core.entities.Repository;
 import org.jlibrary.core.entities.RepositoryInfo;
 import org.jlibrary.core.entities.ResourceNode;
 import org.jlibrary.core.entities.Ticket;
 import org.jlibrary.core.entities.Types;
+import org.jlibrary.core.entities.UploadSession;
 import org.jlibrary.core.entities.User;
 import org.jlibrary.core.jcr.modules.JCRAuthorsModule;
 import org.jlibrary.core.jcr.modules.JCRBookmarksModule;
 import org.jlibrary.core.jcr.modules.JCRCategoriesModule;
+import org.jlibrary.core.jcr.modules.JCRChildrenModule;
 import org.jlibrary.core.jcr.modules.JCRCleanupModule;
+import org.jlibrary.core.jcr.modules.JCRContentModule;
 import org.jlibrary.core.jcr.modules.JCRFavoritesModule;
 import org.jlibrary.core.jcr.modules.JCRImportExportModule;
 import org.jlibrary.core.jcr.modules.JCRLocksModule;
+import org.jlibrary.core.jcr.modules.JCRRelationsModule;
 import org.jlibrary.core.jcr.modules.JCRResourcesModule;
+import org.jlibrary.core.jcr.query.PreparedQueries;
+import org.jlibrary.core.jcr.query.QueryTemplates;
 import org.jlibrary.core.locking.ResourceLockedException;
 import org.jlibrary.core.properties.AuthorProperties;
 import org.jlibrary.core.properties.CategoryProperties;
 import org.jlibrary.core.properties.CustomPropertyDefinition;
 import org.jlibrary.core.properties.DirectoryProperties;
 import org.jlibrary.core.properties.DocumentProperties;
+import org.jlibrary.core.properties.InvalidPropertyTypeException;
 import org.jlibrary.core.properties.PropertyDef;
+import org.jlibrary.core.properties.PropertyNotFoundException;
 import org.jlibrary.core.properties.RepositoryProperties;
 import org.jlibrary.core.properties.ResourceNodeProperties;
+import org.jlibrary.core.properties.StreamContent;
 import org.jlibrary.core.repository.RepositoryService;
 import org.jlibrary.core.repository.exception.AuthorAlreadyExistsException;
 import org.jlibrary.core.repository.exception.AuthorNotFoundException;
@@ -128,6 +140,9 @@ public class JCRRepositoryService implements RepositoryService {
 	private JCRBookmarksModule bookmarksModule;
 	private JCRImportExportModule importExportModule;
 	private JCRCleanupModule cleanupModule;
+	private JCRRelationsModule relationsModule;
+	private JCRChildrenModule childrenModule;
+	private JCRContentModule contentModule;
 		
 	private JCRRepositoryBuilder builder;
 	
@@ -141,6 +156,9 @@ public class JCRRepositoryService implements RepositoryService {
 		bookmarksModule = new JCRBookmarksModule();
 		importExportModule = new JCRImportExportModule();
 		cleanupModule = new JCRCleanupModule();
+		relationsModule = new JCRRelationsModule();
+		childrenModule = new JCRChildrenModule();
+		contentModule = new JCRContentModule();
 		builder = new JCRRepositoryBuilder();
 	}
 	
@@ -180,10 +198,10 @@ public class JCRRepositoryService implements RepositoryService {
 			javax.jcr.Node root = JCRUtils.getRootNode(session);
 			javax.jcr.Node parent = session.getNodeByUUID(parentId);
 			
-			Object syncLock = LockUtility.obtainLock(parent);
+			NodeLock lock = NodeLockManager.getInstance().writeLock(parent);
 			
 			javax.jcr.Node child;
-			synchronized(syncLock) {
+			try {
 				if (!JCRSecurityService.canWrite(parent, ticket.getUser().getId())) {
 					throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
 				}
@@ -208,8 +226,8 @@ public class JCRRepositoryService implements RepositoryService {
 				child.setProperty(JLibraryConstants.JLIBRARY_POSITION,0);
 				child.setProperty(JLibraryConstants.JLIBRARY_SIZE,0);
 				
-				String path = getPath(parent) + 
-		  		  obtainAvailableDirectoryName(parent,child);
+				String path = NodePaths.getInstance().buildPath(parent,
+		  		  obtainAvailableDirectoryName(parent,child));
 				
 				child.setProperty(JLibraryConstants.JLIBRARY_PATH,path);
 				
@@ -223,6 +241,8 @@ public class JCRRepositoryService implements RepositoryService {
 				if (ticket.isAutocommit()) {
 					session.save();
 				}
+			} finally {
+				lock.release();
 			}
 			return JCRAdapter.createDirectory(child,
 											  parentId,
@@ -249,22 +269,7 @@ public class JCRRepositoryService implements RepositoryService {
 	public String getPath(javax.jcr.Node node) throws RepositoryException {
 		
 		try {
-			if (node.hasProperty(JLibraryConstants.JLIBRARY_CREATED)) {
-				javax.jcr.Property pathProperty = 
-					node.getProperty(JLibraryConstants.JLIBRARY_PATH);
-			
-				if (pathProperty == null) {
-					return "/";
-				} else {
-					String path = pathProperty.getValue().getString();
-					if (!path.endsWith("/")) {
-						return path+"/";
-					}
-					return path;
-				}
-			} else {
-				return "/";
-			}
+			return NodePaths.addSeparator(NodePaths.getInstance().getPath(node));
 		} catch (PathNotFoundException e) {
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
@@ -292,10 +297,13 @@ public class JCRRepositoryService implements RepositoryService {
 			// Remove favorites
 			favoritesModule.removeFavoriteReferences(directory);			
 			
+			CategoryMemberships.removeMember(directory);
 			// process references
 			JCRUtils.removeReferences(directory);
 								
 			if (JCRUtils.allowsPhysicalDeletes(session)) {
+				ChildNameRegistry.getInstance().release(directory);
+				DirectorySlotRegistry.getInstance().release(directory);
 				directory.remove();
 			} else {
 				JCRUtils.deactivate(directory);
@@ -339,20 +347,55 @@ public class JCRRepositoryService implements RepositoryService {
 											   RepositoryException, 
 											   SecurityException {
 
+		return loadRepository(name,ticket,false,-1,0,DocumentView.FULL);
+	}
+	
+	/**
+	 * @see RepositoryService#findRepository(String, Ticket, int, int, DocumentView)
+	 */
+	public Repository findRepository(String name, 
+									 Ticket ticket,
+									 int depth,
+									 int levelLimit,
+									 DocumentView view) 
+										throws RepositoryNotFoundException, 
+											   RepositoryException, 
+											   SecurityException {
+
+		return loadRepository(name,ticket,true,depth,levelLimit,view);
+	}
+	
+	private Repository loadRepository(String name, 
+			 						  Ticket ticket,
+			 						  boolean tree,
+			 						  int depth,
+			 						  int levelLimit,
+			 						  DocumentView view) 
+										throws RepositoryNotFoundException, 
+											   RepositoryException, 
+											   SecurityException {
+		
 		javax.jcr.Session session = null;
+		boolean login = false;
 		try {
-			SimpleCredentials creds =
-				  new SimpleCredentials(
-						  ticket.getUser().getName(),
-						  ticket.getUser().getPassword().toCharArray());
-				  
-			javax.jcr.Repository repository = SessionManager.getInstance().getRepository();
 			// Change the name to lowercase
 			name = name.toLowerCase();
-			session = repository.login(creds,name);			 
 			
-			Repository jLibraryRepository = null;
-
+			// The ticket session is reused when it is already opened on the 
+			// requested workspace
+			session = SessionManager.getInstance().getSession(ticket);
+			if ((session == null) || 
+				!session.getWorkspace().getName().equals(name)) {
+				SimpleCredentials creds =
+					  new SimpleCredentials(
+							  ticket.getUser().getName(),
+							  ticket.getUser().getPassword().toCharArray());
+					  
+				javax.jcr.Repository repository = SessionManager.getInstance().getRepository();
+				session = repository.login(creds,name);
+				login = true;
+			}
+			
 			// Normal case, we want to load a jlibrary repository
 			javax.jcr.Node jLibraryRootNode = JCRUtils.getRootNode(session);
 
@@ -360,11 +403,18 @@ public class JCRRepositoryService implements RepositoryService {
 				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
 			}
 			
-			jLibraryRepository = JCRAdapter.createRepository(ticket,
-															 name,
-															 jLibraryRootNode);
-			
-			return jLibraryRepository;
+			if (!tree) {
+				return JCRAdapter.createRepository(ticket,
+												   name,
+												   jLibraryRootNode);
+			}
+			return JCRAdapter.createRepository(
+					ticket,
+					jLibraryRootNode,
+					SecurityFilter.forTicket(session,ticket),
+					depth,
+					levelLimit,
+					view);
 			
 		} catch (javax.jcr.NoSuchWorkspaceException nswe) {
 			throw new RepositoryNotFoundException();
@@ -372,11 +422,56 @@ public class JCRRepositoryService implements RepositoryService {
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
 		} finally {
-			if (session != null) {
+			if (login && (session != null)) {
 				session.logout();
 			}
 		}
 	}
+	
+	/**
+	 * @see RepositoryService#findDirectoryTree(Ticket, String, int, int, DocumentView)
+	 */
+	public Directory findDirectoryTree(Ticket ticket,
+									   String directoryId,
+									   int depth,
+									   int levelLimit,
+									   DocumentView view) 
+											throws RepositoryException,
+												   NodeNotFoundException,
+												   SecurityException {
+		
+		javax.jcr.Session session = SessionManager.getInstance().getSession(ticket);
+		if (session == null) {
+			throw new RepositoryException("Session has expired. Please log in again.");
+		}
+		try {
+			javax.jcr.Node node = session.getNodeByUUID(directoryId);
+			if (!node.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
+				throw new NodeNotFoundException("The node is not a directory");
+			}
+			if (!JCRSecurityService.canRead(node, ticket.getUser().getId())) {
+				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
+			}
+			javax.jcr.Node root = JCRUtils.getRootNode(session);
+			String parentId = null;
+			if (!node.isSame(root)) {
+				parentId = node.getParent().getUUID();
+			}
+			return JCRAdapter.createTree(node,
+										 parentId,
+										 root.getUUID(),
+										 SecurityFilter.forTicket(session,ticket),
+										 depth,
+										 levelLimit,
+										 view);
+		} catch (ItemNotFoundException infe) {
+			logger.error(infe.getMessage(),infe);
+			throw new NodeNotFoundException(infe);
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}
+	}
 
 	public void deleteRepository(Ticket ticket) 
 										throws RepositoryException, 
@@ -395,6 +490,9 @@ public class JCRRepositoryService implements RepositoryService {
 			
 			String workspacePath = 
 				((WorkspaceImpl)session.getWorkspace()).getConfig().getHomeDir();
+			// A new repository could reuse the workspace name
+			PrincipalCache.invalidate(session);
+			WorkspaceConfigCache.invalidate(session);
 			session.logout();
 			SessionManager.getInstance().dettach(ticket);
 
@@ -525,15 +623,20 @@ public class JCRRepositoryService implements RepositoryService {
 		try {
 			javax.jcr.Node root = JCRUtils.getRootNode(session);
 			
-			//The operation will be synchronized on the first element. 
-			//TODO: Improve synchronization here
-			DocumentProperties first = (DocumentProperties)properties.get(0);
-			String parentId = (String)first.getProperty(
-					DocumentProperties.DOCUMENT_PARENT).getValue();
-			javax.jcr.Node parent = session.getNodeByUUID(parentId);
-			Object syncLock = LockUtility.obtainLock(parent);
-			Iterator it;
-			synchronized(syncLock) {
+			// Lock every distinct parent of the batch. The lock manager 
+			// acquires them in path order, so batches can't deadlock
+			Map parents = new HashMap();
+			Iterator it = properties.iterator();
+			while (it.hasNext()) {
+				DocumentProperties docProperties = (DocumentProperties)it.next();
+				String parentId = (String)docProperties.getProperty(
+						DocumentProperties.DOCUMENT_PARENT).getValue();
+				if (!parents.containsKey(parentId)) {
+					parents.put(parentId,session.getNodeByUUID(parentId));
+				}
+			}
+			NodeLock lock = NodeLockManager.getInstance().writeLock(parents.values());
+			try {
 				it = properties.iterator();
 				while (it.hasNext()) {
 					DocumentProperties docProperties = (DocumentProperties)it.next();
@@ -546,6 +649,8 @@ public class JCRRepositoryService implements RepositoryService {
 				if (ticket.isAutocommit()) {
 					session.save();
 				}
+			} finally {
+				lock.release();
 			}
 			it = nodes.iterator();
 			while (it.hasNext()) {
@@ -579,11 +684,14 @@ public class JCRRepositoryService implements RepositoryService {
 					DocumentProperties.DOCUMENT_PARENT).getValue();
 			javax.jcr.Node parent = session.getNodeByUUID(parentId);
 			javax.jcr.Node node = null;
-			synchronized (LockUtility.obtainLock(parent)) {
+			NodeLock lock = NodeLockManager.getInstance().writeLock(parent);
+			try {
 				node = internalCreateDocument(session,ticket,properties);
 				if (ticket.isAutocommit()) {
 					session.save();
 				}
+			} finally {
+				lock.release();
 			}
 			javax.jcr.Node root = JCRUtils.getRootNode(session);
 			return JCRAdapter.createDocument(node,
@@ -604,7 +712,6 @@ public class JCRRepositoryService implements RepositoryService {
 													throws RepositoryException, 
 														   SecurityException {
 	
-		ByteArrayInputStream bais = null;
 		try {
 			String parentId = (String)properties.getProperty(
 					DocumentProperties.DOCUMENT_PARENT).getValue();
@@ -676,8 +783,8 @@ public class JCRRepositoryService implements RepositoryService {
 			child.setProperty(JLibraryConstants.JLIBRARY_CREATION_DATE,date);
 	
 			child.setProperty(JLibraryConstants.JLIBRARY_PATH,
-					  		  getPath(parent) + 
-					  		  FileUtils.getFileName(path));			
+					  		  NodePaths.getInstance().buildPath(parent,
+					  				  FileUtils.getFileName(path)));			
 									
 			// Handle authors
 			if (author.equals(Author.UNKNOWN)) {
@@ -728,41 +835,22 @@ public class JCRRepositoryService implements RepositoryService {
 												   JCRConstants.JCR_RESOURCE);
 			resNode.addMixin(JLibraryConstants.CONTENT_MIXIN);
 	
-			byte[] content = (byte[])properties.getProperty(
-								DocumentProperties.DOCUMENT_CONTENT).getValue();
-			if (content == null) {
-				// Empty file
-				content = new byte[]{};
-			}
-	
-			bais = new ByteArrayInputStream(content);
 			//TODO: Handle encoding
 			String mimeType = 
 				Types.getMimeTypeForExtension(FileUtils.getExtension(path));
 	        resNode.setProperty (JCRConstants.JCR_MIME_TYPE, mimeType);
 	        resNode.setProperty (JCRConstants.JCR_ENCODING, 
 	        					 JCRConstants.DEFAULT_ENCODING);
-	        resNode.setProperty (JCRConstants.JCR_DATA, 
-	        					 new ByteArrayInputStream(content));
+	        JCRUtils.setContent(child,resNode,properties.getProperty(
+	        		DocumentProperties.DOCUMENT_CONTENT).getValue());
 	        Calendar lastModified = Calendar.getInstance ();
 	        lastModified.setTimeInMillis (new Date().getTime());
 	        resNode.setProperty (JCRConstants.JCR_LAST_MODIFIED, lastModified);
-	
-			child.setProperty(JLibraryConstants.JLIBRARY_SIZE,content.length);
 	        
 			return child;
 		} catch (Throwable e) {
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
-		} finally {
-			if (bais != null) {
-				try {
-					bais.close();
-				} catch (IOException ioe) {
-					logger.error(ioe.getMessage(),ioe);
-					throw new RepositoryException(ioe);
-				}
-			}
 		}
 	}
 
@@ -786,6 +874,7 @@ public class JCRRepositoryService implements RepositoryService {
 			
 			// Remove favorites
 			favoritesModule.removeFavoriteReferences(document);
+			CategoryMemberships.removeMember(document);
 			// Remove the other references
 			JCRUtils.removeReferences(document);
 
@@ -810,6 +899,7 @@ public class JCRRepositoryService implements RepositoryService {
                     } 					
                 } 				
 				
+				ChildNameRegistry.getInstance().release(document);
 				document.remove();
 			} else {
 				JCRUtils.deactivate(document);
@@ -833,37 +923,7 @@ public class JCRRepositoryService implements RepositoryService {
 										throws RepositoryException, 
 											   SecurityException {
 		
-		SessionManager manager = SessionManager.getInstance();
-		Session session = manager.getSession(ticket);
-		
-		InputStream is = null;
-		try {
-			javax.jcr.Node resource = session.getNodeByUUID(docId);
-			
-			if (!JCRSecurityService.canRead(resource, ticket.getUser().getId())) {
-				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
-			}
-						
-			javax.jcr.Node nodeContent = resource.getNode(JCRConstants.JCR_CONTENT);
-			is = nodeContent.getProperty("jcr:data").getValue().getStream();
-			IOUtils.copy(is, stream);
-			
-		} catch (IOException e) {
-			logger.error(e.getMessage(),e);
-			throw new RepositoryException(e);
-		} catch (javax.jcr.RepositoryException e) {
-			logger.error(e.getMessage(),e);
-			throw new RepositoryException(e);
-		} finally {
-			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException ioe) {
-					logger.error(ioe.getMessage(),ioe);
-					throw new RepositoryException(ioe);
-				}
-			}
-		}
+		contentModule.loadDocumentContent(ticket,docId,0,-1,null,stream);
 	}
 	
 	public byte[] loadDocumentContent(String docId, 
@@ -980,21 +1040,26 @@ public class JCRRepositoryService implements RepositoryService {
 			}
 			
 			
-			if (node.isNodeType(JLibraryConstants.DOCUMENT_MIXIN)) {
-				return JCRAdapter.createDocument(node,
-						 						 uuid,
-						 						 root.getUUID());
-			} else if (node.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
-				return JCRAdapter.createDirectory(node,
-												  uuid,
-						 						  root.getUUID(),
-						 						  ticket.getUser().getId());
-			} else if (node.isNodeType(JLibraryConstants.RESOURCE_MIXIN)) {
-				return JCRAdapter.createResource(node,
-						 						 uuid,
-						 						 root.getUUID());
+			NodeLock lock = NodeLockManager.getInstance().readLock(node);
+			try {
+				if (node.isNodeType(JLibraryConstants.DOCUMENT_MIXIN)) {
+					return JCRAdapter.createDocument(node,
+							 						 uuid,
+							 						 root.getUUID());
+				} else if (node.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
+					return JCRAdapter.createDirectory(node,
+													  uuid,
+							 						  root.getUUID(),
+							 						  ticket.getUser().getId());
+				} else if (node.isNodeType(JLibraryConstants.RESOURCE_MIXIN)) {
+					return JCRAdapter.createResource(node,
+							 						 uuid,
+							 						 root.getUUID());
+				}
+				throw new NodeNotFoundException();
+			} finally {
+				lock.release();
 			}
-			throw new NodeNotFoundException();
 		} catch (ItemNotFoundException infe) {
 			logger.error(infe.getMessage(),infe);
 			throw new NodeNotFoundException(infe);
@@ -1020,9 +1085,14 @@ public class JCRRepositoryService implements RepositoryService {
 				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
 			}
 			
-			return JCRAdapter.createDocument(document,
-											 document.getParent().getUUID(),
-											 JCRUtils.getRootNode(session).getUUID());
+			NodeLock lock = NodeLockManager.getInstance().readLock(document);
+			try {
+				return JCRAdapter.createDocument(document,
+												 document.getParent().getUUID(),
+												 JCRUtils.getRootNode(session).getUUID());
+			} finally {
+				lock.release();
+			}
 		} catch (ItemNotFoundException infe) {
 			logger.error(infe.getMessage(),infe);
 			throw new NodeNotFoundException(infe);			
@@ -1035,27 +1105,26 @@ public class JCRRepositoryService implements RepositoryService {
 	public Collection findDocumentsByName(Ticket ticket, 
 			 							  String name) throws RepositoryException {
 
+		return findDocumentsByName(ticket,name,DocumentView.FULL);
+	}
+	
+	/**
+	 * @see RepositoryService#findDocumentsByName(Ticket, String, DocumentView)
+	 */
+	public Collection findDocumentsByName(Ticket ticket, 
+										  String name,
+										  DocumentView view) throws RepositoryException {
+
 		ArrayList documents = new ArrayList();
 		try {
 			javax.jcr.Session session = SessionManager.getInstance().getSession(ticket);
 			if (session == null) {
 				throw new RepositoryException("Session has expired. Please log in again.");
 			}
-			javax.jcr.Node root = JCRUtils.getRootNode(session);			
-			String rootPath = root.getPath();
-
-			Workspace workspace = session.getWorkspace();
-			QueryManager queryManager = workspace.getQueryManager();
-			String statement = "/jcr:root" +
-				   			   rootPath + 
-				   			   "//element(*,jlib:document)[@jlib:active='true'"+
-				   			   " and @jlib:name='" + name + "']";
-		
-			javax.jcr.query.Query query = 
-				queryManager.createQuery(statement,javax.jcr.query.Query.XPATH);
-			QueryResult result = query.execute();
-
-			NodeIterator it = result.getNodes();
+			NodeIterator it = PreparedQueries.prepare(
+					session,QueryTemplates.DOCUMENTS_BY_NAME).
+						bind("name",name).
+						execute();
 			while (it.hasNext()) {
 				javax.jcr.Node node = (javax.jcr.Node) it.next();
 				if (!JCRSecurityService.canRead(node,ticket.getUser().getId())) {
@@ -1063,7 +1132,8 @@ public class JCRRepositoryService implements RepositoryService {
 				}
 				documents.add(JCRAdapter.createDocument(node,
 														node.getParent().getUUID(),
-														ticket.getRepositoryId()));
+														ticket.getRepositoryId(),
+														view));
 			}
 		} catch (SecurityException se) {
 			logger.error(se.getMessage(),se);
@@ -1096,10 +1166,15 @@ public class JCRRepositoryService implements RepositoryService {
 			if (directory.getParent() != session.getRootNode()) {
 				parentUUID = directory.getParent().getUUID();
 			}
-			return JCRAdapter.createDirectory(directory,
-											 parentUUID,
-											 JCRUtils.getRootNode(session).getUUID(),
-											 ticket.getUser().getId());
+			NodeLock lock = NodeLockManager.getInstance().readLock(directory);
+			try {
+				return JCRAdapter.createDirectory(directory,
+												 parentUUID,
+												 JCRUtils.getRootNode(session).getUUID(),
+												 ticket.getUser().getId());
+			} finally {
+				lock.release();
+			}
 		} catch (ItemNotFoundException infe) {
 			logger.error(infe.getMessage(),infe);
 			throw new NodeNotFoundException(infe);
@@ -1117,7 +1192,15 @@ public class JCRRepositoryService implements RepositoryService {
 		
 		// TODO: Check name updates with new code
 		
-		ByteArrayInputStream bais = null;
+		String viewName = (String)properties.getProperty(
+				DocumentProperties.DOCUMENT_VIEW).getValue();
+		if ((viewName != null) && 
+			(DocumentView.forName(viewName) != DocumentView.FULL)) {
+			throw new RepositoryException(
+					"Documents loaded with the " + viewName + " view can't be " + 
+					"updated. Load the document with the full view first.");
+		}
+		
 		try {
 			String docId = (String)properties.getProperty(
 					DocumentProperties.DOCUMENT_ID).getValue();
@@ -1158,8 +1241,8 @@ public class JCRRepositoryService implements RepositoryService {
 				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
 			}
 			
-			Object syncLock = LockUtility.obtainLock(node);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().writeLock(node);
+			try {
 				locksModule.checkLockAccess(ticket,node);			
 							
 				//Si versiones = 0 , checkin.
@@ -1167,27 +1250,37 @@ public class JCRRepositoryService implements RepositoryService {
 				VersionManager vm = node.getSession().getWorkspace().getVersionManager();				
 				vm.checkout(node.getCorrespondingNodePath(node.getSession().getWorkspace().getName()));		
 				
-				node.setProperty(JLibraryConstants.JLIBRARY_DESCRIPTION,description);
-				node.setProperty(JLibraryConstants.JLIBRARY_CREATED, Calendar.getInstance());
-				node.setProperty(JLibraryConstants.JLIBRARY_IMPORTANCE, 
-								  importance.longValue());
-				node.setProperty(JLibraryConstants.JLIBRARY_CREATOR,
-								  ticket.getUser().getId());
-				node.setProperty(JLibraryConstants.JLIBRARY_TYPECODE,
-								  typecode.longValue());
-				node.setProperty(JLibraryConstants.JLIBRARY_POSITION,
-								  position.longValue());
+				// Only properties that really change are set, so an update 
+				// that changes nothing is neither saved nor versioned
+				boolean changed = false;
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_DESCRIPTION,description);
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_IMPORTANCE, 
+						importance.longValue());
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_TYPECODE,
+						typecode.longValue());
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_POSITION,
+						position.longValue());
 				
-				node.setProperty(JLibraryConstants.JLIBRARY_TITLE,title);
-				node.setProperty(JLibraryConstants.JLIBRARY_DOCUMENT_URL,url);
-				node.setProperty(JLibraryConstants.JLIBRARY_KEYWORDS,keywords);
-				node.setProperty(JLibraryConstants.JLIBRARY_LANGUAGE,language);
-				node.setProperty(JLibraryConstants.JLIBRARY_CREATION_DATE,date);
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_TITLE,title);
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_DOCUMENT_URL,url);
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_KEYWORDS,keywords);
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_LANGUAGE,language);
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_CREATION_DATE,date);
 				
 				//Handle relations			
 				PropertyDef[] relations = properties.getPropertyList(
 						DocumentProperties.DOCUMENT_DELETE_RELATION);
-				if (relations != null) {
+				if ((relations != null) && (relations.length > 0)) {
+					changed = true;
 					for (int i = 0; i < relations.length; i++) {
 						Relation relation = (Relation)relations[i].getValue();
 						String destinationId = 
@@ -1211,7 +1304,8 @@ public class JCRRepositoryService implements RepositoryService {
 				
 				relations = properties.getPropertyList(
 						DocumentProperties.DOCUMENT_ADD_RELATION);
-				if (relations != null) {
+				if ((relations != null) && (relations.length > 0)) {
+					changed = true;
 					for (int i = 0; i < relations.length; i++) {
 						Relation relation = (Relation)relations[i].getValue();
 						String destinationId = 
@@ -1235,21 +1329,21 @@ public class JCRRepositoryService implements RepositoryService {
 				
 				
 				//Handle authors
+				javax.jcr.Node authorNode;
 				if (author.equals(Author.UNKNOWN)) {
-					node.setProperty(
-							JLibraryConstants.JLIBRARY_AUTHOR,
-							authorsModule.findUnknownAuthor(ticket));
+					authorNode = authorsModule.findUnknownAuthor(ticket);
 				} else {
-					javax.jcr.Node authorNode = 
-						session.getNodeByUUID(author.getId());
-					node.setProperty(JLibraryConstants.JLIBRARY_AUTHOR,
-									  authorNode.getUUID());
+					authorNode = session.getNodeByUUID(author.getId());
 				}
+				changed |= JCRUtils.updateProperty(node,
+						JLibraryConstants.JLIBRARY_AUTHOR,
+						authorNode.getUUID());
 				
 				// Handle document categories
 				PropertyDef[] categories = properties.getPropertyList(
 						DocumentProperties.DOCUMENT_DELETE_CATEGORY);
-				if (categories != null) {
+				if ((categories != null) && (categories.length > 0)) {
+					changed = true;
 					for (int i = 0; i < categories.length; i++) {
 						String category = (String)categories[i].getValue();
 						javax.jcr.Node categoryNode = 
@@ -1263,7 +1357,8 @@ public class JCRRepositoryService implements RepositoryService {
 				
 				categories = properties.getPropertyList(
 						DocumentProperties.DOCUMENT_ADD_CATEGORY);
-				if (categories != null) {
+				if ((categories != null) && (categories.length > 0)) {
+					changed = true;
 					if (categoriesModule.containsUnknownCategory(ticket,node)) {
 						categoriesModule.removeUnknownCategory(ticket,node);
 					}
@@ -1278,7 +1373,8 @@ public class JCRRepositoryService implements RepositoryService {
 				// Handle document notes
 				PropertyDef[] notes = properties.getPropertyList(
 						DocumentProperties.DOCUMENT_ADD_NOTE);
-				if (notes != null) {
+				if ((notes != null) && (notes.length > 0)) {
+					changed = true;
 					javax.jcr.Node userNode = JCRSecurityService.getUserNode(
 							session,ticket.getUser().getId());
 					for (int i = 0; i < notes.length; i++) {
@@ -1301,7 +1397,8 @@ public class JCRRepositoryService implements RepositoryService {
 	
 				notes = properties.getPropertyList(
 						DocumentProperties.DOCUMENT_UPDATE_NOTE);
-				if (notes != null) {
+				if ((notes != null) && (notes.length > 0)) {
+					changed = true;
 					for (int i = 0; i < notes.length; i++) {
 						Note note = (Note)notes[i].getValue();
 						javax.jcr.Node noteNode = session.getNodeByUUID(note.getId());
@@ -1319,7 +1416,8 @@ public class JCRRepositoryService implements RepositoryService {
 				
 				notes = properties.getPropertyList(
 						DocumentProperties.DOCUMENT_DELETE_NOTE);
-				if (notes != null) {
+				if ((notes != null) && (notes.length > 0)) {
+					changed = true;
 					for (int i = 0; i < notes.length; i++) {
 						Note note = (Note)notes[i].getValue();
 						NodeIterator it = node.getNodes();
@@ -1340,39 +1438,40 @@ public class JCRRepositoryService implements RepositoryService {
 				Iterator it = customProperties.iterator();
 				while (it.hasNext()) {
 					PropertyDef property = (PropertyDef)it.next();
-					node.setProperty(property.getKey().toString(),
-									 JCRUtils.getValue(property.getValue()));
+					changed |= JCRUtils.updateProperty(node,
+							property.getKey().toString(),
+							JCRUtils.getValue(property.getValue()));
 				}
 				
 				// Handle content
 				if (properties.getProperty(
 						DocumentProperties.DOCUMENT_CONTENT) != null) {
-					byte[] content = (byte[])properties.getProperty(
+					Object content = properties.getProperty(
 							DocumentProperties.DOCUMENT_CONTENT).getValue();
 					if (content != null) {
 						javax.jcr.Node child = node.getNode(JCRConstants.JCR_CONTENT); 				
 						
-						bais = new ByteArrayInputStream(content);
-						String path = node.getProperty(
-								JLibraryConstants.JLIBRARY_PATH).getString();
-						String mimeType = 
-							Types.getMimeTypeForExtension(FileUtils.getExtension(path));
-				        child.setProperty (JCRConstants.JCR_MIME_TYPE, mimeType);
-				        child.setProperty (JCRConstants.JCR_ENCODING, 
-				        					 JCRConstants.DEFAULT_ENCODING);
-				        child.setProperty (JCRConstants.JCR_DATA, 
-				        					 new ByteArrayInputStream(content));
-				        Calendar lastModified = Calendar.getInstance ();
-				        lastModified.setTimeInMillis (new Date().getTime());
-				        child.setProperty (JCRConstants.JCR_LAST_MODIFIED, lastModified);
-											
-						node.setProperty(JLibraryConstants.JLIBRARY_SIZE,content.length);
+						// Identical contents are not stored again
+						if (JCRUtils.setContent(node,child,content)) {
+							changed = true;
+							String path = node.getProperty(
+									JLibraryConstants.JLIBRARY_PATH).getString();
+							String mimeType = 
+								Types.getMimeTypeForExtension(FileUtils.getExtension(path));
+					        child.setProperty (JCRConstants.JCR_MIME_TYPE, mimeType);
+					        child.setProperty (JCRConstants.JCR_ENCODING, 
+					        					 JCRConstants.DEFAULT_ENCODING);
+					        Calendar lastModified = Calendar.getInstance ();
+					        lastModified.setTimeInMillis (new Date().getTime());
+					        child.setProperty (JCRConstants.JCR_LAST_MODIFIED, lastModified);
+						}
 					}
 				}
 								
 				String previousName = 
 					node.getProperty(JLibraryConstants.JLIBRARY_NAME).getString();
 				if (!previousName.equals(name)) {
+					changed = true;
 					
 					String path = 
 						node.getProperty(JLibraryConstants.JLIBRARY_NAME).getString();
@@ -1386,19 +1485,29 @@ public class JCRRepositoryService implements RepositoryService {
 					}				
 					name = Text.unescape(escapedName);
 					node.setProperty(JLibraryConstants.JLIBRARY_NAME,name);
+					ChildNameRegistry.getInstance().release(node);
 					session.move(node.getPath(), 
 							 	 node.getParent().getPath() + "/" + escapedName);
 				}
 				
 				
-				if (ticket.isAutocommit()) {
-					session.save();
+				if (changed) {
+					node.setProperty(JLibraryConstants.JLIBRARY_CREATED, 
+									 Calendar.getInstance());
+					node.setProperty(JLibraryConstants.JLIBRARY_CREATOR,
+									 ticket.getUser().getId());
+					
+					if (ticket.isAutocommit()) {
+						session.save();
+					}
+					
+					// create version
+					vm.checkin(node.getCorrespondingNodePath(node.getSession().getWorkspace().getName()));		
+					// restore to read-write state
+					vm.checkout(node.getCorrespondingNodePath(node.getSession().getWorkspace().getName()));		
 				}
-				
-				// create version
-				vm.checkin(node.getCorrespondingNodePath(node.getSession().getWorkspace().getName()));		
-				// restore to read-write state
-				vm.checkout(node.getCorrespondingNodePath(node.getSession().getWorkspace().getName()));		
+			} finally {
+				lock.release();
 			}
 			
 			javax.jcr.Node root = JCRUtils.getRootNode(session);
@@ -1406,15 +1515,6 @@ public class JCRRepositoryService implements RepositoryService {
 		} catch (Throwable e) {
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
-		} finally {
-			if (bais != null) {
-				try {
-					bais.close();
-				} catch (IOException ioe) {
-					logger.error(ioe.getMessage(),ioe);
-					throw new RepositoryException(ioe);
-				}
-			}
 		}
 		
 	}
@@ -1446,8 +1546,8 @@ public class JCRRepositoryService implements RepositoryService {
 				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
 			}
 			
-			Object syncLock = LockUtility.obtainLock(directory);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().writeLock(directory);
+			try {
 
 				directory.setProperty(JLibraryConstants.JLIBRARY_DESCRIPTION,description);
 				directory.setProperty(JLibraryConstants.JLIBRARY_POSITION,position.longValue());
@@ -1461,6 +1561,7 @@ public class JCRRepositoryService implements RepositoryService {
 														 name);
 					name = Text.unescape(escapedName);
 					directory.setProperty(JLibraryConstants.JLIBRARY_NAME,name);
+					ChildNameRegistry.getInstance().release(directory);
 					session.move(directory.getPath(), 
 							directory.getParent().getPath() + "/" + escapedName);
 				}
@@ -1468,6 +1569,8 @@ public class JCRRepositoryService implements RepositoryService {
 				if (ticket.isAutocommit()) {
 					session.save();
 				}
+			} finally {
+				lock.release();
 			}
 			return JCRAdapter.createDirectory(directory,
 											  parentId,
@@ -1497,8 +1600,8 @@ public class JCRRepositoryService implements RepositoryService {
 			}
 			
 			String name;
-			Object syncLock = LockUtility.obtainLock(repositoryNode);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().writeLock(repositoryNode);
+			try {
 				name = (String)repositoryProperties.getProperty(
 						RepositoryProperties.REPOSITORY_NAME).getValue();
 				String description = (String)repositoryProperties.getProperty(
@@ -1533,6 +1636,8 @@ public class JCRRepositoryService implements RepositoryService {
 				if (ticket.isAutocommit()) {
 					session.save();
 				}
+			} finally {
+				lock.release();
 			}			
 			return JCRAdapter.createRepository(ticket,name,repositoryNode);
 		} catch (Exception e) {
@@ -1555,8 +1660,8 @@ public class JCRRepositoryService implements RepositoryService {
 				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
 			}
 
-			Object syncLock = LockUtility.obtainLock(node);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().writeLock(node);
+			try {
 				String extension = null;
 				if (node.isNodeType(JLibraryConstants.RESOURCE_MIXIN) ||
 					node.isNodeType(JLibraryConstants.DOCUMENT_MIXIN)) {
@@ -1575,6 +1680,7 @@ public class JCRRepositoryService implements RepositoryService {
 					escapedName+=extension;
 				}
 				node.setProperty(JLibraryConstants.JLIBRARY_NAME,name);
+				ChildNameRegistry.getInstance().release(node);
 							
 				// Now we have to update relative paths
 				session.move(node.getPath(), 
@@ -1590,6 +1696,8 @@ public class JCRRepositoryService implements RepositoryService {
 						// Restore it to read-write state
 						node.checkout();
 				}
+			} finally {
+				lock.release();
 			}
 		} catch (Exception e) {
 			throw new RepositoryException(e);
@@ -1742,6 +1850,50 @@ public class JCRRepositoryService implements RepositoryService {
 
 		return categoriesModule.findNodesForCategory(ticket,categoryId);
 	}
+	
+	/**
+	 * @see RepositoryService#findNodesForCategory(Ticket, String, DocumentView)
+	 */
+	public List findNodesForCategory(Ticket ticket, 
+									 String categoryId,
+									 DocumentView view) 
+										throws CategoryNotFoundException,
+											   RepositoryException {
+
+		return categoriesModule.findNodesForCategory(ticket,categoryId,view);
+	}
+	
+	/**
+	 * @see RepositoryService#findNodesForCategory(Ticket, String, String, int, DocumentView)
+	 */
+	public NodePage findNodesForCategory(Ticket ticket, 
+										 String categoryId,
+										 String cursor,
+										 int pageSize,
+										 DocumentView view) 
+										throws CategoryNotFoundException,
+											   RepositoryException {
+
+		return categoriesModule.findNodesForCategory(
+				ticket,categoryId,cursor,pageSize,view);
+	}
+	
+	/**
+	 * @see RepositoryService#findRelations(Ticket, String, int, int, int, DocumentView)
+	 */
+	public RelationGraph findRelations(Ticket ticket,
+									   String documentId,
+									   int depth,
+									   int offset,
+									   int max,
+									   DocumentView view) 
+										throws RepositoryException,
+											   NodeNotFoundException,
+											   SecurityException {
+		
+		return relationsModule.findRelations(
+				ticket,documentId,depth,offset,max,view);
+	}
 
 	public byte[] exportRepository(Ticket ticket) 
 											throws RepositoryNotFoundException, 
@@ -1840,62 +1992,144 @@ public class JCRRepositoryService implements RepositoryService {
 											throws RepositoryException, 
 												   SecurityException {
 
-		SessionManager manager = SessionManager.getInstance();
-		Session session = manager.getSession(ticket);
+		contentModule.loadVersionContent(ticket,versionId,0,-1,null,stream);
+	}
+	
+	/**
+	 * @see RepositoryService#loadDocumentContent(Ticket, String, long, long, String, OutputStream)
+	 */
+	public ContentInfo loadDocumentContent(Ticket ticket,
+										   String docId,
+										   long offset,
+										   long length,
+										   String validator,
+										   OutputStream stream) 
+												throws RepositoryException,
+													   SecurityException {
 		
-		InputStream is = null;
-		try {
-			javax.jcr.version.Version version = 
-				(javax.jcr.version.Version)session.getNodeByUUID(versionId);
-			javax.jcr.Node frozenNode = version.getNode(
-					JCRConstants.JCR_FROZEN_NODE);
-			
-			if (frozenNode.hasNode(JCRConstants.JCR_CONTENT)) {
-				javax.jcr.Node nodeContent = frozenNode.getNode(
-						JCRConstants.JCR_CONTENT);
-				is = nodeContent.getProperty("jcr:data").getValue().getStream();
-				IOUtils.copy(is,stream);
-
-			} else {
-				// lookup in older versions
-				javax.jcr.version.Version[] predecessors = 
-					version.getPredecessors();
-				for (int i = 0; i < predecessors.length; i++) {
-					frozenNode = predecessors[i].getNode(
-							JCRConstants.JCR_FROZEN_NODE);
-					if (frozenNode.hasNode(JCRConstants.JCR_CONTENT)) {
-						javax.jcr.Node nodeContent = frozenNode.getNode(
-								JCRConstants.JCR_CONTENT);
-						is = nodeContent.getProperty("jcr:data").getValue().getStream();
-						IOUtils.copy(is,stream);
+		return contentModule.loadDocumentContent(
+				ticket,docId,offset,length,validator,stream);
+	}
+	
+	/**
+	 * @see RepositoryService#loadVersionContent(Ticket, String, long, long, String, OutputStream)
+	 */
+	public ContentInfo loadVersionContent(Ticket ticket,
+										  String versionId,
+										  long offset,
+										  long length,
+										  String validator,
+										  OutputStream stream) 
+												throws RepositoryException,
+													   SecurityException {
+		
+		return contentModule.loadVersionContent(
+				ticket,versionId,offset,length,validator,stream);
+	}
 
-					}
-				}
-				// content not found
-				frozenNode = version.getNode(
-						JCRConstants.JCR_FROZEN_NODE);
-				String nodeUUID = frozenNode.getProperty(
-						JCRConstants.JCR_FROZEN_UUID).getString();
-				loadDocumentContent(nodeUUID,ticket,stream);
-			}
-		} catch (IOException e) {
+	/**
+	 * @see RepositoryService#beginUpload(Ticket, long)
+	 */
+	public UploadSession beginUpload(Ticket ticket, 
+									 long length) throws RepositoryException {
+		
+		checkUploadSession(ticket);
+		return UploadManager.getInstance().begin(
+				ticket.getUser().getId(),length);
+	}
+	
+	/**
+	 * @see RepositoryService#appendUploadChunk(Ticket, String, long, byte[], String)
+	 */
+	public UploadSession appendUploadChunk(Ticket ticket,
+										   String uploadId,
+										   long offset,
+										   byte[] chunk,
+										   String checksum) throws RepositoryException {
+		
+		checkUploadSession(ticket);
+		return UploadManager.getInstance().append(
+				ticket.getUser().getId(),uploadId,offset,chunk,checksum);
+	}
+	
+	/**
+	 * @see RepositoryService#loadUpload(Ticket, String)
+	 */
+	public UploadSession loadUpload(Ticket ticket, 
+									String uploadId) throws RepositoryException {
+		
+		checkUploadSession(ticket);
+		return UploadManager.getInstance().getState(
+				ticket.getUser().getId(),uploadId);
+	}
+	
+	/**
+	 * @see RepositoryService#commitUpload(Ticket, String, DocumentProperties)
+	 */
+	public Document commitUpload(Ticket ticket,
+								 String uploadId,
+								 DocumentProperties properties) throws RepositoryException,
+								 									   SecurityException {
+		
+		checkUploadSession(ticket);
+		UploadManager manager = UploadManager.getInstance();
+		StreamContent content = manager.beginCommit(
+				ticket.getUser().getId(),uploadId);
+		boolean committed = false;
+		try {
+			properties.setProperty(DocumentProperties.DOCUMENT_CONTENT,content);
+			Document document = createDocument(ticket,properties);
+			committed = true;
+			return document;
+		} catch (PropertyNotFoundException e) {
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
-		} catch (javax.jcr.RepositoryException e) {
+		} catch (InvalidPropertyTypeException e) {
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
 		} finally {
-			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException ioe) {
-					logger.error(ioe.getMessage(),ioe);
-					throw new RepositoryException(ioe);
-				}
-			}
+			manager.endCommit(uploadId,committed);
 		}
-
-	}	
+	}
+	
+	/**
+	 * @see RepositoryService#commitUpload(Ticket, String, String)
+	 */
+	public Node commitUpload(Ticket ticket,
+							 String uploadId,
+							 String nodeId) throws RepositoryException,
+							 					   SecurityException {
+		
+		checkUploadSession(ticket);
+		UploadManager manager = UploadManager.getInstance();
+		StreamContent content = manager.beginCommit(
+				ticket.getUser().getId(),uploadId);
+		boolean committed = false;
+		try {
+			Node node = updateContent(ticket,nodeId,content);
+			committed = true;
+			return node;
+		} finally {
+			manager.endCommit(uploadId,committed);
+		}
+	}
+	
+	/**
+	 * @see RepositoryService#abortUpload(Ticket, String)
+	 */
+	public void abortUpload(Ticket ticket, 
+							String uploadId) throws RepositoryException {
+		
+		checkUploadSession(ticket);
+		UploadManager.getInstance().abort(ticket.getUser().getId(),uploadId);
+	}
+	
+	private void checkUploadSession(Ticket ticket) throws RepositoryException {
+		
+		if (SessionManager.getInstance().getSession(ticket) == null) {
+			throw new RepositoryException("Session has expired. Please log in again.");
+		}
+	}
 	
 	public Lock lockDocument(Ticket ticket, 
 							 String docId) throws RepositoryException, 	
@@ -2029,8 +2263,8 @@ public class JCRRepositoryService implements RepositoryService {
 			}
 			
 			javax.jcr.Node resultNode;
-			Object syncLock = LockUtility.obtainLock(destination);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().moveLock(source,destination);
+			try {
 			
 				String extension = null;
 				if (source.isNodeType(JLibraryConstants.RESOURCE_MIXIN) ||
@@ -2041,23 +2275,27 @@ public class JCRRepositoryService implements RepositoryService {
 				}
 							
 				String validName = JCRUtils.buildValidChildNodeName(
-		   				source.getParent(),
+		   				destination,
 		   				extension,
-		   				source.getName());
+		   				Text.unescape(source.getName()));
 				if ((extension != null) && !validName.endsWith(extension)) {
 					validName+=extension;
 				}
 				
 				String destinationPath = destination.getPath() + "/" + validName;
 				destinationPath = StringUtils.replace(destinationPath,"//","/");
+				ChildNameRegistry.getInstance().release(source);
+				DirectorySlotRegistry.getInstance().release(source);
 				session.move(source.getPath(),destinationPath);
 				
 				resultNode = destination.getNode(validName);
-				changePathRecursively(resultNode,destination);
+				changePathRecursively(resultNode,destination,true);
 				
 				if (ticket.isAutocommit()) {
 					session.save();
 				}
+			} finally {
+				lock.release();
 			}			
 			return resultNode;
 		} catch (javax.jcr.RepositoryException e) {
@@ -2067,21 +2305,30 @@ public class JCRRepositoryService implements RepositoryService {
 	}
 
 	private void changePathRecursively(javax.jcr.Node resultNode,
-									   javax.jcr.Node parent) 
+									   javax.jcr.Node parent,
+									   boolean moved) 
 												throws RepositoryException {
 		
 		try {
 			String destinationName = "";
 			if (resultNode.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
-				destinationName = obtainAvailableDirectoryName(parent,resultNode);
+				destinationName = obtainAvailableDirectoryName(
+						parent,resultNode,moved);
 			} else {
 				String path = resultNode.getProperty(
 						JLibraryConstants.JLIBRARY_PATH).getString();
 				destinationName = FileUtils.getFileName(path);
 			}
 			
+			NodePaths paths = NodePaths.getInstance();
 			resultNode.setProperty(JLibraryConstants.JLIBRARY_PATH,
-					  getPath(parent) + destinationName);
+					  paths.buildPath(parent,destinationName));
+			if (paths.isDerived(resultNode.getSession())) {
+				// Descendants only store their last path element, so they 
+				// don't need to be updated
+				paths.invalidate(resultNode.getSession());
+				return;
+			}
 			
 			NodeIterator it = resultNode.getNodes();
 			while (it.hasNext()) {
@@ -2092,7 +2339,7 @@ public class JCRRepositoryService implements RepositoryService {
 				if ((child.isNodeType(JLibraryConstants.DOCUMENT_MIXIN)) ||
 				   (child.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) ||
 				   (child.isNodeType(JLibraryConstants.RESOURCE_MIXIN))) {
-					changePathRecursively(child,resultNode);
+					changePathRecursively(child,resultNode,false);
 				}
 			}
 			
@@ -2124,8 +2371,8 @@ public class JCRRepositoryService implements RepositoryService {
 			}
 			
 			javax.jcr.Node resultNode;
-			Object syncLock = LockUtility.obtainLock(destination);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().copyLock(source,destination);
+			try {
 
 				String extension = null;
 				if (source.isNodeType(JLibraryConstants.RESOURCE_MIXIN) ||
@@ -2136,9 +2383,9 @@ public class JCRRepositoryService implements RepositoryService {
 				}
 							
 				String validName = JCRUtils.buildValidChildNodeName(
-		   				source.getParent(),
+		   				destination,
 		   				extension,
-		   				source.getName());
+		   				Text.unescape(source.getName()));
 				if ((extension != null) && !validName.endsWith(extension)) {
 					validName+=extension;
 				}
@@ -2148,11 +2395,13 @@ public class JCRRepositoryService implements RepositoryService {
 				session.getWorkspace().copy(source.getPath(),destinationPath);
 				
 				resultNode = destination.getNode(validName);
-				changePathRecursively(resultNode,destination);	
+				changePathRecursively(resultNode,destination,true);	
 				
 				if (ticket.isAutocommit()) {
 					session.save();
 				}
+			} finally {
+				lock.release();
 			}
 			return resultNode;
 		} catch (javax.jcr.RepositoryException e) {
@@ -2261,9 +2510,10 @@ public class JCRRepositoryService implements RepositoryService {
 	 * probably some nodes could have been removed and so they will left empty 
 	 * slots.</p> 
 	 * 
-	 * <p>This method is synchronized as otherwise we could have concurrency 
-	 * problems with several threads trying to obtain available directory names 
-	 * on the same path.</p>
+	 * <p>Used slots are tracked by the {@link DirectorySlotRegistry}, so 
+	 * this method does not need to read the siblings and it only contends 
+	 * with other threads working on the same parent. A directory that 
+	 * already has a slot on the parent keeps it.</p>
 	 * 
 	 * @param parent Parent from which we will look for a path
 	 * @param node Node for which we are looking for a path
@@ -2272,50 +2522,37 @@ public class JCRRepositoryService implements RepositoryService {
 	 * 
 	 * @throws javax.jcr.RepositoryException If the path cannot be obtained
 	 */
-	public synchronized String obtainAvailableDirectoryName(
+	public String obtainAvailableDirectoryName(
 			javax.jcr.Node parent,
 			javax.jcr.Node node) throws javax.jcr.RepositoryException {
 		
-		ArrayList names = new ArrayList();
-		javax.jcr.NodeIterator it = parent.getNodes();
-		while (it.hasNext()) {
-			javax.jcr.Node child = it.nextNode();
-			// Ignore the node for which we are looking a path, if exists
-			if (child.getUUID().equals(node.getUUID())) continue;
-			
-			if (child.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
-				if (child.hasProperty(JLibraryConstants.JLIBRARY_PATH)) {
-					String path = child.getProperty(
-							JLibraryConstants.JLIBRARY_PATH).getValue().getString();
-					String name = FileUtils.getFileName(path);
-					names.add(name);
-				}
-			}
-		}
-		
-		ArrayList ids = new ArrayList();
-		Iterator it2 = names.iterator();
-		while (it2.hasNext()) {
-			String name = (String) it2.next();
-			ids.add(new Integer(Integer.parseInt(name)));
-		}
-
-		Collections.sort(ids);
-		
-		String dirId = null;
-		for (int i = 0;i<ids.size();i++) {
-			Integer id = (Integer)ids.get(i);
-			if (!(id.intValue() == i)) {
-				dirId = String.valueOf(i);
-			}
-		}
-		if (dirId == null) {
-			dirId = String.valueOf(ids.size());
-		}
-		
-		return dirId;
+		return obtainAvailableDirectoryName(parent,node,false);
 	}	
 	
+	/**
+	 * Obtains the path slot of a directory that may have just been moved or 
+	 * copied to a new parent. Its current slot belongs to its previous 
+	 * parent, so a moved directory always gets a new one.
+	 * 
+	 * @param parent Parent from which we will look for a path
+	 * @param node Node for which we are looking for a path
+	 * @param moved <code>true</code> if the node has just been moved or 
+	 * copied to the parent
+	 * 
+	 * @return String Path slot
+	 * 
+	 * @throws javax.jcr.RepositoryException If the path cannot be obtained
+	 */
+	private String obtainAvailableDirectoryName(
+			javax.jcr.Node parent,
+			javax.jcr.Node node,
+			boolean moved) throws javax.jcr.RepositoryException {
+		
+		int slot = DirectorySlotRegistry.getInstance().allocate(
+				parent,node,moved);
+		return String.valueOf(slot);
+	}
+	
 	public List getVersions(Ticket ticket, 
 							String documentId) throws RepositoryException, 
 													  SecurityException {
@@ -2358,6 +2595,17 @@ public class JCRRepositoryService implements RepositoryService {
 	public Collection findNodeChildren(Ticket ticket, String id) throws RepositoryException,
 			NodeNotFoundException, SecurityException
 	{
+		return findNodeChildren(ticket,id,DocumentView.FULL);
+	}
+	
+	/**
+	 * @see RepositoryService#findNodeChildren(Ticket, String, DocumentView)
+	 */
+	public Collection findNodeChildren(Ticket ticket, 
+									   String id, 
+									   DocumentView view) throws RepositoryException,
+																 NodeNotFoundException, 
+																 SecurityException {
 
 		ArrayList children = new ArrayList();
 		SessionManager manager = SessionManager.getInstance();
@@ -2375,30 +2623,40 @@ public class JCRRepositoryService implements RepositoryService {
 			if (node.isNodeType(JLibraryConstants.DOCUMENT_MIXIN))
 				return Collections.EMPTY_LIST;
 
-			NodeIterator it = node.getNodes();
-			Value lazyLoading = JCRUtils.getConfigProperty(
-					node.getSession(),
-					RepositoryProperties.DO_LAZY_LOADING);
-			boolean lazy = lazyLoading.getBoolean();
-			while(it.hasNext())
-			{
-				javax.jcr.Node child = (javax.jcr.Node)it.next();
-				if (!JCRUtils.isActive(child)) {
-					continue;
-				}
-				if (!JCRSecurityService.canRead(child, ticket.getUser().getId())) {
-					continue;
-				}
-				if (child.isNodeType(JLibraryConstants.DOCUMENT_MIXIN)) {
-					children.add(JCRAdapter.createDocument(child, id, root.getUUID()));
-				} else if (child.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
-					children.add(JCRAdapter.createDirectory(child, id, root.getUUID(),
-							ticket.getUser().getId(), lazy));
-				} else if (child.isNodeType(JLibraryConstants.RESOURCE_MIXIN)) {
-					children.add(JCRAdapter.createResource(child, id, root.getUUID()));
+			NodeLock lock = NodeLockManager.getInstance().readLock(node);
+			try {
+				boolean lazy = JCRUtils.getConfig(session).isLazyLoading();
+				SecurityFilter filter = SecurityFilter.forTicket(session,ticket);
+			
+				// A single context for all the children, so documents related 
+				// between them are only created once
+				JCRCreationContext context = new JCRCreationContext();
+				context.setSecurityFilter(filter);
+				context.setView(view);
+			
+				String repositoryId = root.getUUID();
+				Iterator it = filter.filter(node.getNodes()).iterator();
+				while(it.hasNext())
+				{
+					javax.jcr.Node child = (javax.jcr.Node)it.next();
+					if (!JCRUtils.isActive(child)) {
+						continue;
+					}
+					if (child.isNodeType(JLibraryConstants.DOCUMENT_MIXIN)) {
+						children.add(JCRAdapter.internalCreateDocument(
+								child, id, repositoryId, context));
+					} else if (child.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
+						children.add(JCRAdapter.internalCreateDirectory(
+								child, id, repositoryId, context, null, lazy));
+					} else if (child.isNodeType(JLibraryConstants.RESOURCE_MIXIN)) {
+						children.add(JCRAdapter.createResource(child, id, repositoryId));
+					}
 				}
+				context.clear();
+				return children;
+			} finally {
+				lock.release();
 			}
-			return children;
 
 		} catch (ItemNotFoundException infe) {
 			logger.error(infe.getMessage(),infe);
@@ -2409,6 +2667,23 @@ public class JCRRepositoryService implements RepositoryService {
 		}
 	}
 
+	/**
+	 * @see RepositoryService#findNodeChildren(Ticket, String, String, int, NodeOrder, boolean, DocumentView)
+	 */
+	public NodePage findNodeChildren(Ticket ticket, 
+									 String id,
+									 String cursor,
+									 int pageSize,
+									 NodeOrder order,
+									 boolean ascending,
+									 DocumentView view) throws RepositoryException,
+									   						   NodeNotFoundException, 
+									   						   SecurityException {
+		
+		return childrenModule.findNodeChildren(
+				ticket,id,cursor,pageSize,order,ascending,view);
+	}
+	
 	/**
 	 * @see RepositoryService#saveSession(Ticket)
 	 */
@@ -2478,22 +2753,8 @@ public class JCRRepositoryService implements RepositoryService {
 			  				  byte[] content) throws SecurityException, 
 			  						 				 RepositoryException {
 		
-		ByteArrayInputStream bais = null;
-		try {
-			bais = new ByteArrayInputStream(content);
-			Node updatedNode = updateContent(ticket, nodeId, bais);
-			return updatedNode;
-		} finally {
-			try {
-			    if (bais != null) {
-					bais.close();
-				}
-			} catch (IOException e) {
-				logger.error(e.getMessage(), e);
-				throw new RepositoryException(e);
-			}
-		}
-		
+		return updateContent(ticket, nodeId, new StreamContent(
+				new ByteArrayInputStream(content),content.length));
 	}
 	
 	public Node updateContent(Ticket ticket, 
@@ -2501,6 +2762,18 @@ public class JCRRepositoryService implements RepositoryService {
 							  InputStream stream) throws SecurityException, 
 							  							 	 RepositoryException {
 
+		return updateContent(ticket, nodeId, new StreamContent(
+				stream,StreamContent.UNKNOWN_LENGTH));
+	}
+	
+	/**
+	 * @see RepositoryService#updateContent(Ticket, String, StreamContent)
+	 */
+	public Node updateContent(Ticket ticket, 
+							  String nodeId,
+							  StreamContent content) throws SecurityException, 
+							  							 	RepositoryException {
+
 		try {
 			SessionManager manager = SessionManager.getInstance();
 			Session session = manager.getSession(ticket);
@@ -2510,8 +2783,8 @@ public class JCRRepositoryService implements RepositoryService {
 				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
 			}
 			
-			Object syncLock = LockUtility.obtainLock(node);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().writeLock(node);
+			try {
 				locksModule.checkLockAccess(ticket,node);			
 				
 				if (ticket.isAutocommit()) {
@@ -2523,25 +2796,25 @@ public class JCRRepositoryService implements RepositoryService {
 				}
 				
 				javax.jcr.Node child = node.getNode(JCRConstants.JCR_CONTENT); 								
-				String path = node.getProperty(
-						JLibraryConstants.JLIBRARY_PATH).getString();
-			    child.setProperty (JCRConstants.JCR_DATA, stream);
-			    Calendar lastModified = Calendar.getInstance ();
-			    lastModified.setTimeInMillis (new Date().getTime());
-			    child.setProperty (JCRConstants.JCR_LAST_MODIFIED, lastModified);
-	
-			    //TODO: Check how to update size						
-			    //node.setProperty(JLibraryConstants.JLIBRARY_SIZE,content.length);
-				if (ticket.isAutocommit()) {
-					session.save();
-					
-					if (node.isNodeType(JCRConstants.JCR_VERSIONABLE)) {
-						// create first version
-						node.checkin();
-						// restore to read-write state
-						node.checkout();
+				// Identical contents are neither stored nor versioned again
+				if (JCRUtils.setContent(node,child,content)) {
+				    Calendar lastModified = Calendar.getInstance ();
+				    lastModified.setTimeInMillis (new Date().getTime());
+				    child.setProperty (JCRConstants.JCR_LAST_MODIFIED, lastModified);
+		
+					if (ticket.isAutocommit()) {
+						session.save();
+						
+						if (node.isNodeType(JCRConstants.JCR_VERSIONABLE)) {
+							// create first version
+							node.checkin();
+							// restore to read-write state
+							node.checkout();
+						}
 					}
 				}
+			} finally {
+				lock.release();
 			}
 			
 			javax.jcr.Node root = JCRUtils.getRootNode(session);
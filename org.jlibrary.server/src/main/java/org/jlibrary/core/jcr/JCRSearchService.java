@@ -22,8 +22,10 @@
 */
 package org.jlibrary.core.jcr;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.jcr.Value;
@@ -38,10 +40,10 @@ import org.jlibrary.core.entities.SearchResult;
 import org.jlibrary.core.entities.Ticket;
 import org.jlibrary.core.search.SearchException;
 import org.jlibrary.core.search.SearchHit;
+import org.jlibrary.core.search.SearchHitQueue;
 import org.jlibrary.core.search.SearchService;
 import org.jlibrary.core.search.algorithms.DefaultSearchAlgorithm;
 import org.jlibrary.core.search.algorithms.SearchAlgorithm;
-import org.jlibrary.core.security.SecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,26 +80,33 @@ public class JCRSearchService implements SearchService {
 							   int end) throws SearchException {
 		
 		javax.jcr.Session session = SessionManager.getInstance().getSession(ticket);
+		if (session == null) {
+			throw new SearchException("Session has expired. Please log in again.");
+		}
+		
+		SecurityFilter filter = getSecurityFilter(session,ticket);
+		if (filter.readsNothing()) {
+			return emptyResult(init,end);
+		}
+		
 		String query = null;
 		if (searchType.equals(SearchService.SEARCH_KEYWORDS)) {
 			query = "//element(*,nt:file)[jcr:contains(@jlib:keywords,'" +
 				    phrase +
-				    "') and @jlib:active='true']";
+				    "') and @jlib:active='true']" + 
+				    getRestrictionsPredicate(filter);
 		} else if (searchType.equals(SearchService.SEARCH_CONTENT)) {
-			query = "//element(*,nt:resource)[jcr:contains(.,'" +
+			query = "//element(*,nt:file)" + 
+					getRestrictionsPredicate(filter) +
+					"/element(*,nt:resource)[jcr:contains(.,'" +
 					phrase + 
 					"') and @jlib:active='true']/(@jlib:description|rep:excerpt(.))";
 			
 //			query = "select excerpt(.) from nt:resource where contains(., '"+phrase+"') and jlib:active='true'";
 			
 		}		
-
-		
-		if (session == null) {
-			throw new SearchException("Session has expired. Please log in again.");
-		}
 		
-		return search(ticket,session,query,init,end);		
+		return search(ticket,session,filter,query,true,init,end);		
 	}
 	
 	public Collection search(Ticket ticket, 
@@ -111,108 +120,187 @@ public class JCRSearchService implements SearchService {
 			 				   int init,
 			 				   int end) throws SearchException {
 
-		String query = "//element(*,nt:file)" + xpathQuery; 
-		
 		javax.jcr.Session session = SessionManager.getInstance().getSession(ticket);
 		if (session == null) {
 			throw new SearchException("Session has expired. Please log in again.");
 		}
+		
+		SecurityFilter filter = getSecurityFilter(session,ticket);
+		if (filter.readsNothing()) {
+			return emptyResult(init,end);
+		}
 
-		return search(ticket,session,query,init,end);
+		String query = "//element(*,nt:file)" + 
+					   getRestrictionsPredicate(filter) + 
+					   xpathQuery; 
+
+		return search(ticket,session,filter,query,false,init,end);
 	}	
 	
+	private SecurityFilter getSecurityFilter(javax.jcr.Session session,
+											 Ticket ticket) 
+												throws SearchException {
+		
+		try {
+			return SecurityFilter.forTicket(session,ticket);
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new SearchException(e);
+		}
+	}
+	
+	/**
+	 * Returns the predicate that limits a query to the active documents that 
+	 * can be read with a filter. As the index does the trimming, the result 
+	 * size and the paging windows only count readable documents.
+	 * 
+	 * @param filter Security filter of the user
+	 * 
+	 * @return String XPath predicate
+	 */
+	private String getRestrictionsPredicate(SecurityFilter filter) {
+		
+		String constraint = filter.getXPathConstraint();
+		if (constraint == null) {
+			return "[@jlib:active='true']";
+		}
+		return "[@jlib:active='true' and " + constraint + "]";
+	}
+	
+	private SearchResult emptyResult(int init, int end) {
+		
+		SearchResult result = new SearchResult();
+		result.setItems(new ArrayList<SearchHit>());
+		result.setInit(init);
+		result.setEnd(end);
+		result.setSize(0);
+		return result;
+	}
+	
 	@SuppressWarnings("unchecked")
 	private SearchResult search(Ticket ticket,
 							  	javax.jcr.Session session, 
+							  	SecurityFilter filter,
 							  	String strQuery,
+							  	boolean orderedByScore,
 							  	int init,
 							  	int end) throws SearchException {
 		SearchHit sh;
-		Set<SearchHit> results = new HashSet<SearchHit>();
 		SearchResult result = new SearchResult();
-		result.setItems(results);
+		result.setItems(new ArrayList<SearchHit>());
 		result.setInit(init);
 		result.setEnd(end);
+		
+		// Only the best end+1 hits are needed to build the requested page
+		int first = (init == NO_PAGING) ? 0 : init;
+		int capacity = (end == NO_PAGING) ? SearchHitQueue.UNBOUNDED : end+1;
+		SearchHitQueue queue = new SearchHitQueue(capacity);
+		Set<String> ids = new HashSet<String>();
 		try {
 			Workspace workspace = session.getWorkspace();
 			QueryManager queryManager = workspace.getQueryManager();
 			javax.jcr.Node rootNode = JCRUtils.getRootNode(session);
 			String rootPath = rootNode.getPath();						
 			String statement = "/jcr:root" + rootPath + strQuery;
+			if (orderedByScore) {
+				statement+= " order by @jcr:score descending";
+			}
 
 			javax.jcr.query.Query query = queryManager.createQuery(statement,javax.jcr.query.Query.XPATH);
 			QueryResult queryResult = query.execute();
 			
 			RowIterator it = queryResult.getRows();
-			//NodeIterator nodeIterator = queryResult.getNodes();
-	
-			result.setSize(it.getSize());								
 			
-			if (init != NO_PAGING) {
-				it.skip(init);
-				//nodeIterator.skip(init);
-			}
-			for (RowIterator it2 = it; it2.hasNext(); ) {
+			// The query constraints already did the trimming, so the size 
+			// comes from the query result. Only the rows read and rejected 
+			// here are subtracted from it
+			long size = it.getSize();
+			long rejected = 0;
+			while (it.hasNext()) {
+				javax.jcr.query.Row row = it.nextRow();																													
 				
-				if (init != NO_PAGING && end != NO_PAGING) {					
-					if (init>end) {
+				//double score = row.getValue(JCRConstants.JCR_SCORE).getDouble();
+				double score = row.getScore();				
+				if (!queue.accepts(searchAlgorithm.maxScore(score))) {
+					if (orderedByScore) {
+						// Next rows have lower scores, so the page is complete
 						break;
 					}
-					init++;
+					continue;
 				}
-				javax.jcr.query.Row row = it2.nextRow();																													
 				
-				String textExcerpt = "";
-				try {
-					Value excerpt = row.getValue("rep:excerpt(.)");
-					textExcerpt = excerpt.getString();
-				} catch (Exception e) {
-					logger.warn("Exception getting excerpt: " + e.getMessage());
-				}
-												
-//				javax.jcr.Node node = (javax.jcr.Node)nodeIterator.nextNode();
 				javax.jcr.Node node = row.getNode();
 				
-				if (node.isNodeType("nt:frozenNode")){ System.out.println("ask1");continue;}
+				if (node.isNodeType("nt:frozenNode")) {
+					rejected++;
+					continue;
+				}
 				if (node.isNodeType(JLibraryConstants.CONTENT_MIXIN)) {
 					node = node.getParent();
 				}
+				if (ids.contains(node.getIdentifier())) {
+					rejected++;
+					continue;
+				}
+				// This only discards hits from index entries not updated yet
 				try {
-					if (!JCRSecurityService.canRead(node, ticket.getUser().getId())) {
-						System.out.println("ask2");continue;
+					if (!filter.canRead(node)) {
+						rejected++;
+						continue;
 					}
-				} catch (SecurityException se) {
-					logger.error(se.getMessage(),se);
-					System.out.println("ask3");
+				} catch (javax.jcr.RepositoryException re) {
+					logger.error(re.getMessage(),re);
+					rejected++;
 					continue;
 				}
 				
-				//double score = row.getValue(JCRConstants.JCR_SCORE).getDouble();
-				double score = row.getScore();				
-
+				Integer importance = new Integer((int)node.getProperty(
+						JLibraryConstants.JLIBRARY_IMPORTANCE).getLong());
+				
 				sh = new SearchHit();
 				sh.setRepository(ticket.getRepositoryId());
 				sh.setId(node.getIdentifier());
+				sh.setImportance(importance);
+				sh.setScore(searchAlgorithm.score(score,importance));
+				if (!queue.offer(sh)) {
+					continue;
+				}
+				ids.add(sh.getId());
+				
+				String textExcerpt = "";
+				try {
+					Value excerpt = row.getValue("rep:excerpt(.)");
+					textExcerpt = excerpt.getString();
+				} catch (Exception e) {
+					logger.warn("Exception getting excerpt: " + e.getMessage());
+				}
+				
 				sh.setName(node.getProperty(JLibraryConstants.JLIBRARY_NAME).getString());
 				String path = StringUtils.difference("/" + JLibraryConstants.JLIBRARY_ROOT, node.getPath());						
 				sh.setPath(path);
-				sh.setImportance(new Integer((int)node.getProperty(	JLibraryConstants.JLIBRARY_IMPORTANCE).getLong()));
 				sh.setExcerpt(textExcerpt);
-				
-				sh.setScore(score);
-				results.add(sh);
 			}
 			
-			//TODO: Allow for plugabble search algorithms
-			results = searchAlgorithm.filterSearchResults(results);
+			if (size < 0) {
+				// The query result did not know its size. The remaining 
+				// rows are only counted, their nodes are not loaded
+				while (it.hasNext()) {
+					it.nextRow();
+				}
+				size = it.getPosition();
+			}
+			result.setSize(size - rejected);
 			
+			List<SearchHit> hits = queue.toList();
+			if (first < hits.size()) {
+				result.setItems(new ArrayList<SearchHit>(
+						hits.subList(first,hits.size())));
+			}
 			
 		} catch (InvalidQueryException iqe) {
-			System.out.println("Error 1 Jlibrary");
 			logger.error(iqe.getMessage());
 			return result;
 		} catch (javax.jcr.RepositoryException e) {
-			System.out.println("Error 2 Jlibrary");
 			logger.error(e.getMessage(),e);
 			throw new SearchException(e);
 		}
@@ -25,7 +25,6 @@ package org.jlibrary.core.jcr;
 import java.net.ConnectException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 
@@ -58,6 +57,8 @@ import org.jlibrary.core.jcr.compatibility.VersionChecker;
 import org.jlibrary.core.jcr.modules.JCRAuthorsModule;
 import org.jlibrary.core.jcr.modules.JCRCleanupModule;
 import org.jlibrary.core.jcr.modules.JCRFavoritesModule;
+import org.jlibrary.core.jcr.query.PreparedQueries;
+import org.jlibrary.core.jcr.query.QueryTemplates;
 import org.jlibrary.core.properties.AuthorProperties;
 import org.jlibrary.core.properties.GroupProperties;
 import org.jlibrary.core.properties.PropertyDef;
@@ -546,16 +547,10 @@ public class JCRSecurityService implements SecurityService {
 
 		try {
 
-			Workspace workspace = session.getWorkspace();
-			QueryManager queryManager = workspace.getQueryManager();
-			String statement = "//*[@jcr:primaryType='jlib:user' and @jlib:name='" + 
-			   				   name + "' and @jlib:active='true']";
-		
-			javax.jcr.query.Query query = 
-				queryManager.createQuery(statement,javax.jcr.query.Query.XPATH);
-			QueryResult result = query.execute();
-
-			NodeIterator it = result.getNodes();
+			NodeIterator it = PreparedQueries.prepare(
+					session,QueryTemplates.USER_BY_NAME).
+						bind("name",name).
+						execute();
 			while (it.hasNext()) {
 				javax.jcr.Node node = (javax.jcr.Node) it.next();
 				return JCRAdapter.createUser(ticket,node);
@@ -577,16 +572,10 @@ public class JCRSecurityService implements SecurityService {
 
 		try {
 
-			Workspace workspace = session.getWorkspace();
-			QueryManager queryManager = workspace.getQueryManager();
-			String statement = "//*[@jcr:primaryType='jlib:group' and @jlib:name='" + 
-			   				   name + "' and @jlib:active='true']";
-
-			javax.jcr.query.Query query = 
-				queryManager.createQuery(statement,javax.jcr.query.Query.XPATH);
-			QueryResult result = query.execute();
-
-			NodeIterator it = result.getNodes();
+			NodeIterator it = PreparedQueries.prepare(
+					session,QueryTemplates.GROUP_BY_NAME).
+						bind("name",name).
+						execute();
 			while (it.hasNext()) {
 				javax.jcr.Node node = (javax.jcr.Node) it.next();
 				return JCRAdapter.createGroup(ticket,node);
@@ -608,16 +597,10 @@ public class JCRSecurityService implements SecurityService {
 
 		try {
 
-			Workspace workspace = session.getWorkspace();
-			QueryManager queryManager = workspace.getQueryManager();
-			String statement = "//*[@jcr:primaryType='jlib:rol' and @jlib:name='" + 
-			   				   name + "' and @jlib:active='true']";
-
-			javax.jcr.query.Query query = 
-				queryManager.createQuery(statement,javax.jcr.query.Query.XPATH);
-			QueryResult result = query.execute();
-
-			NodeIterator it = result.getNodes();
+			NodeIterator it = PreparedQueries.prepare(
+					session,QueryTemplates.ROL_BY_NAME).
+						bind("name",name).
+						execute();
 			while (it.hasNext()) {
 				javax.jcr.Node node = (javax.jcr.Node) it.next();
 				return JCRAdapter.createRol(ticket,node);
@@ -970,6 +953,7 @@ public class JCRSecurityService implements SecurityService {
 			// Now we will tag the user as not active instead of deleting it
 			userNode.setProperty(JLibraryConstants.JLIBRARY_ACTIVE,false);
 			session.save();
+			PrincipalCache.invalidate(session);
 			
 			// Remove author
 			JCRAuthorsModule authorsModule = new JCRAuthorsModule();
@@ -1009,6 +993,7 @@ public class JCRSecurityService implements SecurityService {
 			JCRUtils.removeReferences(groupNode);			
 			groupNode.remove();
 			session.save();
+			PrincipalCache.invalidate(session);
 		} catch (ItemNotFoundException infe) {
 			throw new GroupNotFoundException();			
 		} catch (javax.jcr.RepositoryException e) {
@@ -1036,6 +1021,7 @@ public class JCRSecurityService implements SecurityService {
 			JCRUtils.removeReferences(rolNode);
 			rolNode.remove();
 			session.save();
+			PrincipalCache.invalidate(session);
 		} catch (ItemNotFoundException infe) {
 			throw new RoleNotFoundException();
 		} catch (javax.jcr.RepositoryException e) {
@@ -1199,6 +1185,7 @@ public class JCRSecurityService implements SecurityService {
 				
 			}	
 			session.save();
+			PrincipalCache.invalidate(session);
 			
 			return JCRAdapter.createUser(ticket,userNode);
 		} catch (javax.jcr.RepositoryException e) {
@@ -1396,6 +1383,7 @@ public class JCRSecurityService implements SecurityService {
 			}
 
 			session.save();
+			PrincipalCache.invalidate(session);
 			
 			return JCRAdapter.createGroup(ticket,groupNode);
 		} catch (javax.jcr.RepositoryException e) {
@@ -1524,6 +1512,7 @@ public class JCRSecurityService implements SecurityService {
 			}
 			
 			session.save();
+			PrincipalCache.invalidate(session);
 			
 			return JCRAdapter.createRol(ticket,rolNode);
 		} catch (javax.jcr.RepositoryException e) {
@@ -1544,18 +1533,9 @@ public class JCRSecurityService implements SecurityService {
 			credentials.getUser()+"'");
 				
 		Ticket ticket = null;
+		javax.jcr.Session systemSession = null;
 		try {
-			javax.jcr.Session systemSession = null;
-			
-			if (repository == null) {
-				// reregister repository
-				systemSession = registerRepository(this.repositoriesHome);
-				SessionManager.getInstance().setRepository(repository);				
-			}
-			else{
-				SessionManager.getInstance().setRepository(repository);				
-				systemSession = SessionManager.getInstance().getNewSystemSession();				
-			}
+			systemSession = leaseLoginSystemSession();
 			
 			User user = canAccessToRepository(credentials, systemSession);			
 			ticket = new Ticket();
@@ -1567,6 +1547,7 @@ public class JCRSecurityService implements SecurityService {
 			SessionManager sessionManager = SessionManager.getInstance();
 			if (sessionManager.getSession(ticket) == null) {
 				SessionManager.getInstance().attachSystemSession(ticket, systemSession);
+				systemSession = null;
 			}
 			
 		} catch (org.jlibrary.core.repository.exception.RepositoryException re) {
@@ -1582,10 +1563,39 @@ public class JCRSecurityService implements SecurityService {
 			throw new AuthenticationException(e);
 		} catch (RepositoryException e) {
 			throw new SecurityException(e);
+		} finally {
+			if (systemSession != null) {
+				SessionManager.getInstance().releaseSystemSession(systemSession);
+			}
 		}
 		return ticket;
 	}	
 	
+	/**
+	 * Leases a system session for a login, registering the repository 
+	 * first if it is not available. The session must be returned to the 
+	 * session manager.
+	 */
+	private javax.jcr.Session leaseLoginSystemSession() 
+					throws org.jlibrary.core.repository.exception.RepositoryException, 
+						   NamingException,
+						   RepositoryException {
+		
+		SessionManager manager = SessionManager.getInstance();
+		if (repository == null) {
+			// reregister repository
+			javax.jcr.Session registrationSession = 
+				registerRepository(this.repositoriesHome);
+			manager.setRepository(repository);
+			if (registrationSession != null) {
+				registrationSession.logout();
+			}
+		} else {
+			manager.setRepository(repository);
+		}
+		return manager.leaseSystemSession();
+	}
+	
 	public Ticket login(Credentials credentials,
 						String name) throws UserNotFoundException, 
 											AuthenticationException, 
@@ -1606,18 +1616,9 @@ public class JCRSecurityService implements SecurityService {
 											ConnectException,
 											RepositoryNotFoundException {
 		Ticket ticket = null;
+		javax.jcr.Session systemSession = null;
 		try {
-			javax.jcr.Session systemSession = null;
-			
-			if (repository == null) {
-				// reregister repository
-				systemSession = registerRepository(this.repositoriesHome);
-				SessionManager.getInstance().setRepository(repository);				
-			}
-			else{
-				SessionManager.getInstance().setRepository(repository);				
-				systemSession = SessionManager.getInstance().getNewSystemSession();
-			}
+			systemSession = leaseLoginSystemSession();
 			
 			SimpleCredentials creds = 
 				new SimpleCredentials(credentials.getUser(), 
@@ -1644,6 +1645,7 @@ public class JCRSecurityService implements SecurityService {
 			if (sessionManager.getSession(ticket) == null) {
 				SessionManager.getInstance().attachSession(ticket, session);
 				SessionManager.getInstance().attachSystemSession(ticket, systemSession);
+				systemSession = null;
 			}
 		} catch (org.jlibrary.core.repository.exception.RepositoryException re) {
 			logger.error(re.getMessage(),re);
@@ -1661,6 +1663,10 @@ public class JCRSecurityService implements SecurityService {
 			throw new RepositoryNotFoundException(e);
 		} catch (RepositoryException e) {
 			throw new SecurityException(e);
+		} finally {
+			if (systemSession != null) {
+				SessionManager.getInstance().releaseSystemSession(systemSession);
+			}
 		}		
 		return ticket;
 	}
@@ -1760,38 +1766,19 @@ public class JCRSecurityService implements SecurityService {
 			}
 			
 			// Check if the user is an admin user
-			javax.jcr.Node userNode = 
-				JCRSecurityService.getUserNode(node.getSession(),memberId);
-			if (userNode.hasProperty(JLibraryConstants.JLIBRARY_ISADMIN)) {
-				boolean isAdmin = userNode.getProperty(
-						JLibraryConstants.JLIBRARY_ISADMIN).getBoolean();
-				if (isAdmin) {
-					return true;
-				}
+			PrincipalSnapshot principal = 
+				PrincipalCache.get(node.getSession(),memberId);
+			if (principal.isAdmin()) {
+				return true;
 			}
 			
-			Value[] userGroups = userNode.getProperty(
-					JLibraryConstants.JLIBRARY_GROUPS).getValues();
-			
 			javax.jcr.Property property = 
 				node.getProperty(JLibraryConstants.JLIBRARY_RESTRICTIONS);
-			Value[] restrictions = property.getValues();
-			for (int i = 0; i < restrictions.length; i++) {
-				if (restrictions[i].getString().equals(memberId)) {
-					return true;
-				}
-				for (int j = 0;j<userGroups.length;j++) {
-					if (restrictions[i].getString().equals(
-							userGroups[j].getString())) {
-						return true;
-					}
-				}
-			}
+			return principal.isRestrictedTo(property.getValues());
 		} catch (javax.jcr.RepositoryException e) {
 			logger.error(e.getMessage(),e);
 			throw new SecurityException(e);
 		}			
-		return false;
 	}
 	
 	public static boolean canRead(javax.jcr.Node node, String memberId) 
@@ -1802,61 +1789,19 @@ public class JCRSecurityService implements SecurityService {
 			return false;
 		}
 
-		javax.jcr.Node userNode = 
-			JCRSecurityService.getUserNode(node.getSession(),memberId);		
-		if (userNode.hasProperty(JLibraryConstants.JLIBRARY_ISADMIN)) {
-			boolean isAdmin = userNode.getProperty(
-					JLibraryConstants.JLIBRARY_ISADMIN).getBoolean();
-			if (isAdmin) {
-				return true;
-			}
+		PrincipalSnapshot principal = 
+			PrincipalCache.get(node.getSession(),memberId);
+		if (principal.isAdmin()) {
+			return true;
 		}
 		
-		if (!userNode.hasProperty(JLibraryConstants.JLIBRARY_ROLES)) {
+		if (!principal.hasRoles()) {
 			return false;
 		}
 		
-		String[] roles = obtainRoles(userNode);
-		
-		for (int i = 0; i < roles.length; i++) {
-			javax.jcr.Node rol = userNode.getSession().getNodeByUUID(roles[i]);
-			String propertyName = rol.getProperty(
-					JLibraryConstants.JLIBRARY_NAME).getString();
-			if ((propertyName.equals(Rol.ADMIN_ROLE_NAME)) ||
-				(propertyName.equals(Rol.READER_ROLE_NAME)) ||
-				(propertyName.equals(Rol.PUBLISHER_ROLE_NAME))) {
-				return true;
-			}
-		}
-		return false;
-	}
-	
-	private static String[] obtainRoles(Node userNode) 
-									throws javax.jcr.RepositoryException {
-
-		javax.jcr.Session session = userNode.getSession();
-		HashSet set = new HashSet();
-		
-		Value[] roles = userNode.getProperty(
-				JLibraryConstants.JLIBRARY_ROLES).getValues();
-		for (int i = 0; i < roles.length; i++) {
-			set.add(roles[i].getString());
-		}
-
-		// Now we will get all the roles from user's groups
-		Value[] userGroups = userNode.getProperty(
-				JLibraryConstants.JLIBRARY_GROUPS).getValues();
-		for (int i = 0; i < userGroups.length; i++) {
-			String groupId = userGroups[i].getString();
-			javax.jcr.Node groupNode = session.getNodeByUUID(groupId);
-			Value[] groupRoles = groupNode.getProperty(
-					JLibraryConstants.JLIBRARY_ROLES).getValues();
-			for (int j = 0; j < groupRoles.length; j++) {
-				set.add(groupRoles[j].getString());
-			}			
-		}
-		
-		return (String[])set.toArray(new String[]{});
+		return principal.hasAdminRole() || 
+			   principal.hasReaderRole() || 
+			   principal.hasPublisherRole();
 	}
 	
 	/**
@@ -1880,17 +1825,7 @@ public class JCRSecurityService implements SecurityService {
 											   SecurityException {
 		
 		String creatorId = node.getProperty(JLibraryConstants.JLIBRARY_CREATOR).getValue().getString();
-		javax.jcr.Node creatorNode = 
-			JCRSecurityService.getUserNode(node.getSession(),creatorId);
-		boolean adminCreated = false;
-		if (creatorNode.hasProperty(JLibraryConstants.JLIBRARY_ISADMIN)) {
-			adminCreated = creatorNode.getProperty(
-					JLibraryConstants.JLIBRARY_ISADMIN).getBoolean();
-			if (adminCreated) {
-				return true;
-			}
-		}
-		return false;
+		return PrincipalCache.get(node.getSession(),creatorId).isAdmin();
 	}
 	
 	public static boolean canWrite(javax.jcr.Node node, String memberId) 
@@ -1899,38 +1834,20 @@ public class JCRSecurityService implements SecurityService {
 
 		canAccess(node, memberId);
 		
-		javax.jcr.Node userNode = 
-			JCRSecurityService.getUserNode(node.getSession(),memberId);
+		PrincipalSnapshot principal = 
+			PrincipalCache.get(node.getSession(),memberId);
 		
-		if (!userNode.hasProperty(JLibraryConstants.JLIBRARY_ROLES)) {
+		if (!principal.hasRoles()) {
 			return false;
 		}
-		if (userNode.hasProperty(JLibraryConstants.JLIBRARY_ISADMIN)) {
-			boolean isAdmin = userNode.getProperty(
-					JLibraryConstants.JLIBRARY_ISADMIN).getBoolean();
-			if (isAdmin) {
-				return true;
-			}
+		if (principal.isAdmin()) {
+			return true;
 		}
 
-		boolean adminCreated = createdByAdmin(node);
-		String[] roles = obtainRoles(userNode);
-		for (int i = 0; i < roles.length; i++) {
-			javax.jcr.Node rol = userNode.getSession().getNodeByUUID(roles[i]);
-			String propertyName = rol.getProperty(
-					JLibraryConstants.JLIBRARY_NAME).getString();
-			if (!adminCreated) {
-				if ((propertyName.equals(Rol.ADMIN_ROLE_NAME)) ||
-					(propertyName.equals(Rol.PUBLISHER_ROLE_NAME))) {
-					return true;
-				}
-			} else {
-				if (propertyName.equals(Rol.ADMIN_ROLE_NAME)) {
-					return true;
-				}
-			}
+		if (principal.hasAdminRole()) {
+			return true;
 		}
-		return false;
+		return principal.hasPublisherRole() && !createdByAdmin(node);
 	}
 	
 	public static boolean canAdmin(javax.jcr.Node node, String memberId) 
@@ -1945,36 +1862,17 @@ public class JCRSecurityService implements SecurityService {
 								  String memberId) 
 										throws javax.jcr.RepositoryException{
 
-		javax.jcr.Node userNode = 
-			JCRSecurityService.getUserNode(session,memberId);
+		PrincipalSnapshot principal = PrincipalCache.get(session,memberId);
 		
-		if (!userNode.hasProperty(JLibraryConstants.JLIBRARY_ROLES)) {
+		if (!principal.hasRoles()) {
 			return false;
 		}
-		if (userNode.hasProperty(JLibraryConstants.JLIBRARY_ISADMIN)) {
-			boolean isAdmin = userNode.getProperty(
-					JLibraryConstants.JLIBRARY_ISADMIN).getBoolean();
-			if (isAdmin) {
-				return true;
-			}
+		if (principal.isAdmin()) {
+			return true;
 		}
 
-		// To be an admin the user will have to: 
-		//   1 - Have the admin role
-		//   2 - Be on a group with admin rights on the repository root node
-		javax.jcr.Node node = JCRUtils.getRootNode(session);
-		String[] roles = obtainRoles(userNode);
-
-		for (int i = 0; i < roles.length; i++) {
-			javax.jcr.Node rol = userNode.getSession().getNodeByUUID(roles[i]);
-			String propertyName = rol.getProperty(
-					JLibraryConstants.JLIBRARY_NAME).getString();
-			if ((propertyName.equals(Rol.ADMIN_ROLE_NAME))) {
-				return true;
-			}
-		}
-		return false;
-		
+		// To be an admin the user will have to have the admin role
+		return principal.hasAdminRole();
 	}
 	
 	/**
@@ -27,8 +27,12 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Calendar;
 
+import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.Property;
@@ -51,7 +55,8 @@ import org.apache.commons.lang.ArrayUtils;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.util.Text;
 import org.apache.jackrabbit.value.ValueFactoryImpl;
-import org.jlibrary.core.properties.RepositoryProperties;
+import org.jlibrary.core.properties.StreamContent;
+import org.jlibrary.core.util.CountingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +70,13 @@ public class JCRUtils {
 
 	static Logger logger = LoggerFactory.getLogger(JCRUtils.class);
 	
+	/**
+	 * Algorithm used to compute content digests
+	 */
+	public static final String DIGEST_ALGORITHM = "SHA-256";
+	
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
 	/**
 	 * Adds a node reference to a property. This method won't add duplicate 
 	 * values, so if the node already has that reference, then the reference 
@@ -227,6 +239,195 @@ public class JCRUtils {
 		return root.getNode(JLibraryConstants.JLIBRARY_SYSTEM);
 	}	
 		
+	/**
+	 * Stores a content on the <code>jcr:data</code> property of a resource 
+	 * node. The content is streamed into the repository, so it is never 
+	 * fully loaded on memory, and its SHA-256 digest is computed while it 
+	 * is read. Size and digest are stored on the <code>jlib:size</code> and 
+	 * <code>jlib:digest</code> properties of the owner node. The content 
+	 * stream is closed once it has been stored.
+	 * <p/>
+	 * If the owner node already holds a content with the same digest, the 
+	 * new binary is discarded and the node is left untouched.
+	 * 
+	 * @param node Document or resource node that owns the content
+	 * @param resNode <code>jcr:content</code> node
+	 * @param value Content property value, a byte array, a 
+	 * {@link StreamContent} or <code>null</code> for an empty content
+	 * 
+	 * @return boolean <code>true</code> if the content has been stored and 
+	 * <code>false</code> if it was identical to the current one
+	 * 
+	 * @throws javax.jcr.RepositoryException If the content can't be read or 
+	 * stored, or it does not have the length it announced
+	 */
+	public static boolean setContent(javax.jcr.Node node,
+									 javax.jcr.Node resNode,
+									 Object value) 
+										throws javax.jcr.RepositoryException {
+		
+		StreamContent content = StreamContent.forValue(value);
+		InputStream stream = null;
+		Binary binary = null;
+		try {
+			stream = content.openStream();
+			MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			CountingInputStream counter = 
+				new CountingInputStream(new DigestInputStream(stream,md));
+			binary = resNode.getSession().getValueFactory().createBinary(counter);
+			long size = counter.getCount();
+			if (content.getLength() != StreamContent.UNKNOWN_LENGTH &&
+				content.getLength() != size) {
+				throw new javax.jcr.RepositoryException(
+						"Content length mismatch. Expected " + 
+						content.getLength() + " bytes but read " + size);
+			}
+			String digest = toHex(md.digest());
+			if (resNode.hasProperty(JCRConstants.JCR_DATA) &&
+				node.hasProperty(JLibraryConstants.JLIBRARY_DIGEST) &&
+				digest.equals(node.getProperty(
+						JLibraryConstants.JLIBRARY_DIGEST).getString())) {
+				return false;
+			}
+			resNode.setProperty(JCRConstants.JCR_DATA,binary);
+			// The property owns the binary from now on
+			binary = null;
+			node.setProperty(JLibraryConstants.JLIBRARY_SIZE,size);
+			node.setProperty(JLibraryConstants.JLIBRARY_DIGEST,digest);
+			return true;
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new javax.jcr.RepositoryException(nsae);
+		} catch (IOException ioe) {
+			throw new javax.jcr.RepositoryException(ioe);
+		} finally {
+			if (binary != null) {
+				binary.dispose();
+			}
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException ioe) {
+					logger.error(ioe.getMessage(),ioe);
+				}
+			}
+		}
+	}
+	
+	static String toHex(byte[] bytes) {
+		
+		StringBuffer buffer = new StringBuffer(bytes.length*2);
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.append(HEX_DIGITS[(bytes[i] >> 4) & 0x0f]);
+			buffer.append(HEX_DIGITS[bytes[i] & 0x0f]);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Sets a single valued string property only if its value differs from 
+	 * the stored one. A <code>null</code> value removes the property.
+	 * 
+	 * @param node Node that owns the property
+	 * @param name Property name
+	 * @param value New value
+	 * 
+	 * @return boolean <code>true</code> if the property has been changed and 
+	 * <code>false</code> if it already had that value
+	 * 
+	 * @throws javax.jcr.RepositoryException If the property can't be read or 
+	 * set
+	 */
+	public static boolean updateProperty(javax.jcr.Node node,
+										 String name,
+										 String value) 
+										throws javax.jcr.RepositoryException {
+		
+		if (value == null) {
+			if (!node.hasProperty(name)) {
+				return false;
+			}
+			node.setProperty(name,(String)null);
+			return true;
+		}
+		if (node.hasProperty(name) &&
+			value.equals(node.getProperty(name).getString())) {
+			return false;
+		}
+		node.setProperty(name,value);
+		return true;
+	}
+	
+	/**
+	 * Sets a single valued long property only if its value differs from the 
+	 * stored one.
+	 * 
+	 * @see #updateProperty(javax.jcr.Node, String, String)
+	 */
+	public static boolean updateProperty(javax.jcr.Node node,
+										 String name,
+										 long value) 
+										throws javax.jcr.RepositoryException {
+		
+		if (node.hasProperty(name) && 
+			node.getProperty(name).getLong() == value) {
+			return false;
+		}
+		node.setProperty(name,value);
+		return true;
+	}
+	
+	/**
+	 * Sets a single valued date property only if its instant differs from 
+	 * the stored one.
+	 * 
+	 * @see #updateProperty(javax.jcr.Node, String, String)
+	 */
+	public static boolean updateProperty(javax.jcr.Node node,
+										 String name,
+										 Calendar value) 
+										throws javax.jcr.RepositoryException {
+		
+		if (node.hasProperty(name) && 
+			node.getProperty(name).getDate().getTimeInMillis() == 
+				value.getTimeInMillis()) {
+			return false;
+		}
+		node.setProperty(name,value);
+		return true;
+	}
+	
+	/**
+	 * Sets a single valued property only if the string form of its value 
+	 * differs from the stored one. Binary values are always set. A 
+	 * <code>null</code> value removes the property.
+	 * 
+	 * @see #updateProperty(javax.jcr.Node, String, String)
+	 */
+	public static boolean updateProperty(javax.jcr.Node node,
+										 String name,
+										 Value value) 
+										throws javax.jcr.RepositoryException {
+		
+		if (value == null) {
+			if (!node.hasProperty(name)) {
+				return false;
+			}
+			node.setProperty(name,(Value)null);
+			return true;
+		}
+		if (node.hasProperty(name)) {
+			Property property = node.getProperty(name);
+			if (!property.isMultiple() && 
+				value.getType() != PropertyType.BINARY &&
+				property.getType() == value.getType() &&
+				property.getString().equals(value.getString())) {
+				return false;
+			}
+		}
+		node.setProperty(name,value);
+		return true;
+	}
+	
 	/**
 	 * Removes recursively node references
 	 * 
@@ -300,7 +501,9 @@ public class JCRUtils {
 	 * 
 	 * @return A valid name. First the method will escape the passed name to 
 	 * remove wrong characters. Next, if there is some sibling the method will
-	 * try to create a name but enclosed with brackets.
+	 * try to create a name but enclosed with brackets. The name is allocated 
+	 * through the {@link ChildNameRegistry}, so it stays reserved until the 
+	 * node is released or its creation is discarded.
 	 * 
 	 * @throws RepositoryException If the name can't be obtained
 	 */
@@ -315,47 +518,9 @@ public class JCRUtils {
 			name = name.replace('\'','_');
 		}		
 		
-		String escapedName = Text.escape(name);
-				
-		String testString = escapedName;
-		if (extension != null) {
-			int dotIndex = escapedName.lastIndexOf(".");
-			if (dotIndex == -1) {
-				testString += extension;
-			}
-		}
-		
-		int i = 1;
-		while (parent.hasNode(testString) == true) {
-			
-			javax.jcr.Node node = parent.getNode(testString);
-			if (node.getProperty(
-					JLibraryConstants.JLIBRARY_ACTIVE).getBoolean() == false) {
-				continue;
-			}
-			
-			String unscaped = Text.unescape(escapedName);
-			String indexString = (i > 1) ? getIndexString(i-1) : "";
-			if (unscaped.endsWith(indexString)) {
-				int j = unscaped.lastIndexOf(indexString);
-				unscaped = unscaped.substring(0,j);
-			}
-			escapedName = Text.escape(unscaped+"["+i+"]");
-			testString = escapedName;
-			i++;
-		}
-				
-		return escapedName;
-	}
-	
-	private static String getIndexString(int index) {
-		
-		StringBuffer indexString = new StringBuffer();
-		indexString.append("[");
-		indexString.append(index);
-		indexString.append("]");
-		
-		return indexString.toString();
+		String validName = 
+			ChildNameRegistry.getInstance().allocate(parent,extension,name);
+		return Text.escape(validName);
 	}
 	
 	/**
@@ -405,6 +570,7 @@ public class JCRUtils {
 				configEntry.setProperty(
 							JLibraryConstants.JLIBRARY_CONFIG_VALUE,
 							value.booleanValue());
+				WorkspaceConfigCache.invalidate(session);
 				return;
 			}
 		}
@@ -416,6 +582,7 @@ public class JCRUtils {
 								key);
 		configEntry.setProperty(JLibraryConstants.JLIBRARY_CONFIG_VALUE,
 								value.booleanValue());
+		WorkspaceConfigCache.invalidate(session);
 	}
 	
 	/**
@@ -430,21 +597,22 @@ public class JCRUtils {
 	public static Value getConfigProperty(Session session, 
 								          String key) throws RepositoryException {
 		
-		javax.jcr.Node systemNode = getSystemNode(session);		
-		javax.jcr.Node configNode = 
-			systemNode.getNode(JLibraryConstants.JLIBRARY_CONFIG);
-
-		NodeIterator it = configNode.getNodes();
-		while (it.hasNext()) {
-			javax.jcr.Node configEntry = (javax.jcr.Node) it.next();
-			String configKey = configEntry.getProperty(
-							JLibraryConstants.JLIBRARY_CONFIG_KEY).getString();
-			if (configKey.equals(key)) {				
-				return configEntry.getProperty(
-						JLibraryConstants.JLIBRARY_CONFIG_VALUE).getValue();
-			}
-		}
-		return null;		
+		return WorkspaceConfigCache.get(session).getValue(key);
+	}
+	
+	/**
+	 * Returns the config entries of a workspace
+	 * 
+	 * @param session Session
+	 * 
+	 * @return WorkspaceConfig Immutable snapshot of the config entries
+	 * 
+	 * @throws RepositoryException If the config entries can't be read
+	 */
+	public static WorkspaceConfig getConfig(Session session) 
+											throws RepositoryException {
+		
+		return WorkspaceConfigCache.get(session);
 	}
 	
 	/**
@@ -462,20 +630,7 @@ public class JCRUtils {
 	public static boolean hasConfigProperty(Session session, 
 	          			  					String key) throws RepositoryException {
 
-		javax.jcr.Node systemNode = getSystemNode(session);		
-		javax.jcr.Node configNode = 
-			systemNode.getNode(JLibraryConstants.JLIBRARY_CONFIG);
-
-		NodeIterator it = configNode.getNodes();
-		while (it.hasNext()) {
-			javax.jcr.Node configEntry = (javax.jcr.Node) it.next();
-			String configKey = configEntry.getProperty(
-					JLibraryConstants.JLIBRARY_CONFIG_KEY).getString();
-			if (configKey.equals(key)) {				
-				return true;
-			}
-		}
-		return false;		
+		return WorkspaceConfigCache.get(session).hasProperty(key);
 	}	
 	
 	/**
@@ -495,13 +650,7 @@ public class JCRUtils {
 	public static boolean allowsPhysicalDeletes(Session session) 
 												throws RepositoryException {
 		
-		Value physicalDeletes = JCRUtils.getConfigProperty(
-				session,
-				RepositoryProperties.PHYSICAL_DELETE_DOCUMENTS);
-		if (physicalDeletes == null) {
-			return true;
-		}
-		return physicalDeletes.getBoolean();
+		return WorkspaceConfigCache.get(session).allowsPhysicalDeletes();
 	}
 	
 	/**
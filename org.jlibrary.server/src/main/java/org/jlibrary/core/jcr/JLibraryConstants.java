@@ -59,6 +59,7 @@ public class JLibraryConstants {
     public static final String JLIBRARY_DOCUMENT_URL = JLIBRARY_PREFIX + ":url";
     public static final String JLIBRARY_TITLE = JLIBRARY_PREFIX + ":title";
     public static final String JLIBRARY_SIZE = JLIBRARY_PREFIX + ":size";
+    public static final String JLIBRARY_DIGEST = JLIBRARY_PREFIX + ":digest";
     public static final String JLIBRARY_SYSTEM = JLIBRARY_PREFIX + ":system";
     public static final String JLIBRARY_CONFIG= JLIBRARY_PREFIX + ":config";
     public static final String JLIBRARY_CUSTOM_PROPERTIES= JLIBRARY_PREFIX + ":custom-properties";
@@ -73,6 +74,7 @@ public class JLibraryConstants {
     public static final String JLIBRARY_CONFIG_VALUE= JLIBRARY_PREFIX + ":config-value";    
     public static final String JLIBRARY_CATEGORIES = JLIBRARY_PREFIX + ":categories";
     public static final String JLIBRARY_NODES = JLIBRARY_PREFIX + ":nodes";
+    public static final String JLIBRARY_MEMBERSHIPS = JLIBRARY_PREFIX + ":memberships";
     public static final String JLIBRARY_CATEGORY = JLIBRARY_PREFIX + ":category";
     public static final String JLIBRARY_UNKNOWN_CATEGORY = JLIBRARY_PREFIX + ":unkCategory";
     public static final String JLIBRARY_AUTHORS = JLIBRARY_PREFIX + ":authors";
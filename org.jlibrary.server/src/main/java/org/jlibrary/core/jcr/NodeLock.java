@@ -0,0 +1,75 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+/**
+ * Lock held on a set of nodes through the {@link NodeLockManager}. It must be 
+ * released on a <code>finally</code> block by the thread that acquired it.
+ * 
+ * @author martin
+ */
+public class NodeLock {
+
+	private final NodeLockManager manager;
+	private final String[] paths;
+	private final int[] modes;
+	private final boolean exclusive;
+	private boolean released;
+	
+	NodeLock(NodeLockManager manager, 
+			 String[] paths, 
+			 int[] modes, 
+			 boolean exclusive) {
+		
+		this.manager = manager;
+		this.paths = paths;
+		this.modes = modes;
+		this.exclusive = exclusive;
+	}
+	
+	/**
+	 * Releases this lock. Calling it more than once has no effect.
+	 */
+	public void release() {
+		
+		if (!released) {
+			released = true;
+			manager.release(paths,modes,paths.length);
+		}
+	}
+	
+	/**
+	 * @return boolean <code>true</code> if this lock holds any node in 
+	 * exclusive mode and <code>false</code> otherwise
+	 */
+	public boolean isExclusive() {
+		return exclusive;
+	}
+	
+	/**
+	 * @return String[] Paths of the nodes locked, ancestors first
+	 */
+	public String[] getPaths() {
+		return (String[])paths.clone();
+	}
+}
@@ -0,0 +1,554 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.lock.LockException;
+
+import org.jlibrary.core.config.SessionConfigurationReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Hierarchical locks used to synchronize the operations that different 
+ * sessions run on the repository tree, like creating children on a directory,
+ * updating a document or moving a whole directory.</p>
+ * 
+ * <p>Locks are taken on node paths following the usual multi-granularity 
+ * protocol. A node is locked in shared (<code>S</code>) or exclusive 
+ * (<code>X</code>) mode and every one of its ancestors is locked in the 
+ * matching intent mode (<code>IS</code> or <code>IX</code>). Locking a node 
+ * implicitly locks its whole subtree, so moving a directory excludes any 
+ * write inside it, while writes on unrelated branches only share intent 
+ * locks and proceed in parallel. Reads of a document or a directory take a 
+ * shared lock, so readers don't block each other but they never see a 
+ * half written document or a half moved directory.</p>
+ * 
+ * <p>Lock entries only exist while somebody holds or waits for them, so 
+ * memory does not grow with the number of nodes. Locks are reentrant for 
+ * the same thread, and all the paths of an operation are acquired in path 
+ * order. Anyway, an acquisition waits at most <code>node.lock.timeout</code> 
+ * miliseconds and then fails with a <code>LockException</code> instead of 
+ * blocking forever.</p>
+ * 
+ * @author martin
+ */
+public class NodeLockManager {
+
+	static Logger logger = LoggerFactory.getLogger(NodeLockManager.class);
+	
+	/** Intent shared mode, taken on the ancestors of a shared lock */
+	public static final int INTENT_SHARED = 0;
+	/** Intent exclusive mode, taken on the ancestors of an exclusive lock */
+	public static final int INTENT_EXCLUSIVE = 1;
+	/** Shared mode. Locks the node and its subtree for reading */
+	public static final int SHARED = 2;
+	/** Exclusive mode. Locks the node and its subtree for writing */
+	public static final int EXCLUSIVE = 3;
+	
+	private static final String[] MODE_NAMES = {"IS","IX","S","X"};
+	
+	private static final boolean[][] COMPATIBLE = {
+		//             IS     IX     S      X
+		/* IS */	{ true,  true,  true,  false },
+		/* IX */	{ true,  true,  false, false },
+		/* S  */	{ true,  false, true,  false },
+		/* X  */	{ false, false, false, false }
+	};
+	
+	private static final int DEFAULT_STRIPES = 256;
+	private static final long DEFAULT_TIMEOUT = 30000;
+	
+	private static NodeLockManager instance;
+	
+	private final Map[] stripes;
+	private final int mask;
+	private final long timeout;
+	
+	private final ThreadLocal holdings = new ThreadLocal() {
+		protected Object initialValue() {
+			return new HashMap();
+		}
+	};
+	
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong contentions = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	
+	/**
+	 * Lock state of a single path
+	 */
+	private static class Entry {
+		
+		final int[] granted = new int[4];
+		int users;
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param stripes Number of partitions of the lock table. It will be 
+	 * rounded up to a power of two
+	 * @param timeout Maximum time to wait for a lock in miliseconds
+	 */
+	public NodeLockManager(int stripes, long timeout) {
+		
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		this.stripes = new Map[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new HashMap();
+		}
+		this.mask = size - 1;
+		this.timeout = timeout;
+	}
+	
+	public static synchronized NodeLockManager getInstance() {
+		
+		if (instance == null) {
+			int stripes = Integer.parseInt(SessionConfigurationReader.getString(
+					"node.lock.stripes",String.valueOf(DEFAULT_STRIPES)));
+			long timeout = Long.parseLong(SessionConfigurationReader.getString(
+					"node.lock.timeout",String.valueOf(DEFAULT_TIMEOUT)));
+			instance = new NodeLockManager(stripes,timeout);
+		}
+		return instance;
+	}
+	
+	/**
+	 * Acquires a shared lock on a node subtree
+	 * 
+	 * @param node Node
+	 * 
+	 * @return NodeLock Acquired lock
+	 * 
+	 * @throws RepositoryException If the lock can't be acquired before the 
+	 * timeout expires
+	 */
+	public NodeLock readLock(Node node) throws RepositoryException {
+		
+		return readLock(node.getPath());
+	}
+	
+	/**
+	 * Acquires an exclusive lock on a node subtree
+	 * 
+	 * @param node Node
+	 * 
+	 * @return NodeLock Acquired lock
+	 * 
+	 * @throws RepositoryException If the lock can't be acquired before the 
+	 * timeout expires
+	 */
+	public NodeLock writeLock(Node node) throws RepositoryException {
+		
+		return writeLock(node.getPath());
+	}
+	
+	/**
+	 * Acquires an exclusive lock on several nodes at once, i.e. all the 
+	 * parents of a batch of new documents
+	 * 
+	 * @param nodes Collection of <code>javax.jcr.Node</code> objects
+	 * 
+	 * @return NodeLock Acquired lock
+	 * 
+	 * @throws RepositoryException If the lock can't be acquired before the 
+	 * timeout expires
+	 */
+	public NodeLock writeLock(Collection nodes) throws RepositoryException {
+		
+		TreeMap request = new TreeMap();
+		Iterator it = nodes.iterator();
+		while (it.hasNext()) {
+			addRequest(request,((Node)it.next()).getPath(),EXCLUSIVE);
+		}
+		return acquire(request);
+	}
+	
+	/**
+	 * Acquires the locks needed to move a node subtree. The source subtree 
+	 * and the destination are locked in exclusive mode.
+	 * 
+	 * @param source Node that will be moved
+	 * @param destination New parent of the node
+	 * 
+	 * @return NodeLock Acquired lock
+	 * 
+	 * @throws RepositoryException If the lock can't be acquired before the 
+	 * timeout expires
+	 */
+	public NodeLock moveLock(Node source, 
+							 Node destination) throws RepositoryException {
+		
+		TreeMap request = new TreeMap();
+		addRequest(request,source.getPath(),EXCLUSIVE);
+		addRequest(request,destination.getPath(),EXCLUSIVE);
+		return acquire(request);
+	}
+	
+	/**
+	 * Acquires the locks needed to copy a node subtree. The source subtree 
+	 * is locked in shared mode and the destination in exclusive mode.
+	 * 
+	 * @param source Node that will be copied
+	 * @param destination Parent of the copy
+	 * 
+	 * @return NodeLock Acquired lock
+	 * 
+	 * @throws RepositoryException If the lock can't be acquired before the 
+	 * timeout expires
+	 */
+	public NodeLock copyLock(Node source, 
+							 Node destination) throws RepositoryException {
+		
+		TreeMap request = new TreeMap();
+		addRequest(request,source.getPath(),SHARED);
+		addRequest(request,destination.getPath(),EXCLUSIVE);
+		return acquire(request);
+	}
+	
+	public NodeLock readLock(String path) throws RepositoryException {
+		
+		TreeMap request = new TreeMap();
+		addRequest(request,path,SHARED);
+		return acquire(request);
+	}
+	
+	public NodeLock writeLock(String path) throws RepositoryException {
+		
+		TreeMap request = new TreeMap();
+		addRequest(request,path,EXCLUSIVE);
+		return acquire(request);
+	}
+	
+	/**
+	 * Adds a path and the intent locks on its ancestors to a lock request, 
+	 * merging the modes of the paths that were already requested
+	 */
+	private void addRequest(TreeMap request, String path, int mode) {
+		
+		int intent = (mode == SHARED) ? INTENT_SHARED : INTENT_EXCLUSIVE;
+		int index = 0;
+		while ((index = path.indexOf('/',index)) != -1) {
+			String ancestor = (index == 0) ? "/" : path.substring(0,index);
+			if (!ancestor.equals(path)) {
+				mergeRequest(request,ancestor,intent);
+			}
+			index++;
+		}
+		mergeRequest(request,path,mode);
+	}
+	
+	private void mergeRequest(TreeMap request, String path, int mode) {
+		
+		Integer previous = (Integer)request.get(path);
+		if (previous != null) {
+			mode = merge(previous.intValue(),mode);
+		}
+		request.put(path,new Integer(mode));
+	}
+	
+	/**
+	 * Returns the weakest mode that covers both modes. The SIX combination 
+	 * is promoted to X.
+	 */
+	static int merge(int first, int second) {
+		
+		if (first == second) {
+			return first;
+		}
+		if (first == EXCLUSIVE || second == EXCLUSIVE) {
+			return EXCLUSIVE;
+		}
+		if (first == INTENT_SHARED) {
+			return second;
+		}
+		if (second == INTENT_SHARED) {
+			return first;
+		}
+		return EXCLUSIVE;
+	}
+	
+	private NodeLock acquire(TreeMap request) throws RepositoryException {
+		
+		acquisitions.incrementAndGet();
+		
+		String[] paths = new String[request.size()];
+		int[] modes = new int[request.size()];
+		boolean exclusive = false;
+		int i = 0;
+		Iterator it = request.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry entry = (Map.Entry)it.next();
+			paths[i] = (String)entry.getKey();
+			modes[i] = ((Integer)entry.getValue()).intValue();
+			if (modes[i] == EXCLUSIVE) {
+				exclusive = true;
+			}
+			i++;
+		}
+		
+		long start = 0;
+		long deadline = 0;
+		boolean contended = false;
+		try {
+			for (i = 0; i < paths.length; i++) {
+				if (tryAcquire(paths[i],modes[i],-1)) {
+					continue;
+				}
+				if (!contended) {
+					contended = true;
+					contentions.incrementAndGet();
+					start = System.nanoTime();
+					deadline = start + timeout * 1000000;
+				}
+				if (!tryAcquire(paths[i],modes[i],deadline)) {
+					timeouts.incrementAndGet();
+					release(paths,modes,i);
+					logger.warn("Timeout waiting for the " + MODE_NAMES[modes[i]] + 
+								" lock of node " + paths[i] + ". " + this);
+					throw new LockException("Timeout waiting for the lock of node " + 
+											paths[i]);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			release(paths,modes,i);
+			throw new LockException("Interrupted while waiting for node " + paths[i],e);
+		} finally {
+			if (contended) {
+				recordWait(System.nanoTime() - start);
+			}
+		}
+		return new NodeLock(this,paths,modes,exclusive);
+	}
+	
+	/**
+	 * Tries to acquire a single path
+	 * 
+	 * @param deadline Time in nanoseconds until we will wait or -1 to not 
+	 * wait at all
+	 */
+	private boolean tryAcquire(String path, 
+							   int mode, 
+							   long deadline) throws InterruptedException {
+		
+		Map held = (Map)holdings.get();
+		int[] own = (int[])held.get(path);
+		if (own == null) {
+			own = new int[4];
+		}
+		
+		Entry entry = reference(path);
+		boolean acquired = false;
+		try {
+			synchronized (entry) {
+				while (!isCompatible(entry,own,mode)) {
+					if (deadline == -1) {
+						return false;
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return false;
+					}
+					entry.wait(remaining / 1000000,(int)(remaining % 1000000));
+				}
+				entry.granted[mode]++;
+				acquired = true;
+			}
+		} finally {
+			if (!acquired) {
+				unreference(path,entry);
+			}
+		}
+		own[mode]++;
+		held.put(path,own);
+		return true;
+	}
+	
+	/**
+	 * Releases the first <code>count</code> paths of a lock, in reverse order
+	 */
+	void release(String[] paths, int[] modes, int count) {
+		
+		Map held = (Map)holdings.get();
+		for (int i = count - 1; i >= 0; i--) {
+			int[] own = (int[])held.get(paths[i]);
+			if (own != null && own[modes[i]] > 0) {
+				own[modes[i]]--;
+				if (own[0] + own[1] + own[2] + own[3] == 0) {
+					held.remove(paths[i]);
+				}
+			}
+			Entry entry;
+			Map stripe = getStripe(paths[i]);
+			synchronized (stripe) {
+				entry = (Entry)stripe.get(paths[i]);
+			}
+			if (entry == null) {
+				logger.warn("Releasing a lock that is not held on node " + paths[i]);
+				continue;
+			}
+			synchronized (entry) {
+				entry.granted[modes[i]]--;
+				entry.notifyAll();
+			}
+			unreference(paths[i],entry);
+		}
+	}
+	
+	/**
+	 * Checks if a mode can be granted, ignoring the locks that the current 
+	 * thread already holds on the path
+	 */
+	private boolean isCompatible(Entry entry, int[] own, int mode) {
+		
+		for (int i = 0; i < 4; i++) {
+			if ((entry.granted[i] - own[i]) > 0 && !COMPATIBLE[mode][i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private Entry reference(String path) {
+		
+		Map stripe = getStripe(path);
+		synchronized (stripe) {
+			Entry entry = (Entry)stripe.get(path);
+			if (entry == null) {
+				entry = new Entry();
+				stripe.put(path,entry);
+			}
+			entry.users++;
+			return entry;
+		}
+	}
+	
+	private void unreference(String path, Entry entry) {
+		
+		Map stripe = getStripe(path);
+		synchronized (stripe) {
+			entry.users--;
+			if (entry.users == 0) {
+				stripe.remove(path);
+			}
+		}
+	}
+	
+	private Map getStripe(String path) {
+		
+		int hash = path.hashCode();
+		hash ^= (hash >>> 16);
+		return stripes[hash & mask];
+	}
+	
+	private void recordWait(long wait) {
+		
+		totalWaitNanos.addAndGet(wait);
+		long max = maxWaitNanos.get();
+		while (wait > max && !maxWaitNanos.compareAndSet(max,wait)) {
+			max = maxWaitNanos.get();
+		}
+	}
+	
+	/**
+	 * @return int Number of paths that are currently locked or waited for
+	 */
+	public int getLockedPaths() {
+		
+		int count = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				count += stripes[i].size();
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return List Paths locked by the current thread
+	 */
+	public List getHeldPaths() {
+		
+		return new ArrayList(((Map)holdings.get()).keySet());
+	}
+	
+	public int getStripes() {
+		return stripes.length;
+	}
+	
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	public long getAcquisitions() {
+		return acquisitions.get();
+	}
+	
+	/**
+	 * @return long Number of acquisitions that had to wait for the lock
+	 */
+	public long getContentions() {
+		return contentions.get();
+	}
+	
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+	
+	public long getTotalWaitMillis() {
+		return totalWaitNanos.get() / 1000000;
+	}
+	
+	public long getMaxWaitMillis() {
+		return maxWaitNanos.get() / 1000000;
+	}
+	
+	public String toString() {
+		
+		return "[ stripes : " + stripes.length +
+			   ", locked paths : " + getLockedPaths() + 
+			   ", acquisitions : " + getAcquisitions() + 
+			   ", contentions : " + getContentions() + 
+			   ", timeouts : " + getTimeouts() + 
+			   ", wait ms : " + getTotalWaitMillis() + 
+			   ", max wait ms : " + getMaxWaitMillis() + 
+			   " ]";
+	}
+}
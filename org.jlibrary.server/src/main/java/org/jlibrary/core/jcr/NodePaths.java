@@ -0,0 +1,276 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.jlibrary.core.config.SessionConfigurationReader;
+import org.jlibrary.core.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Access to the jLibrary paths of the nodes, the ones stored on the 
+ * <code>jlib:path</code> property. Those paths are built with the directory 
+ * path slots and the file names, and they do not change when the nodes are 
+ * renamed.</p>
+ * 
+ * <p>Workspaces can store the paths in two ways. Old workspaces store the 
+ * full path on every node, so moving a directory means rewriting the path of 
+ * every node below it. Workspaces with the {@link #DERIVED_PATHS} config 
+ * entry only store the last path element on every node, and the full path 
+ * is derived from the ancestors when needed, so moving a directory only 
+ * updates the directory node. The 
+ * {@link org.jlibrary.core.jcr.compatibility.DerivedPathsMigrator} converts old 
+ * workspaces, and the 
+ * {@link org.jlibrary.core.jcr.compatibility.FullPathsMigrator} converts them 
+ * back.</p>
+ * 
+ * <p>Derived paths are kept on a cache of <code>node.paths.cache</code> 
+ * entries indexed by node identifier. An entry is valid while the node JCR 
+ * path does not change and no directory has been moved on the workspace 
+ * since the entry was computed.</p>
+ * 
+ * @author martin
+ */
+public class NodePaths {
+
+	static Logger logger = LoggerFactory.getLogger(NodePaths.class);
+	
+	/**
+	 * Config entry that tags workspaces that only store the last path 
+	 * element on every node
+	 */
+	public static final String DERIVED_PATHS = "derived.paths";
+	
+	private static final int DEFAULT_CACHE_SIZE = 10000;
+	
+	private static NodePaths instance;
+	
+	private final Map cache;
+	private final ConcurrentHashMap generations = new ConcurrentHashMap();
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * Cached derived path
+	 */
+	private static class CachedPath {
+		
+		final String path;
+		final String jcrPath;
+		final long generation;
+		
+		CachedPath(String path, String jcrPath, long generation) {
+			
+			this.path = path;
+			this.jcrPath = jcrPath;
+			this.generation = generation;
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param cacheSize Maximum number of paths kept on memory
+	 */
+	public NodePaths(final int cacheSize) {
+		
+		cache = new LinkedHashMap(16,0.75f,true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+	
+	public static synchronized NodePaths getInstance() {
+		
+		if (instance == null) {
+			int size = Integer.parseInt(SessionConfigurationReader.getString(
+					"node.paths.cache",String.valueOf(DEFAULT_CACHE_SIZE)));
+			instance = new NodePaths(size);
+		}
+		return instance;
+	}
+	
+	/**
+	 * Tells if a workspace stores derived paths
+	 * 
+	 * @param session Session
+	 * 
+	 * @return boolean <code>true</code> if only the last path element is 
+	 * stored on every node
+	 * 
+	 * @throws RepositoryException If the workspace config can't be read
+	 */
+	public boolean isDerived(Session session) throws RepositoryException {
+		
+		return JCRUtils.getConfig(session).getBoolean(DERIVED_PATHS,false);
+	}
+	
+	/**
+	 * Returns the full jLibrary path of a node
+	 * 
+	 * @param node Node
+	 * 
+	 * @return String Node path, i.e. <code>/3/0/document.txt</code>, or 
+	 * <code>/</code> for the root node
+	 * 
+	 * @throws RepositoryException If the path can't be read
+	 */
+	public String getPath(javax.jcr.Node node) throws RepositoryException {
+		
+		if (!node.hasProperty(JLibraryConstants.JLIBRARY_CREATED) || 
+			!node.hasProperty(JLibraryConstants.JLIBRARY_PATH)) {
+			return "/";
+		}
+		String stored = 
+			node.getProperty(JLibraryConstants.JLIBRARY_PATH).getString();
+		if (stored.equals("/") || !isDerived(node.getSession())) {
+			return stored;
+		}
+		
+		String workspace = node.getSession().getWorkspace().getName();
+		String key = workspace + ":" + node.getIdentifier();
+		String jcrPath = node.getPath();
+		long generation = getGeneration(workspace).get();
+		synchronized (cache) {
+			CachedPath cached = (CachedPath)cache.get(key);
+			if (cached != null && 
+				cached.generation == generation && 
+				cached.jcrPath.equals(jcrPath)) {
+				hits.incrementAndGet();
+				return cached.path;
+			}
+		}
+		
+		misses.incrementAndGet();
+		String path = addSeparator(getPath(node.getParent())) + stored;
+		synchronized (cache) {
+			cache.put(key,new CachedPath(path,jcrPath,generation));
+		}
+		return path;
+	}
+	
+	/**
+	 * Returns the value that must be stored on the path property of a new 
+	 * child node
+	 * 
+	 * @param parent Parent node
+	 * @param name Last path element, i.e. a directory slot or a file name
+	 * 
+	 * @return String Path value
+	 * 
+	 * @throws RepositoryException If the path can't be built
+	 */
+	public String buildPath(javax.jcr.Node parent, 
+							String name) throws RepositoryException {
+		
+		if (isDerived(parent.getSession())) {
+			return name;
+		}
+		return addSeparator(getPath(parent)) + name;
+	}
+	
+	/**
+	 * Returns the last element of a node path
+	 * 
+	 * @param node Node
+	 * 
+	 * @return String Last path element
+	 * 
+	 * @throws RepositoryException If the path can't be read
+	 */
+	public String getName(javax.jcr.Node node) throws RepositoryException {
+		
+		String stored = 
+			node.getProperty(JLibraryConstants.JLIBRARY_PATH).getString();
+		return FileUtils.getFileName(stored);
+	}
+	
+	/**
+	 * Discards the derived paths of a workspace. It must be called when a 
+	 * node that has children is moved.
+	 * 
+	 * @param session Session
+	 */
+	public void invalidate(Session session) {
+		
+		getGeneration(session.getWorkspace().getName()).incrementAndGet();
+	}
+	
+	private AtomicLong getGeneration(String workspace) {
+		
+		AtomicLong generation = (AtomicLong)generations.get(workspace);
+		if (generation == null) {
+			generation = new AtomicLong();
+			AtomicLong other = 
+				(AtomicLong)generations.putIfAbsent(workspace,generation);
+			if (other != null) {
+				generation = other;
+			}
+		}
+		return generation;
+	}
+	
+	/**
+	 * Appends a trailing slash to a path if it does not have it yet
+	 */
+	public static String addSeparator(String path) {
+		
+		if (!path.endsWith("/")) {
+			return path + "/";
+		}
+		return path;
+	}
+	
+	public int getSize() {
+		
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public String toString() {
+		
+		return "[ paths : " + getSize() + 
+			   ", hits : " + getHits() + 
+			   ", misses : " + getMisses() + 
+			   " ]";
+	}
+}
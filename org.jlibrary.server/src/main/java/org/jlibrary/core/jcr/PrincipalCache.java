@@ -0,0 +1,112 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Cache of {@link PrincipalSnapshot} instances, one per member and 
+ * workspace. Every ticket of the same user shares the same snapshot.
+ * 
+ * <p>Any change to users, groups or roles must call 
+ * {@link #invalidate(Session)}. A snapshot that was being loaded while an 
+ * invalidation happened is not cached, so stale information is never 
+ * stored.</p>
+ * 
+ * @author martin
+ */
+public class PrincipalCache {
+
+	private static final int MAX_ENTRIES = 10000;
+	
+	private static ConcurrentHashMap<String, PrincipalSnapshot> snapshots = 
+		new ConcurrentHashMap<String, PrincipalSnapshot>();
+	
+	private static AtomicLong generation = new AtomicLong();
+	
+	private PrincipalCache() {}
+	
+	/**
+	 * Returns the security snapshot of a member
+	 * 
+	 * @param session Session of the workspace where the check happens
+	 * @param memberId Member id
+	 * 
+	 * @return PrincipalSnapshot Security snapshot
+	 * 
+	 * @throws RepositoryException If the member information can't be read
+	 */
+	public static PrincipalSnapshot get(Session session, 
+										String memberId) 
+											throws RepositoryException {
+		
+		String key = session.getWorkspace().getName() + "/" + memberId;
+		PrincipalSnapshot snapshot = snapshots.get(key);
+		if (snapshot != null) {
+			return snapshot;
+		}
+		
+		long loadGeneration = generation.get();
+		snapshot = PrincipalSnapshot.load(
+				memberId, JCRSecurityService.getUserNode(session,memberId));
+		if (snapshots.size() >= MAX_ENTRIES) {
+			snapshots.clear();
+		}
+		snapshots.put(key, snapshot);
+		if (generation.get() != loadGeneration) {
+			// Invalidated while loading
+			snapshots.remove(key, snapshot);
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Discards the snapshots of a workspace. It must be called after any 
+	 * user, group or role change has been saved.
+	 * 
+	 * @param session Session of the changed workspace
+	 */
+	public static void invalidate(Session session) {
+		
+		String prefix = session.getWorkspace().getName() + "/";
+		generation.incrementAndGet();
+		for (String key: snapshots.keySet()) {
+			if (key.startsWith(prefix)) {
+				snapshots.remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * Discards all the cached snapshots
+	 */
+	public static void invalidateAll() {
+		
+		generation.incrementAndGet();
+		snapshots.clear();
+	}
+}
@@ -0,0 +1,207 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.jlibrary.core.entities.Rol;
+
+/**
+ * Immutable view of the security information of a member: its groups, the 
+ * kind of roles it holds either directly or through its groups and its 
+ * administrator flag. It lets permission checks to be resolved without 
+ * loading the user, group and role nodes again for every checked node.
+ * 
+ * @see PrincipalCache
+ * 
+ * @author martin
+ */
+public class PrincipalSnapshot {
+
+	private final String memberId;
+	private final Set groupIds;
+	private final boolean adminFlag;
+	private final boolean hasRoles;
+	private final boolean adminRole;
+	private final boolean publisherRole;
+	private final boolean readerRole;
+	
+	private PrincipalSnapshot(String memberId,
+							  Set groupIds,
+							  boolean adminFlag,
+							  boolean hasRoles,
+							  boolean adminRole,
+							  boolean publisherRole,
+							  boolean readerRole) {
+		
+		this.memberId = memberId;
+		this.groupIds = Collections.unmodifiableSet(groupIds);
+		this.adminFlag = adminFlag;
+		this.hasRoles = hasRoles;
+		this.adminRole = adminRole;
+		this.publisherRole = publisherRole;
+		this.readerRole = readerRole;
+	}
+	
+	/**
+	 * Compiles the snapshot of an user node
+	 * 
+	 * @param memberId Member id used on the security checks
+	 * @param userNode User node
+	 * 
+	 * @return PrincipalSnapshot Snapshot of the user security information
+	 * 
+	 * @throws RepositoryException If the user information can't be read
+	 */
+	public static PrincipalSnapshot load(String memberId, 
+										 Node userNode) 
+											throws RepositoryException {
+		
+		Session session = userNode.getSession();
+		
+		boolean adminFlag = false;
+		if (userNode.hasProperty(JLibraryConstants.JLIBRARY_ISADMIN)) {
+			adminFlag = userNode.getProperty(
+					JLibraryConstants.JLIBRARY_ISADMIN).getBoolean();
+		}
+		
+		HashSet groupIds = new HashSet();
+		HashSet roleIds = new HashSet();
+		boolean hasRoles = userNode.hasProperty(JLibraryConstants.JLIBRARY_ROLES);
+		if (hasRoles) {
+			addValues(roleIds, userNode.getProperty(
+					JLibraryConstants.JLIBRARY_ROLES).getValues());
+		}
+		if (userNode.hasProperty(JLibraryConstants.JLIBRARY_GROUPS)) {
+			Value[] groups = userNode.getProperty(
+					JLibraryConstants.JLIBRARY_GROUPS).getValues();
+			for (int i = 0; i < groups.length; i++) {
+				String groupId = groups[i].getString();
+				groupIds.add(groupId);
+				if (hasRoles) {
+					Node groupNode = session.getNodeByUUID(groupId);
+					if (groupNode.hasProperty(JLibraryConstants.JLIBRARY_ROLES)) {
+						addValues(roleIds, groupNode.getProperty(
+								JLibraryConstants.JLIBRARY_ROLES).getValues());
+					}
+				}
+			}
+		}
+		
+		boolean adminRole = false;
+		boolean publisherRole = false;
+		boolean readerRole = false;
+		Object[] roles = roleIds.toArray();
+		for (int i = 0; i < roles.length; i++) {
+			Node rol = session.getNodeByUUID((String)roles[i]);
+			String name = rol.getProperty(JLibraryConstants.JLIBRARY_NAME).getString();
+			if (name.equals(Rol.ADMIN_ROLE_NAME)) {
+				adminRole = true;
+			} else if (name.equals(Rol.PUBLISHER_ROLE_NAME)) {
+				publisherRole = true;
+			} else if (name.equals(Rol.READER_ROLE_NAME)) {
+				readerRole = true;
+			}
+		}
+		
+		return new PrincipalSnapshot(memberId,
+									 groupIds,
+									 adminFlag,
+									 hasRoles,
+									 adminRole,
+									 publisherRole,
+									 readerRole);
+	}
+	
+	private static void addValues(Set set, Value[] values) 
+											throws RepositoryException {
+		
+		for (int i = 0; i < values.length; i++) {
+			set.add(values[i].getString());
+		}
+	}
+	
+	/**
+	 * Tells if this member, or any of its groups, is on a restrictions list
+	 * 
+	 * @param restrictions Values of a <code>jlib:restrictions</code> property
+	 * 
+	 * @return boolean <code>true</code> if the member or one of its groups 
+	 * is found and <code>false</code> otherwise
+	 */
+	public boolean isRestrictedTo(Value[] restrictions) 
+											throws RepositoryException {
+		
+		for (int i = 0; i < restrictions.length; i++) {
+			String restriction = restrictions[i].getString();
+			if (restriction.equals(memberId) || groupIds.contains(restriction)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public String getMemberId() {
+		return memberId;
+	}
+	
+	/**
+	 * @return Set Ids of the groups of this member
+	 */
+	public Set getGroupIds() {
+		return groupIds;
+	}
+	
+	/**
+	 * @return boolean Value of the <code>jlib:isAdmin</code> flag
+	 */
+	public boolean isAdmin() {
+		return adminFlag;
+	}
+	
+	/**
+	 * @return boolean <code>true</code> if the user node has a roles property
+	 */
+	public boolean hasRoles() {
+		return hasRoles;
+	}
+	
+	public boolean hasAdminRole() {
+		return adminRole;
+	}
+	
+	public boolean hasPublisherRole() {
+		return publisherRole;
+	}
+	
+	public boolean hasReaderRole() {
+		return readerRole;
+	}
+}
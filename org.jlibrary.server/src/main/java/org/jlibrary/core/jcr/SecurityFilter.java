@@ -0,0 +1,268 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.apache.commons.lang.StringUtils;
+import org.jlibrary.core.entities.Ticket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read permission filter for batches of nodes. The member security 
+ * information is resolved once when the filter is created, so checking 
+ * a node only needs to read its <code>jlib:restrictions</code> values. 
+ * 
+ * <p>The result of {@link #canRead(Node)} is always the same that 
+ * {@link JCRSecurityService#canRead(Node, String)} returns for the member 
+ * used to build the filter.</p>
+ * 
+ * @author martin
+ */
+public class SecurityFilter {
+
+	static Logger logger = LoggerFactory.getLogger(SecurityFilter.class);
+	
+	/**
+	 * Filter that does not apply any permission check
+	 */
+	public static final SecurityFilter NO_FILTER = 
+		new SecurityFilter(null,true,true);
+	
+	private final Set principalIds;
+	private final boolean canReadRestricted;
+	private final boolean canReadAll;
+	
+	private SecurityFilter(Set principalIds, 
+						   boolean canReadRestricted,
+						   boolean canReadAll) {
+		
+		this.principalIds = principalIds;
+		this.canReadRestricted = canReadRestricted;
+		this.canReadAll = canReadAll;
+	}
+	
+	/**
+	 * Creates the read filter of a member
+	 * 
+	 * @param session Session of the workspace where nodes will be checked
+	 * @param memberId Member id. If it is <code>null</code> then no 
+	 * permission checks will be applied
+	 * 
+	 * @return SecurityFilter Filter for the member
+	 * 
+	 * @throws RepositoryException If the member information can't be read
+	 */
+	public static SecurityFilter forMember(Session session, 
+										   String memberId) 
+												throws RepositoryException {
+		
+		if (memberId == null) {
+			return NO_FILTER;
+		}
+		
+		PrincipalSnapshot principal = PrincipalCache.get(session,memberId);
+		if (principal.isAdmin()) {
+			return new SecurityFilter(null,true,false);
+		}
+		
+		boolean canReadRestricted = principal.hasRoles() && 
+									(principal.hasAdminRole() || 
+									 principal.hasReaderRole() || 
+									 principal.hasPublisherRole());
+		Set principalIds = new HashSet(principal.getGroupIds());
+		principalIds.add(memberId);
+		return new SecurityFilter(principalIds,canReadRestricted,false);
+	}
+	
+	/**
+	 * Creates the read filter of the user of a ticket
+	 * 
+	 * @param session Session of the workspace where nodes will be checked
+	 * @param ticket User ticket
+	 * 
+	 * @return SecurityFilter Filter for the ticket user
+	 * 
+	 * @throws RepositoryException If the user information can't be read
+	 */
+	public static SecurityFilter forTicket(Session session, 
+										   Ticket ticket) 
+												throws RepositoryException {
+		
+		return forMember(session,ticket.getUser().getId());
+	}
+	
+	/**
+	 * Tells if the filter member can read a node
+	 * 
+	 * @param node Node to check
+	 * 
+	 * @return boolean <code>true</code> if the node can be read and 
+	 * <code>false</code> otherwise
+	 * 
+	 * @throws RepositoryException If the node restrictions can't be read
+	 */
+	public boolean canRead(Node node) throws RepositoryException {
+		
+		if (canReadAll) {
+			return true;
+		}
+		if (!canReadRestricted) {
+			return false;
+		}
+		if (!node.hasProperty(JLibraryConstants.JLIBRARY_RESTRICTIONS)) {
+			return false;
+		}
+		if (principalIds == null) {
+			// Administrator flag
+			return true;
+		}
+		Property property = 
+			node.getProperty(JLibraryConstants.JLIBRARY_RESTRICTIONS);
+		Value[] restrictions = property.getValues();
+		for (int i = 0; i < restrictions.length; i++) {
+			if (principalIds.contains(restrictions[i].getString())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Tells if the filter member can't read any node
+	 * 
+	 * @return boolean <code>true</code> if no node will pass this filter
+	 */
+	public boolean readsNothing() {
+		
+		return !canReadAll && !canReadRestricted;
+	}
+	
+	/**
+	 * Returns an XPath predicate expression that only matches the nodes whose 
+	 * <code>jlib:restrictions</code> contain the member or any of its groups. 
+	 * It lets the query index to do the same trimming that 
+	 * {@link #canRead(Node)} does.
+	 * 
+	 * @return String Predicate expression, without brackets, or 
+	 * <code>null</code> if the member restrictions don't need to be checked
+	 */
+	public String getXPathConstraint() {
+		
+		if (canReadAll || principalIds == null) {
+			return null;
+		}
+		StringBuffer buffer = new StringBuffer("(");
+		Iterator it = principalIds.iterator();
+		while (it.hasNext()) {
+			buffer.append("@");
+			buffer.append(JLibraryConstants.JLIBRARY_RESTRICTIONS);
+			buffer.append("='");
+			buffer.append(StringUtils.replace((String)it.next(),"'","''"));
+			buffer.append("'");
+			if (it.hasNext()) {
+				buffer.append(" or ");
+			}
+		}
+		buffer.append(")");
+		return buffer.toString();
+	}
+	
+	/**
+	 * Returns the nodes that can be read by the filter member. Nodes whose 
+	 * restrictions can't be read are discarded.
+	 * 
+	 * @param nodes Iterator of <code>javax.jcr.Node</code> instances
+	 * 
+	 * @return List Readable nodes, in the iteration order
+	 */
+	public List filter(Iterator nodes) {
+		
+		List readable = new ArrayList();
+		if (!canReadAll && !canReadRestricted) {
+			return readable;
+		}
+		while (nodes.hasNext()) {
+			Node node = (Node)nodes.next();
+			try {
+				if (canRead(node)) {
+					readable.add(node);
+				}
+			} catch (RepositoryException e) {
+				logger.error(e.getMessage(),e);
+			}
+		}
+		return readable;
+	}
+	
+	/**
+	 * Returns the nodes that can be read by the filter member
+	 * 
+	 * @param nodes Collection of <code>javax.jcr.Node</code> instances
+	 * 
+	 * @return List Readable nodes
+	 * 
+	 * @see #filter(Iterator)
+	 */
+	public List filter(Collection nodes) {
+		
+		return filter(nodes.iterator());
+	}
+	
+	/**
+	 * Loads a set of nodes and returns the ones that can be read by the 
+	 * filter member.
+	 * 
+	 * @param session Session used to load the nodes
+	 * @param uuids Collection of node UUIDs
+	 * 
+	 * @return List Readable nodes, in the collection order
+	 * 
+	 * @throws RepositoryException If some node can't be loaded
+	 */
+	public List filterByUUID(Session session, 
+							 Collection uuids) throws RepositoryException {
+		
+		if (!canReadAll && !canReadRestricted) {
+			return new ArrayList();
+		}
+		List nodes = new ArrayList(uuids.size());
+		Iterator it = uuids.iterator();
+		while (it.hasNext()) {
+			nodes.add(session.getNodeByUUID((String)it.next()));
+		}
+		return filter(nodes.iterator());
+	}
+}
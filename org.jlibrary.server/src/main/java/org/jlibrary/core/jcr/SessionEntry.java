@@ -1,17 +1,49 @@
 package org.jlibrary.core.jcr;
 
+import org.jlibrary.core.entities.Ticket;
+
 public class SessionEntry {
 
-	private long lastUsed;
-	private javax.jcr.Session session;
-	private javax.jcr.Session systemSession;
+	private final Ticket ticket;
+	private volatile String workspace;
+	private volatile long lastUsed;
+	private volatile javax.jcr.Session session;
+	private volatile javax.jcr.Session systemSession;
 	
 	public SessionEntry(){
+		this(null);
+	}
+	
+	public SessionEntry(Ticket ticket){
+		this.ticket = ticket;
 		this.lastUsed = 0;
 		this.session = null;
 		this.systemSession = null;
 	}
 	
+	public Ticket getTicket() {
+		return ticket;
+	}
+	
+	public String getWorkspace() {
+		return workspace;
+	}
+	public void setWorkspace(String workspace) {
+		this.workspace = workspace;
+	}
+	
+	/**
+	 * Marks this entry as used now. This is a single volatile write, so 
+	 * it can be called from any thread without locking.
+	 */
+	public void touch() {
+		this.lastUsed = System.currentTimeMillis();
+	}
+	
+	public boolean isExpired(long now, long timeout) {
+		return now - lastUsed > timeout;
+	}
+	
 	public long getLastUsed() {
 		return lastUsed;
 	}
@@ -0,0 +1,77 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Runs every call to a service inside a session lease scope, so the pooled 
+ * sessions used by the call are returned to their pools as soon as the 
+ * call finishes.
+ * 
+ * @see SessionManager#beginLease()
+ * 
+ * @author martin
+ */
+public class SessionLeaseHandler implements InvocationHandler {
+
+	private Object service;
+	
+	private SessionLeaseHandler(Object service) {
+		
+		this.service = service;
+	}
+	
+	/**
+	 * Wraps a service so each of its calls leases pooled sessions
+	 * 
+	 * @param service Service implementation
+	 * @param serviceInterface Service interface
+	 * 
+	 * @return Object Proxy implementing the service interface
+	 */
+	public static Object wrap(Object service, Class serviceInterface) {
+		
+		return Proxy.newProxyInstance(serviceInterface.getClassLoader(),
+									  new Class[]{serviceInterface},
+									  new SessionLeaseHandler(service));
+	}
+	
+	public Object invoke(Object proxy, 
+						 Method method, 
+						 Object[] args) throws Throwable {
+
+		SessionManager manager = SessionManager.getInstance();
+		manager.beginLease();
+		try {
+			return method.invoke(service, args);
+		} catch (InvocationTargetException ite) {
+			throw ite.getTargetException();
+		} finally {
+			manager.endLease();
+		}
+	}
+}
@@ -23,19 +23,25 @@
 package org.jlibrary.core.jcr;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 
 import org.jlibrary.core.config.SessionConfigurationReader;
 import org.jlibrary.core.entities.Ticket;
+import org.jlibrary.core.jcr.query.PreparedQueries;
+import org.jlibrary.core.util.TimerWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +50,29 @@ import org.slf4j.LoggerFactory;
  * This class stores mappings between client sessions and JSR-170 session
  * objects
  * 
+ * <p>Session lookups and attachments don't take any global lock. Each entry 
+ * is touched with a single volatile write and tickets are attached and 
+ * dettached with atomic operations on the sessions map. Eviction is driven 
+ * by a timer wheel, so each cleaning pass only visits the entries whose 
+ * deadline has come due instead of scanning every opened session.</p>
+ * 
+ * <p>When session pooling is enabled, tickets don't own a JSR-170 session. 
+ * Service calls run inside a lease scope (see {@link #beginLease()}) and 
+ * each ticket leases a session from its workspace {@link SessionPool} on 
+ * first use, which is returned when the scope ends. Tickets that need 
+ * session state between calls, that is tickets with autocommit disabled or 
+ * whose session holds lock tokens, get a sticky session that stays attached 
+ * to the ticket until it is dettached or evicted.</p>
+ * 
+ * <p>Pooled sessions are opened with the service account configured on 
+ * <code>session.pool.user</code>, never with the users own sessions, and 
+ * pooling stays disabled if that account is not configured.</p>
+ * 
+ * <p>System workspace sessions are pooled the same way, on a small bounded 
+ * pool shared by all the tickets. Code that needs a system session without 
+ * a ticket uses {@link #leaseSystemSession()} and 
+ * {@link #releaseSystemSession(Session)}.</p>
+ * 
  * @author martin
  *
  */
@@ -53,14 +82,30 @@ public class SessionManager {
 	
 	private static SessionManager instance = new SessionManager();
 	
-	private javax.jcr.Repository repository;
+	private volatile javax.jcr.Repository repository;
 	
 	private ConcurrentHashMap<Ticket, SessionEntry> sessions = 
 		new ConcurrentHashMap<Ticket, SessionEntry>();
 	
-	
 	private List<SessionManagerListener> listeners = 
-		new ArrayList<SessionManagerListener>();
+		new CopyOnWriteArrayList<SessionManagerListener>();
+	
+	private long maxSessionInactiveTimeout;
+	
+	private ScheduledExecutorService service;
+	private long executerInitialDelay;
+	private long executerPeriod;
+	
+	private TimerWheel<SessionEntry> wheel;
+	
+	private boolean poolingEnabled;
+	
+	private ConcurrentHashMap<String, SessionPool> pools = 
+		new ConcurrentHashMap<String, SessionPool>();
+	
+	private volatile SessionPool systemPool;
+	
+	private ThreadLocal<LeaseScope> leaseScope = new ThreadLocal<LeaseScope>();
 	
 	/**
 	 * Singleton
@@ -71,72 +116,218 @@ public class SessionManager {
 		if (logger.isDebugEnabled()) {
 			logger.debug("Starting session manager");
 		}
-		ScheduledExecutorService service = Executors.newScheduledThreadPool(1);
+		service = Executors.newScheduledThreadPool(1);
 		if (logger.isDebugEnabled()) {
 			logger.debug("Scheduling session eviction thread");
 		}
 		
-		long executerInitialDelay = Long.parseLong(SessionConfigurationReader.getString("executer.initial.delay"));
-		long executerPeriod = Long.parseLong(SessionConfigurationReader.getString("executer.period"));
+		executerInitialDelay = Long.parseLong(SessionConfigurationReader.getString("executer.initial.delay"));
+		executerPeriod = Long.parseLong(SessionConfigurationReader.getString("executer.period"));
+		maxSessionInactiveTimeout = Long.parseLong(SessionConfigurationReader.getString("max.session.inactive.timeout"));
+		poolingEnabled = Boolean.valueOf(SessionConfigurationReader.getString("session.pool.enabled","false")).booleanValue();
+		if (poolingEnabled && 
+			SessionConfigurationReader.getString("session.pool.user","").trim().equals("")) {
+			logger.error("Session pooling is enabled but no session.pool.user " + 
+						 "has been configured. Session pooling will be disabled");
+			poolingEnabled = false;
+		}
+		
+		// One wheel slot per eviction period, enough slots to cover the 
+		// inactive timeout in a single round
+		wheel = new TimerWheel<SessionEntry>(
+				TimeUnit.SECONDS.toMillis(executerPeriod),
+				maxSessionInactiveTimeout);
+		
+		scheduleMaintenance(new Runnable() {
+			public void run() {
+				evictExpiredSessions(System.currentTimeMillis());
+			}
+		});
+	}
+	
+	/**
+	 * Runs a maintenance task on the session eviction thread, every 
+	 * <code>executer.period</code> seconds
+	 * 
+	 * @param task Task to run
+	 */
+	public void scheduleMaintenance(final Runnable task) {
 		
 		service.scheduleAtFixedRate(new Runnable() {
 			public void run() {
-				if (logger.isDebugEnabled()) {
-					logger.debug("Running session cleaning process. There are " + sessions.size() + " opened sessions");
-				}
-				
-				long now = System.currentTimeMillis();
-				long maxSessionInactiveTimeout = Long.parseLong(SessionConfigurationReader.getString("max.session.inactive.timeout"));
-				
-				// synchronized block
-				synchronized(instance){
-					Iterator<Map.Entry<Ticket, SessionEntry>> it = sessions.entrySet().iterator();
-					
-					while(it.hasNext()) {
-						Map.Entry<Ticket, SessionEntry> entry = it.next();
-						if (now - entry.getValue().getLastUsed() > maxSessionInactiveTimeout) {
-							if (logger.isDebugEnabled()) {
-								logger.debug("Evicting session for ticket: " + entry.getKey().getId() + ", user:" + entry.getKey().getUser().getName());
-							}
-							
-							if(entry.getValue().getSession() != null){
-								entry.getValue().getSession().logout();				
-							}
-							
-							if(entry.getValue().getSystemSession() != null){
-								entry.getValue().getSystemSession().logout();
-							}
-							
-							it.remove();
-							for (SessionManagerListener listener: listeners) {							
-								listener.sessionRemoved(entry.getKey());
-							}
-							
-						}
-					}// while
+				try {
+					task.run();
+				} catch (Throwable t) {
+					// Never let an exception cancel the task
+					logger.error(t.getMessage(),t);
 				}
 			}
 		}, executerInitialDelay, executerPeriod, TimeUnit.SECONDS);
 	}
+	
+	/**
+	 * Evicts the sessions that have been inactive for more than the 
+	 * configured timeout. Only the entries scheduled on the wheel slots 
+	 * that have come due are visited. Entries that have been used since 
+	 * they were scheduled are simply scheduled again for their new deadline.
+	 * 
+	 * @param now Current time in milliseconds
+	 */
+	void evictExpiredSessions(long now) {
+		
+		List<SessionEntry> due = wheel.advance(now);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Running session cleaning process. There are " + sessions.size() + 
+						 " opened sessions and " + due.size() + " candidates for eviction");
+		}
+		
+		for (SessionEntry entry: due) {
+			Ticket ticket = entry.getTicket();
+			if (sessions.get(ticket) != entry) {
+				// Already dettached, or replaced by a newer entry
+				continue;
+			}
+			if (!entry.isExpired(now, maxSessionInactiveTimeout)) {
+				wheel.schedule(entry, entry.getLastUsed() + maxSessionInactiveTimeout);
+				continue;
+			}
+			// Only the thread that wins the removal logs out the sessions
+			if (!sessions.remove(ticket, entry)) {
+				continue;
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug("Evicting session for ticket: " + ticket.getId() + ", user:" + ticket.getUser().getName());
+			}
+			logout(entry);
+			for (SessionManagerListener listener: listeners) {							
+				listener.sessionRemoved(ticket);
+			}
+		}
+	}
 
+	/**
+	 * Returns a system workspace session for a ticket. With pooling enabled 
+	 * the session is leased for the current lease scope and returned to the 
+	 * pool when the scope ends, so it can only be called inside a scope. 
+	 * Code that runs outside a service call must use 
+	 * {@link #leaseSystemSession()} instead.
+	 * 
+	 * @param ticket Ticket with user information
+	 * 
+	 * @return Session System workspace session
+	 * 
+	 * @throws IllegalStateException If pooling is enabled and there is no 
+	 * lease scope on the current thread
+	 */
 	public javax.jcr.Session getSystemSession(Ticket ticket) {
 		if(ticket == null)
 			throw new  IllegalArgumentException("Not valid ticket");
 
-		Session session = null;
+		SessionEntry entry = sessions.get(ticket);
+		if (entry == null) {
+			return null;
+		}
+		entry.touch();		
 		
-		// synchronized block
-		synchronized(instance){
-			SessionEntry entry = sessions.get(ticket);
-			
-			if (entry == null) {
-				return null;
+		Session session = entry.getSystemSession();
+		if ((session != null) || !poolingEnabled) {
+			return session;
+		}
+		LeaseScope scope = leaseScope.get();
+		if (scope == null) {
+			// Nothing would return the session to the pool
+			throw new IllegalStateException(
+					"Pooled system sessions can only be obtained inside a " + 
+					"lease scope. Use leaseSystemSession() instead");
+		}
+		try {
+			if (scope.systemSession == null) {
+				scope.systemSession = getSystemSessionPool().lease();
+			}
+			return scope.systemSession;
+		} catch (RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Leases a system workspace session. The session must be returned with 
+	 * {@link #releaseSystemSession(Session)}.
+	 * 
+	 * @return Session System workspace session
+	 * 
+	 * @throws RepositoryException If the session can't be obtained
+	 */
+	public Session leaseSystemSession() throws RepositoryException {
+		
+		if (!poolingEnabled) {
+			return repository.login(getSystemCredentials(),"system");
+		}
+		return getSystemSessionPool().lease();
+	}
+	
+	/**
+	 * Returns a system session obtained with {@link #leaseSystemSession()}
+	 * 
+	 * @param systemSession System workspace session
+	 */
+	public void releaseSystemSession(Session systemSession) {
+		
+		if (!poolingEnabled) {
+			systemSession.logout();
+			return;
+		}
+		getSystemSessionPool().release(systemSession);
+	}
+	
+	/**
+	 * Marks the pooled system sessions as stale after a change on the system 
+	 * workspace, so they are refreshed before being leased again.
+	 */
+	public void invalidateSystemSessions() {
+		
+		SessionPool pool = systemPool;
+		if (pool != null) {
+			pool.invalidate();
+		}
+	}
+	
+	/**
+	 * Returns the pool of system workspace sessions, creating it if needed
+	 * 
+	 * @return SessionPool System sessions pool
+	 */
+	public SessionPool getSystemSessionPool() {
+		
+		SessionPool pool = systemPool;
+		if (pool != null) {
+			return pool;
+		}
+		synchronized(this) {
+			if (systemPool == null) {
+				systemPool = new SessionPool(
+						repository,
+						getSystemCredentials(),
+						"system",
+						Integer.parseInt(SessionConfigurationReader.getString("session.system.pool.min","1").trim()),
+						Integer.parseInt(SessionConfigurationReader.getString("session.system.pool.max","5").trim()),
+						Long.parseLong(SessionConfigurationReader.getString("session.pool.lease.timeout")));
+				try {
+					systemPool.prefill();
+				} catch (RepositoryException e) {
+					logger.error(e.getMessage(),e);
+				}
 			}
-			entry.setLastUsed(System.currentTimeMillis());		
-			session =entry.getSystemSession();
+			return systemPool;
 		}
+	}
+	
+	private SimpleCredentials getSystemCredentials() {
 		
-		return session;
+		String user = SessionConfigurationReader.getString("session.system.user","admin");
+		String password = SessionConfigurationReader.getString("session.system.password","admin");
+		return new SimpleCredentials(user, password.toCharArray());
 	}
 
 
@@ -145,9 +336,20 @@ public class SessionManager {
 		if (logger.isDebugEnabled()) {
 			logger.debug("Setting repository");
 		}
-		synchronized(instance){
-			this.repository = repository;			
+		if ((this.repository != null) && (this.repository != repository)) {
+			// Pooled sessions belong to the old repository
+			for (SessionPool pool: pools.values()) {
+				pool.close();
+			}
+			pools.clear();
+			synchronized(this) {
+				if (systemPool != null) {
+					systemPool.close();
+					systemPool = null;
+				}
+			}
 		}
+		this.repository = repository;			
 	}
 	
 	public javax.jcr.Repository getRepository() {
@@ -167,25 +369,36 @@ public class SessionManager {
 			logger.debug("Attaching session for ticket : " + ticket.getId() + ", user:" + ticket.getUser().getName());
 		}
 
-		// synchronized block
-		synchronized(instance){
-			if(sessions.get(ticket) == null){
-				// no existe ticket
-				SessionEntry entry = new SessionEntry();
-				entry.setLastUsed(System.currentTimeMillis());
-				entry.setSession(session);
-				sessions.put(ticket,entry);
-				
-				for (SessionManagerListener listener: listeners) {
-					listener.sessionAdded(ticket);
+		String workspace = session.getWorkspace().getName();
+		boolean pooled = 
+			poolingEnabled && ticket.isAutocommit() && !hasLockTokens(session);
+		SessionEntry entry = new SessionEntry(ticket);
+		entry.setWorkspace(workspace);
+		if (!pooled) {
+			entry.setSession(session);
+		}
+		SessionEntry attached = attach(ticket, entry);
+		if (attached != entry) {
+			String previousWorkspace = attached.getWorkspace();
+			attached.setWorkspace(workspace);
+			Session previous = attached.getSession();
+			if (!pooled || (previous != null)) {
+				// Sticky sessions are replaced as they may belong to 
+				// another workspace
+				attached.setSession(session);
+				pooled = false;
+				if ((previous != null) && (previous != session)) {
+					close(previous, previousWorkspace);
 				}
 			}
-			else{
-				// ya existe ticket actualizo valor de la session
-				sessions.get(ticket).setSession(session);
-			}
 		}
-		
+		if (pooled) {
+			// The ticket will lease sessions on demand from the service 
+			// account pool. The login session runs with the user identity, 
+			// so it can't be shared with other tickets
+			PreparedQueries.evict(session);
+			session.logout();
+		}
 	}
 
 	public void attachSystemSession(Ticket ticket, Session systemSession) {
@@ -194,24 +407,40 @@ public class SessionManager {
 			logger.debug("Attaching system session for ticket : " + ticket.getId() + ", user:" + ticket.getUser().getName());
 		}
 
-		// synchronized block
-		synchronized(instance){
-			if(sessions.get(ticket) == null){
-				// no existe ticket
-				SessionEntry entry = new SessionEntry();
-				entry.setLastUsed(System.currentTimeMillis());
-				entry.setSystemSession(systemSession);
-				sessions.put(ticket,entry);
-				
-				for (SessionManagerListener listener: listeners) {
-					listener.sessionAdded(ticket);
-				}
-			}
-			else{
-				// ya existe ticket actualizo valor de system session
-				sessions.get(ticket).setSystemSession(systemSession);
-			}
+		SessionEntry entry = new SessionEntry(ticket);
+		if (poolingEnabled) {
+			// System sessions are leased on demand. The given session, 
+			// that must come from leaseSystemSession(), goes back to the pool
+			attach(ticket, entry);
+			releaseSystemSession(systemSession);
+			return;
 		}
+		entry.setSystemSession(systemSession);
+		attach(ticket, entry).setSystemSession(systemSession);
+	}
+	
+	/**
+	 * Registers a new entry for the ticket if there was none, or touches 
+	 * the existing one
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param entry New entry
+	 * 
+	 * @return SessionEntry Entry that is registered for the ticket
+	 */
+	private SessionEntry attach(Ticket ticket, SessionEntry entry) {
+		
+		entry.touch();
+		SessionEntry previous = sessions.putIfAbsent(ticket, entry);
+		if (previous != null) {
+			previous.touch();
+			return previous;
+		}
+		wheel.schedule(entry, entry.getLastUsed() + maxSessionInactiveTimeout);
+		for (SessionManagerListener listener: listeners) {
+			listener.sessionAdded(ticket);
+		}
+		return entry;
 	}
 
 	/**
@@ -225,29 +454,75 @@ public class SessionManager {
 			logger.debug("Dettaching session for ticket : " + ticket.getId() + ", user:" + ticket.getUser().getName());
 		}
 		
-		// synchronized block
-		synchronized(instance){
-			
-			SessionEntry entry = sessions.get(ticket);
-			if (entry != null) {
-				if (logger.isDebugEnabled()) {
-					logger.debug("Logging out session for ticket: " + ticket.getId() + ", user:" + ticket.getUser().getName());
-				}
-				if(entry.getSession() != null){
-					entry.getSession().logout();				
-				}
-				
-				if(entry.getSystemSession() != null){
-					entry.getSystemSession().logout();
-				}
-
+		// The stale wheel slot for this entry is discarded on the next 
+		// eviction pass, as the entry is no longer mapped
+		SessionEntry entry = sessions.remove(ticket);
+		if (entry != null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Logging out session for ticket: " + ticket.getId() + ", user:" + ticket.getUser().getName());
 			}
-			sessions.remove(ticket);
-			
-			for (SessionManagerListener listener: listeners) {
-				listener.sessionRemoved(ticket);
+			logout(entry);
+		}
+		
+		for (SessionManagerListener listener: listeners) {
+			listener.sessionRemoved(ticket);
+		}
+	}
+	
+	private void logout(SessionEntry entry) {
+		
+		if(entry.getSession() != null){
+			close(entry.getSession(), entry.getWorkspace());
+		}
+		
+		if(entry.getSystemSession() != null){
+			close(entry.getSystemSession(), "system");
+		}
+	}
+	
+	/**
+	 * Closes a session attached to a ticket. Sessions detached from a pool 
+	 * give back their lease to that pool.
+	 * 
+	 * @param session Session attached to a ticket
+	 * @param workspace Workspace of the session
+	 */
+	private void close(Session session, String workspace) {
+		
+		SessionPool pool = "system".equals(workspace) ? 
+				systemPool : (workspace == null ? null : pools.get(workspace));
+		if ((pool != null) && pool.owns(session)) {
+			pool.closeDetached(session);
+			return;
+		}
+		PreparedQueries.evict(session);
+		session.logout();
+	}
+	
+	/**
+	 * Says if a session has been opened by one of the session pools. Pooled 
+	 * sessions run with the service account, so its user id doesn't tell 
+	 * which user is using it.
+	 * 
+	 * @param session Session
+	 * 
+	 * @return boolean <code>true</code> if the session comes from a pool
+	 */
+	public boolean isPooledSession(Session session) {
+		
+		if (!poolingEnabled) {
+			return false;
+		}
+		SessionPool pool = systemPool;
+		if ((pool != null) && pool.owns(session)) {
+			return true;
+		}
+		for (SessionPool workspacePool: pools.values()) {
+			if (workspacePool.owns(session)) {
+				return true;
 			}
 		}
+		return false;
 	}
 	
 	/**
@@ -258,22 +533,207 @@ public class SessionManager {
 	 * @return Session JSR-170 compatible session
 	 */
 	public Session getSession(Ticket ticket) {
-		Session result = null;
 		
 		if(ticket == null)
 			throw new  IllegalArgumentException("Not valid ticket");
 
-		// synchronized block
-		synchronized(instance){
-			SessionEntry entry = sessions.get(ticket);
-			if (entry == null) {
-				return null;
+		SessionEntry entry = sessions.get(ticket);
+		if (entry == null) {
+			return null;
+		}
+		entry.touch();
+		
+		Session session = entry.getSession();
+		if ((session != null) || (entry.getWorkspace() == null)) {
+			// Sticky session, or a system ticket without workspace session
+			return session;
+		}
+		try {
+			LeaseScope scope = leaseScope.get();
+			if ((scope == null) || !ticket.isAutocommit()) {
+				return pin(entry);
+			}
+			session = scope.getSession(ticket);
+			if (session == null) {
+				SessionPool pool = getSessionPool(entry.getWorkspace());
+				session = pool.lease();
+				scope.add(ticket, session, pool);
+			}
+			return session;
+		} catch (RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Makes the ticket own a session leased from its workspace pool. The 
+	 * session won't return to the pool until the ticket is dettached.
+	 */
+	private Session pin(SessionEntry entry) throws RepositoryException {
+		
+		synchronized(entry) {
+			if (entry.getSession() == null) {
+				SessionPool pool = getSessionPool(entry.getWorkspace());
+				Session session = pool.lease();
+				pool.detach(session);
+				entry.setSession(session);
+			}
+			return entry.getSession();
+		}
+	}
+	
+	/**
+	 * Starts a lease scope on the current thread. Until the matching call to 
+	 * {@link #endLease()}, {@link #getSession(Ticket)} leases pooled sessions 
+	 * for tickets that don't need a sticky session. Scopes can be nested, 
+	 * only the outermost one releases the sessions.
+	 */
+	public void beginLease() {
+		
+		if (!poolingEnabled) {
+			return;
+		}
+		LeaseScope scope = leaseScope.get();
+		if (scope == null) {
+			scope = new LeaseScope();
+			leaseScope.set(scope);
+		}
+		scope.depth++;
+	}
+	
+	/**
+	 * Ends the current lease scope, returning the leased sessions to their 
+	 * pools. Sessions that hold lock tokens are kept attached to their 
+	 * tickets instead, as the locks belong to the session.
+	 */
+	public void endLease() {
+		
+		LeaseScope scope = leaseScope.get();
+		if (scope == null) {
+			return;
+		}
+		scope.depth--;
+		if (scope.depth > 0) {
+			return;
+		}
+		leaseScope.remove();
+		
+		Iterator<Map.Entry<Ticket, Lease>> it = scope.leases.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Ticket, Lease> lease = it.next();
+			Session session = lease.getValue().session;
+			SessionPool pool = lease.getValue().pool;
+			SessionEntry entry = sessions.get(lease.getKey());
+			if ((entry != null) && hasLockTokens(session)) {
+				synchronized(entry) {
+					if (entry.getSession() == null) {
+						pool.detach(session);
+						entry.setSession(session);
+						continue;
+					}
+				}
 			}
-			entry.setLastUsed(System.currentTimeMillis());
-			result = entry.getSession();
+			pool.release(session);
+		}
+		if (scope.systemSession != null) {
+			getSystemSessionPool().release(scope.systemSession);
+		}
+	}
+	
+	private boolean hasLockTokens(Session session) {
+		
+		try {
+			return session.isLive() && 
+				session.getWorkspace().getLockManager().getLockTokens().length > 0;
+		} catch (RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			return false;
 		}
+	}
+	
+	/**
+	 * Returns the session pool for a workspace, creating it if needed
+	 * 
+	 * @param workspace Workspace name
+	 * 
+	 * @return SessionPool Session pool for that workspace
+	 */
+	public SessionPool getSessionPool(String workspace) {
+		
+		SessionPool pool = pools.get(workspace);
+		if (pool != null) {
+			return pool;
+		}
+		String user = SessionConfigurationReader.getString("session.pool.user");
+		String password = SessionConfigurationReader.getString("session.pool.password","");
+		pool = new SessionPool(repository,
+							   new SimpleCredentials(user, password.toCharArray()),
+							   workspace,
+							   getPoolSetting(workspace,"min"),
+							   getPoolSetting(workspace,"max"),
+							   Long.parseLong(SessionConfigurationReader.getString("session.pool.lease.timeout")));
+		SessionPool previous = pools.putIfAbsent(workspace, pool);
+		if (previous != null) {
+			return previous;
+		}
+		try {
+			pool.prefill();
+		} catch (RepositoryException e) {
+			logger.error(e.getMessage(),e);
+		}
+		return pool;
+	}
+	
+	private int getPoolSetting(String workspace, String name) {
 		
-		return result;
+		String value = SessionConfigurationReader.getString(
+				"session.pool." + workspace + "." + name,
+				SessionConfigurationReader.getString("session.pool." + name));
+		return Integer.parseInt(value.trim());
+	}
+	
+	/**
+	 * Returns the session pools that have been created so far. They can be 
+	 * used to monitor pool usage.
+	 * 
+	 * @return Collection Session pools
+	 */
+	public Collection<SessionPool> getSessionPools() {
+		
+		return new ArrayList<SessionPool>(pools.values());
+	}
+	
+	/**
+	 * Sessions leased by a thread inside a lease scope
+	 */
+	private static class LeaseScope {
+		
+		private int depth;
+		private Session systemSession;
+		private Map<Ticket, Lease> leases = new HashMap<Ticket, Lease>();
+		
+		private Session getSession(Ticket ticket) {
+			
+			Lease lease = leases.get(ticket);
+			return lease == null ? null : lease.session;
+		}
+		
+		private void add(Ticket ticket, Session session, SessionPool pool) {
+			
+			leases.put(ticket, new Lease(session, pool));
+		}
+	}
+	
+	private static class Lease {
+		
+		private Session session;
+		private SessionPool pool;
+		
+		private Lease(Session session, SessionPool pool) {
+			this.session = session;
+			this.pool = pool;
+		}
 	}
 	
 	/**
@@ -300,15 +760,17 @@ public class SessionManager {
 		return instance;
 	}
 	
+	/**
+	 * Opens a new system workspace session. The caller owns the session.
+	 * 
+	 * @deprecated Use {@link #leaseSystemSession()}, which reuses pooled 
+	 * sessions
+	 */
 	public javax.jcr.Session getNewSystemSession(){
 
 		javax.jcr.Session systemSession = null;		
 		try {
-			// synchronized block
-			synchronized(instance){
-				SimpleCredentials creds = new SimpleCredentials("admin", "admin".toCharArray());
-				systemSession = repository.login(creds,"system");
-			}
+			systemSession = repository.login(getSystemCredentials(),"system");
         }
 		catch(Exception e){
 			logger.error("[getNewSystenSession] : " + e.getMessage());			
@@ -0,0 +1,467 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.jlibrary.core.jcr.query.PreparedQueries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of JSR-170 sessions opened against a single workspace. 
+ * 
+ * <p>jLibrary enforces its own security on top of the repository, so the 
+ * sessions of a workspace are interchangeable between users. Sessions are 
+ * leased for the duration of a single service call and returned when the 
+ * call finishes, so opened sessions grow with concurrency and not with 
+ * the number of logged users.</p>
+ * 
+ * <p>The pool only keeps the sessions it has opened itself with its own 
+ * credentials. Sessions opened by anybody else are logged out when they 
+ * are returned, so a lease never runs under the identity of some user. 
+ * Sessions detached from the pool still count against its maximum until 
+ * they are closed with {@link #closeDetached(Session)}.</p>
+ * 
+ * <p>A returned session that still has transient changes is refreshed 
+ * discarding them, so the next lease always starts from a clean state. 
+ * Calling {@link #invalidate()} makes every idle session to be refreshed 
+ * before its next lease, which is used when some shared state the pooled 
+ * sessions may have read has changed.</p>
+ * 
+ * @author martin
+ */
+public class SessionPool {
+
+	static Logger logger = LoggerFactory.getLogger(SessionPool.class);
+	
+	private final Repository repository;
+	private final Credentials credentials;
+	private final String workspace;
+	private final int minSessions;
+	private final int maxSessions;
+	private final long leaseTimeout;
+	
+	private final ConcurrentLinkedQueue<IdleSession> idle = 
+		new ConcurrentLinkedQueue<IdleSession>();
+	private final Semaphore permits;
+	
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final AtomicInteger activeCount = new AtomicInteger();
+	private final AtomicInteger detachedCount = new AtomicInteger();
+	private final AtomicInteger peakActive = new AtomicInteger();
+	private final AtomicLong leases = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong generation = new AtomicLong();
+	
+	// Sessions opened by this pool, idle, leased or detached
+	private final ConcurrentHashMap<Session, Boolean> owned = 
+		new ConcurrentHashMap<Session, Boolean>();
+	
+	private volatile boolean closed = false;
+	
+	/**
+	 * Creates a new session pool
+	 * 
+	 * @param repository Repository to log into
+	 * @param credentials Credentials used to open pooled sessions
+	 * @param workspace Workspace name
+	 * @param minSessions Number of idle sessions kept opened
+	 * @param maxSessions Maximum number of sessions leased at the same time
+	 * @param leaseTimeout Maximum time to wait for a session in milliseconds
+	 */
+	public SessionPool(Repository repository,
+					   Credentials credentials,
+					   String workspace,
+					   int minSessions,
+					   int maxSessions,
+					   long leaseTimeout) {
+		
+		if (maxSessions < 1) {
+			throw new IllegalArgumentException("Pool must allow at least one session");
+		}
+		this.repository = repository;
+		this.credentials = credentials;
+		this.workspace = workspace;
+		this.maxSessions = maxSessions;
+		this.minSessions = Math.min(Math.max(minSessions, 0), maxSessions);
+		this.leaseTimeout = leaseTimeout;
+		this.permits = new Semaphore(maxSessions, true);
+	}
+	
+	/**
+	 * Opens the minimum number of idle sessions
+	 * 
+	 * @throws RepositoryException If the sessions can't be opened
+	 */
+	public void prefill() throws RepositoryException {
+		
+		while (idleCount.get() < minSessions) {
+			offer(login());
+		}
+	}
+	
+	/**
+	 * Leases a session from this pool. The session must be returned with 
+	 * {@link #release(Session)} or kept by the caller with 
+	 * {@link #detach(Session)}.
+	 * 
+	 * @return Session Leased session
+	 * 
+	 * @throws RepositoryException If no session is available after the 
+	 * lease timeout or if a new session can't be opened
+	 */
+	public Session lease() throws RepositoryException {
+		
+		if (closed) {
+			throw new RepositoryException("Session pool for workspace " + workspace + " is closed");
+		}
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(leaseTimeout, TimeUnit.MILLISECONDS)) {
+				timeouts.incrementAndGet();
+				throw new RepositoryException(
+						"Timeout waiting for a session on workspace " + workspace);
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RepositoryException(ie);
+		}
+		waitNanos.addAndGet(System.nanoTime() - start);
+		
+		try {
+			Session session = null;
+			IdleSession candidate;
+			while ((session == null) && ((candidate = poll()) != null)) {
+				session = activate(candidate);
+			}
+			if (session == null) {
+				session = login();
+			}
+			leases.incrementAndGet();
+			int active = activeCount.incrementAndGet();
+			int peak = peakActive.get();
+			while (active > peak && !peakActive.compareAndSet(peak, active)) {
+				peak = peakActive.get();
+			}
+			return session;
+		} catch (RepositoryException re) {
+			permits.release();
+			throw re;
+		} catch (RuntimeException re) {
+			permits.release();
+			throw re;
+		}
+	}
+	
+	/**
+	 * Prepares an idle session for a new lease
+	 * 
+	 * @return Session The session or <code>null</code> if it is no longer 
+	 * usable
+	 */
+	private Session activate(IdleSession candidate) {
+		
+		Session session = candidate.session;
+		if (!session.isLive()) {
+			owned.remove(session);
+			discarded.incrementAndGet();
+			return null;
+		}
+		if (candidate.generation != generation.get()) {
+			try {
+				session.refresh(false);
+				refreshes.incrementAndGet();
+			} catch (RepositoryException e) {
+				logger.error(e.getMessage(),e);
+				discard(session);
+				return null;
+			}
+		}
+		return session;
+	}
+	
+	/**
+	 * Marks all the idle sessions as stale. They will be refreshed before 
+	 * being leased again.
+	 */
+	public void invalidate() {
+		
+		generation.incrementAndGet();
+	}
+	
+	/**
+	 * Returns a leased session to this pool
+	 * 
+	 * @param session Leased session
+	 */
+	public void release(Session session) {
+		
+		activeCount.decrementAndGet();
+		try {
+			offer(session);
+		} finally {
+			permits.release();
+		}
+	}
+	
+	/**
+	 * Detaches a leased session, that stays attached to a ticket instead of 
+	 * returning to the pool. The session keeps its lease permit, so it 
+	 * still counts against the pool maximum, and it must be closed with 
+	 * {@link #closeDetached(Session)}.
+	 * 
+	 * @param session Leased session
+	 */
+	public void detach(Session session) {
+		
+		activeCount.decrementAndGet();
+		detachedCount.incrementAndGet();
+	}
+	
+	/**
+	 * Logs out a session obtained with {@link #detach(Session)} and frees 
+	 * its lease permit
+	 * 
+	 * @param session Detached session
+	 */
+	public void closeDetached(Session session) {
+		
+		detachedCount.decrementAndGet();
+		try {
+			discard(session);
+		} finally {
+			permits.release();
+		}
+	}
+	
+	/**
+	 * Says if a session has been opened by this pool
+	 * 
+	 * @param session Session
+	 * 
+	 * @return boolean <code>true</code> if the session belongs to this pool
+	 */
+	public boolean owns(Session session) {
+		
+		return owned.containsKey(session);
+	}
+	
+	/**
+	 * Adds a session to the idle sessions. Sessions that have not been 
+	 * opened by this pool are logged out.
+	 * 
+	 * @param session Session to keep
+	 */
+	private void offer(Session session) {
+		
+		if (!owns(session)) {
+			logger.warn("Discarding a session that was not opened by the " + 
+						workspace + " session pool");
+			discard(session);
+			return;
+		}
+		if (!session.isLive()) {
+			owned.remove(session);
+			discarded.incrementAndGet();
+			return;
+		}
+		try {
+			if (session.hasPendingChanges()) {
+				session.refresh(false);
+			}
+		} catch (RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			discard(session);
+			return;
+		}
+		if (closed || idleCount.incrementAndGet() > maxSessions) {
+			idleCount.decrementAndGet();
+			discard(session);
+			return;
+		}
+		idle.add(new IdleSession(session, generation.get()));
+	}
+	
+	/**
+	 * Logs out all the idle sessions. Leased sessions are logged out when 
+	 * returned.
+	 */
+	public void close() {
+		
+		closed = true;
+		IdleSession candidate;
+		while ((candidate = poll()) != null) {
+			discard(candidate.session);
+		}
+	}
+	
+	private IdleSession poll() {
+		
+		IdleSession candidate = idle.poll();
+		if (candidate != null) {
+			idleCount.decrementAndGet();
+		}
+		return candidate;
+	}
+	
+	private Session login() throws RepositoryException {
+		
+		Session session = repository.login(credentials, workspace);
+		owned.put(session, Boolean.TRUE);
+		created.incrementAndGet();
+		return session;
+	}
+	
+	private void discard(Session session) {
+		
+		discarded.incrementAndGet();
+		owned.remove(session);
+		PreparedQueries.evict(session);
+		if (session.isLive()) {
+			session.logout();
+		}
+	}
+	
+	public String getWorkspace() {
+		return workspace;
+	}
+	
+	public int getMinSessions() {
+		return minSessions;
+	}
+
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	/**
+	 * @return int Number of sessions currently leased
+	 */
+	public int getActiveCount() {
+		return activeCount.get();
+	}
+	
+	/**
+	 * @return int Number of sessions detached and attached to tickets
+	 */
+	public int getDetachedCount() {
+		return detachedCount.get();
+	}
+	
+	/**
+	 * @return int Number of idle sessions
+	 */
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+	
+	/**
+	 * @return int Maximum number of sessions leased at the same time
+	 */
+	public int getPeakActiveCount() {
+		return peakActive.get();
+	}
+	
+	/**
+	 * @return long Total number of leases
+	 */
+	public long getLeaseCount() {
+		return leases.get();
+	}
+	
+	/**
+	 * @return long Number of sessions opened by this pool
+	 */
+	public long getCreatedCount() {
+		return created.get();
+	}
+	
+	/**
+	 * @return long Number of sessions logged out by this pool
+	 */
+	public long getDiscardedCount() {
+		return discarded.get();
+	}
+	
+	/**
+	 * @return long Number of leases that timed out
+	 */
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+	
+	/**
+	 * @return long Number of idle sessions refreshed after an invalidation
+	 */
+	public long getRefreshCount() {
+		return refreshes.get();
+	}
+	
+	/**
+	 * @return long Total time spent waiting for a session in milliseconds
+	 */
+	public long getTotalWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+	}
+	
+	public String toString() {
+		
+		return "SessionPool[workspace=" + workspace + 
+			   ", active=" + getActiveCount() + 
+			   ", detached=" + getDetachedCount() + 
+			   ", idle=" + getIdleCount() + 
+			   ", peak=" + getPeakActiveCount() + 
+			   ", leases=" + getLeaseCount() + 
+			   ", created=" + getCreatedCount() + 
+			   ", discarded=" + getDiscardedCount() + 
+			   ", timeouts=" + getTimeoutCount() + 
+			   ", refreshes=" + getRefreshCount() + 
+			   ", wait=" + getTotalWaitMillis() + "ms]";
+	}
+	
+	private static class IdleSession {
+		
+		private Session session;
+		private long generation;
+		
+		private IdleSession(Session session, long generation) {
+			this.session = session;
+			this.generation = generation;
+		}
+	}
+}
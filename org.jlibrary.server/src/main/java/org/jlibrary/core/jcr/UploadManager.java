@@ -0,0 +1,534 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jlibrary.core.config.SessionConfigurationReader;
+import org.jlibrary.core.entities.UploadSession;
+import org.jlibrary.core.properties.StreamContent;
+import org.jlibrary.core.repository.exception.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Spools chunked uploads to local disk until they are committed into 
+ * the repository. Every upload has its own spool file and every chunk is 
+ * written at its offset, so chunks can arrive in any order, several of 
+ * them at the same time, and a chunk can be sent again after a broken 
+ * connection. Only one chunk per request is kept on memory, and chunks are 
+ * limited to <code>upload.chunk.size</code> bytes.</p>
+ * 
+ * <p>Every chunk carries the hex encoded SHA-256 digest of its bytes and it 
+ * is rejected if they don't match. Uploads belong to the user that began 
+ * them. Uploads are limited to <code>upload.max.length</code> bytes and 
+ * every user can have at most <code>upload.max.sessions</code> uploads at 
+ * the same time.</p>
+ * 
+ * <p>Uploads not touched during <code>upload.timeout</code> miliseconds are 
+ * discarded by a task that runs on the session eviction thread, and uploads 
+ * don't survive a server restart. Every instance spools on its own 
+ * subdirectory of the upload directory, so it never touches the files of 
+ * other servers sharing that directory.</p>
+ * 
+ * @author martin
+ */
+public class UploadManager {
+
+	static Logger logger = LoggerFactory.getLogger(UploadManager.class);
+	
+	private static final int DEFAULT_CHUNK_SIZE = 8*1024*1024;
+	private static final long DEFAULT_MAX_LENGTH = 2*1024*1024*1024L;
+	private static final int DEFAULT_MAX_UPLOADS = 10;
+	private static final long DEFAULT_TIMEOUT = 24*60*60*1000L;
+	private static final String SPOOL_SUFFIX = ".upload";
+	
+	private static UploadManager instance;
+	
+	private final File directory;
+	private final int maxChunkSize;
+	private final long maxLength;
+	private final int maxUploads;
+	private final long timeout;
+	
+	private final Map<String,Upload> uploads = 
+		new ConcurrentHashMap<String,Upload>();
+	
+	/**
+	 * Spooled upload. All its fields but the immutable ones are guarded 
+	 * by the upload itself.
+	 */
+	private static class Upload {
+		
+		final String id;
+		final String userId;
+		final long length;
+		final File file;
+		
+		// Received ranges, first byte to the byte following the last one
+		final TreeMap<Long,Long> ranges = new TreeMap<Long,Long>();
+		long received;
+		long lastAccess;
+		int writers;
+		boolean committing;
+		boolean discarded;
+		
+		Upload(String id, String userId, long length, File file) {
+			
+			this.id = id;
+			this.userId = userId;
+			this.length = length;
+			this.file = file;
+			this.lastAccess = System.currentTimeMillis();
+		}
+		
+		void addRange(long start, long end) {
+			
+			SortedMap<Long,Long> head = ranges.headMap(new Long(start+1));
+			if (!head.isEmpty()) {
+				Long previous = head.lastKey();
+				long previousEnd = ranges.get(previous).longValue();
+				if (previousEnd >= start) {
+					start = previous.longValue();
+					end = Math.max(end,previousEnd);
+					received -= previousEnd - start;
+					ranges.remove(previous);
+				}
+			}
+			Iterator<Map.Entry<Long,Long>> it = 
+				ranges.tailMap(new Long(start)).entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Long,Long> next = it.next();
+				if (next.getKey().longValue() > end) {
+					break;
+				}
+				end = Math.max(end,next.getValue().longValue());
+				received -= next.getValue().longValue() - next.getKey().longValue();
+				it.remove();
+			}
+			ranges.put(new Long(start),new Long(end));
+			received += end - start;
+		}
+		
+		UploadSession toSession() {
+			
+			UploadSession session = new UploadSession();
+			session.setId(id);
+			session.setLength(length);
+			session.setReceived(received);
+			long[][] list = new long[ranges.size()][];
+			int i = 0;
+			Iterator<Map.Entry<Long,Long>> it = ranges.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Long,Long> range = it.next();
+				list[i++] = new long[]{range.getKey().longValue(),
+									   range.getValue().longValue()};
+			}
+			session.setRanges(list);
+			return session;
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param directory Directory where uploads are spooled. The instance 
+	 * creates its own subdirectory on it
+	 * @param maxChunkSize Maximum size of a chunk in bytes
+	 * @param maxLength Maximum length of an upload in bytes
+	 * @param maxUploads Maximum number of uploads of a user
+	 * @param timeout Time after which an idle upload is discarded, in 
+	 * miliseconds
+	 */
+	public UploadManager(File directory, 
+						 int maxChunkSize, 
+						 long maxLength, 
+						 int maxUploads, 
+						 long timeout) {
+		
+		this.directory = new File(directory,UUID.randomUUID().toString());
+		this.maxChunkSize = maxChunkSize;
+		this.maxLength = maxLength;
+		this.maxUploads = maxUploads;
+		this.timeout = timeout;
+		
+		this.directory.mkdirs();
+		this.directory.deleteOnExit();
+	}
+	
+	public static synchronized UploadManager getInstance() {
+		
+		if (instance == null) {
+			String path = SessionConfigurationReader.getString(
+					"upload.directory","");
+			File directory;
+			if (path.trim().length() == 0) {
+				directory = new File(System.getProperty("java.io.tmpdir"),
+									 "jlibrary-uploads");
+			} else {
+				directory = new File(path.trim());
+			}
+			int maxChunkSize = Integer.parseInt(SessionConfigurationReader.getString(
+					"upload.chunk.size",String.valueOf(DEFAULT_CHUNK_SIZE)));
+			long maxLength = Long.parseLong(SessionConfigurationReader.getString(
+					"upload.max.length",String.valueOf(DEFAULT_MAX_LENGTH)));
+			int maxUploads = Integer.parseInt(SessionConfigurationReader.getString(
+					"upload.max.sessions",String.valueOf(DEFAULT_MAX_UPLOADS)));
+			long timeout = Long.parseLong(SessionConfigurationReader.getString(
+					"upload.timeout",String.valueOf(DEFAULT_TIMEOUT)));
+			final UploadManager manager = new UploadManager(
+					directory,maxChunkSize,maxLength,maxUploads,timeout);
+			SessionManager.getInstance().scheduleMaintenance(new Runnable() {
+				public void run() {
+					manager.expire(System.currentTimeMillis());
+				}
+			});
+			instance = manager;
+		}
+		return instance;
+	}
+	
+	/**
+	 * Begins a new upload
+	 * 
+	 * @param userId Id of the user that uploads the content
+	 * @param length Total length of the content
+	 * 
+	 * @return UploadSession State of the new upload
+	 * 
+	 * @throws RepositoryException If the length is not valid, the user 
+	 * already has too many uploads or the spool file can't be created
+	 */
+	public UploadSession begin(String userId, long length) 
+											throws RepositoryException {
+		
+		if (length < 0) {
+			throw new RepositoryException("Invalid upload length " + length);
+		}
+		if (length > maxLength) {
+			throw new RepositoryException("Upload of " + length + 
+					" bytes is bigger than the maximum upload length of " + 
+					maxLength + " bytes");
+		}
+		
+		String id = UUID.randomUUID().toString();
+		File file = new File(directory,id + SPOOL_SUFFIX);
+		Upload upload = new Upload(id,userId,length,file);
+		// Counting and adding must be atomic for the limit to hold
+		synchronized (uploads) {
+			int count = 0;
+			Iterator<Upload> it = uploads.values().iterator();
+			while (it.hasNext()) {
+				if (it.next().userId.equals(userId)) {
+					count++;
+				}
+			}
+			if (count >= maxUploads) {
+				throw new RepositoryException("User " + userId + 
+						" already has " + count + " uploads in progress");
+			}
+			uploads.put(id,upload);
+		}
+		
+		try {
+			RandomAccessFile spool = new RandomAccessFile(file,"rw");
+			try {
+				spool.setLength(length);
+			} finally {
+				spool.close();
+			}
+		} catch (IOException ioe) {
+			logger.error(ioe.getMessage(),ioe);
+			uploads.remove(id);
+			file.delete();
+			throw new RepositoryException(ioe);
+		}
+		synchronized (upload) {
+			return upload.toSession();
+		}
+	}
+	
+	/**
+	 * Stores a chunk of an upload. Chunks that overlap already received 
+	 * ranges overwrite them.
+	 * 
+	 * @param userId Id of the user that uploads the content
+	 * @param uploadId Id of the upload
+	 * @param offset Position of the first byte of the chunk on the content
+	 * @param chunk Chunk bytes
+	 * @param checksum Hex encoded SHA-256 digest of the chunk bytes
+	 * 
+	 * @return UploadSession State of the upload after storing the chunk
+	 * 
+	 * @throws RepositoryException If the upload does not exist or it is 
+	 * being committed, the chunk is outside the content, it is too big or 
+	 * its checksum doesn't match
+	 */
+	public UploadSession append(String userId, 
+								String uploadId, 
+								long offset, 
+								byte[] chunk,
+								String checksum) throws RepositoryException {
+		
+		if (chunk.length > maxChunkSize) {
+			throw new RepositoryException("Chunk of " + chunk.length + 
+					" bytes is bigger than the maximum chunk size of " + 
+					maxChunkSize + " bytes");
+		}
+		if (checksum == null || !checksum.equalsIgnoreCase(digest(chunk))) {
+			throw new RepositoryException("Checksum mismatch on chunk at " + offset);
+		}
+		
+		Upload upload = getUpload(userId,uploadId);
+		synchronized (upload) {
+			checkWritable(upload);
+			if (offset < 0 || offset + chunk.length > upload.length) {
+				throw new RepositoryException("Invalid chunk range. Chunk of " + 
+						chunk.length + " bytes at " + offset + 
+						" is outside a content of " + upload.length + " bytes");
+			}
+			upload.writers++;
+		}
+		
+		boolean written = false;
+		try {
+			// Positional writes don't move the file pointer, so chunks 
+			// are written concurrently
+			RandomAccessFile spool = new RandomAccessFile(upload.file,"rw");
+			try {
+				FileChannel channel = spool.getChannel();
+				ByteBuffer buffer = ByteBuffer.wrap(chunk);
+				long position = offset;
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer,position);
+				}
+			} finally {
+				spool.close();
+			}
+			written = true;
+		} catch (IOException ioe) {
+			logger.error(ioe.getMessage(),ioe);
+			throw new RepositoryException(ioe);
+		} finally {
+			synchronized (upload) {
+				upload.writers--;
+				upload.lastAccess = System.currentTimeMillis();
+				if (written && !upload.discarded && chunk.length > 0) {
+					upload.addRange(offset,offset + chunk.length);
+				}
+				if (upload.discarded && upload.writers == 0) {
+					upload.file.delete();
+				}
+			}
+		}
+		
+		synchronized (upload) {
+			checkWritable(upload);
+			return upload.toSession();
+		}
+	}
+	
+	/**
+	 * Returns the state of an upload
+	 * 
+	 * @param userId Id of the user that uploads the content
+	 * @param uploadId Id of the upload
+	 * 
+	 * @return UploadSession State of the upload
+	 * 
+	 * @throws RepositoryException If the upload does not exist
+	 */
+	public UploadSession getState(String userId, 
+								  String uploadId) throws RepositoryException {
+		
+		Upload upload = getUpload(userId,uploadId);
+		synchronized (upload) {
+			upload.lastAccess = System.currentTimeMillis();
+			return upload.toSession();
+		}
+	}
+	
+	/**
+	 * Starts the commit of a complete upload. No more chunks are accepted 
+	 * until {@link #endCommit(String, boolean)} is called.
+	 * 
+	 * @param userId Id of the user that uploads the content
+	 * @param uploadId Id of the upload
+	 * 
+	 * @return StreamContent Uploaded content, read from the spool file
+	 * 
+	 * @throws RepositoryException If the upload does not exist, it is 
+	 * not complete or some chunk is still being written
+	 */
+	public StreamContent beginCommit(String userId, 
+									 String uploadId) throws RepositoryException {
+		
+		Upload upload = getUpload(userId,uploadId);
+		synchronized (upload) {
+			checkWritable(upload);
+			if (upload.received != upload.length) {
+				throw new RepositoryException("Upload " + uploadId + 
+						" is not complete. Received " + upload.received + 
+						" of " + upload.length + " bytes");
+			}
+			if (upload.writers > 0) {
+				throw new RepositoryException("Upload " + uploadId + 
+						" has chunks still being written");
+			}
+			upload.committing = true;
+			return new StreamContent(upload.file);
+		}
+	}
+	
+	/**
+	 * Ends the commit of an upload. Committed uploads are removed, and 
+	 * failed ones accept chunks and commits again.
+	 * 
+	 * @param uploadId Id of the upload
+	 * @param committed <code>true</code> if the content was stored on the 
+	 * repository
+	 */
+	public void endCommit(String uploadId, boolean committed) {
+		
+		Upload upload = (Upload)uploads.get(uploadId);
+		if (upload == null) {
+			return;
+		}
+		synchronized (upload) {
+			upload.committing = false;
+			upload.lastAccess = System.currentTimeMillis();
+			if (committed) {
+				discard(upload);
+			}
+		}
+	}
+	
+	/**
+	 * Aborts an upload, removing its spooled content
+	 * 
+	 * @param userId Id of the user that uploads the content
+	 * @param uploadId Id of the upload
+	 * 
+	 * @throws RepositoryException If the upload does not exist or it is 
+	 * being committed
+	 */
+	public void abort(String userId, String uploadId) throws RepositoryException {
+		
+		Upload upload = getUpload(userId,uploadId);
+		synchronized (upload) {
+			checkWritable(upload);
+			discard(upload);
+		}
+	}
+	
+	/**
+	 * Computes the checksum of a chunk
+	 * 
+	 * @param chunk Chunk bytes
+	 * 
+	 * @return String Hex encoded SHA-256 digest of the chunk
+	 */
+	public static String digest(byte[] chunk) {
+		
+		try {
+			MessageDigest md = MessageDigest.getInstance(JCRUtils.DIGEST_ALGORITHM);
+			return JCRUtils.toHex(md.digest(chunk));
+		} catch (NoSuchAlgorithmException nsae) {
+			// Every Java platform supports SHA-256
+			throw new IllegalStateException(nsae);
+		}
+	}
+	
+	/**
+	 * @return File Subdirectory where this instance spools its uploads
+	 */
+	public File getSpoolDirectory() {
+		
+		return directory;
+	}
+	
+	private Upload getUpload(String userId, 
+							 String uploadId) throws RepositoryException {
+		
+		Upload upload = (Upload)uploads.get(uploadId);
+		if (upload == null || !upload.userId.equals(userId)) {
+			throw new RepositoryException("Upload " + uploadId + " does not exist");
+		}
+		return upload;
+	}
+	
+	private void checkWritable(Upload upload) throws RepositoryException {
+		
+		if (upload.discarded) {
+			throw new RepositoryException("Upload " + upload.id + " does not exist");
+		}
+		if (upload.committing) {
+			throw new RepositoryException("Upload " + upload.id + 
+					" is being committed");
+		}
+	}
+	
+	/**
+	 * Removes an upload. Must be called with the upload lock held.
+	 */
+	private void discard(Upload upload) {
+		
+		upload.discarded = true;
+		uploads.remove(upload.id);
+		if (upload.writers == 0) {
+			upload.file.delete();
+		}
+	}
+	
+	/**
+	 * Discards the uploads that have not been touched during the timeout
+	 * 
+	 * @param now Current time in miliseconds
+	 */
+	public void expire(long now) {
+		
+		long limit = now - timeout;
+		Iterator<Upload> it = uploads.values().iterator();
+		while (it.hasNext()) {
+			Upload upload = it.next();
+			synchronized (upload) {
+				if (!upload.committing && upload.lastAccess < limit) {
+					logger.info("Discarding expired upload " + upload.id);
+					discard(upload);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.jlibrary.core.properties.RepositoryProperties;
+
+/**
+ * Immutable snapshot of the config entries stored under the 
+ * <code>jlib:config</code> node of a workspace.
+ * 
+ * @see WorkspaceConfigCache
+ * 
+ * @author martin
+ */
+public class WorkspaceConfig {
+
+	private final String workspace;
+	private final Map entries;
+	
+	private WorkspaceConfig(String workspace, Map entries) {
+		
+		this.workspace = workspace;
+		this.entries = Collections.unmodifiableMap(entries);
+	}
+	
+	/**
+	 * Reads the config entries of a workspace
+	 * 
+	 * @param session Session
+	 * 
+	 * @return WorkspaceConfig Config snapshot
+	 * 
+	 * @throws RepositoryException If the config node can't be read
+	 */
+	public static WorkspaceConfig load(Session session) 
+											throws RepositoryException {
+		
+		HashMap entries = new HashMap();
+		Node configNode = getConfigNode(session);
+		NodeIterator it = configNode.getNodes();
+		while (it.hasNext()) {
+			Node configEntry = (Node) it.next();
+			String configKey = configEntry.getProperty(
+					JLibraryConstants.JLIBRARY_CONFIG_KEY).getString();
+			if (!entries.containsKey(configKey)) {
+				entries.put(configKey, configEntry.getProperty(
+						JLibraryConstants.JLIBRARY_CONFIG_VALUE).getValue());
+			}
+		}
+		return new WorkspaceConfig(session.getWorkspace().getName(),entries);
+	}
+	
+	static Node getConfigNode(Session session) throws RepositoryException {
+		
+		Node systemNode = JCRUtils.getSystemNode(session);		
+		return systemNode.getNode(JLibraryConstants.JLIBRARY_CONFIG);
+	}
+	
+	public String getWorkspace() {
+		return workspace;
+	}
+	
+	/**
+	 * Returns the value of a config entry
+	 * 
+	 * @param key Entry key
+	 * 
+	 * @return Value Entry value or <code>null</code> if there is no entry 
+	 * with that key
+	 */
+	public Value getValue(String key) {
+		
+		return (Value)entries.get(key);
+	}
+	
+	/**
+	 * Tells if a config entry exists
+	 * 
+	 * @param key Entry key
+	 * 
+	 * @return boolean <code>true</code> if the entry exists
+	 */
+	public boolean hasProperty(String key) {
+		
+		return entries.containsKey(key);
+	}
+	
+	/**
+	 * Returns the boolean value of a config entry
+	 * 
+	 * @param key Entry key
+	 * @param defaultValue Value returned when there is no entry with that key
+	 * 
+	 * @return boolean Entry value
+	 * 
+	 * @throws RepositoryException If the value is not a boolean
+	 */
+	public boolean getBoolean(String key, 
+							  boolean defaultValue) throws RepositoryException {
+		
+		Value value = getValue(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		return value.getBoolean();
+	}
+	
+	/**
+	 * @see JCRUtils#allowsPhysicalDeletes(Session)
+	 */
+	public boolean allowsPhysicalDeletes() throws RepositoryException {
+		
+		return getBoolean(RepositoryProperties.PHYSICAL_DELETE_DOCUMENTS,true);
+	}
+	
+	public boolean isLazyLoading() throws RepositoryException {
+		
+		return getBoolean(RepositoryProperties.DO_LAZY_LOADING,false);
+	}
+	
+	public boolean isMetadataExtraction() throws RepositoryException {
+		
+		return getBoolean(RepositoryProperties.EXTRACT_DOCUMENT_METADATA,false);
+	}
+}
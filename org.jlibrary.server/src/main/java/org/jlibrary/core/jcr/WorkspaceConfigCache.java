@@ -0,0 +1,188 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of {@link WorkspaceConfig} snapshots, one per workspace. 
+ * 
+ * <p>An observation listener on the <code>jlib:config</code> node 
+ * discards the snapshot of a workspace when its config entries are saved. 
+ * {@link JCRUtils#setConfigEntry(Session, String, Boolean)} also discards it, 
+ * and snapshots read from sessions with pending changes are never cached.</p>
+ * 
+ * @author martin
+ */
+public class WorkspaceConfigCache {
+
+	static Logger logger = LoggerFactory.getLogger(WorkspaceConfigCache.class);
+	
+	private static final int EVENT_TYPES = Event.NODE_ADDED | 
+										   Event.NODE_REMOVED | 
+										   Event.PROPERTY_ADDED | 
+										   Event.PROPERTY_CHANGED | 
+										   Event.PROPERTY_REMOVED;
+	
+	private static ConcurrentHashMap<String, WorkspaceConfig> configs = 
+		new ConcurrentHashMap<String, WorkspaceConfig>();
+	
+	private static ConcurrentHashMap<String, ConfigListener> listeners = 
+		new ConcurrentHashMap<String, ConfigListener>();
+	
+	private static AtomicLong generation = new AtomicLong();
+	
+	private WorkspaceConfigCache() {}
+	
+	/**
+	 * Returns the config snapshot of the session workspace
+	 * 
+	 * @param session Session
+	 * 
+	 * @return WorkspaceConfig Config snapshot
+	 * 
+	 * @throws RepositoryException If the config can't be read
+	 */
+	public static WorkspaceConfig get(Session session) 
+											throws RepositoryException {
+		
+		String workspace = session.getWorkspace().getName();
+		WorkspaceConfig config = configs.get(workspace);
+		if (config != null && isObserved(workspace)) {
+			return config;
+		}
+		
+		if (session.hasPendingChanges()) {
+			// Transient config entries must not be shared
+			return WorkspaceConfig.load(session);
+		}
+		
+		observe(session,workspace);
+		long loadGeneration = generation.get();
+		config = WorkspaceConfig.load(session);
+		configs.put(workspace,config);
+		if (generation.get() != loadGeneration) {
+			// Changed while loading
+			configs.remove(workspace,config);
+		}
+		return config;
+	}
+	
+	/**
+	 * Discards the config snapshot of a workspace
+	 * 
+	 * @param workspace Workspace name
+	 */
+	public static void invalidate(String workspace) {
+		
+		generation.incrementAndGet();
+		configs.remove(workspace);
+	}
+	
+	/**
+	 * Discards the config snapshot of the session workspace
+	 * 
+	 * @param session Session
+	 */
+	public static void invalidate(Session session) {
+		
+		invalidate(session.getWorkspace().getName());
+	}
+	
+	private static boolean isObserved(String workspace) {
+		
+		ConfigListener listener = listeners.get(workspace);
+		return listener != null && listener.session.isLive();
+	}
+	
+	private static void observe(Session session, String workspace) {
+		
+		ConfigListener current = listeners.get(workspace);
+		if (current != null && current.session.isLive()) {
+			return;
+		}
+		
+		ConfigListener listener = new ConfigListener(workspace,session);
+		try {
+			String path = WorkspaceConfig.getConfigNode(session).getPath();
+			ObservationManager manager = 
+				session.getWorkspace().getObservationManager();
+			manager.addEventListener(
+					listener,EVENT_TYPES,path,true,null,null,false);
+		} catch (RepositoryException e) {
+			logger.warn("Config changes can't be observed on workspace " + 
+						workspace + ": " + e.getMessage());
+			return;
+		}
+		
+		boolean registered;
+		if (current == null) {
+			registered = listeners.putIfAbsent(workspace,listener) == null;
+		} else {
+			registered = listeners.replace(workspace,current,listener);
+		}
+		if (!registered) {
+			listener.remove();
+		}
+	}
+	
+	private static class ConfigListener implements EventListener {
+		
+		private final String workspace;
+		private final Session session;
+		
+		ConfigListener(String workspace, Session session) {
+			
+			this.workspace = workspace;
+			this.session = session;
+		}
+		
+		public void onEvent(EventIterator events) {
+			
+			invalidate(workspace);
+		}
+		
+		void remove() {
+			
+			try {
+				if (session.isLive()) {
+					session.getWorkspace().getObservationManager().
+						removeEventListener(this);
+				}
+			} catch (RepositoryException e) {
+				logger.warn(e.getMessage());
+			}
+		}
+	}
+}
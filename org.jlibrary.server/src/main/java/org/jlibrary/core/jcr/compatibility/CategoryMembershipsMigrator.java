@@ -0,0 +1,108 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.compatibility;
+
+import java.util.LinkedList;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.jlibrary.core.jcr.CategoryMemberships;
+import org.jlibrary.core.jcr.JCRUtils;
+import org.jlibrary.core.jcr.JLibraryConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Moves the members of the categories from their <code>jlib:nodes</code> 
+ * property to the membership index. See {@link CategoryMemberships}.</p>
+ * 
+ * <p>Changes are saved on batches so big workspaces do not need a huge 
+ * transient space. The conversion can be safely run again if it is 
+ * interrupted, as adding a member to the index twice has no effect and the 
+ * workspace is only tagged once all the categories have been converted. 
+ * The index of every category is created here, even for empty categories, 
+ * as indexes are only created with new categories afterwards.</p>
+ * 
+ * @author martin
+ */
+public class CategoryMembershipsMigrator implements Migrator {
+
+	static Logger logger = 
+		LoggerFactory.getLogger(CategoryMembershipsMigrator.class);
+	
+	private static final int BATCH_SIZE = 1000;
+	
+	/**
+	 * @see Migrator#migrate(Session)
+	 */
+	public void migrate(Session session) throws RepositoryException {
+		
+		logger.info("Indexing category members of workspace " + 
+					session.getWorkspace().getName());
+		try {
+			int converted = 0;
+			CategoryMemberships.createIndex(session);
+			LinkedList pending = new LinkedList();
+			pending.add(JCRUtils.getSystemNode(session).getNode(
+					JLibraryConstants.JLIBRARY_CATEGORIES));
+			while (!pending.isEmpty()) {
+				javax.jcr.Node parent = (javax.jcr.Node)pending.removeFirst();
+				NodeIterator it = parent.getNodes();
+				while (it.hasNext()) {
+					javax.jcr.Node category = it.nextNode();
+					if (!category.isNodeType(JLibraryConstants.CATEGORY_MIXIN)) {
+						continue;
+					}
+					pending.add(category);
+					CategoryMemberships.createCategoryIndex(category);
+					if (!category.hasProperty(JLibraryConstants.JLIBRARY_NODES)) {
+						continue;
+					}
+					Value[] values = category.getProperty(
+							JLibraryConstants.JLIBRARY_NODES).getValues();
+					for (int i = 0; i < values.length; i++) {
+						CategoryMemberships.addToIndex(category,
+													   values[i].getString());
+						converted++;
+						if (converted % BATCH_SIZE == 0) {
+							session.save();
+						}
+					}
+					category.setProperty(JLibraryConstants.JLIBRARY_NODES,
+										 new Value[]{});
+				}
+			}
+			JCRUtils.setConfigEntry(session,
+									CategoryMemberships.INDEXED_MEMBERSHIPS,
+									Boolean.TRUE);
+			session.save();
+			logger.info(converted + " category members indexed");
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.compatibility;
+
+import java.util.LinkedList;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.jlibrary.core.jcr.JCRUtils;
+import org.jlibrary.core.jcr.JLibraryConstants;
+import org.jlibrary.core.jcr.NodePaths;
+import org.jlibrary.core.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Converts a workspace that stores the full jLibrary path on every node to 
+ * derived paths, where every node only stores the last element of its path. 
+ * See {@link NodePaths}.</p>
+ * 
+ * <p>Changes are saved on batches so big workspaces do not need a huge 
+ * transient space. The conversion can be safely run again if it is 
+ * interrupted, as the workspace is only tagged once all the nodes have been 
+ * converted.</p>
+ * 
+ * @author martin
+ */
+public class DerivedPathsMigrator implements Migrator {
+
+	static Logger logger = LoggerFactory.getLogger(DerivedPathsMigrator.class);
+	
+	private static final int BATCH_SIZE = 1000;
+	
+	/**
+	 * @see Migrator#migrate(Session)
+	 */
+	public void migrate(Session session) throws RepositoryException {
+		
+		logger.info("Converting paths of workspace " + 
+					session.getWorkspace().getName() + 
+					" to derived paths");
+		try {
+			int converted = 0;
+			LinkedList pending = new LinkedList();
+			pending.add(JCRUtils.getRootNode(session));
+			while (!pending.isEmpty()) {
+				javax.jcr.Node directory = (javax.jcr.Node)pending.removeFirst();
+				NodeIterator it = directory.getNodes();
+				while (it.hasNext()) {
+					javax.jcr.Node child = it.nextNode();
+					if (!child.hasProperty(JLibraryConstants.JLIBRARY_PATH)) {
+						continue;
+					}
+					if (child.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
+						pending.add(child);
+					}
+					String path = child.getProperty(
+							JLibraryConstants.JLIBRARY_PATH).getString();
+					String name = FileUtils.getFileName(path);
+					if (!name.equals(path)) {
+						child.setProperty(JLibraryConstants.JLIBRARY_PATH,name);
+						converted++;
+						if (converted % BATCH_SIZE == 0) {
+							session.save();
+						}
+					}
+				}
+			}
+			JCRUtils.setConfigEntry(session,NodePaths.DERIVED_PATHS,Boolean.TRUE);
+			session.save();
+			NodePaths.getInstance().invalidate(session);
+			logger.info(converted + " paths converted");
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}
+	}
+}
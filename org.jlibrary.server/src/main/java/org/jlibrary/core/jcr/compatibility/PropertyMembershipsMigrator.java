@@ -0,0 +1,137 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.compatibility;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.jlibrary.core.jcr.CategoryMemberships;
+import org.jlibrary.core.jcr.JCRUtils;
+import org.jlibrary.core.jcr.JLibraryConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Moves the members of the categories from the membership index back to 
+ * their <code>jlib:nodes</code> property. It reverts the 
+ * {@link CategoryMembershipsMigrator}.</p>
+ * 
+ * <p>Changes are saved on batches so big workspaces do not need a huge 
+ * transient space. The index of a category is removed on the same batch 
+ * that fills its property, and categories without index are left as they 
+ * are, so the conversion can be safely run again if it is interrupted. The 
+ * workspace is only untagged once all the categories have been converted. 
+ * Index entries of documents that no longer exist are dropped.</p>
+ * 
+ * @author martin
+ */
+public class PropertyMembershipsMigrator implements Migrator {
+
+	static Logger logger = 
+		LoggerFactory.getLogger(PropertyMembershipsMigrator.class);
+	
+	private static final int BATCH_SIZE = 1000;
+	
+	/**
+	 * @see Migrator#migrate(Session)
+	 */
+	public void migrate(Session session) throws RepositoryException {
+		
+		logger.info("Moving category members of workspace " + 
+					session.getWorkspace().getName() + 
+					" back to the categories");
+		try {
+			int converted = 0;
+			int unsaved = 0;
+			LinkedList pending = new LinkedList();
+			pending.add(JCRUtils.getSystemNode(session).getNode(
+					JLibraryConstants.JLIBRARY_CATEGORIES));
+			while (!pending.isEmpty()) {
+				javax.jcr.Node parent = (javax.jcr.Node)pending.removeFirst();
+				NodeIterator it = parent.getNodes();
+				while (it.hasNext()) {
+					javax.jcr.Node category = it.nextNode();
+					if (!category.isNodeType(JLibraryConstants.CATEGORY_MIXIN)) {
+						continue;
+					}
+					pending.add(category);
+					List members = CategoryMemberships.list(
+							category,null,Integer.MAX_VALUE);
+					if (members.isEmpty()) {
+						CategoryMemberships.removeCategory(category);
+						continue;
+					}
+					LinkedHashMap values = new LinkedHashMap();
+					if (category.hasProperty(JLibraryConstants.JLIBRARY_NODES)) {
+						Value[] current = category.getProperty(
+								JLibraryConstants.JLIBRARY_NODES).getValues();
+						for (int i = 0; i < current.length; i++) {
+							values.put(current[i].getString(),current[i]);
+						}
+					}
+					for (int i = 0; i < members.size(); i++) {
+						String uuid = (String)members.get(i);
+						if (values.containsKey(uuid)) {
+							continue;
+						}
+						try {
+							values.put(uuid,session.getValueFactory().createValue(
+									session.getNodeByIdentifier(uuid)));
+						} catch (ItemNotFoundException infe) {
+							// Removed document
+							continue;
+						}
+						converted++;
+						unsaved++;
+					}
+					category.setProperty(JLibraryConstants.JLIBRARY_NODES,
+							(Value[])values.values().toArray(new Value[values.size()]));
+					CategoryMemberships.removeCategory(category);
+					if (unsaved >= BATCH_SIZE) {
+						session.save();
+						unsaved = 0;
+					}
+				}
+			}
+			javax.jcr.Node systemNode = JCRUtils.getSystemNode(session);
+			if (systemNode.hasNode(JLibraryConstants.JLIBRARY_MEMBERSHIPS)) {
+				systemNode.getNode(JLibraryConstants.JLIBRARY_MEMBERSHIPS).remove();
+			}
+			JCRUtils.setConfigEntry(session,
+									CategoryMemberships.INDEXED_MEMBERSHIPS,
+									Boolean.FALSE);
+			session.save();
+			logger.info(converted + " category members moved back");
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}
+	}
+}
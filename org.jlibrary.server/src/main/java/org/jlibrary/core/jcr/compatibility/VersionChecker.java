@@ -27,10 +27,13 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 
+import org.jlibrary.core.config.SessionConfigurationReader;
 import org.jlibrary.core.entities.User;
+import org.jlibrary.core.jcr.CategoryMemberships;
 import org.jlibrary.core.jcr.JCRSecurityService;
 import org.jlibrary.core.jcr.JCRUtils;
 import org.jlibrary.core.jcr.JLibraryConstants;
+import org.jlibrary.core.jcr.NodePaths;
 import org.jlibrary.core.jcr.nodetypes.NodeTypeManager;
 import org.jlibrary.core.properties.RepositoryProperties;
 import org.slf4j.Logger;
@@ -145,6 +148,22 @@ public class VersionChecker {
 							   JLibraryConstants.VERSION_1_1);
 			system.getSession().save();			
 		}
+		if (mustDerivePaths(session)) {
+			DerivedPathsMigrator migrator = new DerivedPathsMigrator();
+			migrator.migrate(session);
+		} else if (mustRestorePaths(session)) {
+			FullPathsMigrator migrator = new FullPathsMigrator();
+			migrator.migrate(session);
+		}
+		if (mustIndexMemberships(session)) {
+			CategoryMembershipsMigrator migrator = 
+				new CategoryMembershipsMigrator();
+			migrator.migrate(session);
+		} else if (mustUnindexMemberships(session)) {
+			PropertyMembershipsMigrator migrator = 
+				new PropertyMembershipsMigrator();
+			migrator.migrate(session);
+		}
 	}
 	
 	/**
@@ -236,4 +255,105 @@ public class VersionChecker {
 		
 		return false;
 	}	
+	
+	/**
+	 * This method will tell us if the repository stores full paths and it 
+	 * must be converted to derived paths. Conversion is an explicit choice 
+	 * of the administrator, enabled with the <code>node.paths.derived</code> 
+	 * session config entry. It is disabled by default.
+	 * 
+	 * @param session Session
+	 * 
+	 * @return <code>true</code> if must be updated and 
+	 * <code>false</code> otherwise
+	 * 
+	 * @see NodePaths
+	 */
+	public static boolean mustDerivePaths(Session session) 
+												throws RepositoryException {
+		
+		if (!isDerivedPathsEnabled()) {
+			return false;
+		}
+		return !NodePaths.getInstance().isDerived(session);
+	}
+	
+	/**
+	 * This method will tell us if the repository stores derived paths but 
+	 * they have been disabled with the <code>node.paths.derived</code> 
+	 * session config entry, so it must be converted back to full paths.
+	 * 
+	 * @param session Session
+	 * 
+	 * @return <code>true</code> if must be updated and 
+	 * <code>false</code> otherwise
+	 * 
+	 * @see NodePaths
+	 */
+	public static boolean mustRestorePaths(Session session) 
+												throws RepositoryException {
+		
+		if (isDerivedPathsEnabled()) {
+			return false;
+		}
+		return NodePaths.getInstance().isDerived(session);
+	}
+	
+	private static boolean isDerivedPathsEnabled() {
+		
+		return Boolean.valueOf(SessionConfigurationReader.getString(
+				"node.paths.derived","false")).booleanValue();
+	}
+	
+	/**
+	 * This method will tell us if the repository stores the category members 
+	 * on the <code>jlib:nodes</code> property and they must be moved to the 
+	 * membership index. Conversion is an explicit choice of the 
+	 * administrator, enabled with the 
+	 * <code>category.memberships.indexed</code> session config entry. It is 
+	 * disabled by default.
+	 * 
+	 * @param session Session
+	 * 
+	 * @return <code>true</code> if must be updated and 
+	 * <code>false</code> otherwise
+	 * 
+	 * @see CategoryMemberships
+	 */
+	public static boolean mustIndexMemberships(Session session) 
+												throws RepositoryException {
+		
+		if (!isIndexedMembershipsEnabled()) {
+			return false;
+		}
+		return !CategoryMemberships.isIndexed(session);
+	}
+	
+	/**
+	 * This method will tell us if the repository stores the category members 
+	 * on the membership index but it has been disabled with the 
+	 * <code>category.memberships.indexed</code> session config entry, so 
+	 * they must be moved back to the <code>jlib:nodes</code> property.
+	 * 
+	 * @param session Session
+	 * 
+	 * @return <code>true</code> if must be updated and 
+	 * <code>false</code> otherwise
+	 * 
+	 * @see CategoryMemberships
+	 */
+	public static boolean mustUnindexMemberships(Session session) 
+												throws RepositoryException {
+		
+		if (isIndexedMembershipsEnabled()) {
+			return false;
+		}
+		return CategoryMemberships.isIndexed(session);
+	}
+	
+	private static boolean isIndexedMembershipsEnabled() {
+		
+		return Boolean.valueOf(SessionConfigurationReader.getString(
+				"category.memberships.indexed","false")).booleanValue();
+	}
 }
@@ -40,6 +40,8 @@ import org.jlibrary.core.jcr.JCRSecurityService;
 import org.jlibrary.core.jcr.JCRUtils;
 import org.jlibrary.core.jcr.JLibraryConstants;
 import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.jcr.query.PreparedQueries;
+import org.jlibrary.core.jcr.query.QueryTemplates;
 import org.jlibrary.core.properties.AuthorProperties;
 import org.jlibrary.core.repository.exception.AuthorAlreadyExistsException;
 import org.jlibrary.core.repository.exception.AuthorNotFoundException;
@@ -229,17 +231,10 @@ public class JCRAuthorsModule {
 				throw new RepositoryException("Session has expired. Please log in again.");
 			}
 
-			Workspace workspace = session.getWorkspace();
-			QueryManager queryManager = workspace.getQueryManager();
-			
-			String statement = "/jcr:root//*[@jcr:primaryType='jlib:author' and @jlib:name='"+
-							   name+"' and @jlib:active='true']"; 
-			
-			javax.jcr.query.Query query = 
-				queryManager.createQuery(statement,javax.jcr.query.Query.XPATH);
-			QueryResult result = query.execute();
-			
-			NodeIterator it = result.getNodes();
+			NodeIterator it = PreparedQueries.prepare(
+					session,QueryTemplates.AUTHOR_BY_NAME).
+						bind("name",name).
+						execute();
 			while (it.hasNext()) {
 				javax.jcr.Node node = (javax.jcr.Node) it.next();
 				return JCRAdapter.createAuthor(node);
@@ -25,6 +25,7 @@ package org.jlibrary.core.jcr.modules;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.jcr.ItemNotFoundException;
@@ -34,19 +35,25 @@ import javax.jcr.Property;
 import javax.jcr.PropertyIterator;
 import javax.jcr.Session;
 import javax.jcr.Value;
-import javax.jcr.Workspace;
 import javax.jcr.query.InvalidQueryException;
-import javax.jcr.query.QueryManager;
-import javax.jcr.query.QueryResult;
 
+import org.jlibrary.core.config.SessionConfigurationReader;
 import org.jlibrary.core.entities.Category;
+import org.jlibrary.core.entities.DocumentView;
+import org.jlibrary.core.entities.NodePage;
 import org.jlibrary.core.entities.Ticket;
+import org.jlibrary.core.jcr.CategoryMemberships;
+import org.jlibrary.core.jcr.ChildNameRegistry;
 import org.jlibrary.core.jcr.JCRAdapter;
+import org.jlibrary.core.jcr.JCRCreationContext;
 import org.jlibrary.core.jcr.JCRConstants;
 import org.jlibrary.core.jcr.JCRSecurityService;
 import org.jlibrary.core.jcr.JCRUtils;
 import org.jlibrary.core.jcr.JLibraryConstants;
+import org.jlibrary.core.jcr.SecurityFilter;
 import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.jcr.query.PreparedQueries;
+import org.jlibrary.core.jcr.query.QueryTemplates;
 import org.jlibrary.core.properties.CategoryProperties;
 import org.jlibrary.core.properties.PropertyDef;
 import org.jlibrary.core.repository.exception.CategoryAlreadyExistsException;
@@ -65,6 +72,8 @@ public class JCRCategoriesModule {
 
 	static Logger logger = LoggerFactory.getLogger(JCRCategoriesModule.class);
 	
+	private static int defaultPageSize = -1;
+	
 	public JCRCategoriesModule() {}
 	
 	/**
@@ -130,9 +139,7 @@ public class JCRCategoriesModule {
 					JCRUtils.addNodeToProperty(categoryId,
 											   node,
 											   JLibraryConstants.JLIBRARY_CATEGORIES);					
-					JCRUtils.addNodeToProperty(node.getUUID(),
-							   				   categoryNode,
-							   				   JLibraryConstants.JLIBRARY_NODES);					
+					CategoryMemberships.add(categoryNode,node.getUUID());
 				}
 			}
 
@@ -145,9 +152,7 @@ public class JCRCategoriesModule {
 					JCRUtils.removeNodeFromProperty(categoryId,
 							   node,
 							   JLibraryConstants.JLIBRARY_CATEGORIES);					
-					JCRUtils.removeNodeFromProperty(node.getUUID(),
-							   						categoryNode,
-							   						JLibraryConstants.JLIBRARY_NODES);					
+					CategoryMemberships.remove(categoryNode,node.getUUID());
 				}
 			}
 			
@@ -218,17 +223,10 @@ public class JCRCategoriesModule {
 				throw new RepositoryException("Session has expired. Please log in again.");
 			}
 
-			Workspace workspace = session.getWorkspace();
-			QueryManager queryManager = workspace.getQueryManager();
-			
-			String statement = "/jcr:root//*[@jcr:primaryType='jlib:category' and @jlib:name='"+
-							   name+"' and @jlib:active='true']"; 
-			
-			javax.jcr.query.Query query = 
-				queryManager.createQuery(statement,javax.jcr.query.Query.XPATH);
-			QueryResult result = query.execute();
-			
-			NodeIterator it = result.getNodes();
+			NodeIterator it = PreparedQueries.prepare(
+					session,QueryTemplates.CATEGORY_BY_NAME).
+						bind("name",name).
+						execute();
 			while (it.hasNext()) {
 				javax.jcr.Node node = (javax.jcr.Node) it.next();
 				return JCRAdapter.createCategory(node);
@@ -255,6 +253,27 @@ public class JCRCategoriesModule {
 											throws CategoryNotFoundException,
 												   RepositoryException {
 
+		return findNodesForCategory(ticket,categoryId,DocumentView.FULL);
+	}
+	
+	/**
+	 * Finds all the nodes within a category, loading only the document 
+	 * properties of a given view
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param categoryId category
+	 * @param view Level of detail of the documents
+	 * 
+	 * @return Nodes of that category
+	 * 
+	 * @throws RepositoryException If the categories can't be loaded
+	 */	
+	public List findNodesForCategory(Ticket ticket, 
+									 String categoryId,
+									 DocumentView view) 
+											throws CategoryNotFoundException,
+												   RepositoryException {
+
 		javax.jcr.Session session = SessionManager.getInstance().getSession(ticket);
 		if (session == null) {
 			throw new RepositoryException("Session has expired. Please log in again.");
@@ -263,29 +282,13 @@ public class JCRCategoriesModule {
 		ArrayList nodes = new ArrayList();
 		try {
 			javax.jcr.Node category = getCategoryNode(session,categoryId);
-			if (category.hasProperty(JLibraryConstants.JLIBRARY_NODES)) {
-				Value[] values = category.getProperty(
-						JLibraryConstants.JLIBRARY_NODES).getValues();
-				for (int i = 0; i < values.length; i++) {
-					javax.jcr.Node node =
-						session.getNodeByUUID(values[i].getString());
-					try {
-						if (!JCRSecurityService.canRead(
-								node,ticket.getUser().getId())) {
-							continue;
-						}
-					} catch (SecurityException se) {
-						logger.error(se.getMessage(),se);
-						continue;
-					}
-					javax.jcr.Node root = JCRUtils.getRootNode(session);
-					nodes.add(
-							JCRAdapter.createDocument(
-									node,
-									node.getParent().getUUID(),
-									root.getUUID()));
-				}		
-			}
+			List uuids = CategoryMemberships.list(category,null,Integer.MAX_VALUE);
+			SecurityFilter filter = SecurityFilter.forTicket(session,ticket);
+			JCRCreationContext context = new JCRCreationContext();
+			context.setSecurityFilter(filter);
+			context.setView(view);
+			loadMembers(session,uuids,filter,context,nodes);
+			context.clear();
 		} catch (javax.jcr.RepositoryException e) {
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
@@ -293,6 +296,107 @@ public class JCRCategoriesModule {
 		return nodes;
 	}
 	
+	/**
+	 * Finds a page of the nodes within a category. Nodes are returned 
+	 * ordered by their position on the category membership index, and only 
+	 * the nodes of the page are loaded.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param categoryId category
+	 * @param cursor Cursor returned with the previous page, or 
+	 * <code>null</code> to get the first page
+	 * @param pageSize Maximum number of nodes to return. If it is 0 or less 
+	 * then the default page size is used
+	 * @param view Level of detail of the documents
+	 * 
+	 * @return NodePage Page with the nodes of that category
+	 * 
+	 * @throws RepositoryException If the categories can't be loaded
+	 */	
+	public NodePage findNodesForCategory(Ticket ticket, 
+										 String categoryId,
+										 String cursor,
+										 int pageSize,
+										 DocumentView view) 
+											throws CategoryNotFoundException,
+												   RepositoryException {
+
+		javax.jcr.Session session = SessionManager.getInstance().getSession(ticket);
+		if (session == null) {
+			throw new RepositoryException("Session has expired. Please log in again.");
+		}
+		if (pageSize <= 0) {
+			pageSize = getDefaultPageSize();
+		}
+		
+		ArrayList nodes = new ArrayList(pageSize);
+		try {
+			javax.jcr.Node category = getCategoryNode(session,categoryId);
+			SecurityFilter filter = SecurityFilter.forTicket(session,ticket);
+			JCRCreationContext context = new JCRCreationContext();
+			context.setSecurityFilter(filter);
+			context.setView(view);
+			String after = cursor;
+			boolean hasMore = false;
+			// Members that can't be read leave the page short, so keep 
+			// reading until it is full or there are no more members
+			while (nodes.size() < pageSize) {
+				int needed = pageSize - nodes.size();
+				List uuids = CategoryMemberships.list(category,after,needed+1);
+				hasMore = uuids.size() > needed;
+				if (hasMore) {
+					uuids = uuids.subList(0,needed);
+				}
+				if (uuids.isEmpty()) {
+					break;
+				}
+				after = (String)uuids.get(uuids.size()-1);
+				loadMembers(session,uuids,filter,context,nodes);
+				if (!hasMore) {
+					break;
+				}
+			}
+			context.clear();
+			
+			NodePage page = new NodePage();
+			page.setNodes(nodes);
+			page.setCursor(nodes.isEmpty() ? null : after);
+			page.setHasMore(hasMore);
+			return page;
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}
+	}
+	
+	private void loadMembers(javax.jcr.Session session,
+							 List uuids,
+							 SecurityFilter filter,
+							 JCRCreationContext context,
+							 List nodes) throws javax.jcr.RepositoryException {
+		
+		ArrayList members = new ArrayList(uuids.size());
+		for (int i = 0; i < uuids.size(); i++) {
+			try {
+				members.add(session.getNodeByIdentifier((String)uuids.get(i)));
+			} catch (ItemNotFoundException infe) {
+				// Index entry of a removed node
+				continue;
+			}
+		}
+		String rootId = JCRUtils.getRootNode(session).getUUID();
+		Iterator it = filter.filter(members).iterator();
+		while (it.hasNext()) {
+			javax.jcr.Node node = (javax.jcr.Node)it.next();
+			nodes.add(
+					JCRAdapter.internalCreateDocument(
+							node,
+							node.getParent().getUUID(),
+							rootId,
+							context));
+		}
+	}
+	
 	/**
 	 * Finds all the categories for a given node
 	 * 
@@ -458,6 +562,7 @@ public class JCRCategoriesModule {
 			date.setTime(new Date());
 			categoryNode.setProperty(JLibraryConstants.JLIBRARY_DATE,date);
 			categoryNode.setProperty(JLibraryConstants.JLIBRARY_NODES, new Value[]{});
+			CategoryMemberships.addCategory(categoryNode);
 			if (ticket.isAutocommit()) {
 				session.save();
 			}
@@ -527,6 +632,7 @@ public class JCRCategoriesModule {
 			
 			javax.jcr.Node category = getCategoryNode(session,categoryId);
 			removeReferences(ticket,category);
+			ChildNameRegistry.getInstance().release(category);
 			category.remove();	
 			if (ticket.isAutocommit()) {
 				session.save();
@@ -543,6 +649,7 @@ public class JCRCategoriesModule {
 										throws javax.jcr.RepositoryException {
 		
 		String categoryId = category.getUUID();
+		CategoryMemberships.removeCategory(category);
 		PropertyIterator it = category.getReferences();
 		while (it.hasNext()) {
 			Property property = (Property) it.next();
@@ -634,10 +741,7 @@ public class JCRCategoriesModule {
 				category.getUUID(),
 				node,
 				JLibraryConstants.JLIBRARY_CATEGORIES);
-		JCRUtils.addNodeToProperty(
-				node.getUUID(),
-				category,
-				JLibraryConstants.JLIBRARY_NODES);
+		CategoryMemberships.add(category,node.getUUID());
 	}	
 	
 	public void removeCategory(Ticket ticket,
@@ -649,10 +753,7 @@ public class JCRCategoriesModule {
 				category.getUUID(),
 				node,
 				JLibraryConstants.JLIBRARY_CATEGORIES);
-		JCRUtils.removeNodeFromProperty(
-				node.getUUID(),
-				category,
-				JLibraryConstants.JLIBRARY_NODES);
+		CategoryMemberships.remove(category,node.getUUID());
 
 	}	
 	
@@ -731,4 +832,13 @@ public class JCRCategoriesModule {
 			throw new RepositoryException(e);
 		}		
 	}	
-}
\ No newline at end of file
+	
+	private static synchronized int getDefaultPageSize() {
+		
+		if (defaultPageSize == -1) {
+			defaultPageSize = Integer.parseInt(
+					SessionConfigurationReader.getString("category.page.size","100"));
+		}
+		return defaultPageSize;
+	}
+}
@@ -0,0 +1,311 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.modules;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.NodeIterator;
+
+import org.jlibrary.core.config.SessionConfigurationReader;
+import org.jlibrary.core.entities.DocumentView;
+import org.jlibrary.core.entities.NodeOrder;
+import org.jlibrary.core.entities.NodePage;
+import org.jlibrary.core.entities.Ticket;
+import org.jlibrary.core.jcr.ChildrenCursor;
+import org.jlibrary.core.jcr.JCRAdapter;
+import org.jlibrary.core.jcr.JCRCreationContext;
+import org.jlibrary.core.jcr.JCRSecurityService;
+import org.jlibrary.core.jcr.JCRUtils;
+import org.jlibrary.core.jcr.JLibraryConstants;
+import org.jlibrary.core.jcr.NodeLock;
+import org.jlibrary.core.jcr.NodeLockManager;
+import org.jlibrary.core.jcr.SecurityFilter;
+import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.repository.exception.NodeNotFoundException;
+import org.jlibrary.core.repository.exception.RepositoryException;
+import org.jlibrary.core.security.SecurityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author martin
+ *
+ * Module to isolate the paged children operations of the default services 
+ * implementation. Only the children on the requested page are created. 
+ * Sorting by a node property needs to read that property from every child, 
+ * but only a page worth of children is kept in memory. Children on the 
+ * natural ascending order are streamed and the scan stops as soon as the 
+ * page is filled.
+ */
+public class JCRChildrenModule {
+
+	static Logger logger = LoggerFactory.getLogger(JCRChildrenModule.class);
+	
+	private static int defaultPageSize = -1;
+	
+	/**
+	 * Constructor
+	 */
+	public JCRChildrenModule() {}
+	
+	/**
+	 * Finds a page of the children of a node
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param id Id of the parent node
+	 * @param cursor Cursor of the previous page, or <code>null</code> to 
+	 * get the first page
+	 * @param pageSize Maximum number of children to return. If it is 0 or 
+	 * less then the <code>children.page.size</code> config value is used
+	 * @param order Sort key
+	 * @param ascending Sort direction
+	 * @param view Level of detail of the returned documents
+	 * 
+	 * @return NodePage Page of children
+	 * 
+	 * @throws RepositoryException If the children can't be loaded, the 
+	 * cursor is not valid for the given order, or the child of a natural 
+	 * order cursor has been moved or removed
+	 * @throws NodeNotFoundException If the parent node can't be found
+	 * @throws SecurityException If the user can't read the parent node
+	 */
+	public NodePage findNodeChildren(Ticket ticket,
+									 String id,
+									 String cursor,
+									 int pageSize,
+									 NodeOrder order,
+									 boolean ascending,
+									 DocumentView view) 
+											throws RepositoryException,
+												   NodeNotFoundException,
+												   SecurityException {
+		
+		javax.jcr.Session session = SessionManager.getInstance().getSession(ticket);
+		if (session == null) {
+			throw new RepositoryException("Session has expired. Please log in again.");
+		}
+		if (pageSize <= 0) {
+			pageSize = getDefaultPageSize();
+		}
+		
+		ChildrenCursor after = null;
+		if (cursor != null) {
+			try {
+				after = ChildrenCursor.parse(cursor);
+			} catch (IllegalArgumentException iae) {
+				throw new RepositoryException(iae.getMessage());
+			}
+			if (after.getOrder() != order || after.isAscending() != ascending) {
+				throw new RepositoryException(
+						"The cursor was created with a different order");
+			}
+		}
+		
+		NodePage page = new NodePage();
+		try {
+			javax.jcr.Node node = session.getNodeByUUID(id);
+			if (!JCRSecurityService.canRead(node, ticket.getUser().getId())) {
+				throw new SecurityException(
+						SecurityException.NOT_ENOUGH_PERMISSIONS);
+			}
+			if (node.isNodeType(JLibraryConstants.DOCUMENT_MIXIN)) {
+				return page;
+			}
+			
+			NodeLock lock = NodeLockManager.getInstance().readLock(node);
+			try {
+				if (after != null && order == NodeOrder.NATURAL) {
+					long position = after.locate(node);
+					if (position == -1) {
+						throw new RepositoryException(
+								"The cursor has been invalidated, as its child has " + 
+								"been moved or removed. Start again from the first page");
+					}
+					after = new ChildrenCursor(order,
+											   ascending,
+											   after.getId(),
+											   new Long(position));
+				}
+			
+				SecurityFilter filter = SecurityFilter.forTicket(session,ticket);
+				List entries;
+				if (order == NodeOrder.NATURAL && ascending) {
+					entries = streamChildren(node,after,pageSize,filter);
+				} else {
+					entries = scanChildren(node,after,pageSize,order,ascending,filter);
+				}
+				if (entries.size() > pageSize) {
+					page.setHasMore(true);
+					entries = entries.subList(0,pageSize);
+				}
+			
+				boolean lazy = JCRUtils.getConfig(session).isLazyLoading();
+				JCRCreationContext context = new JCRCreationContext();
+				context.setSecurityFilter(filter);
+				context.setView(view);
+				String repositoryId = JCRUtils.getRootNode(session).getUUID();
+				List nodes = new ArrayList(entries.size());
+				Iterator it = entries.iterator();
+				while (it.hasNext()) {
+					ChildrenCursor.Entry entry = (ChildrenCursor.Entry)it.next();
+					javax.jcr.Node child = entry.getNode();
+					if (child.isNodeType(JLibraryConstants.DOCUMENT_MIXIN)) {
+						nodes.add(JCRAdapter.internalCreateDocument(
+								child, id, repositoryId, context));
+					} else if (child.isNodeType(JLibraryConstants.DIRECTORY_MIXIN)) {
+						nodes.add(JCRAdapter.internalCreateDirectory(
+								child, id, repositoryId, context, null, lazy));
+					} else {
+						nodes.add(JCRAdapter.createResource(child, id, repositoryId));
+					}
+					if (!it.hasNext()) {
+						page.setCursor(new ChildrenCursor(order,
+														  ascending,
+														  entry.getId(),
+														  entry.getKey()).toString());
+					}
+				}
+				context.clear();
+				page.setNodes(nodes);
+				return page;
+			} finally {
+				lock.release();
+			}
+		} catch (ItemNotFoundException infe) {
+			logger.error(infe.getMessage(),infe);
+			throw new NodeNotFoundException(infe);
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}
+	}
+	
+	/**
+	 * Reads the children in storage order, from the cursor position, until 
+	 * one child more than the page size is found. The cursor must point to 
+	 * the current position of its child.
+	 * 
+	 * @return List Entries found
+	 */
+	private List streamChildren(javax.jcr.Node node,
+								ChildrenCursor after,
+								int pageSize,
+								SecurityFilter filter) 
+											throws javax.jcr.RepositoryException {
+
+		NodeIterator iterator = node.getNodes();
+		long index = 0;
+		if (after != null) {
+			index = ((Long)after.getKey()).longValue() + 1;
+			try {
+				iterator.skip(index);
+			} catch (NoSuchElementException nsee) {
+				// Removed since the cursor was located
+				return new ArrayList();
+			}
+		}
+		
+		List entries = new ArrayList(pageSize+1);
+		while (iterator.hasNext() && entries.size() <= pageSize) {
+			javax.jcr.Node child = iterator.nextNode();
+			long position = index++;
+			if (!isChild(child) || !filter.canRead(child)) {
+				continue;
+			}
+			entries.add(new ChildrenCursor.Entry(new Long(position),
+												 child.getUUID(),
+												 child));
+		}
+		return entries;
+	}
+	
+	/**
+	 * Reads the sort key of all the children and keeps the first ones that 
+	 * go after the cursor, up to one child more than the page size
+	 */
+	private List scanChildren(javax.jcr.Node node,
+							  ChildrenCursor after,
+							  int pageSize,
+							  NodeOrder order,
+							  boolean ascending,
+							  SecurityFilter filter) 
+											throws javax.jcr.RepositoryException {
+		
+		TreeSet entries = new TreeSet(ChildrenCursor.comparator(ascending));
+		NodeIterator iterator = node.getNodes();
+		long index = 0;
+		while (iterator.hasNext()) {
+			javax.jcr.Node child = iterator.nextNode();
+			long position = index++;
+			if (!isChild(child)) {
+				continue;
+			}
+			Object key = ChildrenCursor.readKey(child,order,position);
+			String childId = child.getUUID();
+			if (after != null && !after.isBefore(key,childId)) {
+				continue;
+			}
+			ChildrenCursor.Entry entry = 
+				new ChildrenCursor.Entry(key,childId,child);
+			if (entries.size() > pageSize && 
+				entries.comparator().compare(entry,entries.last()) >= 0) {
+				continue;
+			}
+			// Permissions are only checked on the children that could be on 
+			// the page
+			if (!filter.canRead(child)) {
+				continue;
+			}
+			entries.add(entry);
+			if (entries.size() > pageSize+1) {
+				entries.remove(entries.last());
+			}
+		}
+		return new ArrayList(entries);
+	}
+	
+	private static boolean isChild(javax.jcr.Node child) 
+											throws javax.jcr.RepositoryException {
+		
+		if (!child.isNodeType(JLibraryConstants.DOCUMENT_MIXIN) &&
+			!child.isNodeType(JLibraryConstants.DIRECTORY_MIXIN) &&
+			!child.isNodeType(JLibraryConstants.RESOURCE_MIXIN)) {
+			return false;
+		}
+		return JCRUtils.isActive(child);
+	}
+	
+	private static synchronized int getDefaultPageSize() {
+		
+		if (defaultPageSize == -1) {
+			defaultPageSize = Integer.parseInt(
+					SessionConfigurationReader.getString("children.page.size","100"));
+		}
+		return defaultPageSize;
+	}
+}
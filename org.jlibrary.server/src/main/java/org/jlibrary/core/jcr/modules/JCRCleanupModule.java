@@ -29,6 +29,7 @@ import javax.jcr.Value;
 
 import org.jlibrary.core.jcr.JCRUtils;
 import org.jlibrary.core.jcr.JLibraryConstants;
+import org.jlibrary.core.jcr.SessionManager;
 import org.jlibrary.core.repository.exception.RepositoryException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,6 +67,8 @@ public class JCRCleanupModule {
 			
 			JCRUtils.addToProperty(scheduled,repositoryName+","+workspacePath);		
 			session.save();
+			// Pooled system sessions may have read the old schedule
+			SessionManager.getInstance().invalidateSystemSessions();
 		} catch (javax.jcr.RepositoryException e) {			
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
@@ -138,6 +141,7 @@ public class JCRCleanupModule {
 			if (workspaceData.length > 0) {
 				scheduled.setValue(new Value[]{});
 				systemSession.save();
+				SessionManager.getInstance().invalidateSystemSessions();
 			}
 		} catch (javax.jcr.RepositoryException e) {			
 			logger.error(e.getMessage(),e);
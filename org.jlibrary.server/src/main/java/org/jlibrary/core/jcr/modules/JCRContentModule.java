@@ -0,0 +1,250 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.modules;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+import javax.jcr.Property;
+import javax.jcr.Session;
+import javax.jcr.version.Version;
+
+import org.jlibrary.core.entities.ContentInfo;
+import org.jlibrary.core.entities.Ticket;
+import org.jlibrary.core.jcr.JCRConstants;
+import org.jlibrary.core.jcr.ContentTransfer;
+import org.jlibrary.core.jcr.JCRSecurityService;
+import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.repository.exception.RepositoryException;
+import org.jlibrary.core.security.SecurityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author martin
+ *
+ * Module to isolate the content reads of the default services 
+ * implementation. Contents can be read partially and conditionally, so 
+ * clients can resume downloads, preview the beginning of big files and 
+ * skip the transfer of contents they already have.
+ */
+public class JCRContentModule {
+
+	static Logger logger = LoggerFactory.getLogger(JCRContentModule.class);
+	
+	/**
+	 * Constructor
+	 */
+	public JCRContentModule() {}
+	
+	/**
+	 * Writes a range of a document content
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param docId Id of the document
+	 * @param offset Position of the first byte to write
+	 * @param length Maximum number of bytes to write, or -1 to write until 
+	 * the end of the content
+	 * @param validator Validator of the content the client already has, or 
+	 * <code>null</code>. If it matches the current content nothing is written
+	 * @param stream Stream where the content is written
+	 * 
+	 * @return ContentInfo Description of the written range
+	 * 
+	 * @throws RepositoryException If the content can't be loaded or the 
+	 * offset is outside the content
+	 * @throws SecurityException If the user can't read the document
+	 */
+	public ContentInfo loadDocumentContent(Ticket ticket,
+										   String docId,
+										   long offset,
+										   long length,
+										   String validator,
+										   OutputStream stream) 
+												throws RepositoryException,
+													   SecurityException {
+		
+		Session session = SessionManager.getInstance().getSession(ticket);
+		if (session == null) {
+			throw new RepositoryException("Session has expired. Please log in again.");
+		}
+		
+		try {
+			javax.jcr.Node node = session.getNodeByUUID(docId);
+			if (!JCRSecurityService.canRead(node, ticket.getUser().getId())) {
+				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
+			}
+			return writeContent(node.getNode(JCRConstants.JCR_CONTENT),
+								offset,length,validator,stream);
+		} catch (IOException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}
+	}
+	
+	/**
+	 * Writes a range of a document version content. Versions that did not 
+	 * store the content take it from their predecessors or, if none of 
+	 * them stored it, from the document.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param versionId Id of the version
+	 * @param offset Position of the first byte to write
+	 * @param length Maximum number of bytes to write, or -1 to write until 
+	 * the end of the content
+	 * @param validator Validator of the content the client already has, or 
+	 * <code>null</code>. If it matches the current content nothing is written
+	 * @param stream Stream where the content is written
+	 * 
+	 * @return ContentInfo Description of the written range
+	 * 
+	 * @throws RepositoryException If the content can't be loaded or the 
+	 * offset is outside the content
+	 * @throws SecurityException If the user can't read the document
+	 */
+	public ContentInfo loadVersionContent(Ticket ticket,
+										  String versionId,
+										  long offset,
+										  long length,
+										  String validator,
+										  OutputStream stream) 
+												throws RepositoryException,
+													   SecurityException {
+		
+		Session session = SessionManager.getInstance().getSession(ticket);
+		if (session == null) {
+			throw new RepositoryException("Session has expired. Please log in again.");
+		}
+		
+		try {
+			Version version = (Version)session.getNodeByUUID(versionId);
+			javax.jcr.Node content = findVersionContent(version);
+			if (content == null) {
+				javax.jcr.Node frozenNode = version.getNode(
+						JCRConstants.JCR_FROZEN_NODE);
+				String nodeUUID = frozenNode.getProperty(
+						JCRConstants.JCR_FROZEN_UUID).getString();
+				return loadDocumentContent(ticket,nodeUUID,
+										   offset,length,validator,stream);
+			}
+			return writeContent(content,offset,length,validator,stream);
+		} catch (IOException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}
+	}
+	
+	/**
+	 * Returns the validator of a content. It is built with the size and the 
+	 * last modification date of the content.
+	 * 
+	 * @param content <code>jcr:content</code> node
+	 * 
+	 * @return String Validator of the content
+	 * 
+	 * @throws javax.jcr.RepositoryException If the content can't be read
+	 */
+	public static String getValidator(javax.jcr.Node content) 
+										throws javax.jcr.RepositoryException {
+		
+		long size = content.getProperty(JCRConstants.JCR_DATA).getLength();
+		return buildValidator(size,getLastModified(content));
+	}
+	
+	private static String buildValidator(long size, Date lastModified) {
+		
+		long time = lastModified == null ? 0 : lastModified.getTime();
+		return Long.toString(size,36) + "-" + Long.toString(time,36);
+	}
+	
+	private static Date getLastModified(javax.jcr.Node content) 
+										throws javax.jcr.RepositoryException {
+		
+		if (!content.hasProperty(JCRConstants.JCR_LAST_MODIFIED)) {
+			return null;
+		}
+		return content.getProperty(
+				JCRConstants.JCR_LAST_MODIFIED).getDate().getTime();
+	}
+	
+	private javax.jcr.Node findVersionContent(Version version) 
+										throws javax.jcr.RepositoryException {
+		
+		javax.jcr.Node frozenNode = version.getNode(JCRConstants.JCR_FROZEN_NODE);
+		if (frozenNode.hasNode(JCRConstants.JCR_CONTENT)) {
+			return frozenNode.getNode(JCRConstants.JCR_CONTENT);
+		}
+		Version[] predecessors = version.getPredecessors();
+		for (int i = 0; i < predecessors.length; i++) {
+			frozenNode = predecessors[i].getNode(JCRConstants.JCR_FROZEN_NODE);
+			if (frozenNode.hasNode(JCRConstants.JCR_CONTENT)) {
+				return frozenNode.getNode(JCRConstants.JCR_CONTENT);
+			}
+		}
+		return null;
+	}
+	
+	private ContentInfo writeContent(javax.jcr.Node content,
+									 long offset,
+									 long length,
+									 String validator,
+									 OutputStream stream) 
+										throws javax.jcr.RepositoryException,
+											   IOException,
+											   RepositoryException {
+		
+		Property data = content.getProperty(JCRConstants.JCR_DATA);
+		long size = data.getLength();
+		Date lastModified = getLastModified(content);
+		
+		ContentInfo info = new ContentInfo();
+		info.setSize(size);
+		info.setLastModified(lastModified);
+		info.setValidator(buildValidator(size,lastModified));
+		if (validator != null && validator.equals(info.getValidator())) {
+			info.setNotModified(true);
+			return info;
+		}
+		
+		if (offset < 0 || offset > size) {
+			throw new RepositoryException("Invalid content range. Offset " + 
+					offset + " is outside a content of " + size + " bytes");
+		}
+		long available = size - offset;
+		if (length < 0 || length > available) {
+			length = available;
+		}
+		
+		ContentTransfer.transfer(data,offset,length,stream);
+		info.setOffset(offset);
+		info.setLength(length);
+		return info;
+	}
+}
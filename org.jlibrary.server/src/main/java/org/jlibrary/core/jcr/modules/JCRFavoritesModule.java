@@ -28,9 +28,6 @@ import java.util.List;
 import javax.jcr.NodeIterator;
 import javax.jcr.Property;
 import javax.jcr.PropertyIterator;
-import javax.jcr.Workspace;
-import javax.jcr.query.QueryManager;
-import javax.jcr.query.QueryResult;
 
 import org.jlibrary.core.entities.Favorite;
 import org.jlibrary.core.entities.Ticket;
@@ -40,6 +37,8 @@ import org.jlibrary.core.jcr.JCRSecurityService;
 import org.jlibrary.core.jcr.JCRUtils;
 import org.jlibrary.core.jcr.JLibraryConstants;
 import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.jcr.query.PreparedQueries;
+import org.jlibrary.core.jcr.query.QueryTemplates;
 import org.jlibrary.core.repository.exception.RepositoryException;
 import org.jlibrary.core.security.SecurityException;
 import org.slf4j.Logger;
@@ -201,17 +200,10 @@ public class JCRFavoritesModule {
 			if (session == null) {
 				throw new RepositoryException("Session has expired. Please log in again.");
 			}
-			Workspace workspace = session.getWorkspace();
-			QueryManager queryManager = workspace.getQueryManager();
-
-			String statement = "/jcr:root//*[@jcr:primaryType='jlib:favorite' and @jlib:user='"+
-							   userId+"' and @jlib:active='true']"; 
-
-			javax.jcr.query.Query query = 
-				queryManager.createQuery(statement,javax.jcr.query.Query.XPATH);
-			QueryResult result = query.execute();
-
-			NodeIterator it = result.getNodes();
+			NodeIterator it = PreparedQueries.prepare(
+					session,QueryTemplates.FAVORITES_BY_USER).
+						bind("user",userId).
+						execute();
 			while (it.hasNext()) {
 				nodes.add(it.nextNode());
 			}
@@ -29,10 +29,7 @@ import javax.jcr.NodeIterator;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.Value;
 import javax.jcr.ValueFormatException;
-import javax.jcr.Workspace;
 import javax.jcr.query.InvalidQueryException;
-import javax.jcr.query.QueryManager;
-import javax.jcr.query.QueryResult;
 
 import org.jlibrary.core.entities.Lock;
 import org.jlibrary.core.entities.Ticket;
@@ -42,6 +39,8 @@ import org.jlibrary.core.jcr.JCRSecurityService;
 import org.jlibrary.core.jcr.JCRUtils;
 import org.jlibrary.core.jcr.JLibraryConstants;
 import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.jcr.query.PreparedQueries;
+import org.jlibrary.core.jcr.query.QueryTemplates;
 import org.jlibrary.core.locking.ResourceLockedException;
 import org.jlibrary.core.repository.exception.RepositoryException;
 import org.jlibrary.core.security.SecurityException;
@@ -150,17 +149,8 @@ public class JCRLocksModule {
 				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
 			}
 			
-			String rootPath = root.getPath();
-			Workspace workspace = session.getWorkspace();
-			QueryManager queryManager = workspace.getQueryManager();
-			String statement = "/jcr:root" +
-							   rootPath + 
-							   "//element(*,nt:file)[@jcr:lockOwner and @jlib:active='true']";
-			javax.jcr.query.Query query = 
-				queryManager.createQuery(statement,javax.jcr.query.Query.XPATH);
-			QueryResult result = query.execute();
-			
-			NodeIterator it = result.getNodes();
+			NodeIterator it = PreparedQueries.prepare(
+					session,QueryTemplates.ALL_LOCKS).execute();
 			while (it.hasNext()) {
 				javax.jcr.Node node = (javax.jcr.Node) it.next();
 				locks.add(JCRAdapter.createLock(node.getLock()));
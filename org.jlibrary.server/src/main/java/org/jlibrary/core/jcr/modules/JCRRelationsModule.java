@@ -0,0 +1,180 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.modules;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Value;
+
+import org.jlibrary.core.entities.DocumentView;
+import org.jlibrary.core.entities.RelationGraph;
+import org.jlibrary.core.entities.Ticket;
+import org.jlibrary.core.jcr.JCRAdapter;
+import org.jlibrary.core.jcr.JCRCreationContext;
+import org.jlibrary.core.jcr.JCRUtils;
+import org.jlibrary.core.jcr.JLibraryConstants;
+import org.jlibrary.core.jcr.SecurityFilter;
+import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.repository.exception.NodeNotFoundException;
+import org.jlibrary.core.repository.exception.RepositoryException;
+import org.jlibrary.core.security.SecurityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author martin
+ *
+ * Module to isolate document relations graph operations of the default 
+ * services implementation
+ */
+public class JCRRelationsModule {
+
+	static Logger logger = LoggerFactory.getLogger(JCRRelationsModule.class);
+	
+	/**
+	 * Constructor
+	 */
+	public JCRRelationsModule() {}
+	
+	/**
+	 * Walks the relations graph of a document in breadth-first order. Only 
+	 * the documents on the requested page are loaded. Their relations are 
+	 * not followed, so they are returned as 
+	 * {@link DocumentView#REFERENCE} documents unless they are on the page.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param documentId Id of the document where the walk starts
+	 * @param depth Maximum number of relations to follow from the document
+	 * @param offset Number of reachable documents to skip
+	 * @param max Maximum number of documents to return. If it is 0 or less 
+	 * then all the reachable documents will be returned
+	 * @param view Level of detail of the documents
+	 * 
+	 * @return RelationGraph Page of the relations graph. The start document 
+	 * is not included
+	 * 
+	 * @throws RepositoryException If the graph can't be loaded
+	 * @throws NodeNotFoundException If the document can't be found
+	 * @throws SecurityException If the user can't read the document
+	 */
+	public RelationGraph findRelations(Ticket ticket,
+									   String documentId,
+									   int depth,
+									   int offset,
+									   int max,
+									   DocumentView view) 
+										throws RepositoryException,
+											   NodeNotFoundException,
+											   SecurityException {
+
+		javax.jcr.Session session = SessionManager.getInstance().getSession(ticket);
+		if (session == null) {
+			throw new RepositoryException("Session has expired. Please log in again.");
+		}
+		
+		RelationGraph graph = new RelationGraph();
+		graph.setRootId(documentId);
+		graph.setOffset(offset);
+		try {
+			javax.jcr.Node start = session.getNodeByUUID(documentId);
+			SecurityFilter filter = SecurityFilter.forTicket(session,ticket);
+			if (!filter.canRead(start)) {
+				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
+			}
+			
+			String repositoryId = JCRUtils.getRootNode(session).getUUID();
+			JCRCreationContext context = new JCRCreationContext();
+			context.setSecurityFilter(filter);
+			context.setView(view);
+			context.setMaxRelationDepth(0);
+			
+			Set visited = new HashSet();
+			visited.add(documentId);
+			LinkedList queue = new LinkedList();
+			queue.add(start);
+			int level = 0;
+			int position = 0;
+			int collected = 0;
+			
+			walk:
+			while (!queue.isEmpty() && level < depth) {
+				level++;
+				LinkedList next = new LinkedList();
+				while (!queue.isEmpty()) {
+					javax.jcr.Node node = (javax.jcr.Node)queue.removeFirst();
+					if (!node.hasProperty(JLibraryConstants.JLIBRARY_RELATIONS)) {
+						continue;
+					}
+					Value[] values = node.getProperty(
+							JLibraryConstants.JLIBRARY_RELATIONS).getValues();
+					for (int i = 0; i < values.length; i++) {
+						String uuid = values[i].getString();
+						if (!visited.add(uuid)) {
+							continue;
+						}
+						javax.jcr.Node relationNode;
+						try {
+							relationNode = session.getNodeByUUID(uuid);
+						} catch (ItemNotFoundException infe) {
+							// Dangling relation
+							continue;
+						}
+						if (!JCRUtils.isActive(relationNode) || 
+							!filter.canRead(relationNode)) {
+							continue;
+						}
+						next.add(relationNode);
+						
+						if (position++ < offset) {
+							continue;
+						}
+						if (max > 0 && collected == max) {
+							graph.setHasMore(true);
+							break walk;
+						}
+						graph.addDocument(
+								JCRAdapter.internalCreateDocument(
+										relationNode,
+										relationNode.getParent().getUUID(),
+										repositoryId,
+										context),
+								level);
+						collected++;
+					}
+				}
+				queue = next;
+			}
+			context.clear();
+		} catch (ItemNotFoundException infe) {
+			logger.error(infe.getMessage(),infe);
+			throw new NodeNotFoundException(infe);
+		} catch (javax.jcr.RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}
+		return graph;
+	}
+}
@@ -22,33 +22,36 @@
 */
 package org.jlibrary.core.jcr.modules;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.jcr.Property;
 import javax.jcr.PropertyIterator;
 import javax.jcr.Value;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.util.Text;
 import org.jlibrary.core.entities.Node;
 import org.jlibrary.core.entities.ResourceNode;
 import org.jlibrary.core.entities.Ticket;
 import org.jlibrary.core.entities.Types;
+import org.jlibrary.core.jcr.ChildNameRegistry;
+import org.jlibrary.core.jcr.ContentTransfer;
 import org.jlibrary.core.jcr.JCRAdapter;
 import org.jlibrary.core.jcr.JCRConstants;
 import org.jlibrary.core.jcr.JCRRepositoryService;
 import org.jlibrary.core.jcr.JCRSecurityService;
 import org.jlibrary.core.jcr.JCRUtils;
 import org.jlibrary.core.jcr.JLibraryConstants;
-import org.jlibrary.core.jcr.LockUtility;
+import org.jlibrary.core.jcr.NodeLock;
+import org.jlibrary.core.jcr.NodeLockManager;
+import org.jlibrary.core.jcr.NodePaths;
+import org.jlibrary.core.jcr.SecurityFilter;
 import org.jlibrary.core.jcr.SessionManager;
 import org.jlibrary.core.properties.ResourceNodeProperties;
 import org.jlibrary.core.repository.exception.RepositoryException;
@@ -82,8 +85,8 @@ public class JCRResourcesModule {
 			javax.jcr.Node resource = session.getNodeByUUID(resourceId);
 			javax.jcr.Node document = session.getNodeByUUID(documentId);
 			
-			Object syncLock = LockUtility.obtainLock(document);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().writeLock(document);
+			try {
 				document.checkout();
 				
 				if (!JCRSecurityService.canWrite(document, ticket.getUser().getId())) {
@@ -102,6 +105,8 @@ public class JCRResourcesModule {
 				if (ticket.isAutocommit()) {
 					session.save();
 				}		
+			} finally {
+				lock.release();
 			}
 		} catch (javax.jcr.RepositoryException e) {
 			logger.error(e.getMessage(),e);
@@ -139,19 +144,19 @@ public class JCRResourcesModule {
 			}
 			
 			javax.jcr.Node child = null;
-			Object syncLock = LockUtility.obtainLock(parent);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().writeLock(parent);
+			try {
 
 				String escapedName = 
 						JCRUtils.buildValidChildNodeName(parent,
 														 extension,
 														 name);
-				child = parent.addNode(escapedName,
-									   JCRConstants.JCR_FILE);
 				name = Text.unescape(escapedName);
 				if ((extension != null) && !escapedName.endsWith(extension)) {
 					escapedName+=extension;
 				}
+				child = parent.addNode(escapedName,
+									   JCRConstants.JCR_FILE);
 				
 				child.addMixin(JCRConstants.JCR_REFERENCEABLE);
 				child.addMixin(JCRConstants.JCR_LOCKABLE);
@@ -169,32 +174,24 @@ public class JCRResourcesModule {
 				child.setProperty(JLibraryConstants.JLIBRARY_POSITION,0);
 				
 				child.setProperty(JLibraryConstants.JLIBRARY_PATH,
-						  repositoryService.getPath(parent) + 
-						  FileUtils.getFileName(path));			
+						  NodePaths.getInstance().buildPath(parent,
+								  FileUtils.getFileName(path)));			
 				
 				javax.jcr.Node resNode = child.addNode(JCRConstants.JCR_CONTENT, 
 											 		   JCRConstants.JCR_RESOURCE);
 				resNode.addMixin(JLibraryConstants.CONTENT_MIXIN);
 	
-				byte[] content = (byte[])properties.getProperty(
-						ResourceNodeProperties.RESOURCE_CONTENT).getValue();
-				if (content == null) {
-					// Empty resource
-					content = new byte[]{};
-				}
 				//TODO: Handle encoding 
 				String mimeType = 
 					Types.getMimeTypeForExtension(FileUtils.getExtension(path));
 		        resNode.setProperty (JCRConstants.JCR_MIME_TYPE, mimeType);
 		        resNode.setProperty (JCRConstants.JCR_ENCODING, 
 		        					 JCRConstants.DEFAULT_ENCODING);
-		        resNode.setProperty (JCRConstants.JCR_DATA, 
-		        					 new ByteArrayInputStream(content));
+		        JCRUtils.setContent(child,resNode,properties.getProperty(
+		        		ResourceNodeProperties.RESOURCE_CONTENT).getValue());
 		        Calendar lastModified = Calendar.getInstance ();
 		        lastModified.setTimeInMillis (new Date().getTime());
 		        resNode.setProperty (JCRConstants.JCR_LAST_MODIFIED, lastModified);
-				
-				child.setProperty(JLibraryConstants.JLIBRARY_SIZE,content.length);	        
 		        
 				// Handle resource restrictions
 				child.setProperty(JLibraryConstants.JLIBRARY_RESTRICTIONS,
@@ -207,6 +204,8 @@ public class JCRResourcesModule {
 				if (ticket.isAutocommit()) {
 					session.save();
 				}
+			} finally {
+				lock.release();
 			}
 			return JCRAdapter.createResource(child,parentId,root.getUUID());
 		} catch (Throwable e) {
@@ -228,20 +227,15 @@ public class JCRResourcesModule {
 			javax.jcr.Node root = JCRUtils.getRootNode(session);
 			javax.jcr.Node resource = session.getNodeByUUID(resourceId);
 			PropertyIterator it = resource.getReferences();
+			ArrayList documents = new ArrayList();
 			while (it.hasNext()) {
 				Property property = (Property) it.next();
-				String docUUID = property.getParent().getUUID();
-				javax.jcr.Node node = session.getNodeByUUID(docUUID);
-				try {
-					if (!JCRSecurityService.canRead(
-							node,ticket.getUser().getId())) {
-						continue;
-					}
-				} catch (SecurityException se) {
-					logger.error(se.getMessage(),se);
-					continue;
-				}
-					
+				documents.add(property.getParent());
+			}
+			SecurityFilter filter = SecurityFilter.forTicket(session,ticket);
+			Iterator readable = filter.filter(documents).iterator();
+			while (readable.hasNext()) {
+				javax.jcr.Node node = (javax.jcr.Node)readable.next();
 				nodes.add(JCRAdapter.createDocument(
 						node,
 						node.getParent().getUUID(),
@@ -288,7 +282,6 @@ public class JCRResourcesModule {
 		if (session == null) {
 			throw new RepositoryException("Session has expired. Please log in again.");
 		}		
-		InputStream is = null;
 		try {
 			javax.jcr.Node resource = session.getNodeByUUID(resourceId);
 
@@ -297,25 +290,14 @@ public class JCRResourcesModule {
 			}			
 			
 			javax.jcr.Node nodeContent = resource.getNode(JCRConstants.JCR_CONTENT);
-			is = nodeContent.getProperty("jcr:data").getValue().getStream();
-			IOUtils.copy(is,stream);
-
-
+			Property data = nodeContent.getProperty(JCRConstants.JCR_DATA);
+			ContentTransfer.transfer(data,0,data.getLength(),stream);
 		} catch (IOException e) {
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
 		} catch (javax.jcr.RepositoryException e) {
 			logger.error(e.getMessage(),e);
 			throw new RepositoryException(e);
-		} finally {
-			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException ioe) {
-					logger.error(ioe.getMessage(),ioe);
-					throw new RepositoryException(ioe);
-				}
-			}
 		}
 	}
 	
@@ -370,6 +352,7 @@ public class JCRResourcesModule {
 			JCRUtils.removeReferences(resource);
 			
 			if (JCRUtils.allowsPhysicalDeletes(session)) {
+				ChildNameRegistry.getInstance().release(resource);
 				resource.remove();
 			} else {
 				JCRUtils.deactivate(resource);
@@ -410,23 +393,24 @@ public class JCRResourcesModule {
 				throw new SecurityException(SecurityException.NOT_ENOUGH_PERMISSIONS);
 			}			
 			
-			Object syncLock = LockUtility.obtainLock(node);
-			synchronized(syncLock) {
+			NodeLock lock = NodeLockManager.getInstance().writeLock(node);
+			try {
 				node.setProperty(JLibraryConstants.JLIBRARY_DESCRIPTION,description);
 				
 				if (properties.getProperty(
 						ResourceNodeProperties.RESOURCE_CONTENT) != null) {
 					// Document content has changed
-					byte[] content = (byte[])properties.getProperty(
+					Object content = properties.getProperty(
 							ResourceNodeProperties.RESOURCE_CONTENT).getValue();
 					if (content != null) {
 						javax.jcr.Node resNode = node.getNode(JCRConstants.JCR_CONTENT);
 		
-						resNode.setProperty ("jcr:data", new ByteArrayInputStream(content));
-				        Calendar lastModified = Calendar.getInstance ();
-				        lastModified.setTimeInMillis (new Date().getTime());
-				        resNode.setProperty ("jcr:lastModified", lastModified);
-						node.setProperty(JLibraryConstants.JLIBRARY_SIZE,content.length);
+						// Identical contents are not stored again
+						if (JCRUtils.setContent(node,resNode,content)) {
+					        Calendar lastModified = Calendar.getInstance ();
+					        lastModified.setTimeInMillis (new Date().getTime());
+					        resNode.setProperty ("jcr:lastModified", lastModified);
+						}
 					}
 				}
 				
@@ -445,6 +429,7 @@ public class JCRResourcesModule {
 						escapedName+=extension;
 					}
 					node.setProperty(JLibraryConstants.JLIBRARY_NAME,name);
+					ChildNameRegistry.getInstance().release(node);
 					session.move(node.getPath(), 
 							 	 node.getParent().getPath() + "/" + escapedName);
 				}			
@@ -452,6 +437,8 @@ public class JCRResourcesModule {
 				if (ticket.isAutocommit()) {
 					session.save();
 				}
+			} finally {
+				lock.release();
 			}
 			return JCRAdapter.createResource(node,parentId,root.getUUID());
 		} catch (Exception e) {
@@ -33,6 +33,7 @@ import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
 
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Workspace;
@@ -149,9 +150,83 @@ public class NodeTypeManager {
 
 
 	
-	public void checkNodeTypes(javax.jcr.Session Session) {
+	/**
+	 * Adds to already registered node types the optional property definitions 
+	 * that were introduced in the CND file after the repository was created. 
+	 * Jackrabbit only accepts trivial changes on registered node types, so 
+	 * mandatory properties can't be added this way.
+	 * 
+	 * @param session Session
+	 * 
+	 * @throws RepositoryException If the node types can't be updated
+	 */
+	public void checkNodeTypes(javax.jcr.Session session) 
+									throws RepositoryException {
 		
-		logger.debug("Nodetype checking has been disabled since jLibrary 1.1");
+		Name jlibNode = NameFactoryImpl.getInstance().create(JLibraryConstants.JLIBRARY_URL,"node");
+		Name pjlibDigest = NameFactoryImpl.getInstance().create(JLibraryConstants.JLIBRARY_URL,"digest");
+		
+		// Content digests
+		QPropertyDefinition propDigest = createPropertyDef(pjlibDigest,
+														   false,
+														   false,
+														   PropertyType.STRING,
+														   jlibNode,
+														   OnParentVersionAction.COPY,
+														   false,
+														   null);
+		addPropertyDef(session, jlibNode, propDigest);
+	}
+	
+	private void addPropertyDef(javax.jcr.Session session, 
+								Name nodeType,
+								QPropertyDefinition property) 
+											throws RepositoryException {
+		
+		try {
+			Workspace wsp = session.getWorkspace();
+			javax.jcr.nodetype.NodeTypeManager ntMgr = wsp.getNodeTypeManager();
+			NodeTypeRegistry ntReg = 
+		        ((NodeTypeManagerImpl) ntMgr).getNodeTypeRegistry();
+			if (!ntReg.isRegistered(nodeType)) {
+				return;
+			}
+			QNodeTypeDefinition def = ntReg.getNodeTypeDef(nodeType);
+			QPropertyDefinition[] properties = def.getPropertyDefs();
+			for (int i = 0; i < properties.length; i++) {
+				if (properties[i].getName().equals(property.getName())) {
+					// Already exists
+					return;
+				}
+			}
+			
+			logger.info("Adding property " + property.getName() + 
+						" to nodetype " + nodeType);
+			QPropertyDefinition[] newProperties = new QPropertyDefinitionImpl[properties.length+1];
+			System.arraycopy(properties,0,newProperties,0,properties.length);
+			newProperties[properties.length] = property;	
+			
+			QNodeTypeDefinitionBuilder qdb = new QNodeTypeDefinitionBuilder();
+			qdb.setAbstract(def.isAbstract());
+			qdb.setChildNodeDefs(def.getChildNodeDefs());
+			qdb.setMixin(def.isMixin());
+			qdb.setName(def.getName());
+			qdb.setOrderableChildNodes(def.hasOrderableChildNodes());
+			qdb.setPrimaryItemName(def.getPrimaryItemName());				
+			qdb.setQueryable(def.isQueryable());
+			qdb.setSupertypes(def.getSupertypes());
+			qdb.setSupportedMixinTypes(def.getSupportedMixinTypes());
+			qdb.setPropertyDefs(newProperties);
+			
+			ntReg.reregisterNodeType(qdb.build());
+		} catch (InvalidNodeTypeDefException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		} catch (RepositoryException e) {
+			logger.error(e.getMessage(),e);
+			throw new RepositoryException(e);
+		}	
+		session.save();
 	}
 	
 	/**
@@ -0,0 +1,172 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.query;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+import org.jlibrary.core.jcr.JCRUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entry point of the query layer. It keeps a cache of the parsed template 
+ * queries of each session, so sessions reused from the session pools never 
+ * parse the same statement twice, and the execution statistics of every 
+ * template.
+ * 
+ * @see QueryTemplates
+ * 
+ * @author martin
+ */
+public class PreparedQueries {
+
+	static Logger logger = LoggerFactory.getLogger(PreparedQueries.class);
+	
+	/**
+	 * Number of cached sessions over which closed sessions are purged
+	 */
+	private static final int MAX_SESSIONS = 256;
+	
+	private static ConcurrentHashMap<Session, ConcurrentHashMap<String, Query>> 
+		queries = new ConcurrentHashMap<Session, ConcurrentHashMap<String, Query>>();
+	
+	private static ConcurrentHashMap<String, QueryStatistics> statistics = 
+		new ConcurrentHashMap<String, QueryStatistics>();
+	
+	private PreparedQueries() {}
+	
+	/**
+	 * Prepares a template to be run on a session
+	 * 
+	 * @param session Session
+	 * @param template Query template
+	 * 
+	 * @return PreparedQuery Query ready to be bound and executed
+	 * 
+	 * @throws RepositoryException If the template can't be parsed
+	 */
+	public static PreparedQuery prepare(Session session, 
+										QueryTemplate template) 
+											throws RepositoryException {
+		
+		QueryStatistics templateStatistics = getStatistics(template);
+		
+		ConcurrentHashMap<String, Query> sessionQueries = queries.get(session);
+		if (sessionQueries == null) {
+			if (queries.size() >= MAX_SESSIONS) {
+				purge();
+			}
+			sessionQueries = new ConcurrentHashMap<String, Query>();
+			ConcurrentHashMap<String, Query> current = 
+				queries.putIfAbsent(session,sessionQueries);
+			if (current != null) {
+				sessionQueries = current;
+			}
+		}
+		
+		Query query = sessionQueries.get(template.getName());
+		if (query == null) {
+			String statement = template.getStatement();
+			if (template.isRooted()) {
+				statement = template.getStatement(
+						JCRUtils.getRootNode(session).getPath());
+			}
+			query = session.getWorkspace().getQueryManager().createQuery(
+					statement,template.getLanguage());
+			templateStatistics.recordParse();
+			Query current = sessionQueries.putIfAbsent(template.getName(),query);
+			if (current != null) {
+				query = current;
+			}
+		}
+		return new PreparedQuery(template,
+								 query,
+								 session.getValueFactory(),
+								 templateStatistics);
+	}
+	
+	/**
+	 * Discards the cached queries of a session
+	 * 
+	 * @param session Session
+	 */
+	public static void evict(Session session) {
+		
+		queries.remove(session);
+	}
+	
+	private static void purge() {
+		
+		Iterator<Session> it = queries.keySet().iterator();
+		while (it.hasNext()) {
+			if (!it.next().isLive()) {
+				it.remove();
+			}
+		}
+		if (queries.size() >= MAX_SESSIONS) {
+			logger.debug("Query cache full. Clearing all the cached queries");
+			queries.clear();
+		}
+	}
+	
+	private static QueryStatistics getStatistics(QueryTemplate template) {
+		
+		QueryStatistics templateStatistics = statistics.get(template.getName());
+		if (templateStatistics == null) {
+			templateStatistics = new QueryStatistics(template.getName());
+			QueryStatistics current = 
+				statistics.putIfAbsent(template.getName(),templateStatistics);
+			if (current != null) {
+				templateStatistics = current;
+			}
+		}
+		return templateStatistics;
+	}
+	
+	/**
+	 * Returns the execution statistics of a template
+	 * 
+	 * @param name Template name
+	 * 
+	 * @return QueryStatistics Statistics or <code>null</code> if the template 
+	 * has never been prepared
+	 */
+	public static QueryStatistics getStatistics(String name) {
+		
+		return statistics.get(name);
+	}
+	
+	/**
+	 * @return Collection Execution statistics of all the prepared templates
+	 */
+	public static Collection getStatistics() {
+		
+		return statistics.values();
+	}
+}
@@ -0,0 +1,133 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+
+/**
+ * A query template ready to run on a session. Arguments are given through 
+ * bind variables and the template statement is parsed only once per 
+ * session.
+ * 
+ * <pre>
+ * NodeIterator it = 
+ *     PreparedQueries.prepare(session,QueryTemplates.USER_BY_NAME).
+ *         bind("name",name).
+ *         execute();
+ * </pre>
+ * 
+ * <p>Instances are not thread safe, but the underlying parsed query can be 
+ * shared by several prepared queries.</p>
+ * 
+ * @author martin
+ */
+public class PreparedQuery {
+
+	private final QueryTemplate template;
+	private final Query query;
+	private final ValueFactory valueFactory;
+	private final QueryStatistics statistics;
+	private final List names = new ArrayList();
+	private final List values = new ArrayList();
+	
+	PreparedQuery(QueryTemplate template,
+				  Query query,
+				  ValueFactory valueFactory,
+				  QueryStatistics statistics) {
+		
+		this.template = template;
+		this.query = query;
+		this.valueFactory = valueFactory;
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * Binds a string value to a variable
+	 * 
+	 * @param name Variable name, without the <code>$</code> prefix
+	 * @param value Variable value
+	 * 
+	 * @return PreparedQuery This query
+	 */
+	public PreparedQuery bind(String name, String value) {
+		
+		return bind(name,valueFactory.createValue(value));
+	}
+	
+	/**
+	 * Binds a value to a variable
+	 * 
+	 * @param name Variable name, without the <code>$</code> prefix
+	 * @param value Variable value
+	 * 
+	 * @return PreparedQuery This query
+	 */
+	public PreparedQuery bind(String name, Value value) {
+		
+		names.add(name);
+		values.add(value);
+		return this;
+	}
+	
+	/**
+	 * Executes the query with the bound values
+	 * 
+	 * @return NodeIterator Matching nodes
+	 * 
+	 * @throws RepositoryException If the query can't be executed
+	 */
+	public NodeIterator execute() throws RepositoryException {
+		
+		long start = System.nanoTime();
+		try {
+			NodeIterator nodes;
+			// Bound values are stored on the shared query, so binding and 
+			// executing must not be interleaved with other threads
+			synchronized (query) {
+				for (int i = 0; i < names.size(); i++) {
+					query.bindValue((String)names.get(i),(Value)values.get(i));
+				}
+				nodes = query.execute().getNodes();
+			}
+			statistics.recordExecution(System.nanoTime() - start);
+			return nodes;
+		} catch (RepositoryException e) {
+			statistics.recordFailure();
+			throw e;
+		} catch (RuntimeException e) {
+			statistics.recordFailure();
+			throw e;
+		}
+	}
+	
+	public QueryTemplate getTemplate() {
+		return template;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.query;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Execution counters of a query template
+ * 
+ * @author martin
+ */
+public class QueryStatistics {
+
+	private final String name;
+	private final AtomicLong executions = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLong parses = new AtomicLong();
+	
+	public QueryStatistics(String name) {
+		
+		this.name = name;
+	}
+	
+	void recordExecution(long nanos) {
+		
+		executions.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max,nanos)) {
+			max = maxNanos.get();
+		}
+	}
+	
+	void recordFailure() {
+		
+		failures.incrementAndGet();
+	}
+	
+	void recordParse() {
+		
+		parses.incrementAndGet();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public long getExecutions() {
+		return executions.get();
+	}
+	
+	public long getFailures() {
+		return failures.get();
+	}
+	
+	/**
+	 * @return long Number of times the template statement has been parsed
+	 */
+	public long getParses() {
+		return parses.get();
+	}
+	
+	public long getTotalMillis() {
+		return totalNanos.get() / 1000000;
+	}
+	
+	public long getMaxMillis() {
+		return maxNanos.get() / 1000000;
+	}
+	
+	public double getAverageMillis() {
+		
+		long count = executions.get();
+		if (count == 0) {
+			return 0;
+		}
+		return (totalNanos.get() / (double)count) / 1000000;
+	}
+	
+	public String toString() {
+		
+		return "[ query : " + name + 
+			   ", executions : " + getExecutions() + 
+			   ", failures : " + getFailures() +
+			   ", parses : " + getParses() +
+			   ", avg ms : " + getAverageMillis() + 
+			   ", max ms : " + getMaxMillis() + 
+			   " ]";
+	}
+}
@@ -0,0 +1,114 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.query;
+
+import javax.jcr.query.Query;
+
+/**
+ * Named query statement. Templates are JCR-SQL2 statements that receive 
+ * their arguments through bind variables (<code>$name</code>), so the 
+ * statement text never changes and its parsed form can be reused.
+ * 
+ * <p>The <code>{root}</code> token is replaced with the path of the 
+ * jLibrary root node of the workspace where the query runs.</p>
+ * 
+ * @see QueryTemplates
+ * @see PreparedQueries
+ * 
+ * @author martin
+ */
+public class QueryTemplate {
+
+	public static final String ROOT_TOKEN = "{root}";
+	
+	private final String name;
+	private final String language;
+	private final String statement;
+	
+	/**
+	 * Creates a JCR-SQL2 template
+	 * 
+	 * @param name Template name
+	 * @param statement Query statement
+	 */
+	public QueryTemplate(String name, String statement) {
+		
+		this(name,Query.JCR_SQL2,statement);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param name Template name
+	 * @param language Query language
+	 * @param statement Query statement
+	 */
+	public QueryTemplate(String name, String language, String statement) {
+		
+		this.name = name;
+		this.language = language;
+		this.statement = statement;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String getLanguage() {
+		return language;
+	}
+	
+	public String getStatement() {
+		return statement;
+	}
+	
+	/**
+	 * Tells if the statement depends on the jLibrary root path
+	 * 
+	 * @return boolean <code>true</code> if the statement has a root token
+	 */
+	public boolean isRooted() {
+		
+		return statement.indexOf(ROOT_TOKEN) != -1;
+	}
+	
+	/**
+	 * Returns the statement for a given jLibrary root path
+	 * 
+	 * @param rootPath Path of the jLibrary root node
+	 * 
+	 * @return String Query statement
+	 */
+	public String getStatement(String rootPath) {
+		
+		if (!isRooted()) {
+			return statement;
+		}
+		return statement.replace(ROOT_TOKEN,rootPath);
+	}
+	
+	public String toString() {
+		
+		return name;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.jcr.query;
+
+/**
+ * Catalog of the query templates used by the JCR services
+ * 
+ * @author martin
+ */
+public final class QueryTemplates {
+
+	private static final String ACTIVE = 
+		"n.[jlib:active] = CAST('true' AS BOOLEAN)";
+	
+	/**
+	 * Active documents with a given name. Variable: <code>name</code>
+	 */
+	public static final QueryTemplate DOCUMENTS_BY_NAME = new QueryTemplate(
+			"documentsByName",
+			"SELECT * FROM [jlib:document] AS n " +
+			"WHERE ISDESCENDANTNODE(n, [" + QueryTemplate.ROOT_TOKEN + "]) " +
+			"AND " + ACTIVE + " AND n.[jlib:name] = $name");
+	
+	/**
+	 * Active locked files
+	 */
+	public static final QueryTemplate ALL_LOCKS = new QueryTemplate(
+			"allLocks",
+			"SELECT * FROM [nt:file] AS n " +
+			"WHERE ISDESCENDANTNODE(n, [" + QueryTemplate.ROOT_TOKEN + "]) " +
+			"AND n.[jcr:lockOwner] IS NOT NULL AND " + ACTIVE);
+	
+	/**
+	 * Active category with a given name. Variable: <code>name</code>
+	 */
+	public static final QueryTemplate CATEGORY_BY_NAME = new QueryTemplate(
+			"categoryByName",
+			"SELECT * FROM [jlib:category] AS n " +
+			"WHERE n.[jlib:name] = $name AND " + ACTIVE);
+	
+	/**
+	 * Active favorites of an user. Variable: <code>user</code>
+	 */
+	public static final QueryTemplate FAVORITES_BY_USER = new QueryTemplate(
+			"favoritesByUser",
+			"SELECT * FROM [jlib:favorite] AS n " +
+			"WHERE n.[jlib:user] = $user AND " + ACTIVE);
+	
+	/**
+	 * Active user with a given name. Variable: <code>name</code>
+	 */
+	public static final QueryTemplate USER_BY_NAME = new QueryTemplate(
+			"userByName",
+			"SELECT * FROM [jlib:user] AS n " +
+			"WHERE n.[jlib:name] = $name AND " + ACTIVE);
+	
+	/**
+	 * Active group with a given name. Variable: <code>name</code>
+	 */
+	public static final QueryTemplate GROUP_BY_NAME = new QueryTemplate(
+			"groupByName",
+			"SELECT * FROM [jlib:group] AS n " +
+			"WHERE n.[jlib:name] = $name AND " + ACTIVE);
+	
+	/**
+	 * Active role with a given name. Variable: <code>name</code>
+	 */
+	public static final QueryTemplate ROL_BY_NAME = new QueryTemplate(
+			"rolByName",
+			"SELECT * FROM [jlib:rol] AS n " +
+			"WHERE n.[jlib:name] = $name AND " + ACTIVE);
+	
+	/**
+	 * Active author with a given name. Variable: <code>name</code>
+	 */
+	public static final QueryTemplate AUTHOR_BY_NAME = new QueryTemplate(
+			"authorByName",
+			"SELECT * FROM [jlib:author] AS n " +
+			"WHERE n.[jlib:name] = $name AND " + ACTIVE);
+	
+	private QueryTemplates() {}
+}
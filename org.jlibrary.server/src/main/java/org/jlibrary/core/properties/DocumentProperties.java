@@ -31,6 +31,9 @@ public class DocumentProperties extends GenericProperties {
 	
 	public static final String DOCUMENT_ID = "document.id";
 	public static final String DOCUMENT_PARENT = "document.parent";	
+	/**
+	 * Content, a byte array or a {@link StreamContent}
+	 */
 	public static final String DOCUMENT_CONTENT = "document.content";
 	
 	public static final String DOCUMENT_ADD_RESOURCE = "document.add.resource";
@@ -57,6 +60,12 @@ public class DocumentProperties extends GenericProperties {
 	public static final String DOCUMENT_CREATION_DATE = "document.creation.date";
 	public static final String DOCUMENT_UPDATE_DATE = "document.update.date";
 	public static final String DOCUMENT_POSITION = "document.position";
+	/**
+	 * Name of the {@link org.jlibrary.core.entities.DocumentView} the 
+	 * document was loaded with. Only documents loaded with the full view 
+	 * can be updated.
+	 */
+	public static final String DOCUMENT_VIEW = "document.view";
 	
 	/**
 	 * @see org.jlibrary.core.properties.GenericProperties#checkPropertyDefinition(java.lang.Object)
@@ -86,6 +95,7 @@ public class DocumentProperties extends GenericProperties {
 			key.equals(DOCUMENT_UPDATE_DATE) ||
 			key.equals(DOCUMENT_ID) ||
 			key.equals(DOCUMENT_POSITION) ||
+			key.equals(DOCUMENT_VIEW) ||
 			key.equals(DOCUMENT_TYPECODE)
 			)
         ) {
@@ -149,6 +159,8 @@ public class DocumentProperties extends GenericProperties {
 			type = PropertyType.INTEGER;
 		} else if (key.equals(DOCUMENT_POSITION)) {
 			type = PropertyType.INTEGER;
+		} else if (key.equals(DOCUMENT_VIEW)) {
+			type = PropertyType.STRING;
 		}
 				
 		if (property.getType() != type) {
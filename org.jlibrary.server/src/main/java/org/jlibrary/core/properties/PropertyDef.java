@@ -104,6 +104,8 @@ public class PropertyDef implements Serializable {
 			type = PropertyType.INTEGER;
 		} else if (value instanceof byte[]) {
 			type = PropertyType.BINARY;
+		} else if (value instanceof StreamContent) {
+			type = PropertyType.BINARY;
 		} else if (value instanceof Long) {
 			type = PropertyType.LONG;
 		} else if (value instanceof BigDecimal) {
@@ -37,6 +37,9 @@ public class ResourceNodeProperties extends GenericProperties
 	public static final String RESOURCE_ID = "resource.id";
 	public static final String RESOURCE_NAME = "resource.name";
 	public static final String RESOURCE_TYPECODE = "resource.type";
+	/**
+	 * Content, a byte array or a {@link StreamContent}
+	 */
 	public static final String RESOURCE_CONTENT = "resource.content";
 	public static final String RESOURCE_PATH = "resource.path";
 	public static final String RESOURCE_PARENT_ID = "resource.parent.id";
@@ -0,0 +1,142 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.properties;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+/**
+ * <p>Binary content that is read from a stream instead of being kept on 
+ * memory. It can be used as the value of the content properties, 
+ * {@link DocumentProperties#DOCUMENT_CONTENT} and 
+ * {@link ResourceNodeProperties#RESOURCE_CONTENT}, instead of a byte 
+ * array, so big files are stored without loading them on the heap.</p>
+ * 
+ * <p>Content can come from a file, i.e. a spooled upload, or from an open 
+ * stream. Streams can only be read once. Neither the stream nor the file 
+ * are serialized, so they are only useful on local calls, and a remote 
+ * caller can't point the server to any of its files. The stream is closed 
+ * by the repository once the content has been stored.</p>
+ * 
+ * @author martin
+ */
+public class StreamContent implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Length of the contents which size is not known before reading them
+	 */
+	public static final long UNKNOWN_LENGTH = -1;
+	
+	private transient InputStream stream;
+	private transient File file;
+	private long length;
+	
+	/**
+	 * Creates a content that will be read from a stream
+	 * 
+	 * @param stream Stream with the content
+	 * @param length Length of the content or {@link #UNKNOWN_LENGTH}. If it 
+	 * is known the stored content is checked against it.
+	 */
+	public StreamContent(InputStream stream, long length) {
+		
+		this.stream = stream;
+		this.length = length;
+	}
+	
+	/**
+	 * Creates a content that will be read from a file
+	 * 
+	 * @param file File with the content
+	 */
+	public StreamContent(File file) {
+		
+		this.file = file;
+		this.length = file.length();
+	}
+	
+	/**
+	 * Returns the content of a content property value
+	 * 
+	 * @param value Property value, a byte array, a stream content or 
+	 * <code>null</code> for an empty content
+	 * 
+	 * @return StreamContent Stream content for that value
+	 */
+	public static StreamContent forValue(Object value) {
+		
+		if (value == null) {
+			return new StreamContent(new ByteArrayInputStream(new byte[]{}),0);
+		}
+		if (value instanceof byte[]) {
+			byte[] content = (byte[])value;
+			return new StreamContent(new ByteArrayInputStream(content),
+									 content.length);
+		}
+		return (StreamContent)value;
+	}
+	
+	/**
+	 * Opens the content. Contents created from a stream return that stream, 
+	 * so they can only be opened once.
+	 * 
+	 * @return InputStream Stream with the content
+	 * 
+	 * @throws IOException If the content can't be opened or the stream 
+	 * has already been opened
+	 */
+	public InputStream openStream() throws IOException {
+		
+		if (file != null) {
+			return new BufferedInputStream(new FileInputStream(file));
+		}
+		if (stream == null) {
+			throw new IOException("Content stream is no longer available");
+		}
+		InputStream opened = stream;
+		stream = null;
+		return opened;
+	}
+	
+	/**
+	 * @return Returns the length of the content or {@link #UNKNOWN_LENGTH}
+	 */
+	public long getLength() {
+		return length;
+	}
+	
+	/**
+	 * @return Returns the file with the content or <code>null</code> if the 
+	 * content is read from a stream
+	 */
+	public File getFile() {
+		return file;
+	}
+}
@@ -32,12 +32,18 @@ import org.jlibrary.core.entities.Bookmark;
 import org.jlibrary.core.entities.Category;
 import org.jlibrary.core.entities.Directory;
 import org.jlibrary.core.entities.Document;
+import org.jlibrary.core.entities.DocumentView;
 import org.jlibrary.core.entities.Favorite;
 import org.jlibrary.core.entities.Lock;
 import org.jlibrary.core.entities.Node;
+import org.jlibrary.core.entities.NodeOrder;
+import org.jlibrary.core.entities.ContentInfo;
+import org.jlibrary.core.entities.NodePage;
+import org.jlibrary.core.entities.RelationGraph;
 import org.jlibrary.core.entities.Repository;
 import org.jlibrary.core.entities.ResourceNode;
 import org.jlibrary.core.entities.Ticket;
+import org.jlibrary.core.entities.UploadSession;
 import org.jlibrary.core.entities.User;
 import org.jlibrary.core.locking.ResourceLockedException;
 import org.jlibrary.core.properties.AuthorProperties;
@@ -47,6 +53,7 @@ import org.jlibrary.core.properties.DirectoryProperties;
 import org.jlibrary.core.properties.DocumentProperties;
 import org.jlibrary.core.properties.RepositoryProperties;
 import org.jlibrary.core.properties.ResourceNodeProperties;
+import org.jlibrary.core.properties.StreamContent;
 import org.jlibrary.core.repository.exception.AuthorAlreadyExistsException;
 import org.jlibrary.core.repository.exception.AuthorNotFoundException;
 import org.jlibrary.core.repository.exception.CategoryAlreadyExistsException;
@@ -160,6 +167,64 @@ public interface RepositoryService {
 											throws RepositoryNotFoundException, 
 										   	   	   RepositoryException, 
 										   	   	   SecurityException;
+	
+	/**
+	 * Loads a repository with only the first levels of its tree. Levels are 
+	 * loaded breadth-first and each one is limited to a number of nodes, so 
+	 * the cost of opening a repository doesn't depend on its size. 
+	 * Directories whose children were not loaded can be expanded with 
+	 * {@link #findDirectoryTree(Ticket, String, int, int, DocumentView)}.
+	 * 
+	 * @param id Identificator of the repository
+	 * @param ticket Ticket with user information
+	 * @param depth Number of levels to load below the root directory. A 
+	 * negative value loads the whole tree
+	 * @param levelLimit Maximum number of nodes loaded on each level. If it 
+	 * is 0 or less then levels are not limited
+	 * @param view Level of detail of the loaded documents
+	 * 
+	 * @return Repository repository
+	 * 
+	 * @throws RepositoryNotFoundException If the repository id can't be found
+	 * @throws RepositoryException If repository can't be loaded
+	 * @throws SecurityException If the user don't have enough permissions 
+	 * to open the repository 
+	 */
+	public Repository findRepository(String id, 
+									 Ticket ticket,
+									 int depth,
+									 int levelLimit,
+									 DocumentView view) 
+											throws RepositoryNotFoundException, 
+										   	   	   RepositoryException, 
+										   	   	   SecurityException;
+	
+	/**
+	 * Loads a directory with the first levels of its subtree. It is used to 
+	 * expand the directories of a partially loaded tree.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param directoryId Id of the directory
+	 * @param depth Number of levels to load below the directory. A negative 
+	 * value loads the whole subtree
+	 * @param levelLimit Maximum number of nodes loaded on each level. If it 
+	 * is 0 or less then levels are not limited
+	 * @param view Level of detail of the loaded documents
+	 * 
+	 * @return Directory Directory with its loaded subtree
+	 * 
+	 * @throws RepositoryException If the directory can't be loaded
+	 * @throws NodeNotFoundException If the directory can't be found
+	 * @throws SecurityException If the user can't read the directory
+	 */
+	public Directory findDirectoryTree(Ticket ticket,
+									   String directoryId,
+									   int depth,
+									   int levelLimit,
+									   DocumentView view) 
+											throws RepositoryException,
+												   NodeNotFoundException,
+												   SecurityException;
 
 	
 
@@ -384,6 +449,25 @@ public interface RepositoryService {
 	 */
 	public Collection findDocumentsByName(Ticket ticket, 
 										  String name) throws RepositoryException; 
+	
+	/**
+	 * Returns a list with the repository documents that have a common name, 
+	 * loading only the document properties of a given view
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param name Name we want to search. The search operation will be case 
+	 * sensitive.
+	 * @param view Level of detail of the returned documents
+	 * 
+	 * @return Collection List with documents with that name or an empty list if
+	 * no documents can be found
+	 * 
+	 * @throws RepositoryException If some error happens when performing the 
+	 * operation
+	 */
+	public Collection findDocumentsByName(Ticket ticket, 
+										  String name,
+										  DocumentView view) throws RepositoryException; 
 										 					  
 	
 	/**
@@ -402,12 +486,17 @@ public interface RepositoryService {
 												   				  	SecurityException;	
     
 	/**
+	 * Updates a document. The properties must come from a document loaded 
+	 * with the {@link DocumentView#FULL} view, as the fields missing on 
+	 * lighter views would be taken as empty.
+	 * 
 	 * @param ticket Ticket with user information
 	 * @param docProperties updated properties
 	 * 
 	 * @return Document updated document instance
 	 * 
-	 * @throws RepositoryException if the document can't be updated
+	 * @throws RepositoryException if the document can't be updated, or if 
+	 * the properties come from a document loaded with a lighter view
 	 * @throws SecurityException If the user don't have enough permissions to update the document
 	 * @throws ResourceLockedException If the document is locked by another user
 	 */
@@ -747,6 +836,80 @@ public interface RepositoryService {
 											throws CategoryNotFoundException,
 												   RepositoryException;
 	
+	/**
+	 * Finds all the nodes within a category, loading only the document 
+	 * properties of a given view
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param categoryId category
+	 * @param view Level of detail of the returned documents
+	 * 
+	 * @return Nodes of that category
+	 * 
+	 * @throws CategoryNotFoundException If the category cannot be found
+	 * @throws RepositoryException If the categories can't be loaded
+	 */
+	public List findNodesForCategory(Ticket ticket, 
+									 String categoryId,
+									 DocumentView view) 
+											throws CategoryNotFoundException,
+												   RepositoryException;
+	
+	/**
+	 * Finds a page of the nodes within a category. Only the nodes on the 
+	 * page are loaded, so categories with many documents can be listed in 
+	 * several requests.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param categoryId category
+	 * @param cursor Cursor returned with the previous page, or 
+	 * <code>null</code> to get the first page
+	 * @param pageSize Maximum number of nodes to return. If it is 0 or 
+	 * less then the default page size is used
+	 * @param view Level of detail of the returned documents
+	 * 
+	 * @return NodePage Page with the nodes of that category
+	 * 
+	 * @throws CategoryNotFoundException If the category cannot be found
+	 * @throws RepositoryException If the categories can't be loaded
+	 */
+	public NodePage findNodesForCategory(Ticket ticket, 
+										 String categoryId,
+										 String cursor,
+										 int pageSize,
+										 DocumentView view) 
+											throws CategoryNotFoundException,
+												   RepositoryException;
+	
+	/**
+	 * Walks the relations graph of a document in breadth-first order. The 
+	 * relations of the returned documents are not followed, so documents 
+	 * outside the returned page are {@link DocumentView#REFERENCE} documents.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param documentId Id of the document where the walk starts
+	 * @param depth Maximum number of relations to follow from the document
+	 * @param offset Number of reachable documents to skip
+	 * @param max Maximum number of documents to return. If it is 0 or less 
+	 * then all the reachable documents will be returned
+	 * @param view Level of detail of the returned documents
+	 * 
+	 * @return RelationGraph Page of the relations graph
+	 * 
+	 * @throws RepositoryException If the graph can't be loaded
+	 * @throws NodeNotFoundException If the document can't be found
+	 * @throws SecurityException If the user can't read the document
+	 */
+	public RelationGraph findRelations(Ticket ticket,
+									   String documentId,
+									   int depth,
+									   int offset,
+									   int max,
+									   DocumentView view) 
+										throws RepositoryException,
+											   NodeNotFoundException,
+											   SecurityException;
+	
 	/**
 	 * Exports a repository for local storage
 	 * 
@@ -815,7 +978,8 @@ public interface RepositoryService {
 	 * 
 	 * @param ticket Ticket with user information
 	 * @param docId Node to update
-	 * @param stream Node contents stream
+	 * @param stream Node contents stream. It is closed once the contents 
+	 * have been stored
 	 * 
 	 * @return Node Updated node
 	 * 
@@ -842,6 +1006,25 @@ public interface RepositoryService {
 							  String docId,
 							  byte[] content) throws SecurityException, RepositoryException;
 	
+	/**
+	 * Updates the content of the given node (resource or document) streaming 
+	 * it into the repository, so the content is never fully loaded on memory. 
+	 * The content stream is closed once it has been stored.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param docId Node to update
+	 * @param content Node contents. If its length is known the stored 
+	 * content must have that length
+	 * 
+	 * @return Node Updated node
+	 * 
+	 * @throws SecurityException If the user don't have enough permissions to update the contents
+	 * @throws RepositoryException If the contents cannot be udpated
+	 */
+	public Node updateContent(Ticket ticket,
+							  String docId,
+							  StreamContent content) throws SecurityException, RepositoryException;
+	
 	/**
 	 * Loads the content of a document version
 	 * 
@@ -873,6 +1056,172 @@ public interface RepositoryService {
 								   String versionId,
 								   OutputStream stream) throws RepositoryException,
 	 														   SecurityException;
+	
+	/**
+	 * Loads a range of a document contents. Only the requested bytes are 
+	 * written, and nothing is written at all if the client already has the 
+	 * current contents.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param docId Document to be loaded
+	 * @param offset Position of the first byte to load
+	 * @param length Maximum number of bytes to load, or -1 to load until 
+	 * the end of the contents
+	 * @param validator Validator returned by a previous load of the 
+	 * contents, or <code>null</code>. If the contents have not changed 
+	 * since then they are not written
+	 * @param stream Stream to store contents
+	 * 
+	 * @return ContentInfo Description of the loaded range and the validator 
+	 * of the current contents
+	 * 
+	 * @throws RepositoryException If the document's contents can't be loaded 
+	 * or the offset is outside the contents
+	 * @throws SecurityException If the user don't have enough permissions to download the document
+	 */
+	public ContentInfo loadDocumentContent(Ticket ticket,
+										   String docId,
+										   long offset,
+										   long length,
+										   String validator,
+										   OutputStream stream) 
+												throws RepositoryException,
+													   SecurityException;
+	
+	/**
+	 * Loads a range of the content of a document version. Only the 
+	 * requested bytes are written, and nothing is written at all if the 
+	 * client already has the version contents.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param versionId Id of the version to load
+	 * @param offset Position of the first byte to load
+	 * @param length Maximum number of bytes to load, or -1 to load until 
+	 * the end of the contents
+	 * @param validator Validator returned by a previous load of the 
+	 * contents, or <code>null</code>. If the contents have not changed 
+	 * since then they are not written
+	 * @param stream Stream to store contents
+	 * 
+	 * @return ContentInfo Description of the loaded range and the validator 
+	 * of the version contents
+	 * 
+	 * @throws RepositoryException If the version can't be loaded or the 
+	 * offset is outside the contents
+	 * @throws SecurityException If the user hasn't enough permissions to load the document contents
+	 */
+	public ContentInfo loadVersionContent(Ticket ticket,
+										  String versionId,
+										  long offset,
+										  long length,
+										  String validator,
+										  OutputStream stream) 
+												throws RepositoryException,
+													   SecurityException;
+
+	/**
+	 * Begins a chunked upload. The content is sent later in chunks with 
+	 * {@link #appendUploadChunk(Ticket, String, long, byte[], String)}, 
+	 * that are spooled on the server until the upload is committed into a 
+	 * new or an existing document. Chunks can be sent in any order and in 
+	 * parallel, and a broken upload is resumed sending only the missing 
+	 * ranges.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param length Total length of the content
+	 * 
+	 * @return UploadSession State of the new upload
+	 * 
+	 * @throws RepositoryException If the upload can't be started
+	 */
+	public UploadSession beginUpload(Ticket ticket,
+									 long length) throws RepositoryException;
+	
+	/**
+	 * Sends a chunk of an upload. Sending again a chunk that was already 
+	 * received overwrites it.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param uploadId Id of the upload
+	 * @param offset Position of the first byte of the chunk on the content
+	 * @param chunk Chunk bytes
+	 * @param checksum Hex encoded SHA-256 digest of the chunk bytes
+	 * 
+	 * @return UploadSession State of the upload after storing the chunk
+	 * 
+	 * @throws RepositoryException If the upload does not exist, the chunk 
+	 * is outside the content or bigger than the maximum chunk size, or its 
+	 * checksum doesn't match
+	 */
+	public UploadSession appendUploadChunk(Ticket ticket,
+										   String uploadId,
+										   long offset,
+										   byte[] chunk,
+										   String checksum) throws RepositoryException;
+	
+	/**
+	 * Returns the state of an upload, i.e. to find which ranges must be 
+	 * sent again after a broken connection
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param uploadId Id of the upload
+	 * 
+	 * @return UploadSession State of the upload
+	 * 
+	 * @throws RepositoryException If the upload does not exist
+	 */
+	public UploadSession loadUpload(Ticket ticket,
+									String uploadId) throws RepositoryException;
+	
+	/**
+	 * Commits a complete upload into a new document. The uploaded content 
+	 * replaces any content set on the document properties.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param uploadId Id of the upload
+	 * @param properties Properties of the new document
+	 * 
+	 * @return Document Created document
+	 * 
+	 * @throws RepositoryException If the upload is not complete or the 
+	 * document can't be created. A failed upload can be committed again
+	 * @throws SecurityException If the user don't have enough permissions to create the document
+	 */
+	public Document commitUpload(Ticket ticket,
+								 String uploadId,
+								 DocumentProperties properties) throws RepositoryException,
+								 									   SecurityException;
+	
+	/**
+	 * Commits a complete upload as the new content of an existing node 
+	 * (resource or document)
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param uploadId Id of the upload
+	 * @param nodeId Node to update
+	 * 
+	 * @return Node Updated node
+	 * 
+	 * @throws RepositoryException If the upload is not complete or the 
+	 * contents can't be updated. A failed upload can be committed again
+	 * @throws SecurityException If the user don't have enough permissions to update the contents
+	 */
+	public Node commitUpload(Ticket ticket,
+							 String uploadId,
+							 String nodeId) throws RepositoryException,
+							 					   SecurityException;
+	
+	/**
+	 * Aborts an upload, discarding all the chunks already received
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param uploadId Id of the upload
+	 * 
+	 * @throws RepositoryException If the upload does not exist or it is 
+	 * being committed
+	 */
+	public void abortUpload(Ticket ticket,
+							String uploadId) throws RepositoryException;
 
 	/**
 	 * Locks an specific document
@@ -1068,6 +1417,58 @@ public interface RepositoryService {
 									   					 NodeNotFoundException, 
 									   					 SecurityException;
 	
+	/**
+	 * Loads a node's children given a id, loading only the document 
+	 * properties of a given view. Child directories are built with the same 
+	 * view.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param id Identificator of the document
+	 * @param view Level of detail of the returned documents
+	 * 
+	 * @return Collection Collection with the node's children
+	 * 
+	 * @throws RepositoryException If document can't be loaded
+	 * @throws NodeNotFoundException if the node can't be found
+	 * @throws SecurityException if the user don't have enough permissions to find the document info
+	 */
+	public Collection findNodeChildren(Ticket ticket, 
+									   String id,
+									   DocumentView view) throws RepositoryException,
+									   							 NodeNotFoundException, 
+									   							 SecurityException;
+	
+	/**
+	 * Loads a page of a node's children. Only the children on the page are 
+	 * loaded, so large directories can be listed in several requests.
+	 * 
+	 * @param ticket Ticket with user information
+	 * @param id Identificator of the node
+	 * @param cursor Cursor returned with the previous page, or 
+	 * <code>null</code> to get the first page
+	 * @param pageSize Maximum number of children to return. If it is 0 or 
+	 * less then the default page size is used
+	 * @param order Sort key. It must be the same for all the pages
+	 * @param ascending Sort direction. It must be the same for all the pages
+	 * @param view Level of detail of the returned documents
+	 * 
+	 * @return NodePage Page with the node's children
+	 * 
+	 * @throws RepositoryException If the children can't be loaded or the 
+	 * cursor is not valid
+	 * @throws NodeNotFoundException if the node can't be found
+	 * @throws SecurityException if the user don't have enough permissions to find the document info
+	 */
+	public NodePage findNodeChildren(Ticket ticket, 
+									 String id,
+									 String cursor,
+									 int pageSize,
+									 NodeOrder order,
+									 boolean ascending,
+									 DocumentView view) throws RepositoryException,
+									   						   NodeNotFoundException, 
+									   						   SecurityException;
+	
 	/**
 	 * Forces a session save operation. Ideally this method would be used when 
 	 * working with autocommit mode set to false
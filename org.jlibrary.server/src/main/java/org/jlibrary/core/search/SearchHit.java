@@ -158,6 +158,10 @@ public class SearchHit implements Serializable, Comparable {
 		} else if (hit.score < this.score) {
 			return -1;
 		} 
-		return 0;
+		// Equal scores are ranked by id to keep a stable order
+		if (id == null || hit.id == null) {
+			return 0;
+		}
+		return id.compareTo(hit.id);
 	}
 }
@@ -0,0 +1,133 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded queue that keeps the best search hits seen so far. Hits are 
+ * ranked by their score and, on equal scores, by their id, so the ranking 
+ * of a set of hits is always the same.
+ * 
+ * <p>The worst retained hit sits on the head of an inverted heap, so each 
+ * offered hit costs <code>O(log capacity)</code> and hits that can't be 
+ * ranked are rejected without being stored.</p>
+ * 
+ * @author martin
+ */
+public class SearchHitQueue {
+
+	/**
+	 * Capacity for queues that must keep every offered hit
+	 */
+	public static final int UNBOUNDED = -1;
+	
+	private final int capacity;
+	private final PriorityQueue queue;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity Maximum number of hits to keep or {@link #UNBOUNDED}
+	 */
+	public SearchHitQueue(int capacity) {
+		
+		this.capacity = capacity;
+		int initialCapacity = 11;
+		if (capacity != UNBOUNDED) {
+			initialCapacity = Math.max(1,Math.min(capacity,1024));
+		}
+		queue = new PriorityQueue(initialCapacity,Collections.reverseOrder());
+	}
+	
+	/**
+	 * Offers a hit to the queue. If the queue is full, the hit will only be 
+	 * kept when it ranks better than the worst retained hit, which will be 
+	 * discarded.
+	 * 
+	 * @param hit Search hit
+	 * 
+	 * @return boolean <code>true</code> if the hit has been kept
+	 */
+	public boolean offer(SearchHit hit) {
+		
+		if (capacity == 0) {
+			return false;
+		}
+		if (!isFull()) {
+			queue.add(hit);
+			return true;
+		}
+		SearchHit worst = (SearchHit)queue.peek();
+		if (hit.compareTo(worst) >= 0) {
+			return false;
+		}
+		queue.poll();
+		queue.add(hit);
+		return true;
+	}
+	
+	/**
+	 * Tells if a hit with the given score could still be kept by the queue
+	 * 
+	 * @param score Best score that the hit could have
+	 * 
+	 * @return boolean <code>false</code> if the queue is full and its worst 
+	 * hit has a higher score
+	 */
+	public boolean accepts(double score) {
+		
+		if (capacity == 0) {
+			return false;
+		}
+		if (!isFull()) {
+			return true;
+		}
+		return score >= ((SearchHit)queue.peek()).getScore();
+	}
+	
+	public boolean isFull() {
+		
+		return capacity != UNBOUNDED && queue.size() >= capacity;
+	}
+	
+	public int size() {
+		
+		return queue.size();
+	}
+	
+	/**
+	 * Returns the retained hits, best ranked first
+	 * 
+	 * @return List Ordered list of {@link SearchHit} instances
+	 */
+	public List toList() {
+		
+		List hits = new ArrayList(queue);
+		Collections.sort(hits);
+		return hits;
+	}
+}
@@ -39,22 +39,39 @@ public class DefaultSearchAlgorithm implements SearchAlgorithm {
 		Iterator it = set.iterator();
 		while (it.hasNext()) {
 			SearchHit hit = (SearchHit) it.next();
-			
-			double importanceFactor = mapImportance(hit.getImportance());
-			double score = hit.getScore();
-			double differenceFactor;
-			if (1 - score > 0.5) {
-				differenceFactor = score / 2;
-			} else {
-				differenceFactor = (1 - score) / 2;
-			}
-			differenceFactor*=importanceFactor;
-			hit.setScore(score+differenceFactor);
+			hit.setScore(score(hit.getScore(),hit.getImportance()));
 		}
 		
 		return set;
 	}
 
+	/**
+	 * @see SearchAlgorithm#score(double, Integer)
+	 */
+	public double score(double score, Integer importance) {
+		
+		double importanceFactor = mapImportance(importance);
+		return score + differenceFactor(score)*importanceFactor;
+	}
+	
+	/**
+	 * @see SearchAlgorithm#maxScore(double)
+	 */
+	public double maxScore(double score) {
+		
+		// Importance factors go from -1 to 1
+		return score + Math.abs(differenceFactor(score));
+	}
+	
+	private double differenceFactor(double score) {
+		
+		if (1 - score > 0.5) {
+			return score / 2;
+		} else {
+			return (1 - score) / 2;
+		}
+	}
+	
 	private double mapImportance(Integer importance) {
 
 		if (importance.equals(Node.IMPORTANCE_HIGHEST)) {
@@ -47,4 +47,26 @@ public interface SearchAlgorithm {
 	 */
 	public Set filterSearchResults(Set set) throws SearchException;
 
+	/**
+	 * Calculates the final score of a search hit
+	 * 
+	 * @param score Score returned by the search engine
+	 * @param importance Importance of the hit node
+	 * 
+	 * @return double Final score of the hit
+	 */
+	public double score(double score, Integer importance);
+	
+	/**
+	 * Returns the highest final score that a hit with the given search 
+	 * engine score could get, whatever its importance is. The value must 
+	 * not decrease when the search engine score increases, so the search 
+	 * service can stop reading hits when they can't reach a result page.
+	 * 
+	 * @param score Score returned by the search engine
+	 * 
+	 * @return double Upper bound of the final score
+	 */
+	public double maxScore(double score);
+
 }
@@ -0,0 +1,91 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that counts the bytes read through it, so the size of a 
+ * content can be known once it has been streamed
+ * 
+ * @author martin
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private long count;
+	private long mark;
+	
+	public CountingInputStream(InputStream in) {
+		
+		super(in);
+	}
+	
+	public int read() throws IOException {
+		
+		int b = super.read();
+		if (b != -1) {
+			count++;
+		}
+		return b;
+	}
+	
+	public int read(byte[] b, int off, int len) throws IOException {
+		
+		int read = super.read(b,off,len);
+		if (read > 0) {
+			count+=read;
+		}
+		return read;
+	}
+	
+	public long skip(long n) throws IOException {
+		
+		long skipped = super.skip(n);
+		count+=skipped;
+		return skipped;
+	}
+	
+	public synchronized void mark(int readlimit) {
+		
+		super.mark(readlimit);
+		mark = count;
+	}
+	
+	public synchronized void reset() throws IOException {
+		
+		super.reset();
+		count = mark;
+	}
+	
+	/**
+	 * Returns the number of bytes read
+	 * 
+	 * @return long Bytes read so far
+	 */
+	public long getCount() {
+		
+		return count;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.core.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timer wheel. Items are scheduled on the slot that corresponds to 
+ * their deadline and are only visited again when that slot comes due, so 
+ * advancing the wheel costs time proportional to the number of due items 
+ * and not to the total number of scheduled items.
+ * 
+ * <p>The wheel never decides by itself if an item has really expired. Items 
+ * returned by {@link #advance(long)} must be checked by the caller, which 
+ * can reschedule them if their deadline was extended in the meantime.</p>
+ * 
+ * <p>This class is thread safe. {@link #schedule(Object, long)} can be 
+ * called concurrently, while {@link #advance(long)} is expected to be called 
+ * from a single timer thread.</p>
+ * 
+ * @author martin
+ */
+public class TimerWheel<E> {
+
+	private final long tickMillis;
+	private final ConcurrentLinkedQueue<E>[] slots;
+	
+	private volatile long currentTick;
+	
+	/**
+	 * Creates a new timer wheel
+	 * 
+	 * @param tickMillis Duration of each slot in milliseconds
+	 * @param spanMillis Maximum distance between now and a deadline. The 
+	 * wheel will have enough slots to cover this span in a single round.
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(long tickMillis, long spanMillis) {
+		
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("Tick must be positive");
+		}
+		this.tickMillis = tickMillis;
+		int size = (int)Math.max(1, (spanMillis + tickMillis - 1) / tickMillis) + 1;
+		slots = new ConcurrentLinkedQueue[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new ConcurrentLinkedQueue<E>();
+		}
+		currentTick = System.currentTimeMillis() / tickMillis;
+	}
+	
+	/**
+	 * Schedules an item to be returned once its deadline has been reached. 
+	 * Deadlines already in the past are returned on the next tick, and 
+	 * deadlines beyond the wheel span are returned early.
+	 * 
+	 * @param item Item to schedule
+	 * @param deadline Deadline in milliseconds
+	 */
+	public void schedule(E item, long deadline) {
+		
+		long current = currentTick;
+		long tick = deadline / tickMillis;
+		if (tick <= current) {
+			tick = current + 1;
+		} else if (tick - current >= slots.length) {
+			tick = current + slots.length - 1;
+		}
+		slots[(int)(tick % slots.length)].add(item);
+	}
+	
+	/**
+	 * Advances the wheel up to the given time and returns all the items 
+	 * which were scheduled on the slots that have come due.
+	 * 
+	 * @param now Current time in milliseconds
+	 * 
+	 * @return List Due items. Caller must validate their real deadline.
+	 */
+	public List<E> advance(long now) {
+		
+		List<E> due = new ArrayList<E>();
+		long target = now / tickMillis;
+		long tick = currentTick;
+		if (target - tick > slots.length) {
+			// We have been sleeping for more than a round. Visit each slot once
+			tick = target - slots.length;
+		}
+		while (tick < target) {
+			tick++;
+			// Publish the new tick before draining, so concurrent schedules 
+			// don't land on the slot we are emptying
+			currentTick = tick;
+			ConcurrentLinkedQueue<E> slot = slots[(int)(tick % slots.length)];
+			E item;
+			while ((item = slot.poll()) != null) {
+				due.add(item);
+			}
+		}
+		return due;
+	}
+	
+	/**
+	 * Returns the duration of each slot in milliseconds
+	 * 
+	 * @return long Tick duration
+	 */
+	public long getTickMillis() {
+		
+		return tickMillis;
+	}
+	
+	/**
+	 * Returns the number of slots of this wheel
+	 * 
+	 * @return int Wheel size
+	 */
+	public int getSize() {
+		
+		return slots.length;
+	}
+}
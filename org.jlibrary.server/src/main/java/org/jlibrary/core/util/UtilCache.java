@@ -22,518 +22,339 @@
 */
 package org.jlibrary.core.util;
 
-/*
- * $Id: UtilCache.java,v 1.1 2009/12/09 18:41:06 ekoleszar Exp $
- *
- *  Copyright (c) 2001 The Open For Business Project - www.ofbiz.org
- *
- *  Permission is hereby granted, free of charge, to any person obtaining a
- *  copy of this software and associated documentation files (the "Software"),
- *  to deal in the Software without restriction, including without limitation
- *  the rights to use, copy, modify, merge, publish, distribute, sublicense,
- *  and/or sell copies of the Software, and to permit persons to whom the
- *  Software is furnished to do so, subject to the following conditions:
- *
- *  The above copyright notice and this permission notice shall be included
- *  in all copies or substantial portions of the Software.
- *
- *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
- *  OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
- *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
- *  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
- *  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT
- *  OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
- *  THE USE OR OTHER DEALINGS IN THE SOFTWARE.
- */
-
-import java.util.*;
-
-
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * <p> Generalized caching utility. Provides a number of caching features:
- *   <ul>
- *    <li>Limited or unlimited element capacity
- *    <li>If limited, removes elements with the LRU (Least Recently Used) algorithm
- *    <li>Keeps track of when each element was loaded into the cache
- *    <li>Using the expireTime can report whether a given element has expired
- *    <li>Counts misses and hits
- *   </ul>
- *
- *@author     <a href="mailto:jonesde@ofbiz.org">David E. Jones</a>
- *@created    May 16, 2001
- *@version    1.0
+ * <p>Concurrent cache bounded by number of entries and by weight. Keys are 
+ * spread over independently locked segments, so lookups on different 
+ * segments don't contend.</p>
+ * 
+ * <p>Each segment is a segmented LRU. New entries go to a probation area 
+ * and are promoted to a protected area when they are read again. Eviction 
+ * takes the least recently used probation entries first, so a scan of 
+ * entries that are read only once doesn't flush the entries that are read 
+ * often.</p>
+ * 
+ * <p>Hits, misses, evictions and removals are counted so cache efficiency 
+ * can be monitored.</p>
+ * 
+ * @author martin
  */
-public class UtilCache {
-
-    /** A static Map to keep track of all of the UtilCache instances. */
-    public static Map utilCacheTable = new HashMap();
-
-    /** An index number appended to utilCacheTable names when there are conflicts. */
-    protected static Map defaultIndices = new HashMap();
-
-    /** The name of the UtilCache instance, is also the key for the instance in utilCacheTable. */
-    protected String name;
-
-    /** A list of the elements order by Least Recent Use */
-    public LinkedList keyLRUList = new LinkedList();
-
-    /** A hashtable containing a CacheLine object with a value and a loadTime for each element. */
-    public Map cacheLineTable = new HashMap();
-
-    /** A count of the number of cache hits */
-    protected long hitCount = 0;
-
-    /** A count of the number of cache misses */
-    protected long missCount = 0;
-
-    /** The maximum number of elements in the cache.
-     * If set to 0, there will be no limit on the number of elements in the cache.
-     */
-    protected long maxSize = 0;
-
-    /** Specifies the amount of time since initial loading before an element will be reported as expired.
-     * If set to 0, elements will never expire.
-     */
-    protected long expireTime = 0;
-
-    /** Specifies whether or not to use soft references for this cache, defaults to false */
-    protected boolean useSoftReference = false;
-
-    /** Constructor which specifies the cacheName as well as the maxSize, expireTime and useSoftReference.
-     * The passed maxSize, expireTime and useSoftReference will be overridden by values from cache.properties if found.
-     * @param maxSize The maxSize member is set to this value
-     * @param expireTime The expireTime member is set to this value
-     * @param cacheName The name of the cache.
-     * @param useSoftReference Specifies whether or not to use soft references for this cache.
-     */
-    public UtilCache(String cacheName, long maxSize, long expireTime, boolean useSoftReference) {
-        this.useSoftReference = useSoftReference;
-        this.maxSize = maxSize;
-        this.expireTime = expireTime;
-        setPropertiesParams(cacheName);
-
-        name = cacheName + this.getNextDefaultIndex(cacheName);
-        utilCacheTable.put(name, this);
-    }
-
-    /** Constructor which specifies the cacheName as well as the maxSize and expireTime.
-     * The passed maxSize and expireTime will be overridden by values from cache.properties if found.
-     * @param maxSize The maxSize member is set to this value
-     * @param expireTime The expireTime member is set to this value
-     * @param cacheName The name of the cache.
-     */
-    public UtilCache(String cacheName, long maxSize, long expireTime) {
-        this(cacheName, maxSize, expireTime, false);
-    }
-
-    /** Constructor which specifies the maxSize and expireTime.
-     * @param maxSize The maxSize member is set to this value
-     * @param expireTime The expireTime member is set to this value
-     */
-    public UtilCache(long maxSize, long expireTime) {
-        this.useSoftReference = false;
-        this.maxSize = maxSize;
-        this.expireTime = expireTime;
-        String name = "specified" + this.getNextDefaultIndex("specified");
-
-        setPropertiesParams(name);
-        utilCacheTable.put(name, this);
-    }
-
-    /** This constructor takes a name for the cache, puts itself in the utilCacheTable.
-     * It also uses the cacheName to lookup the initialization parameters from cache.properties.
-     * @param cacheName The name of the cache.
-     */
-    public UtilCache(String cacheName) {
-        setPropertiesParams("default");
-        setPropertiesParams(cacheName);
-
-        name = cacheName + this.getNextDefaultIndex(cacheName);
-        utilCacheTable.put(name, this);
-    }
-
-    /** Default constructor, all members stay at default values as defined in cache.properties, or the defaults in this file if cache.properties is not found, or there are no 'default' entries in it. */
-    public UtilCache() {
-        setPropertiesParams("default");
-
-        name = "default" + this.getNextDefaultIndex("default");
-        utilCacheTable.put(name, this);
-    }
-
-    protected String getNextDefaultIndex(String cacheName) {
-        Integer curInd = (Integer) defaultIndices.get(cacheName);
-
-        if (curInd == null) {
-            defaultIndices.put(cacheName, new Integer(1));
-            return "";
-        } else {
-            defaultIndices.put(cacheName, new Integer(curInd.intValue() + 1));
-            return Integer.toString(curInd.intValue() + 1);
-        }
-    }
-
-    protected void setPropertiesParams(String cacheName) {
-        ResourceBundle res = ResourceBundle.getBundle("cache");
-
-        if (res != null) {
-            try {
-                String value = res.getString(cacheName + ".maxSize");
-                Long longValue = new Long(value);
-
-                if (longValue != null) {
-                    maxSize = longValue.longValue();
-                }
-            } catch (Exception e) {}
-            try {
-                String value = res.getString(cacheName + ".expireTime");
-                Long longValue = new Long(value);
-
-                if (longValue != null) {
-                    expireTime = longValue.longValue();
-                }
-            } catch (Exception e) {}
-
-            try {
-                String value = res.getString(cacheName + ".useSoftReference");
-
-                if (value != null) {
-                    useSoftReference = "true".equals(value);
-                }
-            } catch (Exception e) {}
-        }
-    }
-
-    /** Puts or loads the passed element into the cache
-     * @param key The key for the element, used to reference it in the hastables and LRU linked list
-     * @param value The value of the element
-     */
-    public synchronized void put(Object key, Object value) {
-        if (key == null)
-            return;
-
-        if (maxSize > 0) {
-            // when maxSize is changed, the setter will take care of filling the LRU list
-            if (cacheLineTable.containsKey(key)) {
-                keyLRUList.remove(key);
-                keyLRUList.addFirst(key);
-            } else {
-                keyLRUList.addFirst(key);
-            }
-        }
-
-        if (expireTime > 0) {
-            cacheLineTable.put(key, new UtilCache.CacheLine(value, useSoftReference, System.currentTimeMillis()));
-        } else {
-            cacheLineTable.put(key, new UtilCache.CacheLine(value, useSoftReference));
-        }
-        if (maxSize > 0 && cacheLineTable.size() > maxSize) {
-            Object lastKey = keyLRUList.getLast();
-
-            remove(lastKey);
-        }
-    }
-
-    /** Gets an element from the cache according to the specified key.
-     * If the requested element hasExpired, it is removed before it is looked up which causes the function to return null.
-     * @param key The key for the element, used to reference it in the hastables and LRU linked list
-     * @return The value of the element specified by the key
-     */
-    public Object get(Object key) {
-        if (key == null) {
-            missCount++;
-            return null;
-        }
-        UtilCache.CacheLine line = (UtilCache.CacheLine) cacheLineTable.get(key);
-
-        if (hasExpired(line)) {
-            // note that print.info in debug.properties cannot be checked through UtilProperties here, it would cause infinite recursion...
-            // if (Debug.infoOn()) Debug.logInfo("Element has expired with key " + key);
-            remove(key);
-            line = null;
-        }
-
-        if (line == null) {
-            // if (Debug.infoOn()) Debug.logInfo("Element not found with key " + key);
-            missCount++;
-            return null;
-        }
-        // if (Debug.infoOn()) Debug.logInfo("Element found with key " + key);
-        hitCount++;
-
-        if (maxSize > 0) {
-            keyLRUList.remove(key);
-            keyLRUList.addFirst(key);
-        }
-        return line.getValue();
-    }
-
-    /** Removes an element from the cache according to the specified key
-     * @param key The key for the element, used to reference it in the hastables and LRU linked list
-     * @return The value of the removed element specified by the key
-     */
-    public synchronized Object remove(Object key) {
-        if (key != null && cacheLineTable.containsKey(key)) {
-            UtilCache.CacheLine line = (UtilCache.CacheLine) cacheLineTable.get(key);
-
-            cacheLineTable.remove(key);
-            keyLRUList.remove(key);
-            return line.getValue();
-        } else {
-            missCount++;
-            return null;
-        }
-    }
-
-    /** Removes all elements from this cache */
-    public synchronized void clear() {
-        cacheLineTable.clear();
-        keyLRUList.clear();
-        clearCounters();
-    }
-
-    /** Removes all elements from this cache */
-    public static void clearAllCaches() {
-        Iterator entries = utilCacheTable.entrySet().iterator();
-        while (entries.hasNext()) {
-            Map.Entry entry = (Map.Entry) entries.next();
-            UtilCache utilCache = (UtilCache) entry.getValue();
-            utilCache.clear();
-        }
-    }
-
-    /** Getter for the name of the UtilCache instance.
-     * @return The name of the instance
-     */
-    public String getName() {
-        return name;
-    }
-
-    /** Returns the number of successful hits on the cache
-     * @return The number of successful cache hits
-     */
-    public long getHitCount() {
-        return hitCount;
-    }
-
-    /** Returns the number of cache misses
-     * @return The number of cache misses
-     */
-    public long getMissCount() {
-        return missCount;
-    }
-
-    /** Clears the hit and miss counters
-     */
-    public void clearCounters() {
-        hitCount = 0;
-        missCount = 0;
-    }
-
-    /** Sets the maximum number of elements in the cache.
-     * If 0, there is no maximum.
-     * @param maxSize The maximum number of elements in the cache
-     */
-    public void setMaxSize(long maxSize) {
-        // if the new maxSize is <= 0, clear keyLRUList
-        if (maxSize <= 0) {
-            keyLRUList.clear();
-        } else if (maxSize > 0 && this.maxSize <= 0) {
-            // if the new maxSize > 0 and the old is <= 0, fill in LRU list - order will be meaningless for now
-            Iterator keys = cacheLineTable.keySet().iterator();
-
-            while (keys.hasNext()) {
-                keyLRUList.add(keys.next());
-            }
-        }
-
-        // if the new maxSize is less than the current cache size, shrink the cache.
-        if (maxSize > 0 && cacheLineTable.size() > maxSize) {
-            while (cacheLineTable.size() > maxSize) {
-                Object lastKey = keyLRUList.getLast();
-
-                remove(lastKey);
-            }
-        }
-
-        this.maxSize = maxSize;
-    }
-
-    /** Returns the current maximum number of elements in the cache
-     * @return The maximum number of elements in the cache
-     */
-    public long getMaxSize() {
-        return maxSize;
-    }
-
-    /** Sets the expire time for the cache elements.
-     * If 0, elements never expire.
-     * @param expireTime The expire time for the cache elements
-     */
-    public void setExpireTime(long expireTime) {
-        // if expire time was <= 0 and is now greater, fill expire table now
-        if (this.expireTime <= 0 && expireTime > 0) {
-            long currentTime = System.currentTimeMillis();
-            Iterator values = cacheLineTable.values().iterator();
-
-            while (values.hasNext()) {
-                UtilCache.CacheLine line = (UtilCache.CacheLine) values.next();
-
-                line.loadTime = currentTime;
-            }
-        } else if (this.expireTime <= 0 && expireTime > 0) {// if expire time was > 0 and is now <=, do nothing, just leave the load times in place, won't hurt anything...
-        }
-
-        this.expireTime = expireTime;
-    }
-
-    /** return the current expire time for the cache elements
-     * @return The expire time for the cache elements
-     */
-    public long getExpireTime() {
-        return expireTime;
-    }
-
-    /** Set whether or not the cache lines should use a soft reference to the data */
-    public void setUseSoftReference(boolean useSoftReference) {
-        if (this.useSoftReference != useSoftReference) {
-            this.useSoftReference = useSoftReference;
-            Iterator values = cacheLineTable.values().iterator();
-
-            while (values.hasNext()) {
-                UtilCache.CacheLine line = (UtilCache.CacheLine) values.next();
-
-                line.setUseSoftReference(useSoftReference);
-            }
-        }
-    }
-
-    /** Return whether or not the cache lines should use a soft reference to the data */
-    public boolean getUseSoftReference() {
-        return this.useSoftReference;
-    }
-
-    /** Returns the number of elements currently in the cache
-     * @return The number of elements currently in the cache
-     */
-    public long size() {
-        return cacheLineTable.size();
-    }
-
-    /** Returns a boolean specifying whether or not an element with the specified key is in the cache.
-     * If the requested element hasExpired, it is removed before it is looked up which causes the function to return false.
-     * @param key The key for the element, used to reference it in the hastables and LRU linked list
-     * @return True is the cache contains an element corresponding to the specified key, otherwise false
-     */
-    public boolean containsKey(Object key) {
-        UtilCache.CacheLine line = (UtilCache.CacheLine) cacheLineTable.get(key);
-
-        if (hasExpired(line)) {
-            remove(key);
-            line = null;
-        }
-        if (line != null) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    /** Returns a boolean specifying whether or not the element corresponding to the key has expired.
-     * Only returns true if element is in cache and has expired. Error conditions return false, if no expireTable entry, returns true.
-     * Always returns false if expireTime <= 0.
-     * Also, if SoftReference in the CacheLine object has been cleared by the gc return true.
-     *
-     * @param key The key for the element, used to reference it in the hastables and LRU linked list
-     * @return True is the element corresponding to the specified key has expired, otherwise false
-     */
-    public boolean hasExpired(Object key) {
-        if (key == null) return false;
-
-        UtilCache.CacheLine line = (UtilCache.CacheLine) cacheLineTable.get(key);
-
-        return hasExpired(line);
-    }
-
-    protected boolean hasExpired(UtilCache.CacheLine line) {
-        if (line == null) return false;
-        // check this BEFORE checking to see if expireTime <= 0, ie if time expiration is enabled
-        // check to see if we are using softReference first, slight performance increase
-        if (this.useSoftReference && line.getValue() == null) return true;
-        if (expireTime <= 0) return false;
-
-        if (line.loadTime <= 0) return true;
-        if ((line.loadTime + expireTime) < System.currentTimeMillis()) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    /** Clears all expired cache entries; also clear any cache entries where the SoftReference in the CacheLine object has been cleared by the gc */
-    public void clearExpired() {
-        Iterator keys = cacheLineTable.keySet().iterator();
-
-        while (keys.hasNext()) {
-            Object key = keys.next();
-
-            if (hasExpired(key)) {
-                remove(key);
-            }
-        }
-    }
-
-    /** Clears all expired cache entries from all caches */
-    public static void clearExpiredFromAllCaches() {
-        Iterator entries = utilCacheTable.entrySet().iterator();
-
-        while (entries.hasNext()) {
-            Map.Entry entry = (Map.Entry) entries.next();
-            UtilCache utilCache = (UtilCache) entry.getValue();
-
-            utilCache.clearExpired();
-        }
-    }
-
-    public static class CacheLine {
-        public Object valueRef = null;
-        public long loadTime = 0;
-        public boolean useSoftReference = false;
-
-        public CacheLine(Object value, boolean useSoftReference) {
-            if (useSoftReference) {
-                this.valueRef = new java.lang.ref.SoftReference(value);
-            } else {
-                this.valueRef = value;
-            }
-            this.useSoftReference = useSoftReference;
-        }
-
-        public CacheLine(Object value, boolean useSoftReference, long loadTime) {
-            this(value, useSoftReference);
-            this.loadTime = loadTime;
-        }
-
-        public Object getValue() {
-            if (valueRef == null) return null;
-            if (useSoftReference) {
-                return ((java.lang.ref.SoftReference) valueRef).get();
-            } else {
-                return valueRef;
-            }
-        }
-
-        public void setUseSoftReference(boolean useSoftReference) {
-            if (this.useSoftReference != useSoftReference) {
-                synchronized (this) {
-                    this.useSoftReference = useSoftReference;
-                    if (useSoftReference) {
-                        this.valueRef = new java.lang.ref.SoftReference(this.valueRef);
-                    } else {
-                        this.valueRef = ((java.lang.ref.SoftReference) this.valueRef).get();
-                    }
-                }
-            }
-        }
-    }
+public class UtilCache<K,V> {
+
+	/**
+	 * Percentage of each segment reserved for protected entries
+	 */
+	private static final int PROTECTED_PERCENT = 80;
+	
+	private final String name;
+	private final Segment<K,V>[] segments;
+	private final int segmentMask;
+	
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong putCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong removalCount = new AtomicLong();
+	
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param name Cache name
+	 * @param maxSize Maximum number of entries
+	 * @param maxWeight Maximum sum of the entry weights
+	 * @param concurrency Estimated number of threads using the cache. It is 
+	 * rounded to a power of two to get the number of segments
+	 */
+	@SuppressWarnings("unchecked")
+	public UtilCache(String name, int maxSize, long maxWeight, int concurrency) {
+		
+		if (maxSize <= 0 || maxWeight <= 0) {
+			throw new IllegalArgumentException("Cache bounds must be positive");
+		}
+		this.name = name;
+		int count = 1;
+		while (count < concurrency && count * 2 <= maxSize) {
+			count *= 2;
+		}
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment<K,V>(
+					(maxSize + count - 1) / count,
+					(maxWeight + count - 1) / count);
+		}
+		segmentMask = count - 1;
+	}
+	
+	/**
+	 * Returns a cached value
+	 * 
+	 * @param key Key
+	 * 
+	 * @return V Cached value or <code>null</code> if it is not cached
+	 */
+	public V get(K key) {
+		
+		V value = segmentFor(key).get(key);
+		if (value == null) {
+			missCount.incrementAndGet();
+		} else {
+			hitCount.incrementAndGet();
+		}
+		return value;
+	}
+	
+	/**
+	 * Caches a value, replacing the previous value of the key. Values 
+	 * heavier than a whole segment are not cached.
+	 * 
+	 * @param key Key
+	 * @param value Value
+	 * @param weight Weight of the value. It must be positive
+	 */
+	public void put(K key, V value, int weight) {
+		
+		putCount.incrementAndGet();
+		evictionCount.addAndGet(segmentFor(key).put(key,value,Math.max(1,weight)));
+	}
+	
+	/**
+	 * Removes a value
+	 * 
+	 * @param key Key
+	 * 
+	 * @return V Removed value or <code>null</code> if it wasn't cached
+	 */
+	public V remove(K key) {
+		
+		V value = segmentFor(key).remove(key);
+		if (value != null) {
+			removalCount.incrementAndGet();
+		}
+		return value;
+	}
+	
+	/**
+	 * Removes all the cached values. Statistics are kept.
+	 */
+	public void clear() {
+		
+		for (int i = 0; i < segments.length; i++) {
+			segments[i].clear();
+		}
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int size() {
+		
+		int size = 0;
+		for (int i = 0; i < segments.length; i++) {
+			size += segments[i].size();
+		}
+		return size;
+	}
+	
+	public long getWeight() {
+		
+		long weight = 0;
+		for (int i = 0; i < segments.length; i++) {
+			weight += segments[i].weight();
+		}
+		return weight;
+	}
+	
+	public long getHitCount() {
+		return hitCount.get();
+	}
+	
+	public long getMissCount() {
+		return missCount.get();
+	}
+	
+	public long getPutCount() {
+		return putCount.get();
+	}
+	
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+	
+	public long getRemovalCount() {
+		return removalCount.get();
+	}
+	
+	/**
+	 * @return double Ratio of lookups that found a value, or 0 if there 
+	 * were no lookups
+	 */
+	public double getHitRate() {
+		
+		long hits = hitCount.get();
+		long lookups = hits + missCount.get();
+		return lookups == 0 ? 0 : (double)hits / lookups;
+	}
+	
+	public String toString() {
+		
+		return name + "[size=" + size() + 
+					  ",weight=" + getWeight() + 
+					  ",hits=" + getHitCount() + 
+					  ",misses=" + getMissCount() + 
+					  ",evictions=" + getEvictionCount() + 
+					  ",removals=" + getRemovalCount() + "]";
+	}
+	
+	private Segment<K,V> segmentFor(K key) {
+		
+		int hash = key.hashCode();
+		// Spread the bits so keys with similar low bits use other segments
+		hash ^= (hash >>> 16);
+		hash ^= (hash >>> 7);
+		return segments[hash & segmentMask];
+	}
+	
+	private static class Entry<V> {
+		
+		final V value;
+		final int weight;
+		
+		Entry(V value, int weight) {
+			
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+	
+	/**
+	 * Segmented LRU guarded by its own lock. Both areas are kept in 
+	 * insertion order, with the least recently used entry first.
+	 */
+	private static class Segment<K,V> {
+		
+		private final int maxSize;
+		private final long maxWeight;
+		private final int maxProtectedSize;
+		private final long maxProtectedWeight;
+		
+		private final LinkedHashMap<K,Entry<V>> probation = 
+			new LinkedHashMap<K,Entry<V>>();
+		private final LinkedHashMap<K,Entry<V>> protectedArea = 
+			new LinkedHashMap<K,Entry<V>>();
+		private long weight;
+		private long protectedWeight;
+		
+		Segment(int maxSize, long maxWeight) {
+			
+			this.maxSize = maxSize;
+			this.maxWeight = maxWeight;
+			maxProtectedSize = Math.max(1,maxSize * PROTECTED_PERCENT / 100);
+			maxProtectedWeight = Math.max(1,maxWeight * PROTECTED_PERCENT / 100);
+		}
+		
+		synchronized V get(K key) {
+			
+			Entry<V> entry = protectedArea.remove(key);
+			if (entry != null) {
+				protectedArea.put(key,entry);
+				return entry.value;
+			}
+			entry = probation.remove(key);
+			if (entry == null) {
+				return null;
+			}
+			// Read again, so it is promoted
+			protectedArea.put(key,entry);
+			protectedWeight += entry.weight;
+			demote();
+			return entry.value;
+		}
+		
+		synchronized int put(K key, V value, int entryWeight) {
+			
+			removeEntry(key);
+			if (entryWeight > maxWeight) {
+				return 0;
+			}
+			probation.put(key,new Entry<V>(value,entryWeight));
+			weight += entryWeight;
+			
+			int evicted = 0;
+			while (probation.size() + protectedArea.size() > maxSize || 
+				   weight > maxWeight) {
+				LinkedHashMap<K,Entry<V>> victims = 
+					probation.isEmpty() ? protectedArea : probation;
+				Iterator<Map.Entry<K,Entry<V>>> it = 
+					victims.entrySet().iterator();
+				Entry<V> victim = it.next().getValue();
+				it.remove();
+				weight -= victim.weight;
+				if (victims == protectedArea) {
+					protectedWeight -= victim.weight;
+				}
+				evicted++;
+			}
+			return evicted;
+		}
+		
+		synchronized V remove(K key) {
+			
+			Entry<V> entry = removeEntry(key);
+			return entry == null ? null : entry.value;
+		}
+		
+		synchronized void clear() {
+			
+			probation.clear();
+			protectedArea.clear();
+			weight = 0;
+			protectedWeight = 0;
+		}
+		
+		synchronized int size() {
+			
+			return probation.size() + protectedArea.size();
+		}
+		
+		synchronized long weight() {
+			
+			return weight;
+		}
+		
+		private Entry<V> removeEntry(K key) {
+			
+			Entry<V> entry = protectedArea.remove(key);
+			if (entry != null) {
+				protectedWeight -= entry.weight;
+			} else {
+				entry = probation.remove(key);
+			}
+			if (entry != null) {
+				weight -= entry.weight;
+			}
+			return entry;
+		}
+		
+		/**
+		 * Moves the least recently used protected entries back to 
+		 * probation while the protected area is over its bounds
+		 */
+		private void demote() {
+			
+			while (protectedArea.size() > maxProtectedSize || 
+				   protectedWeight > maxProtectedWeight) {
+				Iterator<Map.Entry<K,Entry<V>>> it = 
+					protectedArea.entrySet().iterator();
+				Map.Entry<K,Entry<V>> eldest = it.next();
+				it.remove();
+				protectedWeight -= eldest.getValue().weight;
+				probation.put(eldest.getKey(),eldest.getValue());
+			}
+		}
+	}
 }
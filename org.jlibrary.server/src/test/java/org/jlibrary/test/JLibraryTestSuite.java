@@ -32,6 +32,7 @@ import org.jlibrary.test.bookmarks.CreateBookmarkTest;
 import org.jlibrary.test.bookmarks.RemoveBookmarkTest;
 import org.jlibrary.test.bookmarks.UpdateBookmarkTest;
 import org.jlibrary.test.categories.AddDocumentTest;
+import org.jlibrary.test.categories.CategoryMembershipsTest;
 import org.jlibrary.test.categories.CreateCategoryTest;
 import org.jlibrary.test.categories.FindCategoriesAndDocumentsTest;
 import org.jlibrary.test.categories.FindCategoryTest;
@@ -42,12 +43,14 @@ import org.jlibrary.test.content.CopyContentTest;
 import org.jlibrary.test.content.CreateDirectoryTest;
 import org.jlibrary.test.content.CreateDocumentTest;
 import org.jlibrary.test.content.CreateResourceTest;
+import org.jlibrary.test.content.DocumentViewsTest;
 import org.jlibrary.test.content.FindDirectoryTest;
 import org.jlibrary.test.content.FindDocumentTest;
 import org.jlibrary.test.content.FindNodeTest;
 import org.jlibrary.test.content.ManageResourcesTest;
 import org.jlibrary.test.content.MoveContentTest;
 import org.jlibrary.test.content.NodeChildrenTest;
+import org.jlibrary.test.content.NodePathsTest;
 import org.jlibrary.test.content.RemoveDirectoryTest;
 import org.jlibrary.test.content.RemoveDocumentTest;
 import org.jlibrary.test.content.RemoveResourceTest;
@@ -68,6 +71,7 @@ import org.jlibrary.test.notes.DeleteNoteTest;
 import org.jlibrary.test.properties.CreateCustomPropertyTest;
 import org.jlibrary.test.relations.AddRelationTest;
 import org.jlibrary.test.relations.RemoveRelationTest;
+import org.jlibrary.test.search.PreparedQueriesTest;
 import org.jlibrary.test.search.SearchTest;
 import org.jlibrary.test.security.AddRestrictionTest;
 import org.jlibrary.test.security.AddRoleTest;
@@ -122,12 +126,14 @@ public class JLibraryTestSuite  {
         suite.addTestSuite(FindNodeTest.class);
         suite.addTestSuite(FindDirectoryTest.class);
         suite.addTestSuite(NodeChildrenTest.class);
+        suite.addTestSuite(DocumentViewsTest.class);
         suite.addTestSuite(UpdateDocumentTest.class);
         suite.addTestSuite(UpdateDirectoryTest.class);
         suite.addTestSuite(UpdateResourceTest.class);
         suite.addTestSuite(BinaryContentTransferTest.class);
         suite.addTestSuite(CopyContentTest.class);
         suite.addTestSuite(MoveContentTest.class);
+        suite.addTestSuite(NodePathsTest.class);
         suite.addTestSuite(ManageResourcesTest.class);        
         
         // Locks
@@ -140,6 +146,7 @@ public class JLibraryTestSuite  {
         suite.addTestSuite(UpdateCategoryTest.class);
         suite.addTestSuite(AddDocumentTest.class);
         suite.addTestSuite(FindCategoriesAndDocumentsTest.class);
+        suite.addTestSuite(CategoryMembershipsTest.class);
         
         // Notes
         suite.addTestSuite(CreateNoteTest.class);
@@ -166,6 +173,7 @@ public class JLibraryTestSuite  {
         
         // Search
         suite.addTestSuite(SearchTest.class); 
+        suite.addTestSuite(PreparedQueriesTest.class);
         
         // Export and Import
         suite.addTestSuite(ExportRepositoryTest.class);
@@ -0,0 +1,263 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.categories;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.jlibrary.core.entities.Category;
+import org.jlibrary.core.entities.Document;
+import org.jlibrary.core.entities.DocumentView;
+import org.jlibrary.core.entities.NodePage;
+import org.jlibrary.core.jcr.CategoryMemberships;
+import org.jlibrary.core.jcr.JCRUtils;
+import org.jlibrary.core.jcr.JLibraryConstants;
+import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.jcr.compatibility.CategoryMembershipsMigrator;
+import org.jlibrary.core.jcr.compatibility.PropertyMembershipsMigrator;
+import org.jlibrary.core.properties.CategoryProperties;
+import org.jlibrary.test.util.MockHelper;
+
+/**
+ * Test to check the category membership index, the paged listing of the 
+ * category members and the conversion of workspaces to the index and back. 
+ * The index is disabled by default, so the workspace is indexed for every 
+ * test and converted back afterwards.
+ * 
+ * @author martin
+ *
+ */
+public class CategoryMembershipsTest extends AbstractCategoryTest {
+
+	@Override
+	protected void setUp() throws Exception {
+		
+		super.setUp();
+		
+		Session session = SessionManager.getInstance().getSession(testTicket);
+		if (!CategoryMemberships.isIndexed(session)) {
+			new CategoryMembershipsMigrator().migrate(session);
+		}
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		
+		Session session = SessionManager.getInstance().getSession(testTicket);
+		if (CategoryMemberships.isIndexed(session)) {
+			new PropertyMembershipsMigrator().migrate(session);
+		}
+		
+		super.tearDown();
+	}
+
+	public void testIndexIsCreatedWithCategory() {
+		
+		try {
+			Category category = repositoryService.createCategory(
+					testTicket, MockHelper.createCategory(testTicket,null));
+			Session session = SessionManager.getInstance().getSession(testTicket);
+			assertTrue(CategoryMemberships.isIndexed(session));
+			assertEquals(1,getMemberships(session).getNodes(category.getId()).getSize());
+			
+			Document document = repositoryService.createDocument(
+					testTicket, MockHelper.createDocument(testTicket,testTicket.getRepositoryId()));
+			addDocument(category,document);
+			
+			javax.jcr.Node categoryNode = session.getNodeByIdentifier(category.getId());
+			assertTrue(CategoryMemberships.contains(categoryNode,document.getId()));
+			assertEquals(1,getMemberships(session).getNodes(category.getId()).getSize());
+			
+			CategoryProperties properties = category.dumpProperties();
+			properties.addProperty(CategoryProperties.CATEGORY_REMOVE_NODE, document.getId());
+			repositoryService.updateCategory(testTicket, category.getId(), properties);
+			assertFalse(CategoryMemberships.contains(categoryNode,document.getId()));
+			
+			repositoryService.deleteCategory(testTicket, category.getId());
+			assertFalse(getMemberships(session).hasNode(category.getId()));
+			repositoryService.removeDocument(testTicket, document.getId());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	public void testPagedCategoryListing() {
+		
+		try {
+			Category category = repositoryService.createCategory(
+					testTicket, MockHelper.createCategory(testTicket,null));
+			Set ids = new HashSet();
+			for (int i = 0; i < 7; i++) {
+				Document document = repositoryService.createDocument(
+						testTicket, MockHelper.createDocument(testTicket,testTicket.getRepositoryId()));
+				addDocument(category,document);
+				ids.add(document.getId());
+			}
+			
+			List listed = new ArrayList();
+			String cursor = null;
+			int pages = 0;
+			NodePage page;
+			do {
+				page = repositoryService.findNodesForCategory(
+						testTicket, category.getId(), cursor, 3, DocumentView.SUMMARY);
+				assertTrue(page.getNodes().size() <= 3);
+				for (int i = 0; i < page.getNodes().size(); i++) {
+					listed.add(((Document)page.getNodes().get(i)).getId());
+				}
+				cursor = page.getCursor();
+				pages++;
+			} while (page.isHasMore());
+			
+			assertEquals(3,pages);
+			assertEquals(7,listed.size());
+			assertEquals(ids,new HashSet(listed));
+			
+			Session session = SessionManager.getInstance().getSession(testTicket);
+			javax.jcr.Node categoryNode = session.getNodeByIdentifier(category.getId());
+			assertEquals(CategoryMemberships.list(categoryNode,null,Integer.MAX_VALUE),listed);
+			assertEquals(listed.subList(4,7),
+						 CategoryMemberships.list(categoryNode,(String)listed.get(3),10));
+			
+			repositoryService.deleteCategory(testTicket, category.getId());
+			for (int i = 0; i < listed.size(); i++) {
+				repositoryService.removeDocument(testTicket, (String)listed.get(i));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	public void testMigrateOldCategory() {
+		
+		try {
+			Category category = repositoryService.createCategory(
+					testTicket, MockHelper.createCategory(testTicket,null));
+			Document document = repositoryService.createDocument(
+					testTicket, MockHelper.createDocument(testTicket,testTicket.getRepositoryId()));
+			
+			// Store the member as old workspaces do
+			Session session = SessionManager.getInstance().getSession(testTicket);
+			javax.jcr.Node categoryNode = session.getNodeByIdentifier(category.getId());
+			getMemberships(session).getNode(category.getId()).remove();
+			categoryNode.setProperty(JLibraryConstants.JLIBRARY_NODES,
+									 new String[]{document.getId()});
+			JCRUtils.addNodeToProperty(category.getId(),
+									   session.getNodeByIdentifier(document.getId()),
+									   JLibraryConstants.JLIBRARY_CATEGORIES);
+			JCRUtils.setConfigEntry(session,
+									CategoryMemberships.INDEXED_MEMBERSHIPS,
+									Boolean.FALSE);
+			session.save();
+			assertFalse(CategoryMemberships.isIndexed(session));
+			assertTrue(CategoryMemberships.contains(categoryNode,document.getId()));
+			
+			// Running it twice must have no effect
+			new CategoryMembershipsMigrator().migrate(session);
+			new CategoryMembershipsMigrator().migrate(session);
+			
+			assertTrue(CategoryMemberships.isIndexed(session));
+			assertEquals(1,getMemberships(session).getNodes(category.getId()).getSize());
+			Value[] values = categoryNode.getProperty(
+					JLibraryConstants.JLIBRARY_NODES).getValues();
+			assertEquals(0,values.length);
+			assertTrue(CategoryMemberships.contains(categoryNode,document.getId()));
+			assertTrue(CategoryMemberships.contains(
+					session.getNodeByIdentifier(testCategory.getId()),
+					testCategoryDocument.getId()));
+			
+			List nodes = repositoryService.findNodesForCategory(testTicket, category.getId());
+			assertEquals(1,nodes.size());
+			assertEquals(document.getId(),((Document)nodes.get(0)).getId());
+			
+			repositoryService.deleteCategory(testTicket, category.getId());
+			repositoryService.removeDocument(testTicket, document.getId());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	public void testMigrateBackToProperty() {
+		
+		try {
+			Category category = repositoryService.createCategory(
+					testTicket, MockHelper.createCategory(testTicket,null));
+			Document document = repositoryService.createDocument(
+					testTicket, MockHelper.createDocument(testTicket,testTicket.getRepositoryId()));
+			addDocument(category,document);
+			
+			Session session = SessionManager.getInstance().getSession(testTicket);
+			javax.jcr.Node categoryNode = session.getNodeByIdentifier(category.getId());
+			assertTrue(CategoryMemberships.isIndexed(session));
+			assertTrue(CategoryMemberships.contains(categoryNode,document.getId()));
+			
+			// Running it twice must have no effect
+			new PropertyMembershipsMigrator().migrate(session);
+			new PropertyMembershipsMigrator().migrate(session);
+			
+			assertFalse(CategoryMemberships.isIndexed(session));
+			assertFalse(JCRUtils.getSystemNode(session).hasNode(
+					JLibraryConstants.JLIBRARY_MEMBERSHIPS));
+			Value[] values = categoryNode.getProperty(
+					JLibraryConstants.JLIBRARY_NODES).getValues();
+			assertEquals(1,values.length);
+			assertEquals(document.getId(),values[0].getString());
+			assertTrue(CategoryMemberships.contains(categoryNode,document.getId()));
+			assertTrue(CategoryMemberships.contains(
+					session.getNodeByIdentifier(testCategory.getId()),
+					testCategoryDocument.getId()));
+			
+			List nodes = repositoryService.findNodesForCategory(testTicket, category.getId());
+			assertEquals(1,nodes.size());
+			assertEquals(document.getId(),((Document)nodes.get(0)).getId());
+			
+			repositoryService.deleteCategory(testTicket, category.getId());
+			repositoryService.removeDocument(testTicket, document.getId());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	private void addDocument(Category category, 
+							 Document document) throws Exception {
+		
+		CategoryProperties properties = category.dumpProperties();
+		properties.addProperty(CategoryProperties.CATEGORY_ADD_NODE, document.getId());
+		repositoryService.updateCategory(testTicket, category.getId(), properties);
+	}
+	
+	private javax.jcr.Node getMemberships(Session session) throws Exception {
+		
+		return JCRUtils.getSystemNode(session).getNode(
+				JLibraryConstants.JLIBRARY_MEMBERSHIPS);
+	}
+}
@@ -0,0 +1,153 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.content;
+
+import java.util.Collection;
+
+import org.jlibrary.core.entities.Directory;
+import org.jlibrary.core.entities.Document;
+import org.jlibrary.core.entities.DocumentView;
+import org.jlibrary.core.entities.Note;
+import org.jlibrary.core.properties.DocumentProperties;
+import org.jlibrary.core.repository.exception.RepositoryException;
+import org.jlibrary.test.util.MockHelper;
+
+/**
+ * Test to check the document views and that documents loaded with a 
+ * partial view can't be used to update the repository.
+ * 
+ * @author martin
+ *
+ */
+public class DocumentViewsTest extends AbstractContentTest {
+
+	private Directory viewsDirectory;
+	private Document viewsDocument;
+	
+	@Override
+	protected void setUp() throws Exception {
+		
+		super.setUp();
+		viewsDirectory = repositoryService.createDirectory(
+				testTicket, MockHelper.createDirectory(testTicket,repository.getRoot().getId()));
+		Document document = repositoryService.createDocument(
+				testTicket, MockHelper.createDocument(testTicket,viewsDirectory.getId()));
+		Note note = MockHelper.createNote(testTicket,document);
+		DocumentProperties properties = document.dumpProperties();
+		properties.addProperty(DocumentProperties.DOCUMENT_ADD_NOTE, note);
+		viewsDocument = repositoryService.updateDocument(testTicket, properties);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		
+		repositoryService.removeDirectory(testTicket, viewsDirectory.getId());
+		super.tearDown();
+	}
+	
+	public void testSummaryView() {
+		
+		try {
+			Document document = load(DocumentView.SUMMARY);
+			assertEquals(DocumentView.SUMMARY,document.getView());
+			assertEquals(viewsDocument.getName(),document.getName());
+			assertEquals(viewsDocument.getDescription(),document.getDescription());
+			assertNull(document.getMetaData().getTitle());
+			assertNull(document.getMetaData().getKeywords());
+			assertEquals(0,document.getNotes().size());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	public void testMetadataView() {
+		
+		try {
+			Document document = load(DocumentView.METADATA);
+			assertEquals(DocumentView.METADATA,document.getView());
+			assertEquals(viewsDocument.getName(),document.getName());
+			assertEquals(viewsDocument.getMetaData().getTitle(),
+						 document.getMetaData().getTitle());
+			assertEquals(viewsDocument.getMetaData().getKeywords(),
+						 document.getMetaData().getKeywords());
+			assertNotNull(document.getMetaData().getAuthor());
+			assertEquals(0,document.getNotes().size());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	public void testFullView() {
+		
+		try {
+			Document document = load(DocumentView.FULL);
+			assertEquals(DocumentView.FULL,document.getView());
+			assertEquals(viewsDocument.getMetaData().getTitle(),
+						 document.getMetaData().getTitle());
+			assertEquals(1,document.getNotes().size());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	public void testPartialViewsCannotBeUpdated() {
+		
+		try {
+			DocumentView[] views = {DocumentView.SUMMARY,DocumentView.METADATA};
+			for (int i = 0; i < views.length; i++) {
+				Document document = load(views[i]);
+				document.setDescription("updated from " + views[i]);
+				try {
+					repositoryService.updateDocument(testTicket, document.dumpProperties());
+					fail("Documents loaded with the " + views[i] + " view can't be updated");
+				} catch (RepositoryException e) {}
+			}
+			
+			Document document = load(DocumentView.FULL);
+			assertEquals(viewsDocument.getDescription(),document.getDescription());
+			assertEquals(viewsDocument.getMetaData().getTitle(),
+						 document.getMetaData().getTitle());
+			assertEquals(1,document.getNotes().size());
+			
+			document.setDescription("updated from full");
+			document = repositoryService.updateDocument(testTicket, document.dumpProperties());
+			assertEquals("updated from full",document.getDescription());
+			assertEquals(viewsDocument.getMetaData().getTitle(),
+						 document.getMetaData().getTitle());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	private Document load(DocumentView view) throws Exception {
+		
+		Collection children = 
+			repositoryService.findNodeChildren(testTicket, viewsDirectory.getId(), view);
+		assertEquals(1,children.size());
+		return (Document)children.iterator().next();
+	}
+}
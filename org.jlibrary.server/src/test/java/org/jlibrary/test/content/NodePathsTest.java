@@ -0,0 +1,142 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.content;
+
+import javax.jcr.Session;
+
+import org.jlibrary.core.entities.Directory;
+import org.jlibrary.core.entities.Document;
+import org.jlibrary.core.jcr.JLibraryConstants;
+import org.jlibrary.core.jcr.NodePaths;
+import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.jcr.compatibility.DerivedPathsMigrator;
+import org.jlibrary.core.jcr.compatibility.FullPathsMigrator;
+import org.jlibrary.test.util.MockHelper;
+
+/**
+ * Test to check that node paths are the same with full and derived paths, 
+ * and that workspaces can be converted to derived paths and back.
+ * 
+ * @author martin
+ *
+ */
+public class NodePathsTest extends AbstractContentTest {
+
+	private Directory source;
+	private Directory destination;
+	
+	@Override
+	protected void setUp() throws Exception {
+		
+		super.setUp();
+		String rootId = repository.getRoot().getId();
+		source = repositoryService.createDirectory(
+				testTicket, MockHelper.createDirectory(testTicket,rootId));
+		destination = repositoryService.createDirectory(
+				testTicket, MockHelper.createDirectory(testTicket,rootId));
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		
+		repositoryService.removeDirectory(testTicket, source.getId());
+		repositoryService.removeDirectory(testTicket, destination.getId());
+		super.tearDown();
+	}
+	
+	public void testConvertToDerivedPathsAndBack() {
+		
+		try {
+			Session session = SessionManager.getInstance().getSession(testTicket);
+			NodePaths paths = NodePaths.getInstance();
+			assertFalse(paths.isDerived(session));
+			
+			Directory directory = repositoryService.createDirectory(
+					testTicket, MockHelper.createDirectory(testTicket,source.getId()));
+			Document document = repositoryService.createDocument(
+					testTicket, MockHelper.createDocument(testTicket,directory.getId()));
+			javax.jcr.Node node = session.getNodeByIdentifier(document.getId());
+			String fullPath = paths.getPath(node);
+			assertEquals(fullPath,getStoredPath(node));
+			assertTrue(fullPath.startsWith(getPath(directory)));
+			
+			new DerivedPathsMigrator().migrate(session);
+			assertTrue(paths.isDerived(session));
+			assertEquals(paths.getName(node),getStoredPath(node));
+			assertEquals(fullPath,paths.getPath(node));
+			
+			// Only the moved directory is updated
+			repositoryService.moveNode(testTicket, directory.getId(), destination.getId(), repository.getId());
+			assertTrue(getPath(directory).startsWith(getPath(destination)));
+			String movedPath = getPath(directory) + paths.getName(node);
+			assertEquals(movedPath,paths.getPath(node));
+			assertEquals(paths.getName(node),getStoredPath(node));
+			
+			new FullPathsMigrator().migrate(session);
+			assertFalse(paths.isDerived(session));
+			assertEquals(movedPath,getStoredPath(node));
+			assertEquals(movedPath,paths.getPath(node));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	public void testFullPathsAreRewrittenOnMove() {
+		
+		try {
+			Session session = SessionManager.getInstance().getSession(testTicket);
+			NodePaths paths = NodePaths.getInstance();
+			
+			Directory directory = repositoryService.createDirectory(
+					testTicket, MockHelper.createDirectory(testTicket,source.getId()));
+			Document document = repositoryService.createDocument(
+					testTicket, MockHelper.createDocument(testTicket,directory.getId()));
+			
+			repositoryService.moveNode(testTicket, directory.getId(), destination.getId(), repository.getId());
+			javax.jcr.Node node = session.getNodeByIdentifier(document.getId());
+			assertTrue(getPath(directory).startsWith(getPath(destination)));
+			String path = getPath(directory) + paths.getName(node);
+			assertEquals(path,getStoredPath(node));
+			assertEquals(path,paths.getPath(node));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns the jLibrary path of a directory, with a trailing slash
+	 */
+	private String getPath(Directory directory) throws Exception {
+		
+		Session session = SessionManager.getInstance().getSession(testTicket);
+		return NodePaths.addSeparator(NodePaths.getInstance().getPath(
+				session.getNodeByIdentifier(directory.getId())));
+	}
+	
+	private String getStoredPath(javax.jcr.Node node) throws Exception {
+		
+		return node.getProperty(JLibraryConstants.JLIBRARY_PATH).getString();
+	}
+}
@@ -55,6 +55,45 @@ public class CreateVersionTest extends AbstractContentTest {
 		}
 	}
 	
+	public void testNoVersionForIdenticalUpdate() {
+		
+		try {
+			Document document = 
+				repositoryService.findDocument(testTicket, testDocument.getId());
+			DocumentProperties properties = document.dumpProperties();
+			properties.setProperty(DocumentProperties.DOCUMENT_CONTENT, 
+								   "versioned content".getBytes());
+			document = repositoryService.updateDocument(testTicket, properties);
+			List versions = 
+				repositoryService.getVersions(testTicket, document.getId());
+			int size = versions.size();
+			String digest = document.getDigest();
+			
+			// Same content and same metadata, nothing to save or version
+			properties = document.dumpProperties();
+			properties.setProperty(DocumentProperties.DOCUMENT_CONTENT, 
+					   			   "versioned content".getBytes());
+			document = repositoryService.updateDocument(testTicket, properties);
+			versions = 
+				repositoryService.getVersions(testTicket, document.getId());
+			assertEquals(size,versions.size());
+			assertEquals(digest,document.getDigest());
+			
+			// A new content is versioned again
+			properties = document.dumpProperties();
+			properties.setProperty(DocumentProperties.DOCUMENT_CONTENT, 
+					   			   "changed content".getBytes());
+			document = repositoryService.updateDocument(testTicket, properties);
+			versions = 
+				repositoryService.getVersions(testTicket, document.getId());
+			assertEquals(size+1,versions.size());
+			assertFalse(digest.equals(document.getDigest()));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
 	public void testVersionsAtCreate() {
 		
 		try {
@@ -0,0 +1,150 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.locking;
+
+import javax.jcr.lock.LockException;
+
+import org.jlibrary.core.jcr.NodeLock;
+import org.jlibrary.core.jcr.NodeLockManager;
+
+import junit.framework.TestCase;
+
+public class NodeLockManagerTest extends TestCase {
+
+	public void testReadersShareTheLock() throws Exception {
+		
+		final NodeLockManager manager = new NodeLockManager(16,100);
+		NodeLock lock = manager.readLock("node");
+		
+		final NodeLock[] other = new NodeLock[1];
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					other[0] = manager.readLock("node");
+					other[0].release();
+				} catch (Exception e) {}
+			}
+		};
+		reader.start();
+		reader.join();
+		lock.release();
+		
+		assertNotNull(other[0]);
+		assertEquals(0,manager.getContentions());
+	}
+	
+	public void testWriterTimesOut() throws Exception {
+		
+		final NodeLockManager manager = new NodeLockManager(16,50);
+		NodeLock lock = manager.readLock("node");
+		
+		final Exception[] error = new Exception[1];
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					manager.writeLock("node").release();
+				} catch (Exception e) {
+					error[0] = e;
+				}
+			}
+		};
+		writer.start();
+		writer.join();
+		lock.release();
+		
+		assertTrue(error[0] instanceof LockException);
+		assertEquals(1,manager.getContentions());
+		assertEquals(1,manager.getTimeouts());
+	}
+	
+	public void testLocksAreReentrant() throws Exception {
+		
+		NodeLockManager manager = new NodeLockManager(1,50);
+		NodeLock first = manager.writeLock("a");
+		NodeLock second = manager.writeLock("b");
+		second.release();
+		second.release();
+		first.release();
+		assertEquals(2,manager.getAcquisitions());
+		assertEquals(0,manager.getTimeouts());
+	}
+	public void testExclusiveLockCoversTheSubtree() throws Exception {
+		
+		final NodeLockManager manager = new NodeLockManager(16,50);
+		NodeLock lock = manager.writeLock("/repository/directory");
+		
+		final Exception[] error = new Exception[1];
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					manager.writeLock("/repository/directory/child/document").release();
+				} catch (Exception e) {
+					error[0] = e;
+				}
+			}
+		};
+		writer.start();
+		writer.join();
+		lock.release();
+		
+		assertTrue(error[0] instanceof LockException);
+		assertEquals(1,manager.getTimeouts());
+	}
+	
+	public void testUnrelatedBranchesDoNotContend() throws Exception {
+		
+		final NodeLockManager manager = new NodeLockManager(16,50);
+		NodeLock lock = manager.writeLock("/repository/first");
+		
+		final NodeLock[] other = new NodeLock[1];
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					other[0] = manager.writeLock("/repository/second/document");
+					other[0].release();
+				} catch (Exception e) {}
+			}
+		};
+		writer.start();
+		writer.join();
+		lock.release();
+		
+		assertNotNull(other[0]);
+		assertEquals(0,manager.getContentions());
+		assertEquals(0,manager.getLockedPaths());
+	}
+	
+	public void testSameThreadCanLockAnAncestor() throws Exception {
+		
+		NodeLockManager manager = new NodeLockManager(16,50);
+		NodeLock child = manager.writeLock("/repository/directory/document");
+		NodeLock parent = manager.writeLock("/repository/directory");
+		assertEquals(4,manager.getHeldPaths().size());
+		parent.release();
+		child.release();
+		
+		assertEquals(0,manager.getTimeouts());
+		assertEquals(0,manager.getLockedPaths());
+		assertTrue(manager.getHeldPaths().isEmpty());
+	}
+}
@@ -0,0 +1,148 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.search;
+
+import java.util.Calendar;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.nodetype.NodeTypeTemplate;
+
+import org.jlibrary.core.entities.Document;
+import org.jlibrary.core.jcr.JLibraryConstants;
+import org.jlibrary.core.jcr.SessionManager;
+import org.jlibrary.core.jcr.query.PreparedQueries;
+import org.jlibrary.core.jcr.query.QueryTemplate;
+import org.jlibrary.core.jcr.query.QueryTemplates;
+import org.jlibrary.core.properties.DocumentProperties;
+import org.jlibrary.test.AbstractRepositoryTest;
+import org.jlibrary.test.util.MockHelper;
+
+/**
+ * Tests the JCR-SQL2 query templates. Selectors must match the subtypes and 
+ * the mixins of their node types, and only active nodes must be returned.
+ * 
+ * @author martin
+ *
+ */
+public class PreparedQueriesTest extends AbstractRepositoryTest {
+
+	private static final String TEST_CATEGORY_TYPE = "jlib:testCategory";
+	
+	public void testDocumentsByNameMatchesMixin() {
+		
+		Document document = null;
+		SessionManager.getInstance().beginLease();
+		try {
+			DocumentProperties properties = MockHelper.createDocument(
+					testTicket, repository.getRoot().getId());
+			properties.setProperty(DocumentProperties.DOCUMENT_NAME, 
+								   "query's document");
+			document = repositoryService.createDocument(testTicket, properties);
+			
+			// Documents are nt:file nodes with the jlib:document mixin
+			Session session = SessionManager.getInstance().getSession(testTicket);
+			javax.jcr.Node node = session.getNodeByIdentifier(document.getId());
+			assertEquals(1,count(session,QueryTemplates.DOCUMENTS_BY_NAME,
+								 document.getName()));
+			
+			node.setProperty(JLibraryConstants.JLIBRARY_ACTIVE,false);
+			session.save();
+			assertEquals(0,count(session,QueryTemplates.DOCUMENTS_BY_NAME,
+								 document.getName()));
+			
+			node.setProperty(JLibraryConstants.JLIBRARY_ACTIVE,true);
+			session.save();
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} finally {
+			SessionManager.getInstance().endLease();
+			if (document != null) {
+				try {
+					repositoryService.removeDocument(testTicket, document.getId());
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	public void testCategoryByNameMatchesSubtype() {
+		
+		SessionManager.getInstance().beginLease();
+		try {
+			Session session = SessionManager.getInstance().getSession(testTicket);
+			NodeTypeManager ntm = 
+				session.getWorkspace().getNodeTypeManager();
+			NodeTypeTemplate template = ntm.createNodeTypeTemplate();
+			template.setName(TEST_CATEGORY_TYPE);
+			template.setDeclaredSuperTypeNames(
+					new String[]{"nt:base",JLibraryConstants.CATEGORY_MIXIN});
+			ntm.registerNodeType(template,true);
+			
+			String name = "query's category";
+			javax.jcr.Node node = session.getRootNode().addNode(
+					"queryTestCategory",TEST_CATEGORY_TYPE);
+			node.setProperty(JLibraryConstants.JLIBRARY_NAME,name);
+			node.setProperty(JLibraryConstants.JLIBRARY_DESCRIPTION,"");
+			node.setProperty(JLibraryConstants.JLIBRARY_DATE,
+							 Calendar.getInstance());
+			node.setProperty(JLibraryConstants.JLIBRARY_NODES,new Value[]{});
+			session.save();
+			try {
+				assertEquals(1,count(session,QueryTemplates.CATEGORY_BY_NAME,name));
+				
+				node.setProperty(JLibraryConstants.JLIBRARY_ACTIVE,false);
+				session.save();
+				assertEquals(0,count(session,QueryTemplates.CATEGORY_BY_NAME,name));
+			} finally {
+				node.remove();
+				session.save();
+				ntm.unregisterNodeType(TEST_CATEGORY_TYPE);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} finally {
+			SessionManager.getInstance().endLease();
+		}
+	}
+	
+	private int count(Session session, 
+					  QueryTemplate template, 
+					  String name) throws Exception {
+		
+		NodeIterator it = PreparedQueries.prepare(session,template).
+								bind("name",name).
+								execute();
+		int count = 0;
+		while (it.hasNext()) {
+			it.nextNode();
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.search;
+
+import java.util.List;
+
+import org.jlibrary.core.entities.Node;
+import org.jlibrary.core.search.SearchHit;
+import org.jlibrary.core.search.SearchHitQueue;
+import org.jlibrary.core.search.algorithms.DefaultSearchAlgorithm;
+
+import junit.framework.TestCase;
+
+public class SearchHitQueueTest extends TestCase {
+
+	private SearchHit hit(String id, double score) {
+		
+		SearchHit hit = new SearchHit();
+		hit.setId(id);
+		hit.setScore(score);
+		return hit;
+	}
+	
+	public void testKeepsBestHitsInOrder() {
+		
+		SearchHitQueue queue = new SearchHitQueue(3);
+		queue.offer(hit("a",0.1));
+		queue.offer(hit("b",0.9));
+		queue.offer(hit("c",0.5));
+		queue.offer(hit("d",0.7));
+		assertFalse(queue.offer(hit("e",0.2)));
+		
+		List hits = queue.toList();
+		assertEquals(3,hits.size());
+		assertEquals("b",((SearchHit)hits.get(0)).getId());
+		assertEquals("d",((SearchHit)hits.get(1)).getId());
+		assertEquals("c",((SearchHit)hits.get(2)).getId());
+		
+		assertFalse(queue.accepts(0.4));
+		assertTrue(queue.accepts(0.6));
+	}
+	
+	public void testEqualScoresAreOrderedById() {
+		
+		SearchHitQueue queue = new SearchHitQueue(SearchHitQueue.UNBOUNDED);
+		queue.offer(hit("c",0.5));
+		queue.offer(hit("a",0.5));
+		queue.offer(hit("b",0.5));
+		
+		List hits = queue.toList();
+		assertEquals("a",((SearchHit)hits.get(0)).getId());
+		assertEquals("b",((SearchHit)hits.get(1)).getId());
+		assertEquals("c",((SearchHit)hits.get(2)).getId());
+	}
+	
+	public void testMaxScoreBoundsAdjustedScores() {
+		
+		DefaultSearchAlgorithm algorithm = new DefaultSearchAlgorithm();
+		Integer[] importances = new Integer[] {
+				Node.IMPORTANCE_LOWEST, Node.IMPORTANCE_LOW,
+				Node.IMPORTANCE_MEDIUM, Node.IMPORTANCE_HIGH,
+				Node.IMPORTANCE_HIGHEST };
+		double previous = -1;
+		for (double score = 0; score <= 2; score += 0.05) {
+			double max = algorithm.maxScore(score);
+			assertTrue(max >= previous);
+			for (int i = 0; i < importances.length; i++) {
+				assertTrue(algorithm.score(score,importances[i]) <= max);
+			}
+			previous = max;
+		}
+	}
+}
@@ -22,6 +22,11 @@
 */
 package org.jlibrary.test.search;
 
+import java.util.Collection;
+
+import org.jlibrary.core.entities.SearchResult;
+import org.jlibrary.core.jcr.JCRSearchService;
+import org.jlibrary.core.jcr.SessionManager;
 import org.jlibrary.core.search.SearchService;
 import org.jlibrary.test.AbstractRepositoryTest;
 
@@ -52,4 +57,30 @@ public class SearchTest extends AbstractRepositoryTest {
 			fail(e.getMessage());
 		}
 	}	
+	
+	public void testSearchSizeCountsReturnedHits() {
+		
+		try {
+			Collection hits = searchService.search(testTicket, "[@jlib:active]");
+			assertTrue(hits.size() > 1);
+			
+			// Services run inside a lease scope
+			SessionManager.getInstance().beginLease();
+			try {
+				JCRSearchService service = new JCRSearchService();
+				SearchResult page = service.search(testTicket, "[@jlib:active]", 0, 0);
+				assertEquals(hits.size(),page.getSize());
+				assertEquals(1,page.getItems().size());
+				
+				page = service.search(testTicket, "[@jlib:active]", 1, hits.size());
+				assertEquals(hits.size(),page.getSize());
+				assertEquals(hits.size()-1,page.getItems().size());
+			} finally {
+				SessionManager.getInstance().endLease();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
 }
@@ -0,0 +1,239 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+
+import org.jlibrary.core.jcr.ChildNameRegistry;
+
+import junit.framework.TestCase;
+
+public class ChildNameRegistryTest extends TestCase {
+
+	public void testAllocatesSuffixesAfterTheHighestUsed() throws Exception {
+		
+		ChildNameRegistry registry = new ChildNameRegistry(16,60000);
+		Set children = new TreeSet();
+		children.add("report.pdf");
+		children.add("report[7].pdf");
+		Node parent = createDirectory("parent",children,createSession());
+		
+		assertEquals("report[8]",create(registry,parent,children,".pdf","report"));
+		assertEquals("report[9]",create(registry,parent,children,".pdf","report"));
+		assertEquals("notes",create(registry,parent,children,".pdf","notes"));
+		assertEquals("notes[1]",create(registry,parent,children,".pdf","notes"));
+		assertEquals(1,registry.getSeeds());
+	}
+	
+	public void testReleasedNamesAreReused() throws Exception {
+		
+		ChildNameRegistry registry = new ChildNameRegistry(16,60000);
+		Set children = new TreeSet();
+		children.add("folder");
+		Node parent = createDirectory("parent",children,createSession());
+		
+		assertEquals("folder[1]",create(registry,parent,children,null,"folder"));
+		
+		children.remove("folder");
+		registry.release(createChild(parent,"folder"));
+		assertEquals("folder",create(registry,parent,children,null,"folder"));
+	}
+	
+	public void testUnknownChildrenAreDetected() throws Exception {
+		
+		ChildNameRegistry registry = new ChildNameRegistry(16,60000);
+		Set children = new TreeSet();
+		Node parent = createDirectory("parent",children,createSession());
+		
+		assertEquals("a",create(registry,parent,children,null,"a"));
+		// Created by other way, i.e. an import
+		children.add("b");
+		assertEquals("b[1]",create(registry,parent,children,null,"b"));
+		assertEquals(1,registry.getConflicts());
+	}
+	
+	public void testDiscardedNamesAreReclaimed() throws Exception {
+		
+		ChildNameRegistry registry = new ChildNameRegistry(16,60000);
+		Set children = new TreeSet();
+		Node parent = createDirectory("parent",children,createSession());
+		
+		// The node is never added, i.e. the session discarded its changes
+		assertEquals("draft",registry.allocate(parent,null,"draft"));
+		assertEquals("draft",registry.allocate(parent,null,"draft"));
+		assertEquals(1,registry.getReclaims());
+	}
+	
+	public void testNamesOfOtherSessionsAreKept() throws Exception {
+		
+		ChildNameRegistry registry = new ChildNameRegistry(16,60000);
+		Set children = new TreeSet();
+		boolean[] live = new boolean[] {true};
+		Node parent = createDirectory("parent",children,createSession(live));
+		Node other = createDirectory("parent",children,createSession());
+		
+		assertEquals("draft",registry.allocate(parent,null,"draft"));
+		assertEquals("draft[1]",registry.allocate(other,null,"draft"));
+		
+		live[0] = false;
+		assertEquals("draft",registry.allocate(other,null,"draft"));
+		assertEquals(1,registry.getReclaims());
+	}
+	
+	public void testReservationsTimeOut() throws Exception {
+		
+		ChildNameRegistry registry = new ChildNameRegistry(16,-1);
+		Set children = new TreeSet();
+		Node parent = createDirectory("parent",children,createSession());
+		Node other = createDirectory("parent",children,createSession());
+		
+		assertEquals("draft",registry.allocate(parent,null,"draft"));
+		assertEquals("draft",registry.allocate(other,null,"draft"));
+	}
+	
+	/**
+	 * Allocates a name and adds the child, as the service methods do
+	 */
+	private String create(ChildNameRegistry registry, 
+						  Node parent, 
+						  Set children, 
+						  String extension, 
+						  String name) throws Exception {
+		
+		String allocated = registry.allocate(parent,extension,name);
+		if ((extension != null) && !allocated.endsWith(extension)) {
+			children.add(allocated + extension);
+		} else {
+			children.add(allocated);
+		}
+		return allocated;
+	}
+	
+	private Session createSession() {
+		
+		return createSession(new boolean[] {true});
+	}
+	
+	private Session createSession(final boolean[] live) {
+		
+		return (Session)proxy(Session.class,new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getWorkspace")) {
+					return proxy(Workspace.class,new InvocationHandler() {
+						public Object invoke(Object p, Method m, Object[] a) {
+							return "default";
+						}
+					});
+				} else if (name.equals("isLive")) {
+					return Boolean.valueOf(live[0]);
+				} else if (name.equals("hasPendingChanges")) {
+					return Boolean.TRUE;
+				} else if (name.equals("hashCode")) {
+					return new Integer(System.identityHashCode(proxy));
+				} else if (name.equals("equals")) {
+					return Boolean.valueOf(proxy == args[0]);
+				}
+				return null;
+			}
+		});
+	}
+	
+	private Node createDirectory(final String id, 
+								 final Set children, 
+								 final Session session) {
+		
+		return (Node)proxy(Node.class,new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getSession")) {
+					return session;
+				} else if (name.equals("getIdentifier")) {
+					return id;
+				} else if (name.equals("getDepth")) {
+					return new Integer(1);
+				} else if (name.equals("hasNode")) {
+					return Boolean.valueOf(children.contains(
+							org.apache.jackrabbit.util.Text.unescape((String)args[0])));
+				} else if (name.equals("getNodes")) {
+					return createIterator((Node)proxy,children.iterator());
+				}
+				return null;
+			}
+		});
+	}
+	
+	private Node createChild(final Node parent, final String childName) {
+		
+		return (Node)proxy(Node.class,new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) 
+															throws Exception {
+				String name = method.getName();
+				if (name.equals("getSession")) {
+					return parent.getSession();
+				} else if (name.equals("getIdentifier")) {
+					return parent.getIdentifier() + "/" + childName;
+				} else if (name.equals("getDepth")) {
+					return new Integer(2);
+				} else if (name.equals("getName")) {
+					return childName;
+				} else if (name.equals("getParent")) {
+					return parent;
+				}
+				return null;
+			}
+		});
+	}
+	
+	private NodeIterator createIterator(final Node parent, final Iterator names) {
+		
+		return (NodeIterator)proxy(NodeIterator.class,new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("hasNext")) {
+					return Boolean.valueOf(names.hasNext());
+				} else if (name.equals("nextNode") || name.equals("next")) {
+					return createChild(parent,(String)names.next());
+				}
+				return null;
+			}
+		});
+	}
+	
+	private static Object proxy(Class type, InvocationHandler handler) {
+		
+		return Proxy.newProxyInstance(ChildNameRegistryTest.class.getClassLoader(),
+									  new Class[] {type},
+									  handler);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+
+import org.jlibrary.core.entities.NodeOrder;
+import org.jlibrary.core.jcr.ChildrenCursor;
+
+import junit.framework.TestCase;
+
+public class ChildrenCursorTest extends TestCase {
+
+	public void testParsesWhatItWrites() throws Exception {
+		
+		ChildrenCursor cursor = 
+			new ChildrenCursor(NodeOrder.NAME,false,"id-1","a;b~c");
+		ChildrenCursor parsed = ChildrenCursor.parse(cursor.toString());
+		assertSame(NodeOrder.NAME,parsed.getOrder());
+		assertFalse(parsed.isAscending());
+		assertEquals("id-1",parsed.getId());
+		assertEquals("a;b~c",parsed.getKey());
+		
+		parsed = ChildrenCursor.parse(
+				new ChildrenCursor(NodeOrder.SIZE,true,"id-2",new Long(42)).toString());
+		assertEquals(new Long(42),parsed.getKey());
+		
+		parsed = ChildrenCursor.parse(
+				new ChildrenCursor(NodeOrder.CREATED,true,"id-3",null).toString());
+		assertNull(parsed.getKey());
+	}
+	
+	public void testRejectsInvalidCursors() throws Exception {
+		
+		String[] invalid = {"","name;a;id","other;a;id;s","name;x;id;s",
+							"size;a;id;lnan","size;a;id;q1"};
+		for (int i = 0; i < invalid.length; i++) {
+			try {
+				ChildrenCursor.parse(invalid[i]);
+				fail("Accepted " + invalid[i]);
+			} catch (IllegalArgumentException iae) {}
+		}
+	}
+	
+	public void testMissingKeysGoLastOnBothDirections() throws Exception {
+		
+		List entries = new ArrayList();
+		entries.add(new ChildrenCursor.Entry(null,"c",null));
+		entries.add(new ChildrenCursor.Entry(new Long(2),"b",null));
+		entries.add(new ChildrenCursor.Entry(new Long(1),"z",null));
+		entries.add(new ChildrenCursor.Entry(new Long(1),"a",null));
+		
+		Collections.sort(entries,ChildrenCursor.comparator(true));
+		assertEquals("azbc",ids(entries));
+		Collections.sort(entries,ChildrenCursor.comparator(false));
+		assertEquals("bzac",ids(entries));
+	}
+	
+	public void testCursorSkipsTheReturnedChildren() throws Exception {
+		
+		ChildrenCursor cursor = 
+			new ChildrenCursor(NodeOrder.SIZE,true,"m",new Long(5));
+		assertFalse(cursor.isBefore(new Long(4),"z"));
+		assertFalse(cursor.isBefore(new Long(5),"m"));
+		assertTrue(cursor.isBefore(new Long(5),"n"));
+		assertTrue(cursor.isBefore(new Long(6),"a"));
+		assertTrue(cursor.isBefore(null,"a"));
+	}
+	
+	public void testNaturalCursorFollowsItsChild() throws Exception {
+		
+		ChildrenCursor cursor = 
+			new ChildrenCursor(NodeOrder.NATURAL,true,"c",new Long(2));
+		assertEquals(2,cursor.locate(parent(new String[]{"a","b","c","d"})));
+		// A previous child has been removed
+		assertEquals(1,cursor.locate(parent(new String[]{"a","c","d"})));
+		// Children have been added before it
+		assertEquals(4,cursor.locate(parent(new String[]{"x","y","a","b","c"})));
+	}
+	
+	public void testNaturalCursorOfMovedChildIsInvalid() throws Exception {
+		
+		ChildrenCursor cursor = 
+			new ChildrenCursor(NodeOrder.NATURAL,true,"c",new Long(2));
+		assertEquals(-1,cursor.locate(parent(new String[]{"a","b","d"})));
+		assertEquals(-1,cursor.locate(parent(new String[]{"a"})));
+		assertEquals(-1,cursor.locate(parent(new String[]{null,null,null})));
+	}
+	
+	/**
+	 * Creates a parent node whose children have the given ids. Children 
+	 * with a <code>null</code> id are not referenceable.
+	 */
+	private Node parent(final String[] ids) {
+		
+		return (Node)Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class[] {Node.class},
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getNodes")) {
+							return children(Arrays.asList(ids));
+						}
+						return null;
+					}
+				});
+	}
+	
+	private NodeIterator children(final List ids) {
+		
+		return (NodeIterator)Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class[] {NodeIterator.class},
+				new InvocationHandler() {
+					private int position = 0;
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("hasNext")) {
+							return Boolean.valueOf(position < ids.size());
+						} else if (name.equals("skip")) {
+							position += ((Long)args[0]).intValue();
+							if (position > ids.size()) {
+								throw new NoSuchElementException();
+							}
+							return null;
+						}
+						if (position >= ids.size()) {
+							throw new NoSuchElementException();
+						}
+						return child((String)ids.get(position++));
+					}
+				});
+	}
+	
+	private Node child(final String id) {
+		
+		return (Node)Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class[] {Node.class},
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("isNodeType")) {
+							return Boolean.valueOf(id != null);
+						}
+						return id;
+					}
+				});
+	}
+	
+	private String ids(List entries) {
+		
+		StringBuffer buffer = new StringBuffer();
+		for (int i = 0; i < entries.size(); i++) {
+			buffer.append(((ChildrenCursor.Entry)entries.get(i)).getId());
+		}
+		return buffer.toString();
+	}
+}
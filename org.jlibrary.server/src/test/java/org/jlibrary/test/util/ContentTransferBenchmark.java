@@ -0,0 +1,116 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.jlibrary.core.jcr.ContentTransfer;
+
+/**
+ * Compares the stream copy of file contents with the channel transfer used 
+ * for data store contents. It is not run with the tests, run it with the 
+ * size in megabytes of the content as argument.
+ * 
+ * @author martin
+ */
+public class ContentTransferBenchmark {
+
+	private static final int ROUNDS = 5;
+	
+	public static void main(String[] args) throws IOException {
+		
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		long size = megabytes * 1024L * 1024L;
+		
+		File source = File.createTempFile("jlib","bench");
+		File target = File.createTempFile("jlib","bench");
+		try {
+			byte[] block = new byte[1024*1024];
+			for (int i = 0; i < block.length; i++) {
+				block[i] = (byte)i;
+			}
+			OutputStream out = new FileOutputStream(source);
+			for (int i = 0; i < megabytes; i++) {
+				out.write(block);
+			}
+			out.close();
+			
+			for (int round = 0; round < ROUNDS; round++) {
+				long copy = copy(source,target,size);
+				long transfer = transfer(source,target,size);
+				System.out.println("Round " + round + 
+								   ": stream copy " + rate(size,copy) + 
+								   " MB/s, channel transfer " + 
+								   rate(size,transfer) + " MB/s");
+			}
+		} finally {
+			source.delete();
+			target.delete();
+		}
+	}
+	
+	private static long copy(File source, File target, long size) 
+														throws IOException {
+		
+		long start = System.nanoTime();
+		InputStream in = new FileInputStream(source);
+		OutputStream out = new FileOutputStream(target);
+		try {
+			// Same 4 KB loop as IOUtils.copy
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer,0,read);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+		return System.nanoTime() - start;
+	}
+	
+	private static long transfer(File source, File target, long size) 
+														throws IOException {
+		
+		long start = System.nanoTime();
+		FileInputStream in = new FileInputStream(source);
+		OutputStream out = new FileOutputStream(target);
+		try {
+			ContentTransfer.transfer(in.getChannel(),0,size,out);
+		} finally {
+			in.close();
+			out.close();
+		}
+		return System.nanoTime() - start;
+	}
+	
+	private static long rate(long size, long nanos) {
+		
+		return (size * 1000000000L) / (nanos * 1024L * 1024L);
+	}
+}
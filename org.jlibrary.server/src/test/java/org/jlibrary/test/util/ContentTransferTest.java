@@ -0,0 +1,112 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.jlibrary.core.jcr.ContentTransfer;
+
+public class ContentTransferTest extends TestCase {
+
+	private File source;
+	private byte[] content;
+	
+	protected void setUp() throws Exception {
+		
+		content = new byte[100000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte)(i % 251);
+		}
+		source = File.createTempFile("jlib","tmp");
+		FileOutputStream out = new FileOutputStream(source);
+		out.write(content);
+		out.close();
+	}
+	
+	protected void tearDown() throws Exception {
+		
+		source.delete();
+	}
+	
+	public void testTransferToStream() throws IOException {
+		
+		FileInputStream in = new FileInputStream(source);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ContentTransfer.transfer(in.getChannel(),1000,50000,out);
+			assertRange(out.toByteArray(),1000,50000);
+		} finally {
+			in.close();
+		}
+	}
+	
+	public void testTransferToFile() throws IOException {
+		
+		File target = File.createTempFile("jlib","tmp");
+		FileInputStream in = new FileInputStream(source);
+		try {
+			FileOutputStream out = new FileOutputStream(target);
+			ContentTransfer.transfer(in.getChannel(),0,content.length,out);
+			out.close();
+			assertEquals(content.length,target.length());
+		} finally {
+			in.close();
+			target.delete();
+		}
+	}
+	
+	public void testRangeOutsideContent() throws IOException {
+		
+		FileInputStream in = new FileInputStream(source);
+		try {
+			ContentTransfer.transfer(in.getChannel(),content.length-10,20,
+									 new ByteArrayOutputStream());
+			fail("The content ends before the range");
+		} catch (IOException e) {
+		} finally {
+			in.close();
+		}
+	}
+	
+	public void testCopy() throws IOException {
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContentTransfer.copy(new ByteArrayInputStream(content),out,30000);
+		assertRange(out.toByteArray(),0,30000);
+	}
+	
+	private void assertRange(byte[] written, int offset, int length) {
+		
+		assertEquals(length,written.length);
+		for (int i = 0; i < length; i++) {
+			assertEquals(content[offset+i],written[i]);
+		}
+	}
+}
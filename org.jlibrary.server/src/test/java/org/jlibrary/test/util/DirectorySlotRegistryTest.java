@@ -0,0 +1,215 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+
+import org.jlibrary.core.jcr.DirectorySlotRegistry;
+
+import junit.framework.TestCase;
+
+public class DirectorySlotRegistryTest extends TestCase {
+
+	/**
+	 * Slots of the child directories, by identifier
+	 */
+	private Map children;
+	private Session session;
+	private Node parent;
+	
+	protected void setUp() throws Exception {
+		
+		children = new LinkedHashMap();
+		session = createSession();
+		parent = createParent();
+	}
+	
+	public void testDirectoriesKeepTheirSlots() throws Exception {
+		
+		children.put("a",new Integer(0));
+		children.put("b",new Integer(2));
+		DirectorySlotRegistry registry = new DirectorySlotRegistry(16,60000);
+		
+		assertEquals(2,registry.allocate(parent,createChild("b"),false));
+		assertEquals(0,registry.allocate(parent,createChild("a"),false));
+		assertEquals(1,create(registry,"c"));
+		assertEquals(3,create(registry,"d"));
+		assertEquals(1,registry.getSeeds());
+	}
+	
+	public void testMovedDirectoriesGetNewSlots() throws Exception {
+		
+		children.put("a",new Integer(0));
+		// Moved from other parent, where it had the slot 0
+		children.put("moved",new Integer(0));
+		DirectorySlotRegistry registry = new DirectorySlotRegistry(16,60000);
+		
+		assertEquals(1,registry.allocate(parent,createChild("moved"),true));
+		children.put("moved",new Integer(1));
+		assertEquals(0,registry.allocate(parent,createChild("a"),false));
+		assertEquals(2,create(registry,"c"));
+	}
+	
+	public void testReleasedSlotsAreReused() throws Exception {
+		
+		children.put("a",new Integer(0));
+		children.put("b",new Integer(1));
+		DirectorySlotRegistry registry = new DirectorySlotRegistry(16,60000);
+		
+		assertEquals(2,create(registry,"c"));
+		registry.release(createChild("a"));
+		children.remove("a");
+		assertEquals(0,create(registry,"d"));
+	}
+	
+	public void testDiscardedSlotsAreReclaimed() throws Exception {
+		
+		DirectorySlotRegistry registry = new DirectorySlotRegistry(16,60000);
+		
+		assertEquals(0,create(registry,"a"));
+		// Never saved, i.e. the session discarded its changes
+		assertEquals(1,registry.allocate(parent,createChild("draft"),false));
+		assertEquals(1,create(registry,"b"));
+		assertEquals(1,registry.getReclaims());
+	}
+	
+	/**
+	 * Allocates the slot of a new directory and adds it, as the service 
+	 * methods do
+	 */
+	private int create(DirectorySlotRegistry registry, 
+					   String id) throws Exception {
+		
+		int slot = registry.allocate(parent,createChild(id),false);
+		children.put(id,new Integer(slot));
+		return slot;
+	}
+	
+	private Session createSession() {
+		
+		return (Session)proxy(Session.class,new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) 
+															throws Exception {
+				String name = method.getName();
+				if (name.equals("getWorkspace")) {
+					return proxy(Workspace.class,new InvocationHandler() {
+						public Object invoke(Object p, Method m, Object[] a) {
+							return "default";
+						}
+					});
+				} else if (name.equals("isLive")) {
+					return Boolean.TRUE;
+				} else if (name.equals("hasPendingChanges")) {
+					return Boolean.TRUE;
+				} else if (name.equals("getNodeByIdentifier")) {
+					if (!children.containsKey(args[0])) {
+						throw new ItemNotFoundException((String)args[0]);
+					}
+					return createChild((String)args[0]);
+				}
+				return null;
+			}
+		});
+	}
+	
+	private Node createParent() {
+		
+		return (Node)proxy(Node.class,new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getSession")) {
+					return session;
+				} else if (name.equals("getIdentifier")) {
+					return "parent";
+				} else if (name.equals("getDepth")) {
+					return new Integer(1);
+				} else if (name.equals("getNodes")) {
+					return createIterator(children.keySet().iterator());
+				}
+				return null;
+			}
+		});
+	}
+	
+	private Node createChild(final String id) {
+		
+		return (Node)proxy(Node.class,new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getSession")) {
+					return session;
+				} else if (name.equals("getIdentifier")) {
+					return id;
+				} else if (name.equals("getDepth")) {
+					return new Integer(2);
+				} else if (name.equals("getParent")) {
+					return parent;
+				} else if (name.equals("isNodeType") || 
+						   name.equals("hasProperty")) {
+					return Boolean.TRUE;
+				} else if (name.equals("getProperty")) {
+					return proxy(Property.class,new InvocationHandler() {
+						public Object invoke(Object p, Method m, Object[] a) {
+							return "/parent/" + children.get(id);
+						}
+					});
+				}
+				return null;
+			}
+		});
+	}
+	
+	private NodeIterator createIterator(final Iterator ids) {
+		
+		return (NodeIterator)proxy(NodeIterator.class,new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("hasNext")) {
+					return Boolean.valueOf(ids.hasNext());
+				} else if (name.equals("nextNode") || name.equals("next")) {
+					return createChild((String)ids.next());
+				}
+				return null;
+			}
+		});
+	}
+	
+	private static Object proxy(Class type, InvocationHandler handler) {
+		
+		return Proxy.newProxyInstance(DirectorySlotRegistryTest.class.getClassLoader(),
+									  new Class[] {type},
+									  handler);
+	}
+}
@@ -0,0 +1,138 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import junit.framework.TestCase;
+
+import org.jlibrary.core.jcr.SessionPool;
+
+public class SessionPoolTest extends TestCase {
+
+	public void testLeasedSessionsAreReused() throws Exception {
+		
+		SessionPool pool = createPool(2);
+		Session session = pool.lease();
+		assertTrue(pool.owns(session));
+		assertEquals("service", session.getUserID());
+		pool.release(session);
+		
+		assertSame(session, pool.lease());
+		assertEquals(1, pool.getCreatedCount());
+	}
+	
+	public void testForeignSessionsAreNotPooled() throws Exception {
+		
+		SessionPool pool = createPool(2);
+		Session foreign = createSession("user");
+		assertFalse(pool.owns(foreign));
+		
+		pool.lease();
+		pool.release(foreign);
+		assertFalse(foreign.isLive());
+		assertEquals(0, pool.getIdleCount());
+		
+		Session session = pool.lease();
+		assertNotSame(foreign, session);
+		assertEquals("service", session.getUserID());
+	}
+	
+	public void testDetachedSessionsCountAgainstMaximum() throws Exception {
+		
+		SessionPool pool = createPool(1);
+		Session session = pool.lease();
+		pool.detach(session);
+		assertEquals(1, pool.getDetachedCount());
+		
+		try {
+			pool.lease();
+			fail("The detached session must keep its lease");
+		} catch (RepositoryException e) {
+			// expected
+		}
+		
+		pool.closeDetached(session);
+		assertFalse(session.isLive());
+		assertFalse(pool.owns(session));
+		assertEquals(0, pool.getDetachedCount());
+		assertNotNull(pool.lease());
+	}
+	
+	private SessionPool createPool(int max) {
+		
+		Repository repository = (Repository)Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class[] {Repository.class},
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("login")) {
+							Credentials credentials = (Credentials)args[0];
+							return createSession(((SimpleCredentials)credentials).getUserID());
+						}
+						return null;
+					}
+				});
+		return new SessionPool(repository,
+							   new SimpleCredentials("service","".toCharArray()),
+							   "default",
+							   0,
+							   max,
+							   10);
+	}
+	
+	private Session createSession(final String userId) {
+		
+		return (Session)Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class[] {Session.class},
+				new InvocationHandler() {
+					private boolean live = true;
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("isLive")) {
+							return Boolean.valueOf(live);
+						} else if (name.equals("logout")) {
+							live = false;
+						} else if (name.equals("getUserID")) {
+							return userId;
+						} else if (name.equals("hasPendingChanges")) {
+							return Boolean.FALSE;
+						} else if (name.equals("hashCode")) {
+							return new Integer(System.identityHashCode(proxy));
+						} else if (name.equals("equals")) {
+							return Boolean.valueOf(proxy == args[0]);
+						}
+						return null;
+					}
+				});
+	}
+}
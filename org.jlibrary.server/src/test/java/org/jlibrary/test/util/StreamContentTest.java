@@ -0,0 +1,107 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+import org.jlibrary.core.properties.StreamContent;
+import org.jlibrary.core.util.CountingInputStream;
+
+public class StreamContentTest extends TestCase {
+
+	public void testCountsWhileReading() throws IOException {
+		
+		CountingInputStream in = new CountingInputStream(
+				new ByteArrayInputStream(new byte[10000]));
+		byte[] buffer = new byte[4096];
+		assertEquals(0,in.read());
+		while (in.read(buffer) != -1) {}
+		assertEquals(10000,in.getCount());
+	}
+	
+	public void testByteArrayValue() throws IOException {
+		
+		StreamContent content = StreamContent.forValue(new byte[]{1,2,3});
+		assertEquals(3,content.getLength());
+		InputStream in = content.openStream();
+		assertEquals(1,in.read());
+		try {
+			content.openStream();
+			fail("Stream contents can only be opened once");
+		} catch (IOException e) {}
+		
+		assertEquals(0,StreamContent.forValue(null).getLength());
+	}
+	
+	public void testFileValue() throws IOException {
+		
+		File file = File.createTempFile("jlib","tmp");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(new byte[]{1,2,3,4,5});
+			out.close();
+			
+			StreamContent content = new StreamContent(file);
+			assertSame(content,StreamContent.forValue(content));
+			assertEquals(5,content.getLength());
+			for (int i = 0; i < 2; i++) {
+				InputStream in = content.openStream();
+				assertEquals(1,in.read());
+				in.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	public void testFileIsNotSerialized() throws Exception {
+		
+		File file = File.createTempFile("jlib","tmp");
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(baos);
+			out.writeObject(new StreamContent(file));
+			out.close();
+			
+			ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(baos.toByteArray()));
+			StreamContent content = (StreamContent)in.readObject();
+			assertNull(content.getFile());
+			try {
+				content.openStream();
+				fail("Deserialized contents can't be opened");
+			} catch (IOException e) {}
+		} finally {
+			file.delete();
+		}
+	}
+}
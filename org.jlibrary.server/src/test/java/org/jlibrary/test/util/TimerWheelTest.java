@@ -0,0 +1,71 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import java.util.List;
+
+import org.jlibrary.core.util.TimerWheel;
+
+import junit.framework.TestCase;
+
+public class TimerWheelTest extends TestCase {
+
+	public void testItemsAreReturnedWhenDue() {
+		
+		TimerWheel<String> wheel = new TimerWheel<String>(1000,10000);
+		long now = System.currentTimeMillis();
+		wheel.schedule("early", now + 2000);
+		wheel.schedule("late", now + 8000);
+		
+		List<String> due = wheel.advance(now + 3000);
+		assertEquals(1,due.size());
+		assertEquals("early",due.get(0));
+		
+		due = wheel.advance(now + 9000);
+		assertEquals(1,due.size());
+		assertEquals("late",due.get(0));
+		
+		assertTrue(wheel.advance(now + 20000).isEmpty());
+	}
+	
+	public void testPastDeadlinesAreReturnedOnNextTick() {
+		
+		TimerWheel<String> wheel = new TimerWheel<String>(1000,10000);
+		long now = System.currentTimeMillis();
+		wheel.schedule("past", now - 5000);
+		
+		List<String> due = wheel.advance(now + 1000);
+		assertEquals(1,due.size());
+	}
+	
+	public void testLongSleepVisitsEachSlotOnce() {
+		
+		TimerWheel<String> wheel = new TimerWheel<String>(1000,5000);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			wheel.schedule("item" + i, now + i * 1000);
+		}
+		List<String> due = wheel.advance(now + 1000000);
+		assertEquals(5,due.size());
+	}
+}
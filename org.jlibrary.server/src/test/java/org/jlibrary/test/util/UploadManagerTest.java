@@ -0,0 +1,263 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jlibrary.core.entities.UploadSession;
+import org.jlibrary.core.jcr.UploadManager;
+import org.jlibrary.core.properties.StreamContent;
+import org.jlibrary.core.repository.exception.RepositoryException;
+
+public class UploadManagerTest extends TestCase {
+
+	private static final String USER = "user";
+	private static final int CHUNK = 1000;
+	private static final long LENGTH = 10000;
+	private static final int UPLOADS = 3;
+	private static final long TIMEOUT = 60000;
+	
+	private File directory;
+	private UploadManager manager;
+	private byte[] content;
+	
+	protected void setUp() throws Exception {
+		
+		directory = File.createTempFile("jlib","uploads");
+		directory.delete();
+		manager = new UploadManager(directory,CHUNK,LENGTH,UPLOADS,TIMEOUT);
+		content = new byte[3500];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte)(i % 251);
+		}
+	}
+	
+	protected void tearDown() throws Exception {
+		
+		delete(directory);
+	}
+	
+	public void testChunksOutOfOrder() throws Exception {
+		
+		UploadSession upload = manager.begin(USER,content.length);
+		append(upload.getId(),3000,500);
+		append(upload.getId(),0,1000);
+		upload = append(upload.getId(),2000,1000);
+		assertFalse(upload.isComplete());
+		assertEquals(2500,upload.getReceived());
+		assertEquals(2,upload.getRanges().length);
+		assertEquals(1000,upload.getRanges()[0][1]);
+		assertEquals(2000,upload.getRanges()[1][0]);
+		
+		// Resend an overlapping chunk and the missing one
+		append(upload.getId(),500,1000);
+		upload = append(upload.getId(),1000,1000);
+		assertTrue(upload.isComplete());
+		assertEquals(1,upload.getRanges().length);
+		
+		StreamContent stream = manager.beginCommit(USER,upload.getId());
+		assertEquals(content.length,stream.getLength());
+		assertContent(stream);
+		manager.endCommit(upload.getId(),true);
+		assertFalse(stream.getFile().exists());
+	}
+	
+	public void testParallelChunks() throws Exception {
+		
+		final UploadSession upload = manager.begin(USER,content.length);
+		final List errors = new ArrayList();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int offset = i*CHUNK;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						append(upload.getId(),offset,
+							   Math.min(CHUNK,content.length-offset));
+					} catch (RepositoryException e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+		assertTrue(errors.isEmpty());
+		assertTrue(manager.getState(USER,upload.getId()).isComplete());
+		assertContent(manager.beginCommit(USER,upload.getId()));
+	}
+	
+	public void testInvalidChunks() throws Exception {
+		
+		UploadSession upload = manager.begin(USER,content.length);
+		byte[] chunk = new byte[100];
+		try {
+			manager.append(USER,upload.getId(),0,chunk,
+						   UploadManager.digest(new byte[99]));
+			fail("Checksum mismatch accepted");
+		} catch (RepositoryException e) {}
+		try {
+			manager.append(USER,upload.getId(),content.length-50,chunk,
+						   UploadManager.digest(chunk));
+			fail("Chunk outside the content accepted");
+		} catch (RepositoryException e) {}
+		try {
+			manager.append(USER,upload.getId(),0,new byte[CHUNK+1],
+						   UploadManager.digest(new byte[CHUNK+1]));
+			fail("Oversized chunk accepted");
+		} catch (RepositoryException e) {}
+		try {
+			manager.append("other",upload.getId(),0,chunk,
+						   UploadManager.digest(chunk));
+			fail("Chunk from another user accepted");
+		} catch (RepositoryException e) {}
+		assertEquals(0,manager.getState(USER,upload.getId()).getReceived());
+	}
+	
+	public void testCommitIncompleteAndAbort() throws Exception {
+		
+		UploadSession upload = manager.begin(USER,content.length);
+		append(upload.getId(),0,1000);
+		try {
+			manager.beginCommit(USER,upload.getId());
+			fail("Incomplete upload committed");
+		} catch (RepositoryException e) {}
+		
+		manager.abort(USER,upload.getId());
+		try {
+			manager.getState(USER,upload.getId());
+			fail("Aborted upload still exists");
+		} catch (RepositoryException e) {}
+		assertEquals(0,manager.getSpoolDirectory().listFiles().length);
+	}
+	
+	public void testFailedCommitCanBeRetried() throws Exception {
+		
+		UploadSession upload = manager.begin(USER,content.length);
+		for (int offset = 0; offset < content.length; offset += CHUNK) {
+			append(upload.getId(),offset,Math.min(CHUNK,content.length-offset));
+		}
+		manager.beginCommit(USER,upload.getId());
+		try {
+			append(upload.getId(),0,10);
+			fail("Chunk accepted while committing");
+		} catch (RepositoryException e) {}
+		manager.endCommit(upload.getId(),false);
+		
+		assertContent(manager.beginCommit(USER,upload.getId()));
+	}
+	
+	public void testLimits() throws Exception {
+		
+		try {
+			manager.begin(USER,LENGTH+1);
+			fail("Upload longer than the maximum length accepted");
+		} catch (RepositoryException e) {}
+		
+		UploadSession upload = manager.begin(USER,LENGTH);
+		for (int i = 1; i < UPLOADS; i++) {
+			manager.begin(USER,CHUNK);
+		}
+		try {
+			manager.begin(USER,CHUNK);
+			fail("Too many uploads accepted");
+		} catch (RepositoryException e) {}
+		manager.begin("other",CHUNK);
+		
+		manager.abort(USER,upload.getId());
+		manager.begin(USER,CHUNK);
+	}
+	
+	public void testExpiredUploadsAreDiscarded() throws Exception {
+		
+		UploadSession upload = manager.begin(USER,content.length);
+		append(upload.getId(),0,1000);
+		
+		manager.expire(System.currentTimeMillis());
+		assertEquals(1000,manager.getState(USER,upload.getId()).getReceived());
+		
+		manager.expire(System.currentTimeMillis() + TIMEOUT + 1);
+		try {
+			manager.getState(USER,upload.getId());
+			fail("Expired upload still exists");
+		} catch (RepositoryException e) {}
+		assertEquals(0,manager.getSpoolDirectory().listFiles().length);
+	}
+	
+	public void testFilesOfOtherInstancesAreKept() throws Exception {
+		
+		UploadSession upload = manager.begin(USER,content.length);
+		File other = new File(directory,"other.upload");
+		other.createNewFile();
+		
+		UploadManager second = new UploadManager(directory,CHUNK,LENGTH,UPLOADS,TIMEOUT);
+		assertFalse(second.getSpoolDirectory().equals(manager.getSpoolDirectory()));
+		assertTrue(other.exists());
+		assertEquals(1,manager.getSpoolDirectory().listFiles().length);
+		assertEquals(0,manager.getState(USER,upload.getId()).getReceived());
+	}
+	
+	private UploadSession append(String uploadId, 
+								 int offset, 
+								 int length) throws RepositoryException {
+		
+		byte[] chunk = new byte[length];
+		System.arraycopy(content,offset,chunk,0,length);
+		return manager.append(USER,uploadId,offset,chunk,
+							  UploadManager.digest(chunk));
+	}
+	
+	private static void delete(File file) {
+		
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				delete(files[i]);
+			}
+		}
+		file.delete();
+	}
+	
+	private void assertContent(StreamContent stream) throws IOException {
+		
+		InputStream in = stream.openStream();
+		try {
+			for (int i = 0; i < content.length; i++) {
+				assertEquals(content[i],(byte)in.read());
+			}
+			assertEquals(-1,in.read());
+		} finally {
+			in.close();
+		}
+	}
+}
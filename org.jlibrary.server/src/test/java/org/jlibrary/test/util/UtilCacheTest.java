@@ -0,0 +1,95 @@
+/*
+* jLibrary, Open Source Document Management System
+* 
+* Copyright (c) 2003-2006, Martn Prez Marin, and individual 
+* contributors as indicated by the @authors tag. See copyright.txt in the
+* distribution for a full listing of individual contributors.
+* All rights reserved.
+* 
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the Modified BSD License as published by the Free 
+* Software Foundation.
+* 
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Modified
+* BSD License for more details.
+* 
+* You should have received a copy of the Modified BSD License along with 
+* this software; if not, write to the Free Software Foundation, Inc., 
+* 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the
+* FSF site: http://www.fsf.org.
+*/
+package org.jlibrary.test.util;
+
+import org.jlibrary.core.util.UtilCache;
+
+import junit.framework.TestCase;
+
+public class UtilCacheTest extends TestCase {
+
+	public void testCountsHitsAndMisses() throws Exception {
+		
+		UtilCache<String,String> cache = 
+			new UtilCache<String,String>("test",10,1000,1);
+		cache.put("a","1",1);
+		assertEquals("1",cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals("1",cache.remove("a"));
+		assertNull(cache.get("a"));
+		
+		assertEquals(1,cache.getHitCount());
+		assertEquals(2,cache.getMissCount());
+		assertEquals(1,cache.getRemovalCount());
+		assertEquals(0,cache.size());
+		assertEquals(0,cache.getWeight());
+	}
+	
+	public void testScanDoesNotFlushFrequentEntries() throws Exception {
+		
+		UtilCache<String,String> cache = 
+			new UtilCache<String,String>("test",10,1000,1);
+		for (int i = 0; i < 5; i++) {
+			cache.put("hot" + i,"hot",1);
+			cache.get("hot" + i);
+		}
+		for (int i = 0; i < 100; i++) {
+			cache.put("scan" + i,"scan",1);
+		}
+		for (int i = 0; i < 5; i++) {
+			assertEquals("hot",cache.get("hot" + i));
+		}
+		assertEquals(10,cache.size());
+		assertEquals(95,cache.getEvictionCount());
+	}
+	
+	public void testIsBoundedByWeight() throws Exception {
+		
+		UtilCache<String,String> cache = 
+			new UtilCache<String,String>("test",100,10,1);
+		cache.put("a","a",4);
+		cache.put("b","b",4);
+		cache.put("c","c",4);
+		assertNull(cache.get("a"));
+		assertEquals(8,cache.getWeight());
+		
+		// Heavier than the whole cache
+		cache.put("d","d",11);
+		assertNull(cache.get("d"));
+		
+		// Replacing a value updates its weight
+		cache.put("b","b",1);
+		assertEquals(5,cache.getWeight());
+	}
+	
+	public void testSegmentsShareTheBounds() throws Exception {
+		
+		UtilCache<Integer,Integer> cache = 
+			new UtilCache<Integer,Integer>("test",64,1000,8);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(new Integer(i),new Integer(i),1);
+		}
+		assertTrue(cache.size() <= 64);
+		assertTrue(cache.size() > 32);
+	}
+}